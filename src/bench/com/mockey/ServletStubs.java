@@ -0,0 +1,139 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet request and response stand-ins for benchmarks, so request
+ * parsing and response writing can be measured without a container.
+ */
+public class ServletStubs {
+
+	/**
+	 * 
+	 * @param method
+	 *            HTTP method
+	 * @param uri
+	 *            request URI, e.g. "/service/http://example.com/resource"
+	 * @param body
+	 *            request body, may be empty
+	 * @param headers
+	 *            request headers, one value each
+	 * @return a request; its body can be read once
+	 */
+	public static HttpServletRequest request(final String method, final String uri, byte[] body,
+			final Map<String, String> headers) {
+		final InputStream in = new ByteArrayInputStream(body);
+		final ServletInputStream servletIn = new ServletInputStream() {
+			public int read() throws IOException {
+				return in.read();
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				return in.read(b, off, len);
+			}
+		};
+		final Map<String, String[]> parameters = new HashMap<String, String[]>();
+		return (HttpServletRequest) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+				new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+						String name = m.getName();
+						if ("getMethod".equals(name)) {
+							return method;
+						} else if ("getRequestURI".equals(name)) {
+							return uri;
+						} else if ("getContextPath".equals(name)) {
+							return "";
+						} else if ("getServerName".equals(name)) {
+							return "localhost";
+						} else if ("getRemoteAddr".equals(name)) {
+							return "127.0.0.1";
+						} else if ("getInputStream".equals(name)) {
+							return servletIn;
+						} else if ("getHeaderNames".equals(name)) {
+							return Collections.enumeration(headers.keySet());
+						} else if ("getHeaders".equals(name)) {
+							return Collections.enumeration(Collections.singletonList(headers.get(args[0])));
+						} else if ("getHeader".equals(name)) {
+							return headers.get(args[0]);
+						} else if ("getParameterMap".equals(name)) {
+							return parameters;
+						}
+						return defaultValue(m.getReturnType());
+					}
+				});
+	}
+
+	/**
+	 * 
+	 * @return a response that discards everything written to it
+	 */
+	public static HttpServletResponse response() {
+		final ServletOutputStream out = new ServletOutputStream() {
+			public void write(int b) {
+			}
+
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+		return (HttpServletResponse) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+				new Class[] { HttpServletResponse.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+						if ("getOutputStream".equals(m.getName())) {
+							return out;
+						}
+						return defaultValue(m.getReturnType());
+					}
+				});
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == Boolean.TYPE) {
+			return Boolean.FALSE;
+		} else if (type == Integer.TYPE) {
+			return Integer.valueOf(0);
+		} else if (type == Long.TYPE) {
+			return Long.valueOf(0);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server standing in for the real service behind a
+ * proxied Mockey service. Every request gets 200 and a fixed body.
+ */
+public class UpstreamStub {
+
+	static {
+		// Otherwise small responses can stall on Nagle's algorithm and the
+		// client's delayed ACK, and the stub's latency dominates.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Starts the server on an ephemeral port of the loopback interface.
+	 * 
+	 * @param body
+	 *            response body
+	 * @param contentType
+	 *            response content type
+	 * @param threads
+	 *            request threads
+	 */
+	public UpstreamStub(final byte[] body, final String contentType, int threads) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+		this.server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				// Drain the request so the connection can be reused.
+				byte[] buffer = new byte[8192];
+				while (exchange.getRequestBody().read(buffer) != -1) {
+				}
+				exchange.getResponseHeaders().set("Content-Type", contentType);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+
+	/**
+	 * 
+	 * @param size
+	 *            body size in bytes
+	 * @return an ASCII body of the given size
+	 */
+	public static byte[] body(int size) {
+		byte[] body = new byte[size];
+		Arrays.fill(body, (byte) 'x');
+		return body;
+	}
+
+	/**
+	 * 
+	 * @param path
+	 *            e.g. "/resource"
+	 * @return URL of the given path on this server
+	 */
+	public String getUrl(String path) {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort() + path;
+	}
+
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects request latencies from many threads. Each thread appends to its
+ * own buffer, so recording never contends; buffers are merged and sorted when
+ * percentiles are read, after the run.
+ */
+public class LatencyRecorder {
+
+	private static class Samples {
+		private long[] values = new long[4096];
+		private int size;
+
+		private void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	private final List<Samples> all = new ArrayList<Samples>();
+	private final ThreadLocal<Samples> local = new ThreadLocal<Samples>() {
+		protected Samples initialValue() {
+			Samples samples = new Samples();
+			synchronized (all) {
+				all.add(samples);
+			}
+			return samples;
+		}
+	};
+	private final AtomicLong errors = new AtomicLong();
+	private long[] sorted;
+
+	/**
+	 * 
+	 * @param nanos
+	 *            latency of one request, in nanoseconds
+	 * @param ok
+	 *            false if the request failed or got an unexpected status
+	 */
+	public void record(long nanos, boolean ok) {
+		local.get().add(nanos);
+		if (!ok) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of requests recorded, including errors
+	 */
+	public int getCount() {
+		return sorted().length;
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * 
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99.9
+	 * @return latency in nanoseconds at the given percentile (nearest rank),
+	 *         or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] values = sorted();
+		if (values.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * values.length);
+		return values[Math.min(Math.max(rank, 1), values.length) - 1];
+	}
+
+	private synchronized long[] sorted() {
+		if (sorted == null) {
+			int size = 0;
+			synchronized (all) {
+				for (Samples samples : all) {
+					size += samples.size;
+				}
+				sorted = new long[size];
+				int offset = 0;
+				for (Samples samples : all) {
+					System.arraycopy(samples.values, 0, sorted, offset, samples.size);
+					offset += samples.size;
+				}
+			}
+			Arrays.sort(sorted);
+		}
+		return sorted;
+	}
+}
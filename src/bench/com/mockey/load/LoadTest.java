@@ -0,0 +1,421 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.SimpleJSAP;
+import com.mockey.UpstreamStub;
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+import com.mockey.runner.JettyRunner;
+import com.mockey.storage.InMemoryMockeyStorage;
+import com.mockey.storage.xml.MockeyXmlFileConfigurationGenerator;
+
+/**
+ * End-to-end load test. Starts Mockey through <code>JettyRunner</code> on a
+ * free port, next to an in-process upstream stub, then drives a static, a
+ * dynamic and a proxy service over HTTP and reports throughput and latency
+ * percentiles for each. Nothing leaves the loopback interface.
+ * <p>
+ * In the closed loop, <code>concurrency</code> clients each send a request as
+ * soon as the previous one is answered. In the open loop, requests are sent on
+ * a fixed schedule of <code>rate</code> per second by up to
+ * <code>concurrency</code> clients, and latency is measured from when a
+ * request was due, so a stalled server can't hide its queueing delay.
+ * <p>
+ * Run with <code>ant loadtest -Dloadtest.args="..."</code>; see
+ * <code>--help</code> for the options.
+ */
+public class LoadTest {
+
+	public static final String MODE_CLOSED = "closed";
+	public static final String MODE_OPEN = "open";
+
+	private static final String SERVICE_STATIC = "static";
+	private static final String SERVICE_DYNAMIC = "dynamic";
+	private static final String SERVICE_PROXY = "proxy";
+	private static final String MOCK_URL = "http://loadtest.mockey/";
+	private static final int DYNAMIC_SCENARIOS = 200;
+
+	/**
+	 * One kind of request, sent over and over.
+	 */
+	private static class Workload {
+		private final String name;
+		private final URL url;
+		private final String method;
+		private final byte[] body;
+
+		private Workload(String name, URL url, String method, byte[] body) {
+			this.name = name;
+			this.url = url;
+			this.method = method;
+			this.body = body;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		SimpleJSAP jsap = new SimpleJSAP("ant loadtest -Dloadtest.args=\"...\"",
+				"Load tests Mockey's static, dynamic and proxy services over HTTP");
+		jsap.registerParameter(new FlaggedOption("mode", JSAP.STRING_PARSER, MODE_CLOSED, JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "mode", "'" + MODE_CLOSED + "' or '" + MODE_OPEN + "' loop"));
+		jsap.registerParameter(new FlaggedOption("concurrency", JSAP.INTEGER_PARSER, "16", JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "concurrency", "number of clients"));
+		jsap.registerParameter(new FlaggedOption("rate", JSAP.INTEGER_PARSER, "1000", JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "rate", "requests per second in the open loop"));
+		jsap.registerParameter(new FlaggedOption("warmup", JSAP.INTEGER_PARSER, "5", JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "warmup", "seconds of unmeasured load before each service's run"));
+		jsap.registerParameter(new FlaggedOption("duration", JSAP.INTEGER_PARSER, "20", JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "duration", "seconds of measured load per service"));
+		jsap.registerParameter(new FlaggedOption("bodySize", JSAP.INTEGER_PARSER, "1024", JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "bodySize", "bytes in the static and proxied responses and the dynamic request"));
+		jsap.registerParameter(new FlaggedOption("services", JSAP.STRING_PARSER, SERVICE_STATIC + ","
+				+ SERVICE_DYNAMIC + "," + SERVICE_PROXY, JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "services",
+				"comma separated services to load"));
+		jsap.registerParameter(new FlaggedOption("logLevel", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "logLevel", "Log4J level for Mockey, e.g. INFO. Default is WEB-INF/log4j.properties."));
+		jsap.registerParameter(new FlaggedOption("results", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED,
+				JSAP.NO_SHORTFLAG, "results", "file to write the results to, as JSON"));
+
+		JSAPResult config = jsap.parse(args);
+		if (jsap.messagePrinted()) {
+			System.exit(1);
+		}
+		String mode = config.getString("mode");
+		if (!MODE_CLOSED.equals(mode) && !MODE_OPEN.equals(mode)) {
+			throw new IllegalArgumentException("Unknown mode '" + mode + "', expected '" + MODE_CLOSED + "' or '"
+					+ MODE_OPEN + "'");
+		}
+		int concurrency = config.getInt("concurrency");
+		int rate = config.getInt("rate");
+		int bodySize = config.getInt("bodySize");
+
+		// Keep every client's connection alive between requests; the default
+		// pool only holds 5 per host.
+		System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+		JettyRunner.configureLogging();
+		if (config.contains("logLevel")) {
+			Logger.getRootLogger().setLevel(Level.toLevel(config.getString("logLevel")));
+		}
+		byte[] body = UpstreamStub.body(bodySize);
+		UpstreamStub upstream = new UpstreamStub(body, "text/plain", concurrency);
+		Server server = JettyRunner.start(0);
+		try {
+			String baseUrl = "http://127.0.0.1:" + JettyRunner.getLocalPort(server);
+			File definitions = writeDefinitions(upstream, body);
+			try {
+				init(baseUrl, definitions);
+			} finally {
+				definitions.delete();
+			}
+
+			JSONArray results = new JSONArray();
+			// Printed once everything has run, after Mockey's own logging.
+			StringBuilder report = new StringBuilder(String.format("%-8s %-6s %6s %12s %8s %10s %9s %9s %9s %9s%n",
+					"service", "mode", "conc", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+			for (String name : config.getString("services").split(",")) {
+				Workload workload = workload(name.trim(), baseUrl, body);
+				check(workload);
+				run(workload, mode, concurrency, rate, config.getInt("warmup"));
+				long start = System.nanoTime();
+				LatencyRecorder recorder = run(workload, mode, concurrency, rate, config.getInt("duration"));
+				double throughput = recorder.getCount() / ((System.nanoTime() - start) / 1e9);
+
+				JSONObject result = new JSONObject();
+				result.put("service", workload.name);
+				result.put("mode", mode);
+				result.put("concurrency", concurrency);
+				if (MODE_OPEN.equals(mode)) {
+					result.put("rate", rate);
+				}
+				result.put("bodySize", bodySize);
+				result.put("requests", recorder.getCount());
+				result.put("errors", recorder.getErrors());
+				result.put("throughput", throughput);
+				result.put("p50", millis(recorder.getPercentile(50)));
+				result.put("p99", millis(recorder.getPercentile(99)));
+				result.put("p999", millis(recorder.getPercentile(99.9)));
+				result.put("max", millis(recorder.getPercentile(100)));
+				results.put(result);
+				report.append(String.format("%-8s %-6s %6d %12d %8d %10.1f %9.3f %9.3f %9.3f %9.3f%n",
+						workload.name, mode, concurrency, recorder.getCount(), recorder.getErrors(), throughput,
+						result.getDouble("p50"), result.getDouble("p99"), result.getDouble("p999"), result
+								.getDouble("max")));
+			}
+
+			if (config.contains("results")) {
+				File file = new File(config.getString("results"));
+				file.getAbsoluteFile().getParentFile().mkdirs();
+				Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+				try {
+					out.write(results.toString(2));
+				} finally {
+					out.close();
+				}
+				report.append("Results written to " + file.getPath());
+			}
+			System.out.println(report);
+		} finally {
+			server.stop();
+			upstream.stop();
+		}
+	}
+
+	/**
+	 * Writes service definitions for every workload to a temporary file.
+	 */
+	private static File writeDefinitions(UpstreamStub upstream, byte[] body) throws IOException {
+		InMemoryMockeyStorage store = new InMemoryMockeyStorage();
+
+		Service staticService = new Service();
+		staticService.setServiceName("Load test static");
+		staticService.setUrl(MOCK_URL + SERVICE_STATIC);
+		staticService = store.saveOrUpdateService(staticService);
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName("static");
+		scenario.setResponseMessage(new String(body, "UTF-8"));
+		scenario = staticService.saveOrUpdateScenario(scenario);
+		staticService.setDefaultScenarioId(scenario.getId());
+		staticService.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_STATIC_SCENARIO);
+
+		Service dynamicService = new Service();
+		dynamicService.setServiceName("Load test dynamic");
+		dynamicService.setUrl(MOCK_URL + SERVICE_DYNAMIC);
+		dynamicService = store.saveOrUpdateService(dynamicService);
+		for (int i = 0; i < DYNAMIC_SCENARIOS; i++) {
+			scenario = new Scenario();
+			scenario.setScenarioName("dynamic " + i);
+			// Terminated, so no argument is a prefix of another.
+			scenario.setMatchStringArg("match-" + i + ";");
+			scenario.setResponseMessage("{\"scenario\":" + i + "}");
+			dynamicService.saveOrUpdateScenario(scenario);
+		}
+		dynamicService.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_DYNAMIC_SCENARIO);
+
+		Service proxyService = new Service();
+		proxyService.setServiceName("Load test proxy");
+		proxyService.setUrl(MOCK_URL + SERVICE_PROXY);
+		proxyService = store.saveOrUpdateService(proxyService);
+		proxyService.saveOrUpdateRealServiceUrl(new Url(upstream.getUrl("/resource")));
+		proxyService.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_PROXY);
+
+		File file = File.createTempFile("mockey-loadtest", ".xml");
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			new MockeyXmlFileConfigurationGenerator().writeStore(store, true, out);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Loads the definitions file the same way <code>JettyRunner</code> does at
+	 * startup, with <code>/home?action=init</code>.
+	 */
+	private static void init(String baseUrl, File definitions) throws IOException, JSONException {
+		URL url = new URL(baseUrl + "/home?action=init&type=json&transientState=true&file="
+				+ URLEncoder.encode(definitions.getAbsolutePath(), "UTF-8"));
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		String response = new String(read(connection.getInputStream()), "UTF-8");
+		if (!new JSONObject(response).getJSONObject("result").has("success")) {
+			throw new IllegalStateException("Unable to initialize Mockey: " + response);
+		}
+	}
+
+	private static Workload workload(String name, String baseUrl, byte[] body) throws IOException {
+		URL url = new URL(baseUrl + "/service/" + MOCK_URL + name);
+		if (SERVICE_STATIC.equals(name) || SERVICE_PROXY.equals(name)) {
+			return new Workload(name, url, "GET", null);
+		} else if (SERVICE_DYNAMIC.equals(name)) {
+			// Matches the last scenario, at the end of the body.
+			String requestBody = new String(body, "UTF-8") + "match-" + (DYNAMIC_SCENARIOS - 1) + ";";
+			return new Workload(name, url, "POST", requestBody.getBytes("UTF-8"));
+		}
+		throw new IllegalArgumentException("Unknown service '" + name + "', expected '" + SERVICE_STATIC + "', '"
+				+ SERVICE_DYNAMIC + "' or '" + SERVICE_PROXY + "'");
+	}
+
+	/**
+	 * Fails fast if the service doesn't answer the way the definitions say it
+	 * should, rather than reporting the latency of errors.
+	 */
+	private static void check(Workload workload) throws IOException {
+		HttpURLConnection connection = request(workload);
+		int status = connection.getResponseCode();
+		String response = new String(read(connection, status), "UTF-8");
+		String expected = SERVICE_DYNAMIC.equals(workload.name) ? "{\"scenario\":" + (DYNAMIC_SCENARIOS - 1) + "}"
+				: null;
+		if (status != 200 || (expected != null && !expected.equals(response))) {
+			throw new IllegalStateException("Unexpected response from the " + workload.name + " service, status "
+					+ status + ": " + response);
+		}
+	}
+
+	private static LatencyRecorder run(Workload workload, String mode, int concurrency, int rate, int seconds)
+			throws InterruptedException {
+		LatencyRecorder recorder = new LatencyRecorder();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		if (MODE_OPEN.equals(mode)) {
+			runOpen(workload, recorder, concurrency, rate, deadline);
+		} else {
+			runClosed(workload, recorder, concurrency, deadline);
+		}
+		return recorder;
+	}
+
+	private static void runClosed(final Workload workload, final LatencyRecorder recorder, int concurrency,
+			final long deadline) throws InterruptedException {
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int i = 0; i < concurrency; i++) {
+			Thread client = new Thread(new Runnable() {
+				public void run() {
+					while (System.nanoTime() < deadline) {
+						long start = System.nanoTime();
+						boolean ok = send(workload);
+						recorder.record(System.nanoTime() - start, ok);
+					}
+				}
+			}, "loadtest-client-" + i);
+			clients.add(client);
+			client.start();
+		}
+		for (Thread client : clients) {
+			client.join();
+		}
+	}
+
+	private static void runOpen(final Workload workload, final LatencyRecorder recorder, int concurrency, int rate,
+			long deadline) throws InterruptedException {
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long due = System.nanoTime();
+		while (due < deadline) {
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+				continue;
+			}
+			final long scheduled = due;
+			clients.execute(new Runnable() {
+				public void run() {
+					boolean ok = send(workload);
+					recorder.record(System.nanoTime() - scheduled, ok);
+				}
+			});
+			due += interval;
+		}
+		clients.shutdown();
+		if (!clients.awaitTermination(1, TimeUnit.MINUTES)) {
+			throw new IllegalStateException("Requests still queued a minute after the " + workload.name
+					+ " run; lower --rate");
+		}
+	}
+
+	/**
+	 * 
+	 * @return true if the service answered with 200
+	 */
+	private static boolean send(Workload workload) {
+		try {
+			HttpURLConnection connection = request(workload);
+			int status = connection.getResponseCode();
+			// Read to the end so the connection goes back to the pool.
+			read(connection, status);
+			return status == 200;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static HttpURLConnection request(Workload workload) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) workload.url.openConnection();
+		connection.setRequestMethod(workload.method);
+		if (workload.body != null) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(workload.body.length);
+			connection.setRequestProperty("Content-Type", "text/plain");
+			OutputStream out = connection.getOutputStream();
+			out.write(workload.body);
+			out.close();
+		}
+		return connection;
+	}
+
+	private static byte[] read(HttpURLConnection connection, int status) throws IOException {
+		InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		return in == null ? new byte[0] : read(in);
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockey.ServletStubs;
+import com.mockey.UpstreamStub;
+
+/**
+ * Reading an incoming request into <code>RequestFromClient</code>, and
+ * writing a scenario response with <code>ResponseFromService.writeToOutput</code>,
+ * at several body sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestResponseBenchmark {
+
+	@Param({ "0", "1024", "65536", "1048576" })
+	public int bodySize;
+
+	private byte[] body;
+	private Map<String, String> headers;
+	private EncodedResponse encodedBody;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setUp() {
+		body = UpstreamStub.body(bodySize);
+		headers = new HashMap<String, String>();
+		headers.put("Content-Type", "application/json");
+		headers.put("Accept", "*/*");
+		headers.put("User-Agent", "jmh");
+		encodedBody = EncodedResponse.encode(new String(body), "application/json;charset=utf-8");
+		response = ServletStubs.response();
+	}
+
+	@Benchmark
+	public RequestFromClient readRequest() {
+		return new RequestFromClient(ServletStubs.request("POST", "/service/http://example.com/resource", body,
+				headers));
+	}
+
+	@Benchmark
+	public ResponseFromService writeResponse() throws IOException {
+		ResponseFromService responseFromService = new ResponseFromService();
+		responseFromService.setBody(encodedBody);
+		responseFromService.writeToOutput(response);
+		return responseFromService;
+	}
+}
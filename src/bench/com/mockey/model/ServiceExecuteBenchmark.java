@@ -0,0 +1,143 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockey.ServletStubs;
+import com.mockey.UpstreamStub;
+
+/**
+ * <code>Service.execute</code> followed by writing the response, for static,
+ * dynamic and proxy services. The dynamic service has 200 scenarios and the
+ * request body is <code>bodySize</code> bytes, with the matching argument at
+ * the end. The proxy service forwards to an in-process upstream stub that
+ * returns <code>bodySize</code> bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceExecuteBenchmark {
+
+	private static final int DYNAMIC_SCENARIOS = 200;
+
+	@Param({ "1024", "65536", "1048576" })
+	public int bodySize;
+
+	private Service staticService;
+	private Service dynamicService;
+	private Service proxyService;
+	private RequestFromClient getRequest;
+	private RequestFromClient postRequest;
+	private Url realUrl;
+	private UpstreamStub upstream;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] body = UpstreamStub.body(bodySize);
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Content-Type", "text/plain");
+		getRequest = new RequestFromClient(ServletStubs.request("GET", "/service/http://example.com/resource",
+				new byte[0], headers));
+		byte[] postBody = new String(body).concat("match-" + (DYNAMIC_SCENARIOS - 1)).getBytes();
+		postRequest = new RequestFromClient(ServletStubs.request("POST", "/service/http://example.com/resource",
+				postBody, headers));
+		realUrl = new Url("http://real.example.com/resource");
+		response = ServletStubs.response();
+
+		staticService = new Service();
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName("static");
+		scenario.setResponseMessage(new String(body));
+		scenario = staticService.saveOrUpdateScenario(scenario);
+		staticService.setDefaultScenarioId(scenario.getId());
+		staticService.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_STATIC_SCENARIO);
+
+		dynamicService = new Service();
+		for (int i = 0; i < DYNAMIC_SCENARIOS; i++) {
+			scenario = new Scenario();
+			scenario.setScenarioName("dynamic " + i);
+			scenario.setMatchStringArg("match-" + i);
+			scenario.setResponseMessage("{\"scenario\":" + i + "}");
+			dynamicService.saveOrUpdateScenario(scenario);
+		}
+		dynamicService.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_DYNAMIC_SCENARIO);
+
+		upstream = new UpstreamStub(body, "text/plain", 4);
+		proxyService = new Service();
+		proxyService.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_PROXY);
+		proxyService.saveOrUpdateRealServiceUrl(new Url(upstream.getUrl("/resource")));
+	}
+
+	@TearDown
+	public void tearDown() {
+		upstream.stop();
+	}
+
+	@Benchmark
+	public ResponseFromService executeStatic() throws IOException {
+		return write(staticService.execute(getRequest, realUrl));
+	}
+
+	@Benchmark
+	public ResponseFromService executeDynamic() throws IOException {
+		return write(dynamicService.execute(postRequest, realUrl));
+	}
+
+	@Benchmark
+	public ResponseFromService executeProxy() throws IOException {
+		return write(proxyService.execute(getRequest, proxyService.getDefaultRealUrl()));
+	}
+
+	private ResponseFromService write(ResponseFromService responseFromService) throws IOException {
+		responseFromService.writeToOutput(response);
+		return responseFromService;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockey.ui.Util;
+
+/**
+ * Scenario lookups made on every request. <code>sortScenarios</code> is the
+ * sort <code>getScenarios()</code> used to do on each call; compare its
+ * gc.alloc.rate.norm with the cached calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceScenariosBenchmark {
+
+	@Param({ "200" })
+	public int scenarioCount;
+
+	private Service service;
+	private Url realUrl;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		service = new Service();
+		for (int i = 0; i < scenarioCount; i++) {
+			Scenario scenario = new Scenario();
+			scenario.setScenarioName("Scenario " + random.nextInt(100000));
+			scenario.setResponseMessage("{\"scenario\":" + i + "}");
+			scenario = service.saveOrUpdateScenario(scenario);
+			service.setDefaultScenarioId(scenario.getId());
+			service.setErrorScenarioId(scenario.getId());
+		}
+		service.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_STATIC_SCENARIO);
+		realUrl = new Url("http://real.example.com/resource");
+	}
+
+	@Benchmark
+	public List<Scenario> sortScenarios() {
+		return Util.orderAlphabeticallyByScenarioName(service.getScenarios());
+	}
+
+	@Benchmark
+	public List<Scenario> getScenarios() {
+		return service.getScenarios();
+	}
+
+	@Benchmark
+	public int getServiceResponseType() {
+		return service.getServiceResponseType();
+	}
+
+	@Benchmark
+	public Scenario getErrorScenario() {
+		return service.getErrorScenario();
+	}
+
+	@Benchmark
+	public ResponseFromService executeStatic() {
+		return service.execute(null, realUrl);
+	}
+}
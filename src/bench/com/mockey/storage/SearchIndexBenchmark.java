@@ -0,0 +1,157 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+
+/**
+ * <code>SearchIndex</code> queries over a generated corpus of JSON scenario
+ * responses, and re-indexing a service after one of its scenarios changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SearchIndexBenchmark {
+
+	private static final int SCENARIOS_PER_SERVICE = 10;
+	private static final int RESPONSE_SIZE = 10 * 1024;
+	private static final int VOCABULARY = 50000;
+
+	@Param({ "100" })
+	public int corpusMegabytes;
+
+	private SearchIndex index;
+	private Service updated;
+	private Scenario updatedScenario;
+	private String[] responses = new String[2];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		index = new SearchIndex(null);
+		int services = corpusMegabytes * 1024 * 1024 / (RESPONSE_SIZE * SCENARIOS_PER_SERVICE);
+		for (int s = 0; s < services; s++) {
+			Service service = new Service();
+			service.setId(Long.valueOf(s + 1));
+			service.setServiceName("Service " + word(s));
+			service.setUrl("http://mock.example.com/" + word(s) + "/" + s);
+			service.saveOrUpdateRealServiceUrl(new Url("http://api" + (s % 10) + ".example.com/v1/" + word(s)));
+			for (int i = 0; i < SCENARIOS_PER_SERVICE; i++) {
+				Scenario scenario = new Scenario();
+				scenario.setScenarioName("Scenario " + word(random.nextInt(VOCABULARY)));
+				scenario.setResponseMessage(response(random));
+				service.saveOrUpdateScenario(scenario);
+			}
+			index.put(service);
+			updated = service;
+		}
+		updatedScenario = updated.getScenarios().get(0);
+		responses[0] = response(random);
+		responses[1] = response(random);
+	}
+
+	/** A word from the rare end of the vocabulary. */
+	@Benchmark
+	public List<SearchResult> rareWord() {
+		return index.search(word(VOCABULARY - 1 - (next++ % 1000)), 100);
+	}
+
+	/** A word in most documents. */
+	@Benchmark
+	public List<SearchResult> commonWord() {
+		return index.search("status", 100);
+	}
+
+	@Benchmark
+	public List<SearchResult> twoWords() {
+		return index.search(word(100 + next++ % 100) + " " + word(2000 + next % 1000), 100);
+	}
+
+	@Benchmark
+	public List<SearchResult> prefix() {
+		return index.search(word(1000 + next++ % 1000).substring(0, 4) + "*", 100);
+	}
+
+	@Benchmark
+	public List<SearchResult> phrase() {
+		return index.search("\"" + word(100 + next++ % 100) + "\"", 100);
+	}
+
+	@Benchmark
+	public void updateScenario() {
+		updatedScenario.setResponseMessage(responses[next++ & 1]);
+		updated.saveOrUpdateScenario(updatedScenario);
+		index.put(updated);
+	}
+
+	/**
+	 * Words are picked with a skewed distribution, so low numbers are common.
+	 */
+	private static String response(Random random) {
+		StringBuilder builder = new StringBuilder(RESPONSE_SIZE + 64);
+		builder.append("{\"status\": \"ok\", \"items\": [");
+		while (builder.length() < RESPONSE_SIZE) {
+			double skewed = Math.pow(random.nextDouble(), 3);
+			builder.append("{\"name\": \"").append(word((int) (skewed * VOCABULARY))).append("\", \"id\": ").append(
+					random.nextInt(1000000)).append("}, ");
+		}
+		return builder.append("]}").toString();
+	}
+
+	private static String word(int n) {
+		StringBuilder builder = new StringBuilder("w");
+		do {
+			builder.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+
+/**
+ * <code>InMemoryMockeyStorage.getServiceByUrl</code> by mock and by real URL,
+ * at several store sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceLookupBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int storeSize;
+
+	private InMemoryMockeyStorage store;
+	private String[] mockUrls;
+	private String[] realUrls;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		store = new InMemoryMockeyStorage();
+		mockUrls = new String[storeSize];
+		realUrls = new String[storeSize];
+		for (int i = 0; i < storeSize; i++) {
+			Service service = new Service();
+			service.setTransientState(Boolean.TRUE);
+			service.setServiceName("Service " + i);
+			mockUrls[i] = "http://mock.example.com/mock/" + i;
+			realUrls[i] = "http://real.example.com:8080/api/v1/resource/" + i;
+			service.setUrl(mockUrls[i]);
+			service.saveOrUpdateRealServiceUrl(new Url(realUrls[i]));
+			store.saveOrUpdateService(service);
+		}
+	}
+
+	@Benchmark
+	public Service byMockUrl() {
+		next = (next + 7919) % storeSize;
+		return store.getServiceByUrl(mockUrls[next]);
+	}
+
+	@Benchmark
+	public Service byRealUrl() {
+		next = (next + 7919) % storeSize;
+		return store.getServiceByUrl(realUrls[next]);
+	}
+}
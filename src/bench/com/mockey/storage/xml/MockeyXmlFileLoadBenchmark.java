@@ -0,0 +1,201 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+import com.mockey.model.ServiceRef;
+import com.mockey.model.Url;
+import com.mockey.storage.IMockeyStorage;
+import com.mockey.storage.InMemoryMockeyStorage;
+import com.mockey.storage.StorageRegistry;
+
+/**
+ * Startup: loading a depot of 2,000 service definition files the old way
+ * (each file read line by line into a String, one file at a time) against
+ * streaming them into the parser, on one thread and on the default pool. Run
+ * with <code>-prof gc</code> (as <code>ant bench</code> does) to compare
+ * allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MockeyXmlFileLoadBenchmark {
+
+	private static final int SERVICES = 2000;
+	private static final int SCENARIOS = 3;
+	private static final int RESPONSE_SIZE = 4096;
+
+	private File depot;
+	private File definition;
+
+	@Setup
+	public void setUp() throws Exception {
+		depot = createDepot();
+		definition = new File(depot, "mock_service_definitions.xml");
+	}
+
+	@Setup(Level.Invocation)
+	public void clearStore() {
+		StorageRegistry.MockeyStorage.deleteEverything();
+		System.clearProperty(MockeyXmlFileManager.PROPERTY_LOAD_THREADS);
+	}
+
+	@TearDown(Level.Invocation)
+	public void checkLoaded() {
+		int services = StorageRegistry.MockeyStorage.getServices().size();
+		if (services != SERVICES) {
+			throw new IllegalStateException("Expected " + SERVICES + " services but loaded " + services);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : depot.listFiles()) {
+			file.delete();
+		}
+		depot.delete();
+	}
+
+	@Benchmark
+	public void asStrings() throws Exception {
+		loadAsStrings(definition);
+	}
+
+	@Benchmark
+	public void asStreamOneThread() throws Exception {
+		System.setProperty(MockeyXmlFileManager.PROPERTY_LOAD_THREADS, "1");
+		new MockeyXmlFileManager().loadConfiguration(definition);
+	}
+
+	@Benchmark
+	public void asStreamDefaultThreads() throws Exception {
+		new MockeyXmlFileManager().loadConfiguration(definition);
+	}
+
+	/**
+	 * What loading used to do: read each file line by line into a String,
+	 * parse it, and move on to the next one.
+	 */
+	private static void loadAsStrings(File definition) throws Exception {
+		MockeyXmlFileConfigurationReader reader = new MockeyXmlFileConfigurationReader();
+		IMockeyStorage definitions = reader.readDefinition(readLines(definition));
+		List<Service> services = new ArrayList<Service>();
+		for (ServiceRef serviceRef : definitions.getServiceRefs()) {
+			services.addAll(reader.readServiceDefinition(readLines(new File(serviceRef.getFileName()))));
+		}
+		// Merge the same way, from a store holding only the parsed services.
+		InMemoryMockeyStorage parsed = new InMemoryMockeyStorage();
+		for (Service service : services) {
+			// Each file was parsed into its own store, so IDs collide.
+			service.setId(null);
+			parsed.saveOrUpdateService(service);
+		}
+		new MockeyXmlFileManager().loadConfiguration(parsed);
+	}
+
+	private static String readLines(File file) throws Exception {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			StringBuffer inputString = new StringBuffer();
+			String strLine = null;
+			while ((strLine = br.readLine()) != null) {
+				inputString.append(new String(strLine.getBytes("UTF-8")));
+			}
+			return inputString.toString();
+		} finally {
+			br.close();
+		}
+	}
+
+	private static File createDepot() throws Exception {
+		File depot = File.createTempFile("mockey-depot", "");
+		depot.delete();
+		depot.mkdir();
+
+		StringBuilder response = new StringBuilder();
+		while (response.length() < RESPONSE_SIZE) {
+			response.append("{\"id\":").append(response.length()).append(",\"name\":\"value\"},\n");
+		}
+		MockeyXmlFileConfigurationGenerator generator = new MockeyXmlFileConfigurationGenerator();
+		Writer meta = new OutputStreamWriter(new FileOutputStream(new File(depot,
+				"mock_service_definitions.xml")), "UTF-8");
+		meta.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n<mockservice version=\"1.0\">\n");
+		for (int i = 0; i < SERVICES; i++) {
+			Service service = new Service();
+			service.setServiceName("Service " + i);
+			service.setUrl("http://mock.example.com/service/" + i);
+			service.saveOrUpdateRealServiceUrl(new Url("http://real.example.com/api/" + i));
+			for (int j = 0; j < SCENARIOS; j++) {
+				Scenario scenario = new Scenario();
+				scenario.setScenarioName("Scenario " + j);
+				scenario.setResponseMessage(response.toString());
+				service.saveOrUpdateScenario(scenario);
+			}
+			File serviceFile = new File(depot, "service_" + i + ".xml");
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(serviceFile), "UTF-8"));
+			try {
+				generator.writeService(service, out);
+			} finally {
+				out.close();
+			}
+			meta.write("    <serviceref file=\"" + serviceFile.getAbsolutePath() + "\"/>\n");
+		}
+		meta.write("</mockservice>\n");
+		meta.close();
+		return depot;
+	}
+}
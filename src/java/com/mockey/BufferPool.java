@@ -0,0 +1,157 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.util.ArrayDeque;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded pool of byte arrays for reading request bodies and streaming
+ * proxied responses, so busy servers don't allocate (and collect) a fresh
+ * buffer per request.
+ * 
+ * Buffers come in power-of-two sizes from 8 KB to 1 MB. Larger requests get
+ * an unpooled array. The pool keeps at most the following many bytes of free
+ * buffers; anything released beyond that is left to the garbage collector:
+ * 
+ * <pre>
+ * mockey.bufferPool.maxBytes    bytes of free buffers kept (default 4194304)
+ * </pre>
+ */
+public class BufferPool {
+
+	public static final String PROPERTY_MAX_BYTES = "mockey.bufferPool.maxBytes";
+	public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+	public static final int MIN_SIZE = 8 * 1024;
+	public static final int MAX_SIZE = 1024 * 1024;
+
+	private static Log log = LogFactory.getLog(BufferPool.class);
+	private static final BufferPool instance = new BufferPool(getMaxBytesProperty());
+
+	private final ArrayDeque<byte[]>[] free;
+	private final long maxBytes;
+	private long freeBytes;
+
+	/**
+	 * 
+	 * @return the pool shared by all requests
+	 */
+	public static BufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * 
+	 * @param maxBytes
+	 *            most bytes of free buffers to keep
+	 */
+	@SuppressWarnings("unchecked")
+	public BufferPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.free = new ArrayDeque[sizeClass(MAX_SIZE) + 1];
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new ArrayDeque<byte[]>();
+		}
+	}
+
+	/**
+	 * 
+	 * @param minSize
+	 *            bytes needed
+	 * @return a buffer of at least <code>minSize</code> bytes, with undefined
+	 *         contents. Give it back with <code>release</code> when done.
+	 */
+	public byte[] acquire(int minSize) {
+		if (minSize > MAX_SIZE) {
+			return new byte[minSize];
+		}
+		int sizeClass = sizeClass(minSize);
+		synchronized (this) {
+			byte[] buffer = free[sizeClass].pollLast();
+			if (buffer != null) {
+				freeBytes -= buffer.length;
+				return buffer;
+			}
+		}
+		return new byte[MIN_SIZE << sizeClass];
+	}
+
+	/**
+	 * 
+	 * @param buffer
+	 *            a buffer from <code>acquire</code>, no longer used by the
+	 *            caller. Null is ignored.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer == null || buffer.length < MIN_SIZE || buffer.length > MAX_SIZE
+				|| Integer.bitCount(buffer.length) != 1) {
+			return;
+		}
+		synchronized (this) {
+			if (freeBytes + buffer.length <= maxBytes) {
+				free[sizeClass(buffer.length)].addLast(buffer);
+				freeBytes += buffer.length;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return bytes of free buffers in the pool
+	 */
+	public synchronized long getFreeBytes() {
+		return freeBytes;
+	}
+
+	/**
+	 * 
+	 * @return index of the smallest power-of-two size, starting at
+	 *         <code>MIN_SIZE</code>, holding <code>size</code> bytes
+	 */
+	private static int sizeClass(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+
+	private static long getMaxBytesProperty() {
+		String value = System.getProperty(PROPERTY_MAX_BYTES);
+		if (value != null) {
+			try {
+				return Math.max(0, Long.parseLong(value.trim()));
+			} catch (NumberFormatException e) {
+				log.error("Invalid value for system property " + PROPERTY_MAX_BYTES + ". Using default "
+						+ DEFAULT_MAX_BYTES);
+			}
+		}
+		return DEFAULT_MAX_BYTES;
+	}
+}
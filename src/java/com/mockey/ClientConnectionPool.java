@@ -0,0 +1,380 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolException;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import com.mockey.model.ProxyServerModel;
+
+/**
+ * One long-lived, pooled connection manager shared by every proxied request.
+ * Connections to real services are kept alive and reused instead of paying a
+ * fresh TCP connect (and TLS handshake) per request.
+ * 
+ * The pool is rebuilt only when the Internet proxy settings change. The old
+ * pool is retired rather than shut down: its idle connections are closed, and
+ * requests still using it finish normally. It is shut down once the last of
+ * them is done, or after the read timeout. Limits and timeouts can be tuned with the following system properties:
+ * 
+ * <pre>
+ * mockey.pool.maxTotal          maximum connections, all routes (default 200)
+ * mockey.pool.maxPerRoute       maximum connections per real host (default 50)
+ * mockey.pool.connectTimeout    TCP connect timeout in ms (default 10000)
+ * mockey.pool.readTimeout       socket read timeout in ms (default 60000)
+ * mockey.pool.acquireTimeout    wait for a pooled connection in ms (default 10000)
+ * mockey.pool.idleTimeout       close connections idle longer than this in ms (default 30000)
+ * </pre>
+ */
+public class ClientConnectionPool {
+
+	public static final String PROPERTY_MAX_TOTAL = "mockey.pool.maxTotal";
+	public static final String PROPERTY_MAX_PER_ROUTE = "mockey.pool.maxPerRoute";
+	public static final String PROPERTY_CONNECT_TIMEOUT = "mockey.pool.connectTimeout";
+	public static final String PROPERTY_READ_TIMEOUT = "mockey.pool.readTimeout";
+	public static final String PROPERTY_ACQUIRE_TIMEOUT = "mockey.pool.acquireTimeout";
+	public static final String PROPERTY_IDLE_TIMEOUT = "mockey.pool.idleTimeout";
+
+	private static final long EVICTION_INTERVAL = 5000;
+	private static Log log = LogFactory.getLog(ClientConnectionPool.class);
+	private static volatile ClientConnectionPool instance = null;
+
+	private final String proxySettings;
+	// Version of the proxy settings last found to match this pool
+	private volatile long proxyVersion = -1;
+	// When a retired pool is shut down at the latest, 0 while in use
+	private volatile long retireDeadline = 0;
+	private final long readTimeout;
+	private final StatsConnectionManager connectionManager;
+	private final DefaultHttpClient redirectingClient;
+	private final DefaultHttpClient nonRedirectingClient;
+	private final Thread evictionThread;
+	private final int maxTotal;
+	private final int maxPerRoute;
+
+	/**
+	 * 
+	 * @param proxyServer
+	 *            current Internet proxy settings
+	 * @return the shared pool, rebuilt if the proxy settings changed since it
+	 *         was created.
+	 */
+	public static ClientConnectionPool getInstance(ProxyServerModel proxyServer) {
+		ClientConnectionPool current = instance;
+		if (current != null && proxyServer != null && current.proxyVersion == proxyServer.getVersion()) {
+			return current;
+		}
+		return getInstanceForChangedSettings(proxyServer);
+	}
+
+	private static synchronized ClientConnectionPool getInstanceForChangedSettings(ProxyServerModel proxyServer) {
+		// Read the version first; if the settings change while being
+		// described, the next call finds a newer version and checks again.
+		long version = (proxyServer != null) ? proxyServer.getVersion() : -1;
+		String settings = describe(proxyServer);
+		if (instance == null || !instance.proxySettings.equals(settings)) {
+			if (instance != null) {
+				log.info("Proxy settings changed. Rebuilding the connection pool.");
+				instance.retire();
+			}
+			instance = new ClientConnectionPool(proxyServer, settings);
+		}
+		instance.proxyVersion = version;
+		return instance;
+	}
+
+	/**
+	 * 
+	 * @return the current pool, or null if no request has been proxied yet.
+	 */
+	public static ClientConnectionPool getCurrentInstance() {
+		return instance;
+	}
+
+	private ClientConnectionPool(ProxyServerModel proxyServer, String proxySettings) {
+		this.proxySettings = proxySettings;
+		this.maxTotal = getIntProperty(PROPERTY_MAX_TOTAL, 200);
+		this.maxPerRoute = getIntProperty(PROPERTY_MAX_PER_ROUTE, 50);
+
+		// Register the "http" and "https" protocol schemes, they are
+		// required by the default operator to look up socket factories.
+		SchemeRegistry supportedSchemes = new SchemeRegistry();
+		supportedSchemes.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+		supportedSchemes.register(new Scheme("https", 443, SSLSocketFactory.getSocketFactory()));
+
+		this.connectionManager = new StatsConnectionManager(supportedSchemes, getIntProperty(
+				PROPERTY_ACQUIRE_TIMEOUT, 10000));
+		this.connectionManager.setMaxTotal(maxTotal);
+		this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, HTTP.ISO_8859_1);
+		HttpProtocolParams.setUseExpectContinue(params, false);
+		HttpConnectionParams.setConnectionTimeout(params, getIntProperty(PROPERTY_CONNECT_TIMEOUT, 10000));
+		this.readTimeout = getIntProperty(PROPERTY_READ_TIMEOUT, 60000);
+		HttpConnectionParams.setSoTimeout(params, (int) readTimeout);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		this.redirectingClient = createClient(proxyServer, params);
+		this.nonRedirectingClient = createClient(proxyServer, params);
+		// Do NOT allow for 302 REDIRECT
+		this.nonRedirectingClient.setRedirectStrategy(new DefaultRedirectStrategy() {
+			public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context) {
+				boolean isRedirect = false;
+				try {
+					isRedirect = super.isRedirected(request, response, context);
+				} catch (ProtocolException e) {
+					log.error("Unable to determine redirect", e);
+				}
+				if (!isRedirect) {
+					int responseCode = response.getStatusLine().getStatusCode();
+					if (responseCode == 301 || responseCode == 302) {
+						return true;
+					}
+				}
+				return isRedirect;
+			}
+		});
+
+		final long idleTimeout = getIntProperty(PROPERTY_IDLE_TIMEOUT, 30000);
+		this.evictionThread = new Thread("mockey-connection-eviction") {
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						Thread.sleep(EVICTION_INTERVAL);
+						connectionManager.closeExpiredConnections();
+						if (retireDeadline > 0) {
+							// Connections given back since the last check
+							connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+							if (getLeased() == 0 || System.currentTimeMillis() > retireDeadline) {
+								connectionManager.shutdown();
+								return;
+							}
+						} else {
+							connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+						}
+					}
+				} catch (InterruptedException e) {
+					// Pool was shut down.
+				}
+			}
+		};
+		this.evictionThread.setDaemon(true);
+		this.evictionThread.start();
+	}
+
+	private DefaultHttpClient createClient(ProxyServerModel proxyServer, HttpParams params) {
+		DefaultHttpClient httpclient = new DefaultHttpClient(this.connectionManager, params);
+		if (proxyServer != null && proxyServer.isProxyEnabled()) {
+			// make sure to use a proxy that supports CONNECT
+			httpclient.getCredentialsProvider()
+					.setCredentials(proxyServer.getAuthScope(), proxyServer.getCredentials());
+			httpclient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxyServer.getHttpHost());
+		}
+		return httpclient;
+	}
+
+	/**
+	 * 
+	 * @param allowRedirectFollow
+	 * @return a client backed by the shared pool. Safe for use by many threads.
+	 */
+	public DefaultHttpClient getHttpClient(boolean allowRedirectFollow) {
+		return allowRedirectFollow ? this.redirectingClient : this.nonRedirectingClient;
+	}
+
+	/**
+	 * @return number of connections currently leased to requests.
+	 */
+	public int getLeased() {
+		return this.connectionManager.getStatsPool().getLeased();
+	}
+
+	/**
+	 * @return number of idle connections available for reuse.
+	 */
+	public int getAvailable() {
+		return this.connectionManager.getStatsPool().getAvailable();
+	}
+
+	/**
+	 * @return number of requests waiting for a connection.
+	 */
+	public int getPending() {
+		return this.connectionManager.getStatsPool().getPending();
+	}
+
+	public int getMaxTotal() {
+		return this.maxTotal;
+	}
+
+	public int getMaxPerRoute() {
+		return this.maxPerRoute;
+	}
+
+	/**
+	 * Stops handing out this pool without failing the requests using it. Its
+	 * idle connections are closed now; the pool is shut down once no
+	 * connection is leased, or after the read timeout.
+	 */
+	private void retire() {
+		this.retireDeadline = System.currentTimeMillis() + readTimeout;
+		this.connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 
+	 * @return true if the proxy settings changed and this pool is being shut
+	 *         down
+	 */
+	public boolean isRetired() {
+		return retireDeadline > 0;
+	}
+
+	private static String describe(ProxyServerModel proxyServer) {
+		if (proxyServer == null || !proxyServer.isProxyEnabled()) {
+			return "disabled";
+		}
+		return proxyServer.getProxyUrl() + "|" + proxyServer.getProxyUsername() + "|"
+				+ proxyServer.getProxyPassword();
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		try {
+			String value = System.getProperty(key);
+			if (value != null) {
+				return Integer.parseInt(value.trim());
+			}
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for system property " + key + ". Using default " + defaultValue);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Exposes the pool created by <code>ThreadSafeClientConnManager</code> so
+	 * we can read its statistics, and bounds the wait for a pooled connection.
+	 * HttpClient 4.1 waits as long as the connect timeout, whatever the
+	 * connection manager timeout parameter says.
+	 */
+	private static class StatsConnectionManager extends ThreadSafeClientConnManager {
+
+		private final long acquireTimeout;
+
+		public StatsConnectionManager(SchemeRegistry schemeRegistry, long acquireTimeout) {
+			super(schemeRegistry);
+			this.acquireTimeout = acquireTimeout;
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+			final ClientConnectionRequest request = super.requestConnection(route, state);
+			return new ClientConnectionRequest() {
+				public ManagedClientConnection getConnection(long timeout, TimeUnit tunit) throws InterruptedException,
+						ConnectionPoolTimeoutException {
+					return request.getConnection(acquireTimeout, TimeUnit.MILLISECONDS);
+				}
+
+				public void abortRequest() {
+					request.abortRequest();
+				}
+			};
+		}
+
+		@Override
+		protected ConnPoolByRoute createConnectionPool(long connTTL, TimeUnit connTTLTimeUnit) {
+			return new StatsConnPoolByRoute(this.connOperator, this.connPerRoute, 20, connTTL, connTTLTimeUnit);
+		}
+
+		public StatsConnPoolByRoute getStatsPool() {
+			return (StatsConnPoolByRoute) this.pool;
+		}
+	}
+
+	private static class StatsConnPoolByRoute extends ConnPoolByRoute {
+
+		public StatsConnPoolByRoute(ClientConnectionOperator operator, ConnPerRoute connPerRoute,
+				int maxTotalConnections, long connTTL, TimeUnit connTTLTimeUnit) {
+			super(operator, connPerRoute, maxTotalConnections, connTTL, connTTLTimeUnit);
+		}
+
+		public int getLeased() {
+			getLock().lock();
+			try {
+				return this.leasedConnections.size();
+			} finally {
+				getLock().unlock();
+			}
+		}
+
+		public int getAvailable() {
+			getLock().lock();
+			try {
+				return this.freeConnections.size();
+			} finally {
+				getLock().unlock();
+			}
+		}
+
+		public int getPending() {
+			getLock().lock();
+			try {
+				return this.waitingThreads.size();
+			} finally {
+				getLock().unlock();
+			}
+		}
+	}
+}
@@ -32,24 +32,12 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpVersion;
-import org.apache.http.ProtocolException;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.cookie.Cookie;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 
 import com.mockey.model.ProxyServerModel;
@@ -65,9 +53,7 @@ import com.mockey.model.Url;
  */
 public class ClientExecuteProxy {
 
-	// Static cookie store for sessions
-	private static CookieStore cookieStore = null;
-	private Log log = LogFactory.getLog(ClientExecuteProxy.class);
+	private static final Log log = LogFactory.getLog(ClientExecuteProxy.class);
 
 	/**
 	 * 
@@ -79,11 +65,12 @@ public class ClientExecuteProxy {
 	}
 
 	/**
-	 * Cookie store can be null, otherwise it is needed to support sticky
-	 * session over multiple client proxy executions.
+	 * Forgets the sticky session cookies of every client.
+	 * 
+	 * @see CookieJarRegistry
 	 */
 	public static void resetStickySession() {
-		ClientExecuteProxy.cookieStore = null;
+		CookieJarRegistry.getInstance().resetAll();
 	}
 
 	private ClientExecuteProxy() {
@@ -101,50 +88,14 @@ public class ClientExecuteProxy {
 	 */
 	public ResponseFromService execute(TwistInfo twistInfo, ProxyServerModel proxyServer, Url realServiceUrl,
 			boolean allowRedirectFollow, RequestFromClient request) throws ClientExecuteProxyException {
-		log.info("Request: " + String.valueOf(realServiceUrl));
-
-		// general setup
-		SchemeRegistry supportedSchemes = new SchemeRegistry();
-
-		// Register the "http" and "https" protocol schemes, they are
-		// required by the default operator to look up socket factories.
-		supportedSchemes.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
-		supportedSchemes.register(new Scheme("https", 443, SSLSocketFactory.getSocketFactory()));
-
-		// prepare parameters
-		HttpParams params = new BasicHttpParams();
-		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-		HttpProtocolParams.setContentCharset(params, HTTP.ISO_8859_1);
-		HttpProtocolParams.setUseExpectContinue(params, false);
-
-		ClientConnectionManager ccm = new ThreadSafeClientConnManager(supportedSchemes);
-		DefaultHttpClient httpclient = new DefaultHttpClient(ccm, params);
-
-		if (!allowRedirectFollow) {
-			// Do NOT allow for 302 REDIRECT
-			httpclient.setRedirectStrategy(new DefaultRedirectStrategy() {
-				public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context) {
-					boolean isRedirect = false;
-					try {
-						isRedirect = super.isRedirected(request, response, context);
-					} catch (ProtocolException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					if (!isRedirect) {
-						int responseCode = response.getStatusLine().getStatusCode();
-						if (responseCode == 301 || responseCode == 302) {
-							return true;
-						}
-					}
-					return isRedirect;
-				}
-			});
-		} else {
-			// Yes, allow for 302 REDIRECT
-			// Nothing needed here.
+		if (log.isInfoEnabled()) {
+			log.info("Request: " + String.valueOf(realServiceUrl));
 		}
 
+		// One shared, pooled client for all proxied requests. It is only
+		// rebuilt when the Internet proxy settings change.
+		HttpClient httpclient = ClientConnectionPool.getInstance(proxyServer).getHttpClient(allowRedirectFollow);
+
 		// Prevent CACHE, 304 not modified
 //		httpclient.addRequestInterceptor(new HttpRequestInterceptor() {
 //			public void process(final HttpRequest request, final HttpContext context) throws HttpException, IOException {
@@ -154,41 +105,24 @@ public class ClientExecuteProxy {
 //			}
 //		});
 
-		CookieStore cookieStore = httpclient.getCookieStore();
-		for (Cookie httpClientCookie : request.getHttpClientCookies()) {
-			// HACK:
-			// httpClientCookie.getValue();
-			cookieStore.addCookie(httpClientCookie);
-		}
-		// httpclient.setCookieStore(cookieStore);
-
-		if (ClientExecuteProxy.cookieStore == null) {
-			ClientExecuteProxy.cookieStore = httpclient.getCookieStore();
-
-		} else {
-			httpclient.setCookieStore(ClientExecuteProxy.cookieStore);
-		}
+		// Each client has its own sticky session. The client is shared, so
+		// the cookie store is handed to it per request through the execution
+		// context.
+		CookieStore cookieStore = CookieJarRegistry.getInstance().getCookieStore(request);
+		HttpContext context = new BasicHttpContext();
+		context.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
 
-		StringBuffer requestCookieInfo = new StringBuffer();
 		// Show what cookies are in the store .
-		for (Cookie cookie : ClientExecuteProxy.cookieStore.getCookies()) {
-			log.debug("Cookie in the cookie STORE: " + cookie.toString());
-			requestCookieInfo.append(cookie.toString() + "\n\n\n");
-
-		}
-
-		if (proxyServer.isProxyEnabled()) {
-			// make sure to use a proxy that supports CONNECT
-			httpclient.getCredentialsProvider()
-					.setCredentials(proxyServer.getAuthScope(), proxyServer.getCredentials());
-			httpclient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxyServer.getHttpHost());
+		if (log.isDebugEnabled()) {
+			for (Cookie cookie : cookieStore.getCookies()) {
+				log.debug("Cookie in the cookie STORE: " + cookie.toString());
+			}
 		}
 
 		// TWISTING
 		Url originalRequestUrlBeforeTwisting = null;
 		if (twistInfo != null) {
-			String fullurl = realServiceUrl.getFullUrl();
-			String twistedUrl = twistInfo.getTwistedValue(fullurl);
+			String twistedUrl = twistInfo.getTwistedValue(realServiceUrl);
 			if (twistedUrl != null) {
 				originalRequestUrlBeforeTwisting = realServiceUrl;
 				realServiceUrl = new Url(twistedUrl);
@@ -196,12 +130,14 @@ public class ClientExecuteProxy {
 		}
 
 		ResponseFromService responseMessage = null;
+		HttpRequest httpRequest = null;
 		try {
 			HttpHost htttphost = new HttpHost(realServiceUrl.getHost(), realServiceUrl.getPort(), realServiceUrl
 					.getScheme());
 
-			HttpResponse response = httpclient.execute(htttphost, request.postToRealServer(realServiceUrl));
-			if (response.getStatusLine().getStatusCode() == 302) {
+			httpRequest = request.postToRealServer(realServiceUrl);
+			HttpResponse response = httpclient.execute(htttphost, httpRequest, context);
+			if (response.getStatusLine().getStatusCode() == 302 && log.isDebugEnabled()) {
 				log.debug("FYI: 302 redirect occuring from " + realServiceUrl.getFullUrl());
 			}
 			responseMessage = new ResponseFromService(response);
@@ -209,18 +145,17 @@ public class ClientExecuteProxy {
 			responseMessage.setRequestUrl(realServiceUrl);
 		} catch (Exception e) {
 			log.error(e);
+			// Return the connection to the pool, rather than leaking it.
+			if (httpRequest instanceof AbortableHttpRequest) {
+				((AbortableHttpRequest) httpRequest).abort();
+			}
 			throw new ClientExecuteProxyException("Unable to retrieve a response. ", realServiceUrl, e);
-		} finally {
-			// When HttpClient instance is no longer needed,
-			// shut down the connection manager to ensure
-			// immediate deallocation of all system resources
-			httpclient.getConnectionManager().shutdown();
 		}
 
 		// Parse out the response information we're looking for
 		// StringBuffer responseCookieInfo = new StringBuffer();
 		// // Show what cookies are in the store .
-		// for (Cookie cookie : ClientExecuteProxy.cookieStore.getCookies()) {
+		// for (Cookie cookie : cookieStore.getCookies()) {
 		// log.info("Cookie in the cookie STORE: " + cookie.toString());
 		// responseCookieInfo.append(cookie.toString() + "\n\n\n");
 		//
@@ -0,0 +1,260 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+
+import com.mockey.model.RequestFromClient;
+
+/**
+ * Sticky cookie sessions for proxied requests, one cookie jar per client, so
+ * clients running in parallel don't see each other's sessions. A jar starts
+ * with the cookies of the client's first proxied request and then keeps what
+ * the real services set.
+ * 
+ * Clients are told apart by IP address, or by the value of a request header.
+ * Jars not used for a while are dropped, as are the least recently used ones
+ * when there are too many:
+ * 
+ * <pre>
+ * mockey.cookieJar.clientHeader  request header naming the client (default: none, use the IP)
+ * mockey.cookieJar.maxJars       most cookie jars kept (default 1000)
+ * mockey.cookieJar.ttl           drop jars unused for longer than this in ms (default 1800000)
+ * </pre>
+ */
+public class CookieJarRegistry {
+
+	public static final String PROPERTY_CLIENT_HEADER = "mockey.cookieJar.clientHeader";
+	public static final String PROPERTY_MAX_JARS = "mockey.cookieJar.maxJars";
+	public static final String PROPERTY_TTL = "mockey.cookieJar.ttl";
+
+	private static Log log = LogFactory.getLog(CookieJarRegistry.class);
+	private static final CookieJarRegistry instance = new CookieJarRegistry(System
+			.getProperty(PROPERTY_CLIENT_HEADER), getIntProperty(PROPERTY_MAX_JARS, 1000), getIntProperty(
+			PROPERTY_TTL, 30 * 60 * 1000));
+
+	private final ConcurrentMap<String, CookieJar> jars = new ConcurrentHashMap<String, CookieJar>();
+	private final String clientHeader;
+	private final int maxJars;
+	private final long ttl;
+
+	/**
+	 * 
+	 * @return the registry used for all proxied requests
+	 */
+	public static CookieJarRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * 
+	 * @param clientHeader
+	 *            request header naming the client, or null to use the IP
+	 *            address
+	 * @param maxJars
+	 *            most cookie jars kept
+	 * @param ttl
+	 *            drop jars unused for longer than this, in ms
+	 */
+	public CookieJarRegistry(String clientHeader, int maxJars, long ttl) {
+		this.clientHeader = (clientHeader != null && clientHeader.trim().length() > 0) ? clientHeader.trim() : null;
+		this.maxJars = Math.max(1, maxJars);
+		this.ttl = ttl;
+	}
+
+	/**
+	 * 
+	 * @param request
+	 * @return the value of the client header if set and present, otherwise
+	 *         the client's IP address
+	 */
+	public String getClientKey(RequestFromClient request) {
+		if (clientHeader != null) {
+			List<String> values = request.getHeaderValues(clientHeader);
+			if (values != null && !values.isEmpty()) {
+				return values.get(0);
+			}
+		}
+		String ip = request.getRemoteAddr();
+		return (ip != null) ? ip : "";
+	}
+
+	/**
+	 * 
+	 * @param request
+	 * @return the cookie store of the request's client, created with the
+	 *         request's cookies if the client has none, or its jar expired.
+	 */
+	public CookieStore getCookieStore(RequestFromClient request) {
+		String clientKey = getClientKey(request);
+		long now = System.currentTimeMillis();
+		CookieJar created = null;
+		while (true) {
+			CookieJar jar = jars.get(clientKey);
+			if (jar != null && !jar.isExpired(now, ttl)) {
+				jar.lastUsed = now;
+				return jar.cookieStore;
+			}
+			if (created == null) {
+				created = new CookieJar(clientKey, now);
+				for (Cookie cookie : request.getHttpClientCookies()) {
+					created.cookieStore.addCookie(cookie);
+				}
+			}
+			boolean registered = (jar == null) ? jars.putIfAbsent(clientKey, created) == null : jars.replace(
+					clientKey, jar, created);
+			if (registered) {
+				if (jars.size() > maxJars) {
+					evict(now);
+				}
+				return created.cookieStore;
+			}
+			// Another request added, replaced or reset the jar meanwhile; look
+			// again so we only hand out a jar that is registered.
+		}
+	}
+
+	/**
+	 * 
+	 * @return the jars that haven't expired, by client key
+	 */
+	public List<CookieJar> getCookieJars() {
+		long now = System.currentTimeMillis();
+		List<CookieJar> live = new ArrayList<CookieJar>();
+		for (CookieJar jar : jars.values()) {
+			if (!jar.isExpired(now, ttl)) {
+				live.add(jar);
+			}
+		}
+		Collections.sort(live, new Comparator<CookieJar>() {
+			public int compare(CookieJar a, CookieJar b) {
+				return a.clientKey.compareTo(b.clientKey);
+			}
+		});
+		return live;
+	}
+
+	/**
+	 * 
+	 * @param clientKey
+	 * @return true if the client had a cookie jar
+	 */
+	public boolean reset(String clientKey) {
+		return clientKey != null && jars.remove(clientKey) != null;
+	}
+
+	public void resetAll() {
+		jars.clear();
+	}
+
+	/**
+	 * Drops expired jars, then the least recently used ones until there are no
+	 * more than the maximum.
+	 */
+	private synchronized void evict(long now) {
+		for (Iterator<CookieJar> it = jars.values().iterator(); it.hasNext();) {
+			if (it.next().isExpired(now, ttl)) {
+				it.remove();
+			}
+		}
+		int excess = jars.size() - maxJars;
+		if (excess > 0) {
+			List<CookieJar> byAge = new ArrayList<CookieJar>(jars.values());
+			Collections.sort(byAge, new Comparator<CookieJar>() {
+				public int compare(CookieJar a, CookieJar b) {
+					return (a.lastUsed < b.lastUsed) ? -1 : (a.lastUsed == b.lastUsed ? 0 : 1);
+				}
+			});
+			for (int i = 0; i < excess && i < byAge.size(); i++) {
+				jars.remove(byAge.get(i).clientKey, byAge.get(i));
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Evicted cookie jars, " + jars.size() + " left");
+		}
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		try {
+			String value = System.getProperty(key);
+			if (value != null) {
+				return Integer.parseInt(value.trim());
+			}
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for system property " + key + ". Using default " + defaultValue);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * The cookies kept for one client.
+	 */
+	public static class CookieJar {
+
+		private final String clientKey;
+		private final CookieStore cookieStore = new BasicCookieStore();
+		private volatile long lastUsed;
+
+		private CookieJar(String clientKey, long now) {
+			this.clientKey = clientKey;
+			this.lastUsed = now;
+		}
+
+		public String getClientKey() {
+			return clientKey;
+		}
+
+		public List<Cookie> getCookies() {
+			return cookieStore.getCookies();
+		}
+
+		/**
+		 * 
+		 * @return when a request last used this jar, in ms since the epoch
+		 */
+		public long getLastUsed() {
+			return lastUsed;
+		}
+
+		private boolean isExpired(long now, long ttl) {
+			return now - lastUsed > ttl;
+		}
+	}
+}
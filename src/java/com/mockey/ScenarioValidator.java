@@ -53,6 +53,12 @@ public class ScenarioValidator {
 			errorMap.put("name", "Service scenario name must not be empty or greater than "+SERVICE_NAME_SIZE_LIMIT +" chars.");
 		}
 
+		try {
+			mss.getRequestPredicates();
+		} catch (IllegalArgumentException e) {
+			errorMap.put("predicates", e.getMessage());
+		}
+
 		return errorMap;
 	}
 }
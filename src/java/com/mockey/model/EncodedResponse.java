@@ -0,0 +1,212 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.http.protocol.HTTP;
+import org.apache.log4j.Logger;
+
+/**
+ * A response body already encoded into bytes for a given content type, along
+ * with the headers that go with it. Instances are immutable, so one can be
+ * shared by every request that serves the same scenario.
+ * 
+ * @see Scenario#getEncodedResponse(String)
+ */
+public class EncodedResponse {
+
+	private static Logger logger = Logger.getLogger(EncodedResponse.class);
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final ConcurrentHashMap<String, String> charSetsByContentType = new ConcurrentHashMap<String, String>();
+
+	private final String body;
+	private final String contentType;
+	private final String charSet;
+	private final byte[] bytes;
+	private final String eTag;
+
+	private EncodedResponse(String body, String contentType) {
+		this.body = body;
+		this.contentType = contentType;
+		this.charSet = getCharSet(contentType);
+		try {
+			this.bytes = (body != null) ? body.getBytes(charSet) : new byte[0];
+		} catch (UnsupportedEncodingException e) {
+			// getCharSet() only returns charsets that Charset.forName() accepted.
+			throw new IllegalStateException("Unsupported charset " + charSet, e);
+		}
+		this.eTag = createETag(bytes);
+	}
+
+	/**
+	 * Encodes the body with the charset named in the content type.
+	 * 
+	 * @param body
+	 *            response body, may be null
+	 * @param contentType
+	 *            e.g. "application/json;charset=utf-8"
+	 * @return encoded response
+	 */
+	public static EncodedResponse encode(String body, String contentType) {
+		return new EncodedResponse(body, contentType);
+	}
+
+	/**
+	 * Determines the proper CharSet for the given content type and returns it.
+	 * If there is an issue or no charset is specified, then the default charset
+	 * ISO-8859-1 is returned. Results are remembered per content type, since
+	 * services only use a handful of them.
+	 * 
+	 * @param contentType
+	 * @return the charset for this content type.
+	 */
+	public static String getCharSet(String contentType) {
+		if (contentType == null) {
+			return HTTP.ISO_8859_1;
+		}
+		String charSet = charSetsByContentType.get(contentType);
+		if (charSet == null) {
+			charSet = parseCharSet(contentType);
+			charSetsByContentType.put(contentType, charSet);
+		}
+		return charSet;
+	}
+
+	private static String parseCharSet(String contentType) {
+		String charSet = HTTP.ISO_8859_1;
+		try {
+			// check content type for charset and try to use that if its
+			// there...
+			// example: "application/json;charset=utf-8" should use the charset
+			// "utf-8"
+			final String contentTypeLower = contentType.toLowerCase();
+			int charsetIndex = contentTypeLower.indexOf("charset=");
+
+			if (charsetIndex >= 0) {
+				charSet = contentTypeLower.substring(charsetIndex + "charset=".length());
+
+				// content-type can have multiple attributes so we make sure
+				// that if there are multiple we trim off any that follow the
+				// charset
+				int trailingSemiColonIdx = charSet.indexOf(';');
+				if (trailingSemiColonIdx > 0) {
+					charSet = charSet.substring(0, trailingSemiColonIdx);
+				}
+
+				// kill trailing white space if any
+				charSet = charSet.trim();
+
+				// make sure it is a valid charset before returning it (note
+				// charSet names are case insensitive so using the lowercase
+				// version is OK)
+				Charset.forName(charSet);
+			}
+		} catch (Exception e) {
+			// malformed content types or unsupported charsets will end up here
+			// not much we can do other than default to the regular charset
+			charSet = HTTP.ISO_8859_1;
+			logger.info("Unable to use charset from content-type \"" + contentType
+					+ "\". Defaulting to ISO-8859-1.", e);
+		}
+		return charSet;
+	}
+
+	private static String createETag(byte[] bytes) {
+		try {
+			return '"' + toHex(MessageDigest.getInstance("SHA-1").digest(bytes)) + '"';
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE ships SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(byte[] digest) {
+		char[] hex = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @return the body this response was encoded from
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getCharSet() {
+		return charSet;
+	}
+
+	public int getContentLength() {
+		return bytes.length;
+	}
+
+	/**
+	 * @return strong entity tag, quoted, derived from the encoded bytes
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @param eTags
+	 *            value of an If-None-Match request header, may be null
+	 * @return true if the header names this response's entity tag
+	 */
+	public boolean matches(String eTags) {
+		if (eTags == null) {
+			return false;
+		}
+		return "*".equals(eTags.trim()) || eTags.indexOf(eTag) >= 0;
+	}
+
+	/**
+	 * Writes the encoded bytes straight to the stream. The backing array is
+	 * shared, not copied.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, bytes.length);
+	}
+}
@@ -27,6 +27,7 @@
  */
 package com.mockey.model;
 
+import java.nio.charset.Charset;
 import java.util.Date;
 
 /**
@@ -39,21 +40,33 @@ import java.util.Date;
  */
 public class FulfilledClientRequest implements PersistableItem {
 
+	// Rough per-object overhead for size estimates.
+	private static final int ESTIMATED_OVERHEAD = 256;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
 	private Long id;
 	private Long serviceId;
 	private String serviceName;
-	private String clientRequestBody;
-	private String clientRequestHeaders;
-	private String clientRequestParameters;
-	private String clientRequestCookies;
-	private String clientResponseCookies;
+	// Request details are kept as UTF-8 bytes rather than Strings, which
+	// halves their size for the mostly-ASCII text History holds.
+	private byte[] clientRequestBody;
+	private byte[] clientRequestHeaders;
+	private byte[] clientRequestParameters;
+	private byte[] clientRequestCookies;
+	private byte[] clientResponseCookies;
 	private String requestorIP;
 	private String rawRequest;
 	private String comment;
 	private String originalUrlBeforeTwisting = null;
 	private int serviceResponseType = -1;
 	private ResponseFromService responseMessage;
+	// Raw request data. The client request text above is formatted from it
+	// only when asked for.
+	private RequestFromClient clientRequest;
 	private Date time = new Date();
+	// Built the first time History is filtered.
+	private volatile String searchText;
 	/**
 	 * Value of the response type, defining Static, Dynamic, or Proxy response. 
 	 * @return non-negative value if set. 
@@ -118,27 +131,36 @@ public class FulfilledClientRequest implements PersistableItem {
 	}
 
 	public String getClientRequestBody() {
-		return clientRequestBody;
+		if (clientRequestBody == null && clientRequest != null) {
+			return clientRequest.getBodyInfo();
+		}
+		return expand(clientRequestBody);
 	}
 
 	public void setClientRequestBody(String clientRequestBody) {
-		this.clientRequestBody = clientRequestBody;
+		this.clientRequestBody = compact(clientRequestBody);
 	}
 
 	public String getClientRequestHeaders() {
-		return clientRequestHeaders;
+		if (clientRequestHeaders == null && clientRequest != null) {
+			return clientRequest.getHeaderInfo();
+		}
+		return expand(clientRequestHeaders);
 	}
 
 	public void setClientRequestHeaders(String clientRequestHeaders) {
-		this.clientRequestHeaders = clientRequestHeaders;
+		this.clientRequestHeaders = compact(clientRequestHeaders);
 	}
 
 	public String getClientRequestParameters() {
-		return clientRequestParameters;
+		if (clientRequestParameters == null && clientRequest != null) {
+			return clientRequest.getParameterInfo();
+		}
+		return expand(clientRequestParameters);
 	}
 
 	public void setClientRequestParameters(String clientRequestParameters) {
-		this.clientRequestParameters = clientRequestParameters;
+		this.clientRequestParameters = compact(clientRequestParameters);
 	}
 
 	public Long getServiceId() {
@@ -157,6 +179,17 @@ public class FulfilledClientRequest implements PersistableItem {
 		this.responseMessage = response;
 	}
 
+	/**
+	 * Keeps the raw client request. Client request body, headers, parameters
+	 * and cookies that haven't been set explicitly are formatted from it when
+	 * asked for, rather than up front on the request thread.
+	 * 
+	 * @param clientRequest
+	 */
+	public void setClientRequest(RequestFromClient clientRequest) {
+		this.clientRequest = clientRequest;
+	}
+
 	public Long getId() {
 		return id;
 	}
@@ -182,22 +215,106 @@ public class FulfilledClientRequest implements PersistableItem {
 	}
 
 	public void setClientRequestCookies(String clientRequestCookies) {
-		this.clientRequestCookies = clientRequestCookies;
+		this.clientRequestCookies = compact(clientRequestCookies);
 	}
 
 	public String getClientRequestCookies() {
-		return clientRequestCookies;
+		if (clientRequestCookies == null && clientRequest != null) {
+			return clientRequest.getCookieInfoAsString();
+		}
+		return expand(clientRequestCookies);
 	}
 
 	public void setClientResponseCookies(String clientResponseCookies) {
-		this.clientResponseCookies = clientResponseCookies;
+		this.clientResponseCookies = compact(clientResponseCookies);
 	}
 
 	public String getClientResponseCookies() {
-		return clientResponseCookies;
+		if (clientResponseCookies == null && responseMessage != null) {
+			return responseMessage.getResponseCookiesAsString();
+		}
+		return expand(clientResponseCookies);
 	}
 
-	
+	/**
+	 * The text History filter tokens are matched against: service ID and
+	 * name, requestor IP, raw request, client request body, headers and
+	 * parameters, and response headers and body. A NUL separates fields, so a
+	 * token can't match across two of them. It's formatted once, the first
+	 * time it's asked for.
+	 * <p>
+	 * The text is UTF-8 encoded, one char per byte, which takes half the
+	 * memory on JVMs with compact strings. Encode tokens the same way with
+	 * {@link #toSearchText(String)} before looking for them.
+	 * 
+	 * @return the searchable text
+	 */
+	public String getSearchText() {
+		String text = searchText;
+		if (text == null) {
+			StringBuilder sb = new StringBuilder();
+			String[] fields = { String.valueOf(serviceId), getClientRequestBody(), getClientRequestHeaders(),
+					getClientRequestParameters(), requestorIP, rawRequest,
+					(responseMessage != null) ? responseMessage.getBody() : null,
+					(responseMessage != null) ? responseMessage.getHeaderInfo() : null, serviceName };
+			for (String field : fields) {
+				if (field != null) {
+					sb.append(field);
+				}
+				sb.append('\0');
+			}
+			text = toSearchText(sb.toString());
+			searchText = text;
+		}
+		return text;
+	}
 
-	
+	/**
+	 * Matching UTF-8 bytes finds the same occurrences as matching the
+	 * characters they encode, since no character's encoding can start in the
+	 * middle of another's.
+	 * 
+	 * @param value
+	 * @return the value's UTF-8 bytes, one char per byte
+	 * @see #getSearchText()
+	 */
+	public static String toSearchText(String value) {
+		return new String(value.getBytes(UTF_8), ISO_8859_1);
+	}
+
+	/**
+	 * 
+	 * @return rough number of bytes this request holds, used to keep History
+	 *         within its byte budget.
+	 */
+	public long getEstimatedSize() {
+		long size = ESTIMATED_OVERHEAD;
+		size += sizeOf(clientRequestBody) + sizeOf(clientRequestHeaders) + sizeOf(clientRequestParameters)
+				+ sizeOf(clientRequestCookies) + sizeOf(clientResponseCookies);
+		size += sizeOf(serviceName) + sizeOf(requestorIP) + sizeOf(rawRequest) + sizeOf(comment)
+				+ sizeOf(originalUrlBeforeTwisting);
+		if (responseMessage != null) {
+			size += responseMessage.getEstimatedSize();
+		}
+		if (clientRequest != null) {
+			size += clientRequest.getEstimatedSize();
+		}
+		return size;
+	}
+
+	private static byte[] compact(String value) {
+		return (value != null) ? value.getBytes(UTF_8) : null;
+	}
+
+	private static String expand(byte[] value) {
+		return (value != null) ? new String(value, UTF_8) : null;
+	}
+
+	private static long sizeOf(byte[] value) {
+		return (value != null) ? value.length : 0;
+	}
+
+	private static long sizeOf(String value) {
+		return (value != null) ? 2L * value.length() : 0;
+	}
 }
@@ -0,0 +1,190 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Hang time as a distribution rather than a fixed delay, parsed from a short
+ * text definition. Supported forms, all in milliseconds:
+ * 
+ * <pre>
+ * 500                            fixed
+ * uniform:200-800                uniformly between 200 and 800
+ * normal:500,100                 mean 500, standard deviation 100
+ * percentile:50=100,90=400,99=2000
+ *                                piecewise linear between the given percentiles
+ * </pre>
+ * 
+ * Sampled values are never negative. Instances are immutable and thread-safe.
+ */
+public class HangTimeDistribution {
+
+	public static final String TYPE_UNIFORM = "uniform";
+	public static final String TYPE_NORMAL = "normal";
+	public static final String TYPE_PERCENTILE = "percentile";
+
+	private static final Random random = new Random();
+
+	private final String definition;
+	private final String type;
+	// For fixed: {value}. Uniform: {min, max}. Normal: {mean, stddev}.
+	// Percentile: percentile/value pairs, sorted by percentile.
+	private final double[] args;
+
+	private HangTimeDistribution(String definition, String type, double[] args) {
+		this.definition = definition;
+		this.type = type;
+		this.args = args;
+	}
+
+	/**
+	 * 
+	 * @param definition
+	 *            e.g. "uniform:200-800"
+	 * @return the distribution, or null if the definition is null or empty
+	 * @throws IllegalArgumentException
+	 *             if the definition can't be parsed
+	 */
+	public static HangTimeDistribution parse(String definition) {
+		if (definition == null || definition.trim().length() == 0) {
+			return null;
+		}
+		String value = definition.trim();
+		try {
+			int colon = value.indexOf(':');
+			if (colon < 0) {
+				return new HangTimeDistribution(value, null, new double[] { nonNegative(value) });
+			}
+			String type = value.substring(0, colon).trim().toLowerCase();
+			String body = value.substring(colon + 1).trim();
+			if (TYPE_UNIFORM.equals(type)) {
+				String[] range = body.split("-");
+				double min = nonNegative(range[0]);
+				double max = nonNegative(range[1]);
+				if (range.length != 2 || max < min) {
+					throw new IllegalArgumentException("Expected uniform:min-max");
+				}
+				return new HangTimeDistribution(value, type, new double[] { min, max });
+			} else if (TYPE_NORMAL.equals(type)) {
+				String[] meanAndDeviation = body.split(",");
+				if (meanAndDeviation.length != 2) {
+					throw new IllegalArgumentException("Expected normal:mean,stddev");
+				}
+				return new HangTimeDistribution(value, type, new double[] { nonNegative(meanAndDeviation[0]),
+						nonNegative(meanAndDeviation[1]) });
+			} else if (TYPE_PERCENTILE.equals(type)) {
+				return new HangTimeDistribution(value, type, parsePercentiles(body));
+			}
+			throw new IllegalArgumentException("Unknown hang time distribution '" + type + "'");
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid hang time '" + definition + "': " + e.getMessage(), e);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid hang time '" + definition + "'", e);
+		}
+	}
+
+	private static double[] parsePercentiles(String body) {
+		String[] points = body.split(",");
+		double[][] pairs = new double[points.length][];
+		for (int i = 0; i < points.length; i++) {
+			String[] pair = points[i].split("=");
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Expected percentile:p=value,...");
+			}
+			double percentile = nonNegative(pair[0]);
+			if (percentile > 100) {
+				throw new IllegalArgumentException("Percentile " + pair[0] + " is over 100");
+			}
+			pairs[i] = new double[] { percentile, nonNegative(pair[1]) };
+		}
+		Arrays.sort(pairs, new Comparator<double[]>() {
+			public int compare(double[] a, double[] b) {
+				return Double.compare(a[0], b[0]);
+			}
+		});
+		double[] args = new double[pairs.length * 2];
+		for (int i = 0; i < pairs.length; i++) {
+			if (i > 0 && pairs[i][1] < pairs[i - 1][1]) {
+				throw new IllegalArgumentException("Percentile values must not decrease");
+			}
+			args[i * 2] = pairs[i][0];
+			args[i * 2 + 1] = pairs[i][1];
+		}
+		return args;
+	}
+
+	private static double nonNegative(String arg) {
+		double value = Double.parseDouble(arg.trim());
+		if (value < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Expected a positive number but was " + arg);
+		}
+		return value;
+	}
+
+	/**
+	 * @return a hang time in milliseconds drawn from this distribution
+	 */
+	public int nextHangTime() {
+		return nextHangTime(random);
+	}
+
+	int nextHangTime(Random random) {
+		double value;
+		if (TYPE_UNIFORM.equals(type)) {
+			value = args[0] + random.nextDouble() * (args[1] - args[0]);
+		} else if (TYPE_NORMAL.equals(type)) {
+			value = args[0] + random.nextGaussian() * args[1];
+		} else if (TYPE_PERCENTILE.equals(type)) {
+			value = valueAtPercentile(random.nextDouble() * 100);
+		} else {
+			value = args[0];
+		}
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(value)));
+	}
+
+	private double valueAtPercentile(double percentile) {
+		// Below the first point or above the last, use the nearest value.
+		if (percentile <= args[0]) {
+			return args[1];
+		}
+		for (int i = 2; i < args.length; i += 2) {
+			if (percentile <= args[i]) {
+				double fraction = (percentile - args[i - 2]) / (args[i] - args[i - 2]);
+				return args[i - 1] + fraction * (args[i + 1] - args[i - 1]);
+			}
+		}
+		return args[args.length - 1];
+	}
+
+	public String toString() {
+		return definition;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Which History requests to return, and how many. Requests come newest
+ * first; to get the next page, set <code>beforeId</code> to the ID of the
+ * last request of the previous one.
+ * 
+ * @see com.mockey.storage.IMockeyStorage#getFulfilledClientRequests(HistoryQuery)
+ */
+public class HistoryQuery {
+
+	private Long serviceId;
+	private String requestorIP;
+	private Collection<String> tokens = Collections.emptyList();
+	private Long beforeId;
+	private Date since;
+	private int maxResults = Integer.MAX_VALUE;
+
+	public Long getServiceId() {
+		return serviceId;
+	}
+
+	/**
+	 * 
+	 * @param serviceId
+	 *            only requests to this service, or null for any
+	 */
+	public void setServiceId(Long serviceId) {
+		this.serviceId = serviceId;
+	}
+
+	public String getRequestorIP() {
+		return requestorIP;
+	}
+
+	/**
+	 * 
+	 * @param requestorIP
+	 *            only requests from this IP, or null for any
+	 */
+	public void setRequestorIP(String requestorIP) {
+		this.requestorIP = requestorIP;
+	}
+
+	public Collection<String> getTokens() {
+		return tokens;
+	}
+
+	/**
+	 * 
+	 * @param tokens
+	 *            filter tokens, all of which a request must contain. Tokens
+	 *            starting with "!" must not be contained.
+	 * @see HistoryFilter
+	 */
+	public void setTokens(Collection<String> tokens) {
+		this.tokens = (tokens != null) ? tokens : Collections.<String> emptyList();
+	}
+
+	public Long getBeforeId() {
+		return beforeId;
+	}
+
+	/**
+	 * 
+	 * @param beforeId
+	 *            only requests older than the one with this ID, or null to
+	 *            start with the newest
+	 */
+	public void setBeforeId(Long beforeId) {
+		this.beforeId = beforeId;
+	}
+
+	public Date getSince() {
+		return since;
+	}
+
+	/**
+	 * 
+	 * @param since
+	 *            only requests made at or after this time, or null for any.
+	 *            Requests are saved in the order they're made, so History
+	 *            is read back only as far as the first older request.
+	 */
+	public void setSince(Date since) {
+		this.since = since;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+}
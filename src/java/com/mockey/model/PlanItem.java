@@ -40,6 +40,7 @@ public class PlanItem {
     private Long serviceId;
     private Long scenarioId;
     private int hangTime;
+    private String hangTimeDistribution;
     private int serviceResponseType;
 
     public Long getServiceId() {
@@ -74,4 +75,12 @@ public class PlanItem {
         return hangTime;
     }
 
+    public void setHangTimeDistribution(String hangTimeDistribution) {
+        this.hangTimeDistribution = hangTimeDistribution;
+    }
+
+    public String getHangTimeDistribution() {
+        return hangTimeDistribution;
+    }
+
 }
@@ -27,6 +27,8 @@
  */
 package com.mockey.model;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
@@ -38,11 +40,26 @@ import org.apache.http.auth.UsernamePasswordCredentials;
  */
 public class ProxyServerModel {
 
+	private static final AtomicLong versions = new AtomicLong(0);
+
 	private boolean proxyEnabled = false;
     private Url proxyUrl;
 	private String proxyUsername;
 	private String proxyPassword;
+	private volatile long version = versions.incrementAndGet();
+
+	/**
+	 * 
+	 * @return a number that changes whenever these settings change. No two
+	 *         instances share one, so it also tells instances apart.
+	 */
+	public long getVersion() {
+		return version;
+	}
 
+	private void changed() {
+		this.version = versions.incrementAndGet();
+	}
 
 	public boolean isProxyEnabled() {
 		return proxyEnabled;
@@ -50,6 +67,7 @@ public class ProxyServerModel {
 
 	public void setProxyEnabled(boolean proxyEnabled) {
 		this.proxyEnabled = proxyEnabled;
+		changed();
 	}
 
 	public String getProxyHost() {
@@ -58,6 +76,7 @@ public class ProxyServerModel {
 
 	public void setProxyUrl(String proxyUrl) {
 		this.proxyUrl = new Url(proxyUrl);
+		changed();
 	}
 
     public String getProxyUrl() {
@@ -75,10 +94,12 @@ public class ProxyServerModel {
 
 	public void setProxyUsername(String username) {
 		this.proxyUsername = username;
+		changed();
 	}
 
 	public void setProxyPassword(String password) {
 		this.proxyPassword = password;
+		changed();
 	}
 
 	public String getProxyPassword() {
@@ -27,18 +27,20 @@
  */
 package com.mockey.model;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -54,13 +56,22 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.cookie.Cookie;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
 
+import com.mockey.BufferPool;
+
 /**
  * Wraps httpServletRequest and parses out the information we're looking for.
+ * <p>
+ * History keeps this object after the container has recycled the servlet
+ * request, so the constructor copies what it needs: the raw body bytes, and
+ * references to the header values, parameters and cookies. Everything else,
+ * e.g. the header map, httpclient cookies and the body as text, is built the
+ * first time it's asked for. The body is proxied as the bytes received, so
+ * binary content passes through untouched.
  */
 public class RequestFromClient {
 
@@ -76,12 +87,26 @@ public class RequestFromClient {
 	 */
 	public static final String[] HEADERS_TO_IGNORE = { "content-length", "host", "accept-encoding" };
 
-	private Log log = LogFactory.getLog(RequestFromClient.class);
-	private List<Cookie> httpClientCookies = new ArrayList<Cookie>();
-	private Map<String, String[]> parameters = new HashMap<String, String[]>();
-	private Map<String, List<String>> headers = new HashMap<String, List<String>>();
-	private String requestBody;
+	private static final String IF_MODIFIED_SINCE = "Fri, 13 May 2006 23:54:18 GMT";
+	private static final Log log = LogFactory.getLog(RequestFromClient.class);
+
+	private Map<String, String[]> parameters;
+	// One entry per header value, in request order.
+	private final List<String> headerNames = new ArrayList<String>();
+	private final List<String> headerValues = new ArrayList<String>();
+	private javax.servlet.http.Cookie[] servletCookies;
+	private String serverName;
+	private String contextPath;
+	private long receivedTime;
+	private byte[] requestBodyBytes;
 	private String method;
+	private String remoteAddr;
+	private Url requestUrl;
+
+	// Built on first use.
+	private Map<String, List<String>> headers;
+	private List<Cookie> httpClientCookies;
+	private String requestBody;
 
 	/**
 	 * Initialization will extract Headers, Body, Parameters, and Cookies from
@@ -98,14 +123,18 @@ public class RequestFromClient {
 			e.printStackTrace();
 		}
 		this.method = rawRequest.getMethod();
+		this.remoteAddr = rawRequest.getRemoteAddr();
 
-		parseRequestHeaders(rawRequest);
-		parseRequestBody(rawRequest);
-		parseParameters(rawRequest);
-		parseCookies(rawRequest);
+		readRequestHeaders(rawRequest);
+		readRequestBody(rawRequest);
+		readParameters(rawRequest);
+		readCookies(rawRequest);
 	}
 
-	public List<Cookie> getHttpClientCookies() {
+	public synchronized List<Cookie> getHttpClientCookies() {
+		if (this.httpClientCookies == null) {
+			this.httpClientCookies = toHttpClientCookies();
+		}
 		return this.httpClientCookies;
 	}
 
@@ -135,16 +164,10 @@ public class RequestFromClient {
 
 		}
 
-		// copy the headers into the request to the real server
-		for (Map.Entry<String, List<String>> stringListEntry : headers.entrySet()) {
-			String name = stringListEntry.getKey();
-
-			// ignore certain headers that httpclient will generate for us
-			if (shouldIncludeHeader(name)) {
-				for (String value : stringListEntry.getValue()) {
-					request.addHeader(name, value);
-				}
-			}
+		// copy the headers into the request to the real server; the ones
+		// httpclient generates for us were never kept
+		for (int i = 0; i < headerNames.size(); i++) {
+			request.addHeader(headerNames.get(i), headerValues.get(i));
 		}
 
 		return request;
@@ -162,7 +185,7 @@ public class RequestFromClient {
 	/**
 	 * Parameter key and value(s).
 	 * 
-	 * @return
+	 * @return read only map of parameters
 	 */
 	public Map<String, String[]> getParameters() {
 		return this.parameters;
@@ -202,47 +225,57 @@ public class RequestFromClient {
 	}
 
 	@SuppressWarnings("unchecked")
-	private void parseRequestHeaders(HttpServletRequest rawRequest) {
+	private void readRequestHeaders(HttpServletRequest rawRequest) {
 
 		// Put header information coming from client.
 		Enumeration<String> e = rawRequest.getHeaderNames();
 
 		while (e.hasMoreElements()) {
-			String name = (String) e.nextElement();
+			String name = e.nextElement();
 			// Let's ignore some headers
-			if (this.shouldIncludeHeader(name)) {
-				List<String> values = new ArrayList<String>();
-				Enumeration eValues = rawRequest.getHeaders(name);
-
-				while (eValues.hasMoreElements()) {
-					String value = (String) eValues.nextElement();
-					values.add(value);
-				}
-
-				headers.put(name, values);
+			if (!this.shouldIncludeHeader(name)) {
+				continue;
 			}
-		}
-		// Override header information to prevent CACHING
-		// As of 4/29/2011, updated Apache HttpClient. Result was the
-		// following:
-		// Testing with MAMP (Apache 2.0.63), I was seeing
-		// this parameter being sent by Browsers Firefox 4 and
-		// and Chrome 9, but NOT Safari 5.
-		// To prevent caching, removing this attribute.
-		e = rawRequest.getHeaderNames();
-		List<String> p = new ArrayList<String>();
-		p.add("Fri, 13 May 2006 23:54:18 GMT");
-		while (e.hasMoreElements()) {
-			String name = (String) e.nextElement();
-
+			// Override header information to prevent CACHING
+			// As of 4/29/2011, updated Apache HttpClient. Result was the
+			// following:
+			// Testing with MAMP (Apache 2.0.63), I was seeing
+			// this parameter being sent by Browsers Firefox 4 and
+			// and Chrome 9, but NOT Safari 5.
+			// To prevent caching, removing this attribute.
 			if ("if-none-match".equalsIgnoreCase(name)) {
-				headers.remove(name);
+				continue;
 			} else if ("If-modified-Since".equalsIgnoreCase(name)) {
-				headers.put(name, p);
+				headerNames.add(name);
+				headerValues.add(IF_MODIFIED_SINCE);
+				continue;
+			}
+			Enumeration<String> eValues = rawRequest.getHeaders(name);
+			while (eValues.hasMoreElements()) {
+				headerNames.add(name);
+				headerValues.add(eValues.nextElement());
 			}
-
 		}
+	}
 
+	/**
+	 * 
+	 * @return header names and their values, in request order
+	 */
+	private synchronized Map<String, List<String>> getHeaders() {
+		if (this.headers == null) {
+			Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+			for (int i = 0; i < headerNames.size(); i++) {
+				List<String> values = map.get(headerNames.get(i));
+				if (values == null) {
+					values = new ArrayList<String>(1);
+					map.put(headerNames.get(i), values);
+				}
+				values.add(headerValues.get(i));
+			}
+			this.headers = map;
+		}
+		return this.headers;
 	}
 
 	/**
@@ -251,70 +284,144 @@ public class RequestFromClient {
 	 * other without data loss...
 	 * */
 
-	private void parseCookies(HttpServletRequest rawRequest) {
-		javax.servlet.http.Cookie[] cookies = rawRequest.getCookies();
-		if (cookies != null) {
-			// ******************
-			// This doesn't seem right.
-			// We have to map javax Cookies to httpclient Cookies?!?!
-			// 
-			// ******************
-			for (int i = 0; i < cookies.length; i++) {
-				javax.servlet.http.Cookie c = cookies[i];
-				String domain = c.getDomain();
-				if (domain == null) {
-					domain = rawRequest.getServerName();
-				}
-				String cpath = c.getPath();
-				if (cpath == null) {
-					cpath = rawRequest.getContextPath();
-				}
-				BasicClientCookie basicClientCookie = new BasicClientCookie(c.getName(), c.getValue());
-				basicClientCookie.setDomain(domain);
-				if (c.getMaxAge() > -1) {
-					int seconds = c.getMaxAge();
-					long currentTime = System.currentTimeMillis();
-					Date expiryDate = new Date(currentTime + (seconds * 1000));
-					basicClientCookie.setExpiryDate(expiryDate);
-				}
-				this.httpClientCookies.add(basicClientCookie);
-			}
+	private void readCookies(HttpServletRequest rawRequest) {
+		this.servletCookies = rawRequest.getCookies();
+		if (this.servletCookies != null) {
+			// Needed to convert them later.
+			this.serverName = rawRequest.getServerName();
+			this.contextPath = rawRequest.getContextPath();
+			this.receivedTime = System.currentTimeMillis();
 		}
-
 	}
 
-	private void parseRequestBody(HttpServletRequest rawRequest) {
+	private List<Cookie> toHttpClientCookies() {
+		if (servletCookies == null) {
+			return Collections.emptyList();
+		}
+		List<Cookie> cookies = new ArrayList<Cookie>(servletCookies.length);
+		// ******************
+		// This doesn't seem right.
+		// We have to map javax Cookies to httpclient Cookies?!?!
+		// 
+		// ******************
+		for (int i = 0; i < servletCookies.length; i++) {
+			javax.servlet.http.Cookie c = servletCookies[i];
+			String domain = c.getDomain();
+			if (domain == null) {
+				domain = serverName;
+			}
+			String cpath = c.getPath();
+			if (cpath == null) {
+				cpath = contextPath;
+			}
+			BasicClientCookie basicClientCookie = new BasicClientCookie(c.getName(), c.getValue());
+			basicClientCookie.setDomain(domain);
+			if (c.getMaxAge() > -1) {
+				int seconds = c.getMaxAge();
+				Date expiryDate = new Date(receivedTime + (seconds * 1000));
+				basicClientCookie.setExpiryDate(expiryDate);
+			}
+			cookies.add(basicClientCookie);
+		}
+		return cookies;
+	}
 
+	/**
+	 * Reads the body as is, through buffers from the shared pool, then keeps
+	 * an exact-size copy. Decoding it to text waits for
+	 * <code>getBodyInfo</code>.
+	 */
+	private void readRequestBody(HttpServletRequest rawRequest) {
+		BufferPool pool = BufferPool.getInstance();
+		byte[] buffer = null;
 		try {
 			InputStream is = rawRequest.getInputStream();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-			StringBuilder sb = new StringBuilder();
-
-			String line = null;
 			try {
-				while ((line = reader.readLine()) != null) {
-					sb.append(line + "\n");
+				buffer = pool.acquire(BufferPool.MIN_SIZE);
+				int length = 0;
+				int count;
+				while ((count = is.read(buffer, length, buffer.length - length)) != -1) {
+					length += count;
+					if (length == buffer.length) {
+						byte[] bigger = pool.acquire(buffer.length * 2);
+						System.arraycopy(buffer, 0, bigger, 0, length);
+						pool.release(buffer);
+						buffer = bigger;
+					}
 				}
-			} catch (IOException e) {
-				e.printStackTrace();
+				this.requestBodyBytes = Arrays.copyOf(buffer, length);
 			} finally {
-				try {
-					is.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				is.close();
 			}
-			requestBody = sb.toString();
-
 		} catch (IOException e) {
 			log.error("Unable to parse body from incoming request", e);
+		} finally {
+			pool.release(buffer);
 		}
+	}
 
+	/**
+	 * 
+	 * @return charset of the body, from the Content-Type header, or the
+	 *         platform's if none is given or it isn't supported
+	 */
+	private Charset getBodyCharset() {
+		List<String> contentTypes = getHeaderValues(HTTP.CONTENT_TYPE);
+		if (contentTypes != null && !contentTypes.isEmpty()) {
+			String contentType = contentTypes.get(0);
+			int index = contentType.toLowerCase().indexOf("charset=");
+			if (index > -1) {
+				String name = contentType.substring(index + "charset=".length());
+				int end = name.indexOf(';');
+				if (end > -1) {
+					name = name.substring(0, end);
+				}
+				name = name.trim();
+				if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+					name = name.substring(1, name.length() - 1);
+				}
+				try {
+					return Charset.forName(name);
+				} catch (IllegalArgumentException e) {
+					if (log.isDebugEnabled()) {
+						log.debug("Unknown charset " + name + " in request, using the platform default");
+					}
+				}
+			}
+		}
+		return Charset.defaultCharset();
 	}
 
 	@SuppressWarnings("unchecked")
-	private void parseParameters(HttpServletRequest rawRequest) {
-		parameters = rawRequest.getParameterMap();
+	private void readParameters(HttpServletRequest rawRequest) {
+		// Copied, since the container may recycle its map once the request
+		// is done and History keeps this object around.
+		Map<String, String[]> map = rawRequest.getParameterMap();
+		if (map == null || map.isEmpty()) {
+			parameters = Collections.emptyMap();
+		} else {
+			parameters = Collections.unmodifiableMap(new HashMap<String, String[]>(map));
+		}
+	}
+
+	/**
+	 * 
+	 * @return rough number of bytes held by this request, for History's byte
+	 *         budget
+	 */
+	public long getEstimatedSize() {
+		// The bytes, plus their text once decoded for matching or display.
+		long size = (requestBodyBytes != null) ? 3L * requestBodyBytes.length : 0;
+		for (int i = 0; i < headerNames.size(); i++) {
+			size += 2L * (headerNames.get(i).length() + headerValues.get(i).length());
+		}
+		for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+			size += 2L * parameter.getKey().length();
+			for (String value : parameter.getValue()) {
+				size += 2L * value.length();
+			}
+		}
+		return size + 128L * (servletCookies != null ? servletCookies.length : 0);
 	}
 
 	/**
@@ -324,10 +431,10 @@ public class RequestFromClient {
 	public String getHeaderInfo() {
 		StringBuffer buf = new StringBuffer();
 
-		for (String headerName : headers.keySet()) {
-			buf.append(headerName + "\n");
-			for (String headerValue : headers.get(headerName)) {
-				buf.append("    " + headerValue + "\n");
+		for (Map.Entry<String, List<String>> header : getHeaders().entrySet()) {
+			buf.append(header.getKey()).append("\n");
+			for (String headerValue : header.getValue()) {
+				buf.append("    ").append(headerValue).append("\n");
 			}
 		}
 		return buf.toString();
@@ -337,12 +444,49 @@ public class RequestFromClient {
 		return this.method;
 	}
 
+	/**
+	 * 
+	 * @return IP address of the client that sent this request
+	 */
+	public String getRemoteAddr() {
+		return this.remoteAddr;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 *            header name, case ignored
+	 * @return the values of the header, or null if the request doesn't have
+	 *         it. Headers in <code>HEADERS_TO_IGNORE</code> are never present.
+	 */
+	public List<String> getHeaderValues(String name) {
+		for (int i = 0; i < headerNames.size(); i++) {
+			if (headerNames.get(i).equalsIgnoreCase(name)) {
+				return getHeaders().get(headerNames.get(i));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @return the mock service URL this request was made to, or null if not
+	 *         known
+	 */
+	public Url getRequestUrl() {
+		return this.requestUrl;
+	}
+
+	public void setRequestUrl(Url requestUrl) {
+		this.requestUrl = requestUrl;
+	}
+
 	public String getCookieInfoAsString() {
 		StringBuffer buf = new StringBuffer();
 
-		for (Cookie cookie : this.httpClientCookies) {
+		for (Cookie cookie : getHttpClientCookies()) {
 
-			buf.append(cookie.toString() + "\n\n");
+			buf.append(cookie.toString()).append("\n\n");
 		}
 
 		return buf.toString();
@@ -352,8 +496,9 @@ public class RequestFromClient {
 
 		HttpEntity body;
 		try {
-			if (requestBody != null) {
-				body = new StringEntity(requestBody);
+			if (requestBodyBytes != null) {
+				// The Content-Type header, if any, is copied with the others.
+				body = new ByteArrayEntity(requestBodyBytes);
 			} else {
 				List<NameValuePair> parameters = new ArrayList<NameValuePair>();
 				for (Map.Entry<String, String[]> entry : this.parameters.entrySet()) {
@@ -377,17 +522,38 @@ public class RequestFromClient {
 	 * @return - true if incoming request is posting a body
 	 */
 	public boolean hasPostBody() {
-		return requestBody != null && requestBody.trim().length() > 0;
+		// Any byte that isn't whitespace or a control character.
+		if (requestBodyBytes != null) {
+			for (byte b : requestBodyBytes) {
+				if ((b & 0xff) > ' ') {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
 	/**
 	 * 
-	 * @return the body content of this request.
+	 * @return the body content of this request, decoded with the charset of
+	 *         its Content-Type, or the platform's.
 	 */
-	public String getBodyInfo() {
+	public synchronized String getBodyInfo() {
+		if (requestBody == null && requestBodyBytes != null) {
+			requestBody = new String(requestBodyBytes, getBodyCharset());
+		}
 		return requestBody;
 	}
 
+	/**
+	 * 
+	 * @return the body of this request as received, or null if it couldn't be
+	 *         read. Not a copy; don't modify.
+	 */
+	public byte[] getBodyBytes() {
+		return requestBodyBytes;
+	}
+
 	/**
 	 * 
 	 * @return the parameters of this request
@@ -0,0 +1,157 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONException;
+import org.json.JSONTokener;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A request being matched against dynamic scenarios. Derived forms of the
+ * request (parameter text, parsed JSON or XML body) are built on first use and
+ * then shared by every scenario, so a body is parsed at most once per request.
+ * Not thread-safe; use one per request.
+ */
+class RequestMatchContext {
+
+	private static Log logger = LogFactory.getLog(RequestMatchContext.class);
+
+	private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>() {
+		protected DocumentBuilder initialValue() {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(false);
+			factory.setExpandEntityReferences(false);
+			try {
+				factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+				return factory.newDocumentBuilder();
+			} catch (ParserConfigurationException e) {
+				throw new IllegalStateException("Unable to create an XML parser", e);
+			}
+		}
+	};
+
+	private final RequestFromClient request;
+	private String parameterText;
+	private boolean jsonParsed;
+	private Object json;
+	private boolean xmlParsed;
+	private Document xml;
+
+	RequestMatchContext(RequestFromClient request) {
+		this.request = request;
+	}
+
+	RequestFromClient getRequest() {
+		return this.request;
+	}
+
+	/**
+	 * 
+	 * @return the request parameters as a URL encoded string
+	 */
+	String getParameterText() {
+		if (this.parameterText == null) {
+			try {
+				this.parameterText = this.request.buildParameterRequest();
+			} catch (UnsupportedEncodingException e) {
+				// uhm.
+				logger.debug("Unable to extract content from request", e);
+				this.parameterText = "";
+			}
+		}
+		return this.parameterText;
+	}
+
+	/**
+	 * 
+	 * @return the request body, or null if there is none
+	 */
+	String getBodyText() {
+		return this.request.hasPostBody() ? this.request.getBodyInfo() : null;
+	}
+
+	/**
+	 * 
+	 * @return the body parsed as JSON (a JSONObject, JSONArray or plain
+	 *         value), or null if it isn't JSON
+	 */
+	Object getJson() {
+		if (!this.jsonParsed) {
+			this.jsonParsed = true;
+			String body = getBodyText();
+			if (body != null) {
+				try {
+					JSONTokener tokener = new JSONTokener(body);
+					this.json = tokener.nextValue();
+					if (tokener.nextClean() != 0) {
+						// Trailing content; not a JSON document.
+						this.json = null;
+					}
+				} catch (JSONException e) {
+					logger.debug("Request body is not JSON", e);
+				}
+			}
+		}
+		return this.json;
+	}
+
+	/**
+	 * 
+	 * @return the body parsed as XML, or null if it isn't XML
+	 */
+	Document getXml() {
+		if (!this.xmlParsed) {
+			this.xmlParsed = true;
+			String body = getBodyText();
+			if (body != null) {
+				DocumentBuilder builder = documentBuilders.get();
+				try {
+					// The default handler prints parse errors to stderr.
+					builder.setErrorHandler(new DefaultHandler());
+					this.xml = builder.parse(new InputSource(new StringReader(body)));
+				} catch (Exception e) {
+					logger.debug("Request body is not XML", e);
+				} finally {
+					builder.reset();
+				}
+			}
+		}
+		return this.xml;
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.http.cookie.Cookie;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+
+/**
+ * A typed condition on an incoming request, for dynamic scenarios that need
+ * more than a match argument. A scenario's predicates are parsed from text,
+ * one per line, all of which must hold:
+ * 
+ * <pre>
+ * method: POST                         HTTP method, case ignored
+ * path: /orders/{id}/items             request path; {name} or * is one segment
+ * query: type=book                     request parameter value
+ * header: Content-Type=application/json*
+ *                                      header value, header name case ignored
+ * cookie: session                      cookie value
+ * json: $.order.items[0].sku=ABC-1     value at a JSONPath in a JSON body
+ * xpath: //symbol = 'IBM'              XPath on an XML or SOAP body, as a boolean
+ * </pre>
+ * 
+ * Without "=value", query, header, cookie and json predicates only check that
+ * the value is present. Values may use * as a wildcard. JSONPath supports
+ * .name, ['name'], [index] and * steps. XPath runs on a document parsed
+ * without namespaces; use local-name() to reach prefixed SOAP elements. Blank
+ * lines and lines starting with # are ignored.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public abstract class RequestPredicate {
+
+	public static final String TYPE_METHOD = "method";
+	public static final String TYPE_PATH = "path";
+	public static final String TYPE_QUERY = "query";
+	public static final String TYPE_HEADER = "header";
+	public static final String TYPE_COOKIE = "cookie";
+	public static final String TYPE_JSON = "json";
+	public static final String TYPE_XPATH = "xpath";
+
+	// Cost classes, cheapest first. Anything from COST_BODY on needs the
+	// request body parsed.
+	private static final int COST_REQUEST_LINE = 0;
+	private static final int COST_PARAMETERS = 1;
+	private static final int COST_HEADERS = 2;
+	static final int COST_BODY = 10;
+
+	private static final Comparator<RequestPredicate> BY_COST = new Comparator<RequestPredicate>() {
+		public int compare(RequestPredicate p1, RequestPredicate p2) {
+			return p1.cost - p2.cost;
+		}
+	};
+
+	private final String definition;
+	private final int cost;
+
+	private RequestPredicate(String definition, int cost) {
+		this.definition = definition;
+		this.cost = cost;
+	}
+
+	/**
+	 * 
+	 * @param definition
+	 *            predicates, one per line
+	 * @return the predicates, cheapest to evaluate first; empty if the
+	 *         definition is null or blank
+	 * @throws IllegalArgumentException
+	 *             if a line can't be parsed
+	 */
+	public static List<RequestPredicate> parseAll(String definition) {
+		List<RequestPredicate> predicates = new ArrayList<RequestPredicate>();
+		if (definition != null) {
+			for (String line : definition.split("\r?\n|\r")) {
+				String trimmed = line.trim();
+				if (trimmed.length() > 0 && !trimmed.startsWith("#")) {
+					predicates.add(parse(trimmed));
+				}
+			}
+		}
+		Collections.sort(predicates, BY_COST);
+		return Collections.unmodifiableList(predicates);
+	}
+
+	/**
+	 * 
+	 * @param definition
+	 *            a single predicate, e.g. "header: Accept=text/xml"
+	 * @return the predicate
+	 * @throws IllegalArgumentException
+	 *             if the definition can't be parsed
+	 */
+	public static RequestPredicate parse(String definition) {
+		int colon = definition.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("Expected 'type: argument' but got '" + definition + "'");
+		}
+		String type = definition.substring(0, colon).trim().toLowerCase();
+		String argument = definition.substring(colon + 1).trim();
+		if (argument.length() == 0) {
+			throw new IllegalArgumentException("Missing argument in '" + definition + "'");
+		}
+		if (TYPE_METHOD.equals(type)) {
+			return new MethodPredicate(definition, argument);
+		} else if (TYPE_PATH.equals(type)) {
+			return new PathPredicate(definition, argument);
+		} else if (TYPE_QUERY.equals(type) || TYPE_HEADER.equals(type) || TYPE_COOKIE.equals(type)) {
+			return new NameValuePredicate(definition, type, argument);
+		} else if (TYPE_JSON.equals(type)) {
+			return new JsonPredicate(definition, argument);
+		} else if (TYPE_XPATH.equals(type)) {
+			return new XPathPredicate(definition, argument);
+		}
+		throw new IllegalArgumentException("Unknown predicate type '" + type + "' in '" + definition + "'");
+	}
+
+	/**
+	 * 
+	 * @return true if evaluating this predicate needs the request body parsed
+	 */
+	public boolean needsBody() {
+		return this.cost >= COST_BODY;
+	}
+
+	/**
+	 * 
+	 * @param context
+	 *            the request being matched
+	 * @return true if the request satisfies this predicate
+	 */
+	abstract boolean matches(RequestMatchContext context);
+
+	public String toString() {
+		return this.definition;
+	}
+
+	/**
+	 * 
+	 * @param pattern
+	 *            expected value, where * matches any run of characters
+	 * @param value
+	 * @return true if the value matches the pattern
+	 */
+	static boolean matchesWildcard(String pattern, String value) {
+		if (value == null) {
+			return false;
+		}
+		int star = pattern.indexOf('*');
+		if (star < 0) {
+			return pattern.equals(value);
+		}
+		if (!value.startsWith(pattern.substring(0, star))) {
+			return false;
+		}
+		int position = star;
+		while (true) {
+			int nextStar = pattern.indexOf('*', star + 1);
+			if (nextStar < 0) {
+				String suffix = pattern.substring(star + 1);
+				return value.length() - suffix.length() >= position && value.endsWith(suffix);
+			}
+			String part = pattern.substring(star + 1, nextStar);
+			int found = value.indexOf(part, position);
+			if (found < 0) {
+				return false;
+			}
+			position = found + part.length();
+			star = nextStar;
+		}
+	}
+
+	private static class MethodPredicate extends RequestPredicate {
+
+		private final String method;
+
+		MethodPredicate(String definition, String method) {
+			super(definition, COST_REQUEST_LINE);
+			this.method = method;
+		}
+
+		boolean matches(RequestMatchContext context) {
+			return this.method.equalsIgnoreCase(context.getRequest().getMethod());
+		}
+	}
+
+	private static class PathPredicate extends RequestPredicate {
+
+		private final String[] segments;
+
+		PathPredicate(String definition, String template) {
+			super(definition, COST_REQUEST_LINE);
+			this.segments = split(template);
+		}
+
+		boolean matches(RequestMatchContext context) {
+			Url url = context.getRequest().getRequestUrl();
+			if (url == null) {
+				return false;
+			}
+			String[] actual = split(url.getPath());
+			if (actual.length != this.segments.length) {
+				return false;
+			}
+			for (int i = 0; i < actual.length; i++) {
+				String segment = this.segments[i];
+				boolean wildcard = "*".equals(segment) || (segment.startsWith("{") && segment.endsWith("}"));
+				if (!wildcard && !segment.equals(actual[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static String[] split(String path) {
+			List<String> segments = new ArrayList<String>();
+			for (String segment : path.split("/")) {
+				if (segment.length() > 0) {
+					segments.add(segment);
+				}
+			}
+			return segments.toArray(new String[segments.size()]);
+		}
+	}
+
+	private static class NameValuePredicate extends RequestPredicate {
+
+		private final String type;
+		private final String name;
+		private final String value;
+
+		NameValuePredicate(String definition, String type, String argument) {
+			super(definition, TYPE_QUERY.equals(type) ? COST_PARAMETERS : COST_HEADERS);
+			this.type = type;
+			int equals = argument.indexOf('=');
+			this.name = (equals < 0) ? argument : argument.substring(0, equals).trim();
+			this.value = (equals < 0) ? null : argument.substring(equals + 1).trim();
+		}
+
+		boolean matches(RequestMatchContext context) {
+			RequestFromClient request = context.getRequest();
+			if (TYPE_QUERY.equals(this.type)) {
+				String[] values = request.getParameters().get(this.name);
+				return values != null && anyMatches(values);
+			} else if (TYPE_HEADER.equals(this.type)) {
+				List<String> values = request.getHeaderValues(this.name);
+				return values != null && anyMatches(values.toArray(new String[values.size()]));
+			}
+			for (Cookie cookie : request.getHttpClientCookies()) {
+				if (this.name.equals(cookie.getName())
+						&& (this.value == null || matchesWildcard(this.value, cookie.getValue()))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean anyMatches(String[] values) {
+			if (this.value == null) {
+				return true;
+			}
+			for (String candidate : values) {
+				if (matchesWildcard(this.value, candidate)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class JsonPredicate extends RequestPredicate {
+
+		// Path steps: a String name, an Integer index, or WILDCARD.
+		private static final Object WILDCARD = new Object();
+
+		private final List<Object> steps = new ArrayList<Object>();
+		private final String value;
+
+		JsonPredicate(String definition, String argument) {
+			super(definition, COST_BODY);
+			if (!argument.startsWith("$")) {
+				throw new IllegalArgumentException("JSONPath must start with '$' in '" + definition + "'");
+			}
+			int i = 1;
+			while (i < argument.length() && argument.charAt(i) != '=') {
+				char c = argument.charAt(i);
+				if (c == '.') {
+					int end = i + 1;
+					while (end < argument.length() && ".[=".indexOf(argument.charAt(end)) < 0) {
+						end++;
+					}
+					String name = argument.substring(i + 1, end).trim();
+					if (name.length() == 0) {
+						throw new IllegalArgumentException("Empty JSONPath step in '" + definition + "'");
+					}
+					this.steps.add("*".equals(name) ? WILDCARD : name);
+					i = end;
+				} else if (c == '[') {
+					int end = argument.indexOf(']', i);
+					if (end < 0) {
+						throw new IllegalArgumentException("Unclosed '[' in '" + definition + "'");
+					}
+					String step = argument.substring(i + 1, end).trim();
+					if ("*".equals(step)) {
+						this.steps.add(WILDCARD);
+					} else if (step.length() > 1 && (step.charAt(0) == '\'' || step.charAt(0) == '"')
+							&& step.charAt(step.length() - 1) == step.charAt(0)) {
+						this.steps.add(step.substring(1, step.length() - 1));
+					} else {
+						try {
+							this.steps.add(Integer.valueOf(step));
+						} catch (NumberFormatException e) {
+							throw new IllegalArgumentException("Bad JSONPath index '" + step + "' in '" + definition
+									+ "'");
+						}
+					}
+					i = end + 1;
+				} else if (Character.isWhitespace(c)) {
+					i++;
+				} else {
+					throw new IllegalArgumentException("Unexpected '" + c + "' in JSONPath '" + definition + "'");
+				}
+			}
+			this.value = (i < argument.length()) ? argument.substring(i + 1).trim() : null;
+		}
+
+		boolean matches(RequestMatchContext context) {
+			Object json = context.getJson();
+			return json != null && matches(json, 0);
+		}
+
+		private boolean matches(Object node, int step) {
+			if (step == this.steps.size()) {
+				return this.value == null || matchesWildcard(this.value, String.valueOf(node));
+			}
+			Object key = this.steps.get(step);
+			if (node instanceof JSONObject) {
+				JSONObject object = (JSONObject) node;
+				if (key == WILDCARD) {
+					Iterator<?> keys = object.keys();
+					while (keys.hasNext()) {
+						if (matches(object.opt((String) keys.next()), step + 1)) {
+							return true;
+						}
+					}
+				} else if (key instanceof String && object.has((String) key)) {
+					return matches(object.opt((String) key), step + 1);
+				}
+			} else if (node instanceof JSONArray) {
+				JSONArray array = (JSONArray) node;
+				if (key == WILDCARD) {
+					for (int i = 0; i < array.length(); i++) {
+						if (matches(array.opt(i), step + 1)) {
+							return true;
+						}
+					}
+				} else if (key instanceof Integer) {
+					int index = ((Integer) key).intValue();
+					return index >= 0 && index < array.length() && matches(array.opt(index), step + 1);
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class XPathPredicate extends RequestPredicate {
+
+		private final String expression;
+		// XPathExpression isn't thread-safe, so each thread compiles its own.
+		private final ThreadLocal<XPathExpression> compiled = new ThreadLocal<XPathExpression>() {
+			protected XPathExpression initialValue() {
+				return compile(expression);
+			}
+		};
+
+		XPathPredicate(String definition, String expression) {
+			super(definition, COST_BODY + 1);
+			this.expression = expression;
+			// Fail now rather than on the first request.
+			this.compiled.get();
+		}
+
+		boolean matches(RequestMatchContext context) {
+			Document document = context.getXml();
+			if (document == null) {
+				return false;
+			}
+			try {
+				return ((Boolean) this.compiled.get().evaluate(document, XPathConstants.BOOLEAN)).booleanValue();
+			} catch (XPathExpressionException e) {
+				return false;
+			}
+		}
+
+		private static XPathExpression compile(String expression) {
+			try {
+				return XPathFactory.newInstance().newXPath().compile(expression);
+			} catch (XPathExpressionException e) {
+				throw new IllegalArgumentException("Bad XPath '" + expression + "': " + e.getMessage());
+			}
+		}
+	}
+}
@@ -27,8 +27,14 @@
  */
 package com.mockey.model;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -41,9 +47,12 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.conn.ConnectionReleaseTrigger;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 
+import com.mockey.BufferPool;
+
 /**
  * Wrapper with print and helper functions for a HTTP response message.
  * 
@@ -54,6 +63,14 @@ public class ResponseFromService {
 
 	private static final String[] IGNORE_HEADERS = { "Transfer-Encoding" };
 
+	/**
+	 * How many bytes of a proxied response body are kept for History. The
+	 * rest is streamed to the client without being kept.
+	 */
+	public static final String PROPERTY_HISTORY_CAPTURE_BYTES = "mockey.proxy.historyCaptureBytes";
+	private static final int DEFAULT_HISTORY_CAPTURE_BYTES = 1024 * 1024;
+	private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
 	private Log log = LogFactory.getLog(ResponseFromService.class);
 	private String body;
 	private boolean valid;
@@ -63,6 +80,11 @@ public class ResponseFromService {
 	private StatusLine statusLine;
 	private Url originalRequestUrlBeforeTwisting;
 	private Url requestUrl;
+	private EncodedResponse encodedResponse;
+	private HttpEntity entity;
+	private long bodyLength = -1;
+	private String bodyDigest;
+	private boolean bodyTruncated = false;
 
 	/**
 	 * Empty constructor
@@ -73,10 +95,12 @@ public class ResponseFromService {
 	/**
 	 * 
 	 * @param rsp
-	 *            - parses the response
+	 *            - parses the response status and headers. The entity is not
+	 *            read here; it is streamed to the client by
+	 *            <code>writeToOutput()</code>, which also fills in the body.
 	 */
 	public ResponseFromService(HttpResponse rsp) {
-		HttpEntity entity = rsp.getEntity();
+		this.entity = rsp.getEntity();
 
 		setStatusLine(rsp.getStatusLine());
 		headers = rsp.getAllHeaders();
@@ -84,11 +108,7 @@ public class ResponseFromService {
 
 		setCookiesFromHeader(headers);
 		if (entity != null) {
-			try {
-				setBody(EntityUtils.toString(entity));
-			} catch (IOException e) {
-				throw new IllegalStateException("Unable to parse resonse", e);
-			}
+			setBody("");
 			setValid(true);
 		}
 
@@ -107,6 +127,34 @@ public class ResponseFromService {
 	 */
 	public void setBody(String body) {
 		this.body = body;
+		this.encodedResponse = null;
+	}
+
+	/**
+	 * Sets the body from a scenario's pre-encoded response, so it does not
+	 * have to be encoded again when written.
+	 * 
+	 * @param encodedResponse
+	 */
+	public void setBody(EncodedResponse encodedResponse) {
+		this.body = encodedResponse.getBody();
+		this.encodedResponse = encodedResponse;
+	}
+
+	/**
+	 * @param contentType
+	 *            content type of the service that produced this response
+	 * @return the body encoded for the content type, reusing the pre-encoded
+	 *         body when there is one
+	 */
+	public EncodedResponse getEncodedBody(String contentType) {
+		EncodedResponse encoded = this.encodedResponse;
+		if (encoded == null || encoded.getBody() != this.body
+				|| (contentType == null ? encoded.getContentType() != null : !contentType.equals(encoded
+						.getContentType()))) {
+			encoded = EncodedResponse.encode(this.body, contentType);
+		}
+		return encoded;
 	}
 
 	/**
@@ -224,6 +272,51 @@ public class ResponseFromService {
 	}
 
 
+	/**
+	 * 
+	 * @return rough number of bytes held by this response. A body that is
+	 *         shared with a scenario's pre-encoded response is not counted,
+	 *         since History doesn't keep it alive.
+	 */
+	public long getEstimatedSize() {
+		long size = 0;
+		String body = this.body;
+		EncodedResponse encoded = this.encodedResponse;
+		if (body != null && (encoded == null || encoded.getBody() != body)) {
+			size += 2L * body.length();
+		}
+		if (headers != null) {
+			for (Header header : headers) {
+				size += 2L * (header.getName().length() + String.valueOf(header.getValue()).length());
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return total length of the streamed body in bytes, or -1 if the body
+	 *         was not streamed
+	 */
+	public long getBodyLength() {
+		return bodyLength;
+	}
+
+	/**
+	 * @return SHA-1 hex digest of the streamed body bytes, or null if the body
+	 *         was not streamed
+	 */
+	public String getBodyDigest() {
+		return bodyDigest;
+	}
+
+	/**
+	 * @return true if the body was larger than what was kept for History, in
+	 *         which case <code>getBody()</code> is only a prefix
+	 */
+	public boolean isBodyTruncated() {
+		return bodyTruncated;
+	}
+
 	public void writeToOutput(HttpServletResponse resp) throws IOException {
 		// copy the headers out
 		if (headers != null) {
@@ -231,7 +324,9 @@ public class ResponseFromService {
 
 				// copy the cookies
 				if (ignoreHeader(header.getName())) {
-					log.debug("Ignoring header: " + header.getName());
+					if (log.isDebugEnabled()) {
+						log.debug("Ignoring header: " + header.getName());
+					}
 				} else if (header.getName().equalsIgnoreCase("Set-Cookie")) {
 					// Ignore...
 				} else if (header.getName().equals("Content-Type")) {
@@ -246,7 +341,9 @@ public class ResponseFromService {
 		for(Cookie cookie: this.cookieList){
 			resp.addCookie(cookie);
 		}
-		if (body != null) {
+		if (entity != null) {
+			streamEntity(resp.getOutputStream());
+		} else if (body != null) {
 			byte[] myISO88591asBytes = body.getBytes(HTTP.ISO_8859_1);
 			new PrintStream(resp.getOutputStream()).write(myISO88591asBytes);
 			resp.getOutputStream().flush();
@@ -257,6 +354,113 @@ public class ResponseFromService {
 
 	}
 
+	/**
+	 * Pipes the upstream entity to the client through a fixed size buffer,
+	 * byte for byte. Only a bounded prefix of the body is kept, along with
+	 * the total length and a digest.
+	 */
+	private void streamEntity(OutputStream out) throws IOException {
+		HttpEntity entity = this.entity;
+		this.entity = null;
+
+		int captureLimit = getHistoryCaptureBytes();
+		long contentLength = entity.getContentLength();
+		ByteArrayOutputStream captured = new ByteArrayOutputStream((int) Math.max(0, Math.min(captureLimit,
+				(contentLength > 0) ? contentLength : STREAM_BUFFER_SIZE)));
+		MessageDigest digest = createDigest();
+		byte[] buffer = BufferPool.getInstance().acquire(STREAM_BUFFER_SIZE);
+		long total = 0;
+		boolean completed = false;
+		InputStream in = entity.getContent();
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				digest.update(buffer, 0, read);
+				int room = captureLimit - captured.size();
+				if (room > 0) {
+					captured.write(buffer, 0, Math.min(room, read));
+				}
+				total += read;
+				// Flush before we'd block on upstream, so chunked or
+				// event-stream responses reach the client as they arrive.
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+			out.flush();
+			completed = true;
+		} finally {
+			if (completed) {
+				// Fully read, so this returns the connection to the pool.
+				in.close();
+			} else {
+				abort(entity);
+			}
+			BufferPool.getInstance().release(buffer);
+			setBody(decode(captured, EntityUtils.getContentCharSet(entity)));
+			this.bodyLength = total;
+			this.bodyTruncated = total > captured.size();
+			this.bodyDigest = completed ? EncodedResponse.toHex(digest.digest()) : null;
+		}
+	}
+
+	private String decode(ByteArrayOutputStream captured, String charSet) {
+		try {
+			return captured.toString((charSet != null) ? charSet : HTTP.ISO_8859_1);
+		} catch (IOException e) {
+			log.debug("Unknown charset " + charSet + ", using ISO-8859-1 for History", e);
+			return new String(captured.toByteArray(), Charset.forName(HTTP.ISO_8859_1));
+		}
+	}
+
+	/**
+	 * Releases the upstream connection if the entity was never streamed, e.g.
+	 * because the client went away. Safe to call more than once.
+	 */
+	public void close() {
+		HttpEntity entity = this.entity;
+		this.entity = null;
+		if (entity != null) {
+			abort(entity);
+		}
+	}
+
+	private void abort(HttpEntity entity) {
+		// Don't read the rest of a possibly huge body just to reuse the
+		// connection; drop it instead.
+		if (entity instanceof ConnectionReleaseTrigger) {
+			try {
+				((ConnectionReleaseTrigger) entity).abortConnection();
+			} catch (IOException e) {
+				log.debug("Unable to abort upstream connection", e);
+			}
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE ships SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int getHistoryCaptureBytes() {
+		String value = System.getProperty(PROPERTY_HISTORY_CAPTURE_BYTES);
+		if (value != null) {
+			try {
+				return Math.max(0, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException e) {
+				LogFactory.getLog(ResponseFromService.class).error(
+						"Invalid value for system property " + PROPERTY_HISTORY_CAPTURE_BYTES + ". Using default "
+								+ DEFAULT_HISTORY_CAPTURE_BYTES);
+			}
+		}
+		return DEFAULT_HISTORY_CAPTURE_BYTES;
+	}
+
 	private boolean ignoreHeader(String name) {
 		for (String header : IGNORE_HEADERS) {
 			if (header.equalsIgnoreCase(name)) {
@@ -27,6 +27,8 @@
  */
 package com.mockey.model;
 
+import java.util.List;
+
 /**
  * A Scenario is a specific response from a Service.
  * 
@@ -40,6 +42,8 @@ public class Scenario implements PersistableItem {
 	private String requestMessage;
 	private String responseMessage;
 	private String matchStringArg = null;
+	private String matchPredicates = null;
+	private volatile EncodedResponse encodedResponse = null;
 
 	public String getScenarioName() {
 		return scenarioName;
@@ -63,6 +67,30 @@ public class Scenario implements PersistableItem {
 
 	public void setResponseMessage(String responseMessage) {
 		this.responseMessage = responseMessage;
+		this.encodedResponse = null;
+	}
+
+	/**
+	 * The response message encoded for the given content type. The encoding
+	 * is done once and reused until the response message or the content type
+	 * changes.
+	 * 
+	 * @param contentType
+	 *            the service's HTTP content type
+	 * @return encoded response message
+	 */
+	public EncodedResponse getEncodedResponse(String contentType) {
+		EncodedResponse encoded = this.encodedResponse;
+		if (encoded == null || encoded.getBody() != this.responseMessage
+				|| !equalsOrBothNull(encoded.getContentType(), contentType)) {
+			encoded = EncodedResponse.encode(this.responseMessage, contentType);
+			this.encodedResponse = encoded;
+		}
+		return encoded;
+	}
+
+	private static boolean equalsOrBothNull(String a, String b) {
+		return (a == null) ? b == null : a.equals(b);
 	}
 
 	public String getMatchStringArg() {
@@ -73,10 +101,39 @@ public class Scenario implements PersistableItem {
 		this.matchStringArg = matchStringArg;
 	}
 
+	/**
+	 * 
+	 * @return request predicates, one per line, that must all hold for this
+	 *         scenario to match a request; may be null
+	 * @see RequestPredicate
+	 */
+	public String getMatchPredicates() {
+		return matchPredicates;
+	}
+
+	public void setMatchPredicates(String matchPredicates) {
+		this.matchPredicates = matchPredicates;
+	}
+
+	/**
+	 * 
+	 * @return the parsed match predicates, cheapest to evaluate first
+	 * @throws IllegalArgumentException
+	 *             if the predicates are not valid
+	 */
+	public List<RequestPredicate> getRequestPredicates() {
+		return RequestPredicate.parseAll(this.matchPredicates);
+	}
+
+	public boolean hasMatchPredicates() {
+		return matchPredicates != null && matchPredicates.trim().length() > 0;
+	}
+
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
 		sb.append("Scenario name:" + this.getScenarioName());
 		sb.append("Match string:" + this.getMatchStringArg());
+		sb.append("Match predicates:" + this.getMatchPredicates());
 		sb.append("Request msg:" + this.getRequestMessage());
 		sb.append("Response msg:" + this.getResponseMessage());
 		return sb.toString();
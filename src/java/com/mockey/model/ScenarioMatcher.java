@@ -0,0 +1,481 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Compiled form of a service's dynamic scenarios: an Aho-Corasick automaton
+ * over every match argument, so a request is checked against all scenarios in
+ * one pass over its text, plus each scenario's parsed request predicates.
+ * <p>
+ * A scenario matches when its match argument occurs in the request text
+ * (parameters, then body) and all its predicates hold; it needs at least one
+ * of the two. The first matching scenario in the given order wins, as if each
+ * were tested in turn with <code>text.indexOf(scenario.getMatchStringArg())</code>.
+ * Predicates that only look at the request line, parameters, headers and
+ * cookies run first; the text is scanned only if a scenario still in the
+ * running has a match argument, and the body is parsed only for a scenario
+ * that gets as far as its JSON or XPath predicates. Scenarios with invalid
+ * predicates never match.
+ * <p>
+ * Characters that appear in no match string share one input class, and when
+ * the automaton is small enough its transitions are expanded into a dense
+ * table, so most characters cost a single array lookup. Instances are
+ * immutable and thread-safe; a service rebuilds its matcher when its
+ * scenarios change (see {@link #isCurrent(int)}).
+ */
+public class ScenarioMatcher {
+
+	// Above this many table cells, transitions stay sparse and follow failure
+	// links instead.
+	private static final int MAX_TABLE_SIZE = 1 << 20;
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+	private static final int ROOT = 0;
+	private static final int BUFFER_SIZE = 8192;
+	private static final RequestPredicate[] NO_PREDICATES = new RequestPredicate[0];
+
+	private static Log logger = LogFactory.getLog(ScenarioMatcher.class);
+
+	private final int version;
+	// Snapshot of every scenario, to spot names, match strings or predicates
+	// edited in place.
+	private final Scenario[] scenarios;
+	private final String[] names;
+	private final String[] matchStrings;
+	private final String[] predicateDefinitions;
+
+	// Scenarios with a match argument or predicates, by priority.
+	private final Scenario[] candidates;
+	private final boolean[] hasPattern;
+	private final RequestPredicate[][] predicates;
+	// Per candidate: index of the first predicate that needs the body.
+	private final int[] bodyPredicateStart;
+	private final boolean hasPredicates;
+	private final int firstPatternCandidate;
+
+	private final int[] asciiClasses = new int[128];
+	private final char[] otherChars;
+	private final int[] otherClasses;
+	private final int width;
+
+	// Per state: lowest candidate priority ending here or at a suffix state,
+	// or NO_MATCH.
+	private final int[] output;
+	// Per state: candidates whose match argument ends exactly here, and the
+	// nearest suffix state that has some, or -1.
+	private final int[][] own;
+	private final int[] dictionary;
+	private final int[] fail;
+	private final int[][] keys;
+	private final int[][] children;
+	// state * width + class -> next state * width, complemented when the next
+	// state has an output; null when too large.
+	private final int[] table;
+
+	/**
+	 * 
+	 * @param version
+	 *            the scenario version of the service these scenarios belong to
+	 * @param orderedScenarios
+	 *            scenarios in match order
+	 */
+	public ScenarioMatcher(int version, List<Scenario> orderedScenarios) {
+		this.version = version;
+		int count = orderedScenarios.size();
+		this.scenarios = orderedScenarios.toArray(new Scenario[count]);
+		this.names = new String[count];
+		this.matchStrings = new String[count];
+		this.predicateDefinitions = new String[count];
+		List<Scenario> candidateList = new ArrayList<Scenario>();
+		List<RequestPredicate[]> predicateList = new ArrayList<RequestPredicate[]>();
+		// Match argument per candidate, null if none.
+		List<String> patterns = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			Scenario scenario = this.scenarios[i];
+			this.names[i] = scenario.getScenarioName();
+			this.matchStrings[i] = scenario.getMatchStringArg();
+			this.predicateDefinitions[i] = scenario.getMatchPredicates();
+			RequestPredicate[] scenarioPredicates = NO_PREDICATES;
+			if (scenario.hasMatchPredicates()) {
+				try {
+					List<RequestPredicate> parsed = scenario.getRequestPredicates();
+					scenarioPredicates = parsed.toArray(new RequestPredicate[parsed.size()]);
+				} catch (IllegalArgumentException e) {
+					logger.error("Ignoring scenario '" + scenario.getScenarioName() + "', its match predicates are "
+							+ "not valid: " + e.getMessage());
+					continue;
+				}
+			}
+			if (scenario.hasMatchArgument() || scenarioPredicates.length > 0) {
+				candidateList.add(scenario);
+				predicateList.add(scenarioPredicates);
+				patterns.add(scenario.hasMatchArgument() ? scenario.getMatchStringArg() : null);
+			}
+		}
+		this.candidates = candidateList.toArray(new Scenario[candidateList.size()]);
+		this.predicates = predicateList.toArray(new RequestPredicate[candidateList.size()][]);
+		this.hasPattern = new boolean[this.candidates.length];
+		this.bodyPredicateStart = new int[this.candidates.length];
+		boolean anyPredicates = false;
+		int firstPattern = NO_MATCH;
+		for (int i = 0; i < this.candidates.length; i++) {
+			this.hasPattern[i] = patterns.get(i) != null;
+			if (this.hasPattern[i] && firstPattern == NO_MATCH) {
+				firstPattern = i;
+			}
+			int start = 0;
+			while (start < this.predicates[i].length && !this.predicates[i][start].needsBody()) {
+				start++;
+			}
+			this.bodyPredicateStart[i] = start;
+			anyPredicates |= this.predicates[i].length > 0;
+		}
+		this.hasPredicates = anyPredicates;
+		this.firstPatternCandidate = firstPattern;
+
+		// Input classes: 0 for characters in no match string, then one per
+		// distinct character.
+		StringBuilder distinct = new StringBuilder();
+		for (String pattern : patterns) {
+			if (pattern != null) {
+				distinct.append(pattern);
+			}
+		}
+		char[] chars = distinct.toString().toCharArray();
+		Arrays.sort(chars);
+		int classes = 1;
+		List<Character> others = new ArrayList<Character>();
+		for (int i = 0; i < chars.length; i++) {
+			if (i > 0 && chars[i] == chars[i - 1]) {
+				continue;
+			}
+			if (chars[i] < 128) {
+				this.asciiClasses[chars[i]] = classes++;
+			} else {
+				others.add(Character.valueOf(chars[i]));
+			}
+		}
+		this.otherChars = new char[others.size()];
+		this.otherClasses = new int[others.size()];
+		for (int i = 0; i < others.size(); i++) {
+			this.otherChars[i] = others.get(i).charValue();
+			this.otherClasses[i] = classes++;
+		}
+		this.width = classes;
+
+		// Trie
+		List<int[]> keyList = new ArrayList<int[]>();
+		List<int[]> childList = new ArrayList<int[]>();
+		List<int[]> ownList = new ArrayList<int[]>();
+		keyList.add(new int[0]);
+		childList.add(new int[0]);
+		ownList.add(new int[0]);
+		for (int priority = 0; priority < patterns.size(); priority++) {
+			String pattern = patterns.get(priority);
+			if (pattern == null) {
+				continue;
+			}
+			int state = ROOT;
+			for (int i = 0; i < pattern.length(); i++) {
+				int inputClass = classOf(pattern.charAt(i));
+				int next = child(keyList.get(state), childList.get(state), inputClass);
+				if (next < 0) {
+					next = keyList.size();
+					keyList.add(new int[0]);
+					childList.add(new int[0]);
+					ownList.add(new int[0]);
+					keyList.set(state, append(keyList.get(state), inputClass));
+					childList.set(state, append(childList.get(state), next));
+				}
+				state = next;
+			}
+			ownList.set(state, append(ownList.get(state), priority));
+		}
+		int states = keyList.size();
+		this.keys = keyList.toArray(new int[states][]);
+		this.children = childList.toArray(new int[states][]);
+		this.own = ownList.toArray(new int[states][]);
+		this.output = new int[states];
+		for (int i = 0; i < states; i++) {
+			// Priorities were appended in increasing order.
+			this.output[i] = (this.own[i].length > 0) ? this.own[i][0] : NO_MATCH;
+		}
+
+		// Failure links, breadth first, folding each state's output into the
+		// outputs of the states it is a suffix of.
+		this.fail = new int[states];
+		this.dictionary = new int[states];
+		this.dictionary[ROOT] = -1;
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = ROOT;
+		while (head < tail) {
+			int state = queue[head++];
+			for (int i = 0; i < this.keys[state].length; i++) {
+				int inputClass = this.keys[state][i];
+				int next = this.children[state][i];
+				int suffix = ROOT;
+				if (state != ROOT) {
+					suffix = this.fail[state];
+					while (suffix != ROOT && child(this.keys[suffix], this.children[suffix], inputClass) < 0) {
+						suffix = this.fail[suffix];
+					}
+					int target = child(this.keys[suffix], this.children[suffix], inputClass);
+					suffix = (target < 0) ? ROOT : target;
+				}
+				this.fail[next] = suffix;
+				this.output[next] = Math.min(this.output[next], this.output[suffix]);
+				this.dictionary[next] = (this.own[suffix].length > 0) ? suffix : this.dictionary[suffix];
+				queue[tail++] = next;
+			}
+		}
+
+		// Dense transitions, filled in the same breadth-first order so a
+		// state's failure target is always complete before the state itself.
+		if ((long) states * this.width <= MAX_TABLE_SIZE) {
+			this.table = new int[states * this.width];
+			for (int q = 0; q < tail; q++) {
+				int state = queue[q];
+				int base = state * this.width;
+				if (state != ROOT) {
+					System.arraycopy(this.table, this.fail[state] * this.width, this.table, base, this.width);
+				}
+				for (int i = 0; i < this.keys[state].length; i++) {
+					int next = this.children[state][i];
+					int offset = next * this.width;
+					this.table[base + this.keys[state][i]] = (this.output[next] == NO_MATCH) ? offset : ~offset;
+				}
+			}
+		} else {
+			this.table = null;
+		}
+	}
+
+	/**
+	 * 
+	 * @param currentVersion
+	 *            the service's current scenario version
+	 * @return true if this matcher was built for that version and no scenario
+	 *         has had its name, match string or predicates changed since
+	 */
+	public boolean isCurrent(int currentVersion) {
+		if (currentVersion != this.version) {
+			return false;
+		}
+		for (int i = 0; i < this.scenarios.length; i++) {
+			if (this.scenarios[i].getScenarioName() != this.names[i]
+					|| this.scenarios[i].getMatchStringArg() != this.matchStrings[i]
+					|| this.scenarios[i].getMatchPredicates() != this.predicateDefinitions[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @param request
+	 *            the incoming request
+	 * @return the first scenario, in match order, that matches the request, or
+	 *         null if none does
+	 */
+	public Scenario find(RequestFromClient request) {
+		RequestMatchContext context = new RequestMatchContext(request);
+		if (!this.hasPredicates) {
+			return findInText(context.getParameterText(), context.getBodyText());
+		}
+		boolean[] found = null;
+		for (int i = 0; i < this.candidates.length; i++) {
+			RequestPredicate[] candidatePredicates = this.predicates[i];
+			int bodyStart = this.bodyPredicateStart[i];
+			if (!allMatch(candidatePredicates, 0, bodyStart, context)) {
+				continue;
+			}
+			if (this.hasPattern[i]) {
+				if (found == null) {
+					found = new boolean[this.candidates.length];
+					scan(new CharSequence[] { context.getParameterText(), context.getBodyText() }, found);
+				}
+				if (!found[i]) {
+					continue;
+				}
+			}
+			if (allMatch(candidatePredicates, bodyStart, candidatePredicates.length, context)) {
+				return this.candidates[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Matches on match arguments alone, for services whose scenarios have no
+	 * predicates. Scans the given text segments as if they were concatenated.
+	 * 
+	 * @param segments
+	 *            request text, e.g. parameters then body; null segments are
+	 *            skipped
+	 * @return the first scenario, in match order, whose match string occurs in
+	 *         the text, or null if none does
+	 */
+	Scenario findInText(CharSequence... segments) {
+		int best = scan(segments, null);
+		return (best == NO_MATCH) ? null : this.candidates[best];
+	}
+
+	private static boolean allMatch(RequestPredicate[] predicates, int from, int to, RequestMatchContext context) {
+		for (int i = from; i < to; i++) {
+			if (!predicates[i].matches(context)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @param segments
+	 *            text to scan, as if concatenated
+	 * @param found
+	 *            if null, stop at the first candidate in order; otherwise
+	 *            scan everything, flagging every candidate whose match argument
+	 *            occurs
+	 * @return the lowest priority found, or NO_MATCH
+	 */
+	private int scan(CharSequence[] segments, boolean[] found) {
+		if (this.firstPatternCandidate == NO_MATCH) {
+			return NO_MATCH;
+		}
+		boolean[] reported = (found == null) ? null : new boolean[this.output.length];
+		int best = NO_MATCH;
+		int state = ROOT;
+		for (CharSequence segment : segments) {
+			if (segment == null) {
+				continue;
+			}
+			int length = segment.length();
+			if (this.table != null) {
+				int[] table = this.table;
+				int offset = state * this.width;
+				char[] buffer = new char[Math.min(length, BUFFER_SIZE)];
+				for (int start = 0; start < length; start += buffer.length) {
+					int end = Math.min(start + buffer.length, length);
+					copy(segment, start, end, buffer);
+					for (int i = 0, n = end - start; i < n; i++) {
+						char c = buffer[i];
+						int next = table[offset + ((c < 128) ? this.asciiClasses[c] : classOf(c))];
+						if (next >= 0) {
+							offset = next;
+						} else {
+							offset = ~next;
+							int matched = offset / this.width;
+							if (found != null) {
+								report(matched, found, reported);
+							} else if (this.output[matched] < best) {
+								best = this.output[matched];
+								if (best == this.firstPatternCandidate) {
+									return best;
+								}
+							}
+						}
+					}
+				}
+				state = offset / this.width;
+			} else {
+				for (int i = 0; i < length; i++) {
+					int inputClass = classOf(segment.charAt(i));
+					int next = child(this.keys[state], this.children[state], inputClass);
+					while (next < 0 && state != ROOT) {
+						state = this.fail[state];
+						next = child(this.keys[state], this.children[state], inputClass);
+					}
+					state = (next < 0) ? ROOT : next;
+					if (this.output[state] != NO_MATCH) {
+						if (found != null) {
+							report(state, found, reported);
+						} else if (this.output[state] < best) {
+							best = this.output[state];
+							if (best == this.firstPatternCandidate) {
+								return best;
+							}
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private void report(int state, boolean[] found, boolean[] reported) {
+		for (int s = state; s >= 0 && !reported[s]; s = this.dictionary[s]) {
+			reported[s] = true;
+			for (int candidate : this.own[s]) {
+				found[candidate] = true;
+			}
+		}
+	}
+
+	private int classOf(char c) {
+		if (c < 128) {
+			return this.asciiClasses[c];
+		}
+		int index = Arrays.binarySearch(this.otherChars, c);
+		return (index < 0) ? 0 : this.otherClasses[index];
+	}
+
+	private static void copy(CharSequence segment, int start, int end, char[] buffer) {
+		if (segment instanceof String) {
+			((String) segment).getChars(start, end, buffer, 0);
+		} else {
+			for (int i = start; i < end; i++) {
+				buffer[i - start] = segment.charAt(i);
+			}
+		}
+	}
+
+	private static int child(int[] keys, int[] children, int inputClass) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] == inputClass) {
+				return children[i];
+			}
+		}
+		return -1;
+	}
+
+	private static int[] append(int[] values, int value) {
+		int[] result = Arrays.copyOf(values, values.length + 1);
+		result[values.length] = value;
+		return result;
+	}
+}
@@ -40,6 +40,7 @@ public class SearchResult {
 	private String serviceId = null;
 	private String scenarioId = null;
 	private String scenarioName = null;
+	private String fulfilledRequestId = null;
 	public String getContent() {
 		return content;
 	}
@@ -70,6 +71,12 @@ public class SearchResult {
 	public String getScenarioName() {
 		return scenarioName;
 	}
+	public void setFulfilledRequestId(String fulfilledRequestId) {
+		this.fulfilledRequestId = fulfilledRequestId;
+	}
+	public String getFulfilledRequestId() {
+		return fulfilledRequestId;
+	}
 	
 	
 
@@ -27,12 +27,13 @@
  */
 package com.mockey.model;
 
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -66,7 +67,13 @@ public class Service implements PersistableItem, ExecutableService {
 	private Long errorScenarioId;
 	private String httpContentType = "text/html;charset=utf-8";
 	private int hangTime = 0;
+	private HangTimeDistribution hangTimeDistribution = null;
 	private PersistableItemStore<Scenario> scenarios = new PersistableItemStore<Scenario>();
+	// Bumped on every scenario save or delete; the cached ordering and matcher
+	// are rebuilt when they fall behind.
+	private final AtomicInteger scenarioVersion = new AtomicInteger();
+	private volatile OrderedScenarios orderedScenarios;
+	private volatile ScenarioMatcher scenarioMatcher;
 	private int serviceResponseType = SERVICE_RESPONSE_TYPE_PROXY;
 	private String httpMethod = "GET";
 	private String url = "";
@@ -166,8 +173,68 @@ public class Service implements PersistableItem, ExecutableService {
 		this.hangTime = hangTime;
 	}
 
+	/**
+	 * 
+	 * @return hang time distribution definition, e.g. "uniform:200-800", or
+	 *         null if this service uses its fixed hang time.
+	 * @see HangTimeDistribution
+	 */
+	public String getHangTimeDistribution() {
+		return (hangTimeDistribution != null) ? hangTimeDistribution.toString() : null;
+	}
+
+	/**
+	 * 
+	 * @param definition
+	 *            hang time distribution definition. Null or empty reverts to
+	 *            the fixed hang time.
+	 * @throws IllegalArgumentException
+	 *             if the definition is not valid
+	 * @see HangTimeDistribution
+	 */
+	public void setHangTimeDistribution(String definition) {
+		this.hangTimeDistribution = HangTimeDistribution.parse(definition);
+	}
+
+	/**
+	 * 
+	 * @return the hang time to use for the next request: drawn from the hang
+	 *         time distribution if there is one, otherwise the fixed hang time.
+	 */
+	public int nextHangTime() {
+		HangTimeDistribution distribution = this.hangTimeDistribution;
+		return (distribution != null) ? distribution.nextHangTime() : this.hangTime;
+	}
+
+	/**
+	 * 
+	 * @return this service's scenarios ordered by name, as an unmodifiable
+	 *         list. The ordering is cached and only redone after a scenario is
+	 *         saved or deleted, so rename scenarios through
+	 *         {@link #saveOrUpdateScenario(Scenario)}.
+	 */
 	public List<Scenario> getScenarios() {
-		return Util.orderAlphabeticallyByScenarioName(scenarios.getOrderedList());
+		// Read the version before the scenarios, as in getScenarioMatcher().
+		int version = this.scenarioVersion.get();
+		OrderedScenarios ordered = this.orderedScenarios;
+		if (ordered == null || ordered.version != version) {
+			ordered = new OrderedScenarios(version, Collections.unmodifiableList(Util
+					.orderAlphabeticallyByScenarioName(scenarios.getOrderedList())));
+			this.orderedScenarios = ordered;
+		}
+		return ordered.scenarios;
+	}
+
+	/**
+	 * 
+	 * @return number of scenarios
+	 */
+	public int getScenarioCount() {
+		return getScenarios().size();
+	}
+
+	public boolean hasScenarios() {
+		return !getScenarios().isEmpty();
 	}
 
 	public Scenario getScenario(Long scenarioId) {
@@ -176,11 +243,34 @@ public class Service implements PersistableItem, ExecutableService {
 
 	public void deleteScenario(Long scenarioId) {
 		this.scenarios.remove(scenarioId);
+		this.scenarioVersion.incrementAndGet();
+		updateSearchIndex();
 	}
 
 	public Scenario saveOrUpdateScenario(Scenario scenario) {
 		scenario.setServiceId(this.id);
-		return (Scenario) this.scenarios.save(scenario);
+		Scenario saved = (Scenario) this.scenarios.save(scenario);
+		this.scenarioVersion.incrementAndGet();
+		updateSearchIndex();
+		return saved;
+	}
+
+	/**
+	 * 
+	 * @return the compiled matcher for this service's dynamic scenarios,
+	 *         rebuilt if scenarios were added, removed, renamed or given a new
+	 *         match string since it was last built.
+	 */
+	ScenarioMatcher getScenarioMatcher() {
+		// Read the version before the scenarios, so a change made while
+		// building leaves the new matcher already stale.
+		int version = this.scenarioVersion.get();
+		ScenarioMatcher matcher = this.scenarioMatcher;
+		if (matcher == null || !matcher.isCurrent(version)) {
+			matcher = new ScenarioMatcher(version, this.getScenarios());
+			this.scenarioMatcher = matcher;
+		}
+		return matcher;
 	}
 
 	/**
@@ -221,6 +311,9 @@ public class Service implements PersistableItem, ExecutableService {
 		sb.append("HTTP Content:").append(this.getHttpContentType()).append("\n");
 		sb.append("Hang time:");
 		sb.append(this.getHangTime());
+		if (this.hangTimeDistribution != null) {
+			sb.append(" (").append(this.hangTimeDistribution).append(")");
+		}
 		sb.append("\n");
 
 		return sb.toString();
@@ -311,7 +404,7 @@ public class Service implements PersistableItem, ExecutableService {
 
 	public int getServiceResponseType() {
 		// If no scenarios, then proxy is automatically on.
-		if (this.getScenarios().size() == 0) {
+		if (!this.hasScenarios()) {
 			return SERVICE_RESPONSE_TYPE_PROXY;
 		} else {
 			return serviceResponseType;
@@ -342,10 +435,10 @@ public class Service implements PersistableItem, ExecutableService {
 
 	public Scenario getErrorScenario() {
 		// FIND SERVICE ERROR, IF EXIST.
-		for (Scenario scenario : this.getScenarios()) {
-			if (scenario.getId() == this.getErrorScenarioId()) {
-				return scenario;
-			}
+		Long scenarioId = this.getErrorScenarioId();
+		Scenario scenario = (scenarioId != null) ? this.getScenario(scenarioId) : null;
+		if (scenario != null) {
+			return scenario;
 		}
 		// No service error defined, therefore, let's use the universal
 		// error.
@@ -371,11 +464,12 @@ public class Service implements PersistableItem, ExecutableService {
 	 */
 	public ResponseFromService execute(RequestFromClient request, Url realServiceUrl) {
 		ResponseFromService response = null;
-		if (this.getServiceResponseType() == Service.SERVICE_RESPONSE_TYPE_PROXY) {
+		int responseType = this.getServiceResponseType();
+		if (responseType == Service.SERVICE_RESPONSE_TYPE_PROXY) {
 			response = proxyTheRequest(request, realServiceUrl);
-		} else if (this.getServiceResponseType() == Service.SERVICE_RESPONSE_TYPE_DYNAMIC_SCENARIO) {
+		} else if (responseType == Service.SERVICE_RESPONSE_TYPE_DYNAMIC_SCENARIO) {
 			response = executeDynamicScenario(request, realServiceUrl);
-		} else if (this.getServiceResponseType() == Service.SERVICE_RESPONSE_TYPE_STATIC_SCENARIO) {
+		} else if (responseType == Service.SERVICE_RESPONSE_TYPE_STATIC_SCENARIO) {
 			response = executeStaticScenario(realServiceUrl);
 		}
 		return response;
@@ -406,8 +500,8 @@ public class Service implements PersistableItem, ExecutableService {
 		// 1)
 		try {
 			logger.debug("Initiating request through proxy");
-			TwistInfo twistInfo = store.getTwistInfoById(store.getUniversalTwistInfoId());
-			
+			TwistInfo twistInfo = store.getUniversalTwistInfo();
+
 			response = clientExecuteProxy.execute(twistInfo, proxyServer, realServiceUrl, allowRedirectFollow, request);
 
 		} catch (ClientExecuteProxyException e) {
@@ -424,7 +518,7 @@ public class Service implements PersistableItem, ExecutableService {
 			response.setRequestUrl(e.getRequestUrl());
 			Scenario error = this.getErrorScenario();
 			if (error != null) {
-				response.setBody(error.getResponseMessage());
+				response.setBody(error.getEncodedResponse(this.getHttpContentType()));
 			} else {
 				StringBuffer msg = new StringBuffer();
 				JSONObject jsonResponseObject = new JSONObject();
@@ -468,7 +562,7 @@ public class Service implements PersistableItem, ExecutableService {
 		ResponseFromService response = new ResponseFromService();
 
 		if (scenario != null) {
-			response.setBody(scenario.getResponseMessage());
+			response.setBody(scenario.getEncodedResponse(this.getHttpContentType()));
 		} else {
 			response.setBody("NO SCENARIO SELECTED");
 		}
@@ -479,33 +573,14 @@ public class Service implements PersistableItem, ExecutableService {
 	private ResponseFromService executeDynamicScenario(RequestFromClient request, Url realServiceUrl) {
 
 		logger.debug("mockeying a dynamic scenario.");
-		StringBuffer rawRequestDataBuffer = new StringBuffer();
-		try {
-			rawRequestDataBuffer.append(request.buildParameterRequest());
-			if (request.hasPostBody()) {
-				rawRequestDataBuffer.append(request.getBodyInfo());
-			}
-		} catch (UnsupportedEncodingException e) {
-			// uhm.
-			logger.debug("Unable to extract content from request", e);
-		}
-		String rawRequestData = rawRequestDataBuffer.toString();
 		ResponseFromService response = new ResponseFromService();
-		List<Scenario> scenarios = this.getScenarios();
-		Iterator<Scenario> iter = scenarios.iterator();
-		String messageMatchFound = null;
-		while (iter.hasNext()) {
-			Scenario scenario = iter.next();
-			logger.debug("Checking: '" + scenario.getMatchStringArg() + "' in Scenario message: \n" + rawRequestData);
-			int indexValue = -1;
-			if (scenario.hasMatchArgument()) {
-				indexValue = rawRequestData.indexOf(scenario.getMatchStringArg());
-			}
-			if ((indexValue > -1)) {
+		EncodedResponse messageMatchFound = null;
+		Scenario scenario = this.getScenarioMatcher().find(request);
+		if (scenario != null) {
+			if (logger.isDebugEnabled()) {
 				logger.debug("FOUND - matching '" + scenario.getMatchStringArg() + "' ");
-				messageMatchFound = scenario.getResponseMessage();
-				break;
 			}
+			messageMatchFound = scenario.getEncodedResponse(this.getHttpContentType());
 		}
 		// OK, no matches. Error handling is as follows:
 		// 1) Does service have a default service error defined? If yes, return
@@ -519,7 +594,7 @@ public class Service implements PersistableItem, ExecutableService {
 				u = store.getUniversalErrorScenario();
 			}
 			if (u != null) {
-				messageMatchFound = u.getResponseMessage();
+				messageMatchFound = u.getEncodedResponse(this.getHttpContentType());
 			} else {
 				throw new RuntimeException("Ouch, no love for you! Why? Well, it could be that this service setting "
 						+ "is set to Dynamic but there is no found matching scenario, nor is there a default "
@@ -557,6 +632,7 @@ public class Service implements PersistableItem, ExecutableService {
 
 	public void setRealServiceUrls(List<Url> realServiceUrls) {
 		this.realServiceUrls = realServiceUrls;
+		updateUrlIndex();
 	}
 
 	/**
@@ -588,7 +664,25 @@ public class Service implements PersistableItem, ExecutableService {
 			if (this.serviceName != null && this.serviceName.trim().isEmpty()) {
 				this.setServiceName(this.getNiceNameForService(url.getFullUrl()));
 			}
+			updateUrlIndex();
+		}
+	}
 
+	/**
+	 * Keeps URL-to-service routing current if this service is already stored.
+	 */
+	private void updateUrlIndex() {
+		if (this.id != null) {
+			store.updateServiceUrlIndex(this);
+		}
+	}
+
+	/**
+	 * Keeps search results current if this service is already stored.
+	 */
+	private void updateSearchIndex() {
+		if (this.id != null) {
+			store.updateSearchIndex(this);
 		}
 	}
 
@@ -650,6 +744,7 @@ public class Service implements PersistableItem, ExecutableService {
 	 */
 	public void setUrl(String url) {
 		this.url = url;
+		updateUrlIndex();
 	}
 
 	/**
@@ -693,4 +788,18 @@ public class Service implements PersistableItem, ExecutableService {
 	public Boolean getTransientState() {
 		return transientState;
 	}
+
+	/**
+	 * A scenario ordering and the scenario version it was built from.
+	 */
+	private static final class OrderedScenarios {
+
+		private final int version;
+		private final List<Scenario> scenarios;
+
+		OrderedScenarios(int version, List<Scenario> scenarios) {
+			this.version = version;
+			this.scenarios = scenarios;
+		}
+	}
 }
@@ -28,7 +28,15 @@
 package com.mockey.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import com.mockey.ui.PatternPair;
 
@@ -40,14 +48,24 @@ import com.mockey.ui.PatternPair;
  * URLs belonging to <i>User Acceptance Testing Environment A</i> but one really
  * wants to be pointing to <i>Developer Sandbox Environment</i>. 
  * 
+ * An origination is taken literally, e.g. the dots in a host name match only
+ * dots, unless it has other regular expression characters such as
+ * <code>*</code> or <code>(</code>, in which case it's a pattern and the
+ * destination may refer to its groups. The first pair, in list order, that
+ * matches wins. Pairs are compiled when the twist is saved.
+ * 
  * @author chadlafontaine
  * 
  */
 public class TwistInfo implements PersistableItem {
 
+	private static final String PATTERN_CHARACTERS = "\\^$*+?()[]{}|";
+	private static Log log = LogFactory.getLog(TwistInfo.class);
+
 	private Long id;
 	private String name;
 	private List<PatternPair> patternPairList = new ArrayList<PatternPair>();
+	private volatile Rules rules;
 
 	public Long getId() {
 		return id;
@@ -71,13 +89,22 @@ public class TwistInfo implements PersistableItem {
 
 	public void setPatternPairList(List<PatternPair> patternPairList) {
 		this.patternPairList = patternPairList;
+		this.rules = null;
 	}
 
 	public void addPatternPair(PatternPair patternPair) {
 		this.patternPairList.add(patternPair);
+		this.rules = null;
 	}
-	
-	
+
+	/**
+	 * Compiles the pattern pairs for <code>getTwistedValue</code>. Done by
+	 * the store on save; otherwise on first use after the pairs change.
+	 */
+	public void compile() {
+		this.rules = new Rules(getPatternPairList());
+	}
+
 	/**
 	 * If no matching origination value (from the pattern list) found in the incoming argument, 
 	 * then returns null. 
@@ -86,17 +113,157 @@ public class TwistInfo implements PersistableItem {
 	 * @return may be null
 	 */
 	public String getTwistedValue(String incoming){
-		String outgoing = null;
-		for(PatternPair patternPair: getPatternPairList()){
-			if(incoming!=null && incoming.indexOf(patternPair.getOrigination()) > -1){
-				if(patternPair.getOrigination()!=null && patternPair.getDestination()!=null ){
-					outgoing = incoming.replaceAll(patternPair.getOrigination(), patternPair.getDestination());
+		if (incoming == null) {
+			return null;
+		}
+		return getRules().twist(incoming, null);
+	}
+
+	/**
+	 * Same as <code>getTwistedValue(url.getFullUrl())</code>, but a pair
+	 * whose origination is the URL's host is found without trying the others.
+	 * 
+	 * @param url
+	 *            value to be twisted
+	 * @return may be null
+	 */
+	public String getTwistedValue(Url url) {
+		return getRules().twist(url.getFullUrl(), url);
+	}
+
+	private Rules getRules() {
+		Rules compiled = this.rules;
+		if (compiled == null) {
+			compiled = new Rules(getPatternPairList());
+			this.rules = compiled;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Pattern pairs, in order, ready to apply.
+	 */
+	private static class Rules {
+
+		private final Rule[] rules;
+		// Literal originations that could be a host, or host:port, to the
+		// index of the first rule with it.
+		private final Map<String, Integer> hostRules = new HashMap<String, Integer>();
+
+		Rules(List<PatternPair> patternPairs) {
+			List<Rule> compiled = new ArrayList<Rule>();
+			for (PatternPair patternPair : patternPairs) {
+				String origination = patternPair.getOrigination();
+				// An empty origination would match, and mangle, every URL.
+				if (origination == null || origination.length() == 0) {
+					continue;
+				}
+				Rule rule = new Rule(patternPair);
+				if (rule.pattern == null && origination.indexOf('/') == -1 && !hostRules.containsKey(origination)) {
+					hostRules.put(origination, compiled.size());
+				}
+				compiled.add(rule);
+			}
+			this.rules = compiled.toArray(new Rule[compiled.size()]);
+		}
+
+		String twist(String incoming, Url url) {
+			// A host match is a literal match too, so only the rules before
+			// it could take precedence.
+			int end = rules.length;
+			if (url != null && url.getHost() != null && !hostRules.isEmpty()) {
+				Integer index = hostRules.get(url.getHost());
+				if (index == null && !url.isDefaultPort()) {
+					index = hostRules.get(url.getHost() + ":" + url.getPort());
+				}
+				if (index != null) {
+					end = index;
 				}
-				break;
 			}
+			for (int i = 0; i < end; i++) {
+				if (rules[i].matches(incoming)) {
+					return rules[i].apply(incoming);
+				}
+			}
+			return (end < rules.length) ? rules[end].apply(incoming) : null;
 		}
-		return outgoing;
 	}
+
+	private static class Rule {
+
+		private final PatternPair patternPair;
+		private final String origination;
+		private final String destination;
+		private final Pattern pattern;
+
+		Rule(PatternPair patternPair) {
+			this.patternPair = patternPair;
+			this.origination = patternPair.getOrigination();
+			this.destination = patternPair.getDestination();
+			this.pattern = compilePattern(origination);
+		}
+
+		boolean matches(String incoming) {
+			return (pattern != null) ? pattern.matcher(incoming).find() : incoming.indexOf(origination) > -1;
+		}
+
+		/**
+		 * 
+		 * @return the incoming value with every match replaced, or null if
+		 *         this pair has no destination
+		 */
+		String apply(String incoming) {
+			patternPair.recordHit();
+			if (destination == null) {
+				return null;
+			}
+			if (pattern == null) {
+				return replaceLiteral(incoming, origination, destination);
+			}
+			Matcher matcher = pattern.matcher(incoming);
+			try {
+				return matcher.replaceAll(destination);
+			} catch (IllegalArgumentException e) {
+				// e.g. a '$' that isn't a group reference
+				return matcher.replaceAll(Matcher.quoteReplacement(destination));
+			} catch (IndexOutOfBoundsException e) {
+				// a reference to a group the pattern doesn't have
+				return matcher.replaceAll(Matcher.quoteReplacement(destination));
+			}
+		}
+
+		private static Pattern compilePattern(String origination) {
+			for (int i = 0; i < origination.length(); i++) {
+				if (PATTERN_CHARACTERS.indexOf(origination.charAt(i)) > -1) {
+					try {
+						return Pattern.compile(origination);
+					} catch (PatternSyntaxException e) {
+						if (log.isDebugEnabled()) {
+							log.debug("Twist origination '" + origination + "' isn't a valid pattern, using it literally");
+						}
+						return null;
+					}
+				}
+			}
+			return null;
+		}
+
+		private static String replaceLiteral(String incoming, String target, String replacement) {
+			int index = incoming.indexOf(target);
+			if (index == -1) {
+				return incoming;
+			}
+			StringBuilder builder = new StringBuilder(incoming.length() + replacement.length());
+			int start = 0;
+			while (index > -1) {
+				builder.append(incoming, start, index).append(replacement);
+				start = index + target.length();
+				index = incoming.indexOf(target, start);
+			}
+			return builder.append(incoming, start, incoming.length()).toString();
+		}
+	}
+
 	public static void main(String[] args){
 		TwistInfo twistInfo = new TwistInfo();
 		System.out.println(twistInfo.getTwistedValue("http://uat.google.com"));
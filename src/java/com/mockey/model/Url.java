@@ -34,18 +34,23 @@ import org.apache.log4j.Logger;
 
 /**
  * A Url is the specific http url of a Service.
- * 
+ * <p>
+ * A Url is a value: it's parsed once, and two Urls are equal if their full
+ * URLs are. The setter and empty constructor are only for reflection.
  */
 public class Url {
 	/**
 	 * The name of the mock service servlet name
 	 */
 	public static final String MOCK_SERVICE_PATH = "/service/";
-	private Logger logger = Logger.getLogger(Url.class);
+	private static final Logger logger = Logger.getLogger(Url.class);
+	private static final String HTTP = "http";
+	private static final String HTTPS = "https";
 	private String scheme;
 	private int port = 80;
 	private String host;
 	private String path;
+	private String fullUrl = "";
 
 	/**
 	 * @return the scheme
@@ -72,7 +77,7 @@ public class Url {
 	 * @return the path
 	 */
 	public String getPath() {
-		return path != null && path.trim() != "" ? path : "/";
+		return path != null && path.length() > 0 ? path : "/";
 	}
 
 	/**
@@ -108,72 +113,126 @@ public class Url {
 	 * If https or http cannot be determined, then HTTP will be the default. If
 	 * path cannot be determined, then 80 for HTTP scheme is default, 443 for
 	 * HTTPS.
+	 * <p>
+	 * Anything up to the mock service path, or up to the first "http", is
+	 * skipped. Works on indexes into <code>url</code> in one pass, and only
+	 * copies out the host and path.
 	 * 
 	 * @param url
-	 * @throws UrlException
 	 */
-	public void parse(String url) {
-
-		int beginIndex = url.indexOf(MOCK_SERVICE_PATH);
-		if (beginIndex > -1) {
-			url = url.substring(MOCK_SERVICE_PATH.length());
-
-		}
+	private void parse(String url) {
+		int length = url.length();
 
 		// Get rid of the garbage prior to the http.
-		int indexStartOfHttp = url.indexOf("http");
+		int start = url.indexOf(MOCK_SERVICE_PATH) > -1 ? MOCK_SERVICE_PATH.length() : 0;
+		int indexStartOfHttp = url.indexOf(HTTP, start);
 		if (indexStartOfHttp > -1) {
-			url = url.substring(indexStartOfHttp);
+			start = indexStartOfHttp;
 		}
 
 		// extract the scheme
-		if (url.matches("(?i)^https?://.*")) {
-			this.scheme = url.substring(0, url.indexOf(":"));
-			url = url.substring(url.indexOf("://") + 3, url.length());
+		int schemeLength = schemeLength(url, start);
+		if (schemeLength > 0) {
+			this.scheme = schemeLength == HTTPS.length() ? HTTPS : HTTP;
+			start += schemeLength + 3;
 		} else {
-			this.scheme = "http";
+			this.scheme = HTTP;
 		}
 
-		// extract the host and port
-		String hostAndPort;
-		if (url.indexOf("/") > 0) {
-			hostAndPort = url.substring(0, url.indexOf("/"));
-		} else {
-			hostAndPort = url;
-		}
-		if (hostAndPort.indexOf(":") > 0) {
-			this.host = hostAndPort.substring(0, hostAndPort.indexOf(":"));
-			String portArg = hostAndPort.substring(hostAndPort.indexOf(":") + 1, hostAndPort.length());
-			try {
-				this.port = Integer.valueOf(portArg);
-			} catch (Exception e) {
-				logger.debug("Unable to determine port for URL: " + hostAndPort
-						+ "\n Setting to default based on scheme. ");
-				if (this.scheme.equalsIgnoreCase("https")) {
-					this.port = 443;
-				} else {
-					this.port = 80;
-				}
-			}
+		// extract the host and port; a leading '/' doesn't end the host
+		int slash = url.indexOf('/', start);
+		int hostEnd = slash > start ? slash : length;
+		int colon = url.indexOf(':', start);
+		if (colon > start && colon < hostEnd) {
+			this.host = url.substring(start, colon);
+			this.port = parsePort(url, colon + 1, hostEnd);
 		} else {
-			this.host = hostAndPort;
-			if (this.scheme.equalsIgnoreCase("https")) {
-				this.port = 443;
-			} else {
-				this.port = 80;
-			}
+			this.host = url.substring(start, hostEnd);
+			this.port = defaultPort();
 		}
 
-		if (url.indexOf("/") > 0) {
-			this.path = url.substring(url.indexOf("/"), url.length());
+		if (slash > start) {
+			// The path starts with '/', so only its end can need trimming.
+			int end = length;
+			while (end > slash && url.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			this.path = url.substring(slash, end);
 		} else {
 			this.path = "";
 		}
-		this.path = this.path.trim();
 
 		// scheme and port are not case sensitive so normalize to lowercase
-		this.scheme = this.scheme.toLowerCase();
 		this.host = this.host.toLowerCase();
+		this.fullUrl = buildFullUrl();
+	}
+
+	/**
+	 * 
+	 * @return length of "http" or "https", case insensitive, if
+	 *         <code>url</code> has either followed by "://" at
+	 *         <code>start</code>, and no line breaks after it. Otherwise 0.
+	 */
+	private static int schemeLength(String url, int start) {
+		int length = url.length();
+		int i = start;
+		if (length - i < 7 || (url.charAt(i) | 0x20) != 'h' || (url.charAt(i + 1) | 0x20) != 't'
+				|| (url.charAt(i + 2) | 0x20) != 't' || (url.charAt(i + 3) | 0x20) != 'p') {
+			return 0;
+		}
+		i += 4;
+		if ((url.charAt(i) | 0x20) == 's') {
+			i++;
+		}
+		if (!url.startsWith("://", i)) {
+			return 0;
+		}
+		// Line breaks were never part of a URL with a scheme.
+		for (int j = i + 3; j < length; j++) {
+			char c = url.charAt(j);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				return 0;
+			}
+		}
+		return i - start;
+	}
+
+	/**
+	 * 
+	 * @return port in <code>url</code> between <code>start</code> and
+	 *         <code>end</code>, or the scheme's default port if it isn't a
+	 *         number.
+	 */
+	private int parsePort(String url, int start, int end) {
+		// Short runs of ASCII digits are the usual case; anything else goes
+		// through Integer, so signs and overflow are treated as before.
+		if (end > start && end - start <= 9) {
+			int value = 0;
+			int i = start;
+			for (; i < end; i++) {
+				char c = url.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				value = value * 10 + (c - '0');
+			}
+			if (i == end) {
+				return value;
+			}
+		}
+		try {
+			return Integer.parseInt(url.substring(start, end));
+		} catch (NumberFormatException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Unable to determine port for URL: " + url.substring(0, end)
+						+ "\n Setting to default based on scheme. ");
+			}
+			return defaultPort();
+		}
+	}
+
+	private int defaultPort() {
+		return HTTPS.equals(scheme) ? 443 : 80;
 	}
 
 	/**
@@ -182,7 +241,7 @@ public class Url {
 	 *         and 80 for HTTPS and HTTP respectively.
 	 */
 	public boolean isDefaultPort() {
-		return ("https".equals(scheme) && 443 == port) || ("http".equals(scheme) && 80 == port);
+		return (HTTPS.equals(scheme) && 443 == port) || (HTTP.equals(scheme) && 80 == port);
 	}
 
 	/**
@@ -192,19 +251,38 @@ public class Url {
 	 * @return
 	 */
 	public String getFullUrl() {
-		StringBuilder builder = new StringBuilder();
-		if (scheme != null && host != null && host.trim().length() > 0) {
+		return fullUrl;
+	}
+
+	private String buildFullUrl() {
+		StringBuilder builder = new StringBuilder(scheme.length() + host.length() + path.length() + 9);
+		if (!isBlank(host)) {
 			builder.append(scheme).append("://").append(host);
 			if (!isDefaultPort()) {
-				builder.append(":").append(port);
+				builder.append(':').append(port);
 			}
 		}
-		if (path != null) {
-			builder.append(path);
-		}
+		builder.append(path);
 		return builder.toString();
 	}
 
+	private static boolean isBlank(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean equals(Object obj) {
+		return obj instanceof Url && fullUrl.equals(((Url) obj).fullUrl);
+	}
+
+	public int hashCode() {
+		return fullUrl.hashCode();
+	}
+
 	public String toString() {
 		return getFullUrl();
 	}
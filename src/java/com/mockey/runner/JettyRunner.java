@@ -27,6 +27,7 @@
  */
 package com.mockey.runner;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
 import java.util.Properties;
@@ -41,6 +42,8 @@ import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.SimpleJSAP;
+import com.mockey.storage.HistoryRecorder;
+import com.mockey.storage.HistoryStore;
 import com.mockey.storage.xml.MockeyXmlFileManager;
 import com.mockey.ui.StartUpServlet;
 
@@ -59,6 +62,17 @@ public class JettyRunner {
 		jsap.registerParameter(new FlaggedOption("transientState", JSAP.BOOLEAN_PARSER, "true",
 				JSAP.NOT_REQUIRED, 't', "transientState", "Read only mode if set to true, no updates are made to the file system."));
 
+		jsap.registerParameter(new FlaggedOption("historyCapacity", JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT,
+				JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "historyCapacity", "Maximum number of requests kept in History. Default is "
+						+ HistoryStore.DEFAULT_CAPACITY + "."));
+		jsap.registerParameter(new FlaggedOption("historyByteBudget", JSAP.LONG_PARSER, JSAP.NO_DEFAULT,
+				JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "historyByteBudget", "Maximum estimated bytes of requests kept in History. Default is "
+						+ HistoryStore.DEFAULT_BYTE_BUDGET + "."));
+		jsap.registerParameter(new FlaggedOption("historyOverflow", JSAP.STRING_PARSER, JSAP.NO_DEFAULT,
+				JSAP.NOT_REQUIRED, JSAP.NO_SHORTFLAG, "historyOverflow", "When History recording falls behind, '"
+						+ HistoryRecorder.OVERFLOW_DROP + "' requests from History (default) or '"
+						+ HistoryRecorder.OVERFLOW_BLOCK + "' until it catches up."));
+
 		// parse the command line options
 		JSAPResult config = jsap.parse(args);
 
@@ -75,14 +89,60 @@ public class JettyRunner {
 		}catch(Exception e){
 			//
 		}
-		// Initialize Log4J file roller appender.
+		// History limits are read by the webapp, which runs in this JVM.
+		if (config.contains("historyCapacity")) {
+			System.setProperty(HistoryStore.PROPERTY_CAPACITY, String.valueOf(config.getInt("historyCapacity")));
+		}
+		if (config.contains("historyByteBudget")) {
+			System.setProperty(HistoryStore.PROPERTY_BYTE_BUDGET, String.valueOf(config.getLong("historyByteBudget")));
+		}
+		if (config.contains("historyOverflow")) {
+			System.setProperty(HistoryRecorder.PROPERTY_OVERFLOW, config.getString("historyOverflow"));
+		}
+		configureLogging();
+		Server server = start(port);
+		// Construct the arguments for Mockey
+		String file = String.valueOf(config.getString("file"));
+		// Startup displays a big message and URL redirects after x seconds. Snazzy.
+		String initUrl = "/home";
+		// BUT...if a file is defined, (which it *should*),
+		// then let's initialize with it instead.
+		if (file != null && file.trim().length() > 0) {
+			URLEncoder.encode(initUrl, "UTF-8");
+			initUrl = "/home?action=init&transientState="+transientState+"&file=" + URLEncoder.encode(file, "UTF-8");
+		}else {
+			initUrl = "/home?action=init&transientState="+transientState+"&file=" + URLEncoder.encode(MockeyXmlFileManager.MOCK_SERVICE_DEFINITION, "UTF-8");
+			
+		}
+
+		new Thread(new BrowserThread("http://127.0.0.1", String.valueOf(port), initUrl, 0)).start();
+
+		server.join();
+	}
+
+	/**
+	 * Initializes the Log4J file roller appender from
+	 * <code>WEB-INF/log4j.properties</code>.
+	 */
+	public static void configureLogging() throws IOException {
 		StartUpServlet.getDebugFile();
 		InputStream log4jInputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(
 				"WEB-INF/log4j.properties");
 		Properties log4JProperties = new Properties();
 		log4JProperties.load(log4jInputStream);
 		PropertyConfigurator.configure(log4JProperties);
+	}
 
+	/**
+	 * Starts Jetty with the Mockey webapp, without initializing any service
+	 * definitions.
+	 * 
+	 * @param port
+	 *            port to listen on, or 0 for any free port
+	 * @return the started server
+	 * @see #getLocalPort(Server)
+	 */
+	public static Server start(int port) throws Exception {
 		Server server = new Server(port);
 
 		WebAppContext webapp = new WebAppContext();
@@ -100,23 +160,17 @@ public class JettyRunner {
 		server.setHandler(contexts);
 
 		server.start();
-		// Construct the arguments for Mockey
-		String file = String.valueOf(config.getString("file"));
-		// Startup displays a big message and URL redirects after x seconds. Snazzy.
-		String initUrl = "/home";
-		// BUT...if a file is defined, (which it *should*),
-		// then let's initialize with it instead.
-		if (file != null && file.trim().length() > 0) {
-			URLEncoder.encode(initUrl, "UTF-8");
-			initUrl = "/home?action=init&transientState="+transientState+"&file=" + URLEncoder.encode(file, "UTF-8");
-		}else {
-			initUrl = "/home?action=init&transientState="+transientState+"&file=" + URLEncoder.encode(MockeyXmlFileManager.MOCK_SERVICE_DEFINITION, "UTF-8");
-			
-		}
-
-		new Thread(new BrowserThread("http://127.0.0.1", String.valueOf(port), initUrl, 0)).start();
+		return server;
+	}
 
-		server.join();
+	/**
+	 * 
+	 * @param server
+	 *            a started server
+	 * @return the port the server is listening on
+	 */
+	public static int getLocalPort(Server server) {
+		return server.getConnectors()[0].getLocalPort();
 	}
 
 }
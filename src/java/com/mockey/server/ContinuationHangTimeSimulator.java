@@ -0,0 +1,66 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.server;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+
+/**
+ * Simulates hang time by suspending the request with a Jetty continuation.
+ * The continuation times out after the hang time and Jetty dispatches the
+ * request to the servlet again; Jetty keeps the timeouts on its shared
+ * scheduler, so waiting requests don't hold a thread.
+ * <p>
+ * Falls back to blocking if the request can't be suspended, e.g. when
+ * deployed in a container other than Jetty.
+ * 
+ * @see HangTimeSimulator#getInstance()
+ */
+public class ContinuationHangTimeSimulator extends HangTimeSimulator {
+
+	private static Logger logger = Logger.getLogger(ContinuationHangTimeSimulator.class);
+
+	@Override
+	public boolean suspend(HttpServletRequest request, int hangTime) {
+		if (hangTime <= 0) {
+			return false;
+		}
+		try {
+			Continuation continuation = ContinuationSupport.getContinuation(request);
+			continuation.setTimeout(hangTime);
+			continuation.suspend();
+			return true;
+		} catch (IllegalStateException e) {
+			logger.debug("Unable to suspend request, blocking for hang time instead.", e);
+			return super.suspend(request, hangTime);
+		}
+	}
+}
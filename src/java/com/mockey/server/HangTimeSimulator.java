@@ -0,0 +1,105 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.server;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Simulates a service's hang time before a response is written.
+ * <p>
+ * This default implementation blocks the request thread for the hang time.
+ * When running in Jetty, {@link #getInstance()} returns a
+ * {@link ContinuationHangTimeSimulator} instead, which suspends the request
+ * so no thread is held while it waits. Set
+ * <code>-Dmockey.hangTime.async=false</code> to always block.
+ */
+public class HangTimeSimulator {
+
+	public static final String PROPERTY_ASYNC = "mockey.hangTime.async";
+	private static final String CONTINUATION_SUPPORT_CLASS = "org.eclipse.jetty.continuation.ContinuationSupport";
+	private static final String CONTINUATION_SIMULATOR_CLASS = "com.mockey.server.ContinuationHangTimeSimulator";
+
+	private static Logger logger = Logger.getLogger(HangTimeSimulator.class);
+	private static HangTimeSimulator instance = null;
+
+	/**
+	 * 
+	 * @return a Jetty continuation based simulator if continuations are
+	 *         available and not disabled, otherwise a blocking one.
+	 */
+	public static synchronized HangTimeSimulator getInstance() {
+		if (instance == null) {
+			instance = createInstance();
+		}
+		return instance;
+	}
+
+	private static HangTimeSimulator createInstance() {
+		if (!"false".equalsIgnoreCase(System.getProperty(PROPERTY_ASYNC))) {
+			try {
+				Class.forName(CONTINUATION_SUPPORT_CLASS);
+				// Loaded by name so this class doesn't need Jetty on the
+				// classpath.
+				HangTimeSimulator simulator = (HangTimeSimulator) Class.forName(CONTINUATION_SIMULATOR_CLASS)
+						.getDeclaredConstructor().newInstance();
+				logger.info("Hang time will be simulated with Jetty continuations.");
+				return simulator;
+			} catch (Throwable e) {
+				logger.info("Jetty continuations are not available; hang time will block request threads.");
+			}
+		}
+		return new HangTimeSimulator();
+	}
+
+	/**
+	 * Waits for the hang time, either here or by suspending the request.
+	 * 
+	 * @param request
+	 *            the request being served
+	 * @param hangTime
+	 *            milliseconds to wait
+	 * @return true if the request was suspended and will be dispatched to the
+	 *         servlet again once the hang time has passed. The servlet should
+	 *         return without writing a response. False if the hang time has
+	 *         already passed and the response can be written now.
+	 */
+	public boolean suspend(HttpServletRequest request, int hangTime) {
+		if (hangTime > 0) {
+			try {
+				logger.debug("Waiting..." + hangTime + " miliseconds ");
+				Thread.sleep(hangTime);
+				logger.debug("Done Waiting");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return false;
+	}
+}
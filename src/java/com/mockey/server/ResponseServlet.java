@@ -28,24 +28,24 @@
 package com.mockey.server;
 
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
-import java.nio.charset.Charset;
+import java.util.concurrent.locks.Lock;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.mockey.storage.InMemoryMockeyStorage;
-import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
 
+import com.mockey.model.EncodedResponse;
 import com.mockey.model.FulfilledClientRequest;
 import com.mockey.model.RequestFromClient;
 import com.mockey.model.ResponseFromService;
 import com.mockey.model.Service;
 import com.mockey.model.Url;
+import com.mockey.storage.HistoryRecorder;
 import com.mockey.storage.IMockeyStorage;
 import com.mockey.storage.StorageRegistry;
 
@@ -60,6 +60,7 @@ import com.mockey.storage.StorageRegistry;
 public class ResponseServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 8401356766354139506L;
+	private static final String PENDING_RESPONSE = ResponseServlet.class.getName() + ".pendingResponse";
 	private IMockeyStorage store = StorageRegistry.MockeyStorage;
 	private Logger logger = Logger.getLogger(ResponseServlet.class);
 
@@ -68,131 +69,159 @@ public class ResponseServlet extends HttpServlet {
 	 * determines the appropriate mockservice for the definition of the response
 	 * type.
 	 */
-	@SuppressWarnings("static-access")
     @Override
 	public void service(HttpServletRequest originalHttpReqFromClient, HttpServletResponse resp)
 			throws ServletException, IOException {
 
-        synchronized (InMemoryMockeyStorage.getLockObject()) {
-            RequestFromClient request = new RequestFromClient(originalHttpReqFromClient);
+        // Back again after the hang time has passed: the response is ready.
+        PendingResponse pending = (PendingResponse) originalHttpReqFromClient.getAttribute(PENDING_RESPONSE);
+        if (pending != null) {
+            originalHttpReqFromClient.removeAttribute(PENDING_RESPONSE);
+            writeResponse(originalHttpReqFromClient, resp, pending);
+            return;
+        }
+
+        RequestFromClient request = new RequestFromClient(originalHttpReqFromClient);
 
+        // Formatting these is most of the cost of a static response.
+        if (logger.isInfoEnabled()) {
             logger.info(request.getHeaderInfo());
             logger.info(request.getParameterInfo());
             logger.info(request.getCookieInfoAsString());
+        }
 
-            String originalHttpReqURI = originalHttpReqFromClient.getRequestURI();
-
-            String contextRoot = originalHttpReqFromClient.getContextPath();
-            if (originalHttpReqURI.startsWith(contextRoot)) {
-                originalHttpReqURI = originalHttpReqURI.substring(contextRoot.length(), originalHttpReqURI.length());
-            }
-
-            Url serviceUrl = new Url(originalHttpReqURI);
-            Service service = store.getServiceByUrl(serviceUrl.getFullUrl());
-            Url urlToExecute = service.getDefaultRealUrl();
-
-            service.setHttpMethod(originalHttpReqFromClient.getMethod());
+        String originalHttpReqURI = originalHttpReqFromClient.getRequestURI();
 
-            ResponseFromService response = service.execute(request, urlToExecute);
-            logRequestAsFulfilled(service, request, response, originalHttpReqFromClient.getRemoteAddr());
+        String contextRoot = originalHttpReqFromClient.getContextPath();
+        if (originalHttpReqURI.startsWith(contextRoot)) {
+            originalHttpReqURI = originalHttpReqURI.substring(contextRoot.length(), originalHttpReqURI.length());
+        }
 
-            try {
-                // Wait for a X hang time seconds.
-                logger.debug("Waiting..." + service.getHangTime() + " miliseconds ");
-                Thread.currentThread().sleep(service.getHangTime());
-                logger.debug("Done Waiting");
-            } catch (Exception e) {
-                // Catch interrupt exception.
-                // Or not.
+        Url serviceUrl = new Url(originalHttpReqURI);
+        request.setRequestUrl(serviceUrl);
+        Service service = null;
+        Url urlToExecute = null;
+        int serviceResponseType;
+        int hangTime;
+        ResponseFromService response = null;
+
+        // Look up the service and select a scenario while holding the read
+        // lock. Many requests can do this at once; only configuration changes
+        // are exclusive. Hang time and proxying happen outside of the lock.
+        Lock readLock = InMemoryMockeyStorage.getReadLock();
+        readLock.lock();
+        try {
+            service = store.getServiceByUrl(serviceUrl.getFullUrl());
+            urlToExecute = service.getDefaultRealUrl();
+            serviceResponseType = service.getServiceResponseType();
+            hangTime = service.nextHangTime();
+
+            if (serviceResponseType != Service.SERVICE_RESPONSE_TYPE_PROXY) {
+                response = service.execute(request, urlToExecute);
             }
+        } finally {
+            readLock.unlock();
+        }
+
+        // Wait for a X hang time seconds. If the request gets suspended, it
+        // comes back to this servlet when the time is up. Proxied requests
+        // call the real service only after that, so a waiting request
+        // doesn't hold on to a pooled connection.
+        pending = new PendingResponse(service, request, urlToExecute, response, serviceResponseType,
+                originalHttpReqFromClient.getRemoteAddr());
+        originalHttpReqFromClient.setAttribute(PENDING_RESPONSE, pending);
+        if (HangTimeSimulator.getInstance().suspend(originalHttpReqFromClient, hangTime)) {
+            return;
+        }
+        originalHttpReqFromClient.removeAttribute(PENDING_RESPONSE);
+        writeResponse(originalHttpReqFromClient, resp, pending);
+	}
 
+	/**
+	 * Writes the response, then records it in History. Recording comes last so
+	 * History sees the body of a streamed proxy response.
+	 */
+	private void writeResponse(HttpServletRequest originalHttpReqFromClient, HttpServletResponse resp,
+			PendingResponse pending) throws IOException {
+        Service service = pending.service;
+        ResponseFromService response = pending.response;
+        int serviceResponseType = pending.serviceResponseType;
+        if (response == null) {
+            response = service.execute(pending.request, pending.urlToExecute);
+        }
+        try {
             // TODO:
             // return all headers and cookies to allow setup of
             // services and/or scenarios copied/created from History.
-            final String charSet=getServiceCharSet(service);
-
-            resp.setCharacterEncoding(charSet); // "UTF-8");
-            resp.setContentType(service.getHttpContentType());
-            if (!(service.getServiceResponseType() == Service.SERVICE_RESPONSE_TYPE_PROXY)) {
-                resp.setContentType(service.getHttpContentType());
-                byte[] myCharSetBytes = response.getBody().getBytes(charSet);
-                new PrintStream(resp.getOutputStream()).write(myCharSetBytes);
-                resp.getOutputStream().flush();
+            if (!(serviceResponseType == Service.SERVICE_RESPONSE_TYPE_PROXY)) {
+                // Scenario responses come pre-encoded; the bytes and ETag are
+                // computed once per scenario, not once per request.
+                EncodedResponse encoded = response.getEncodedBody(service.getHttpContentType());
+                resp.setCharacterEncoding(encoded.getCharSet());
+                resp.setContentType(encoded.getContentType());
+                resp.setHeader("ETag", encoded.getETag());
+                if (encoded.matches(originalHttpReqFromClient.getHeader("If-None-Match"))) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+                resp.setContentLength(encoded.getContentLength());
+                ServletOutputStream out = resp.getOutputStream();
+                encoded.writeTo(out);
+                out.flush();
             } else {
+                resp.setCharacterEncoding(EncodedResponse.getCharSet(service.getHttpContentType()));
+                resp.setContentType(service.getHttpContentType());
                 resp.setStatus(response.getStatusLine().getStatusCode());
                 response.writeToOutput(resp);
             }
+        } finally {
+            // Releases the upstream connection if the body was never streamed.
+            response.close();
+            logRequestAsFulfilled(service, pending.request, response, pending.ip);
         }
 	}
-	
-	/**
-	 * Determines the proper CharSet for the given service and returns it. 
-	 * If there is an issue or no charset is specified for the service, 
-	 * then the default charset ISO-8859-1 is returned.
-	 * 
-	 * @param service
-	 * @return the charset for this service.
-	 */
-	private String getServiceCharSet(Service service)
-	{
-		String charSet=HTTP.ISO_8859_1;
-
-	    try {
-	    	//check content type for charset and try to use that if its there...
-		    //example: "application/json;charset=utf-8" should use the charset "utf-8"
-	        if(service.getHttpContentType()!=null) {
-	            final String contentTypeLower=service.getHttpContentType().toLowerCase();
-	            int charsetIndex=contentTypeLower.indexOf("charset=");
-
-	            if(charsetIndex>=0) {
-	            	charSet=contentTypeLower.substring(charsetIndex+"charset=".length());
-
-	                //content-type can have multiple attributes so we make sure that if there
-	                //are multiple we trim off any that follow the charset
-	                int trailingSemiColonIdx=charSet.indexOf(';');
-	                if(trailingSemiColonIdx>0) {
-	                	charSet=charSet.substring(0, trailingSemiColonIdx);
-	                }
-	                
-	                //kill trailing white space if any
-	                charSet=charSet.trim();
-	                
-	                //make sure it is a valid charset before returning it (note charSet 
-	                //names are case insensitive so using the lowercase version is OK)
-	                Charset.forName(charSet);
-	            }
-	        }
-	    } catch(Exception e) { 
-	    	//malformed content types or unsupported charsets will end up here
-	    	//not much we can do other than default to the regular charset
-	        charSet=HTTP.ISO_8859_1;
-	        logger.info("Unable to use charset for service \""+service.getServiceName()+"\" from content-type \""
-	        		+service.getHttpContentType()+"\". Defaulting to ISO-8859-1.", e);
-	    }
-	    
-	    return charSet;
-	}
 
 	private void logRequestAsFulfilled(Service service, RequestFromClient request, ResponseFromService response,
-			String ip) throws UnsupportedEncodingException {
+			String ip) {
 		FulfilledClientRequest fulfilledClientRequest = new FulfilledClientRequest();
 		fulfilledClientRequest.setRawRequest((response.getRequestUrl() != null) ? response.getRequestUrl().toString()
 				: "");
 		fulfilledClientRequest.setRequestorIP(ip);
 		fulfilledClientRequest.setServiceId(service.getId());
 		fulfilledClientRequest.setServiceName(service.getServiceName());
-		fulfilledClientRequest.setClientRequestBody(request.getBodyInfo());
-		fulfilledClientRequest.setClientRequestHeaders(request.getHeaderInfo());
-		fulfilledClientRequest.setClientRequestParameters(request.getParameterInfo());
+		// Request text and cookies are formatted later, only if History is
+		// viewed.
+		fulfilledClientRequest.setClientRequest(request);
 		fulfilledClientRequest.setResponseMessage(response);
-		fulfilledClientRequest.setClientRequestCookies(request.getCookieInfoAsString());// response.getRequestCookies());
-		fulfilledClientRequest.setClientResponseCookies(response.getResponseCookiesAsString());
 
 		fulfilledClientRequest.setServiceResponseType(service.getServiceResponseType());
 		if (response.getOriginalRequestUrlBeforeTwisting() != null) {
 			fulfilledClientRequest.setOriginalUrlBeforeTwisting(response.getOriginalRequestUrlBeforeTwisting()
 					.toString());
 		}
-		store.saveOrUpdateFulfilledClientRequest(fulfilledClientRequest);
+		HistoryRecorder.getInstance().record(fulfilledClientRequest);
+	}
+
+	/**
+	 * A request waiting for its hang time to pass.
+	 */
+	private static class PendingResponse {
+		private final Service service;
+		private final RequestFromClient request;
+		private final Url urlToExecute;
+		// Null for proxied requests until the hang time is over.
+		private final ResponseFromService response;
+		private final int serviceResponseType;
+		private final String ip;
+
+		PendingResponse(Service service, RequestFromClient request, Url urlToExecute, ResponseFromService response,
+				int serviceResponseType, String ip) {
+			this.service = service;
+			this.request = request;
+			this.urlToExecute = urlToExecute;
+			this.response = response;
+			this.serviceResponseType = serviceResponseType;
+			this.ip = ip;
+		}
 	}
 }
@@ -0,0 +1,273 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.mockey.model.FulfilledClientRequest;
+
+/**
+ * Pushes requests to live subscribers as they are saved to History, so
+ * watching live traffic doesn't mean re-reading History over and over.
+ * <p>
+ * Each subscriber has a bounded queue of events. Publishing never waits: a
+ * subscriber whose queue is full has fallen behind and is dropped, so a slow
+ * reader can't hold up History. A request's event, compact JSON, is built
+ * once and shared by every subscriber that wants it, and not at all if none
+ * do.
+ * 
+ * <pre>
+ * mockey.historyFeed.queueSize       events a subscriber may fall behind by (default 256)
+ * mockey.historyFeed.maxSubscribers  most subscribers at once (default 16)
+ * </pre>
+ */
+public class HistoryFeed {
+
+	public static final String PROPERTY_QUEUE_SIZE = "mockey.historyFeed.queueSize";
+	public static final String PROPERTY_MAX_SUBSCRIBERS = "mockey.historyFeed.maxSubscribers";
+
+	private static Logger logger = Logger.getLogger(HistoryFeed.class);
+	private static final HistoryFeed instance = new HistoryFeed(getIntProperty(PROPERTY_QUEUE_SIZE, 256),
+			getIntProperty(PROPERTY_MAX_SUBSCRIBERS, 16));
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final int queueSize;
+	private final int maxSubscribers;
+
+	/**
+	 * 
+	 * @return the feed of requests saved to History
+	 */
+	public static HistoryFeed getInstance() {
+		return instance;
+	}
+
+	/**
+	 * 
+	 * @param queueSize
+	 *            events a subscriber may fall behind by before it's dropped
+	 * @param maxSubscribers
+	 *            most subscribers at once
+	 */
+	public HistoryFeed(int queueSize, int maxSubscribers) {
+		this.queueSize = Math.max(1, queueSize);
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	/**
+	 * 
+	 * @param serviceId
+	 *            only requests to this service, or null for any
+	 * @param requestorIP
+	 *            only requests from this IP, or null for any
+	 * @param status
+	 *            only responses with this status code, or null for any
+	 * @return the new subscription, or null if there are as many subscribers
+	 *         as allowed already
+	 */
+	public synchronized Subscription subscribe(Long serviceId, String requestorIP, Integer status) {
+		if (subscriptions.size() >= maxSubscribers) {
+			return null;
+		}
+		Subscription subscription = new Subscription(serviceId, requestorIP, status);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Sends the request to the subscribers that want it. Subscribers that
+	 * can't take it are dropped.
+	 * 
+	 * @param request
+	 *            just saved to History
+	 */
+	public void publish(FulfilledClientRequest request) {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		Event event = null;
+		for (Subscription subscription : subscriptions) {
+			if (!subscription.accepts(request)) {
+				continue;
+			}
+			if (event == null) {
+				event = toEvent(request);
+				if (event == null) {
+					return;
+				}
+			}
+			if (!subscription.events.offer(event)) {
+				subscription.drop();
+			}
+		}
+	}
+
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * 
+	 * @param request
+	 * @return the response status code, or null if unknown
+	 */
+	static Integer getStatus(FulfilledClientRequest request) {
+		if (request.getResponseMessage() != null && request.getResponseMessage().getStatusLine() != null) {
+			return request.getResponseMessage().getStatusLine().getStatusCode();
+		}
+		return null;
+	}
+
+	private static Event toEvent(FulfilledClientRequest request) {
+		try {
+			JSONObject event = new JSONObject();
+			event.put("conversationRecordId", "" + request.getId());
+			event.put("serviceId", "" + request.getServiceId());
+			event.put("serviceName", request.getServiceName());
+			event.put("serviceResponseType", request.getServiceResponseType());
+			event.put("requestorIP", request.getRequestorIP());
+			event.put("time", request.getTime().getTime());
+			event.put("requestUrl", "" + request.getRawRequest());
+			Integer status = getStatus(request);
+			if (status != null) {
+				event.put("status", status.intValue());
+			}
+			return new Event(request.getId(), event.toString());
+		} catch (JSONException e) {
+			logger.error("Unable to create JSON for History request " + request.getId(), e);
+			return null;
+		}
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		try {
+			String value = System.getProperty(key);
+			if (value != null) {
+				return Integer.parseInt(value.trim());
+			}
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for system property " + key + ". Using default " + defaultValue);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * A request saved to History.
+	 */
+	public static class Event {
+
+		private final Long id;
+		private final String data;
+
+		private Event(Long id, String data) {
+			this.id = id;
+			this.data = data;
+		}
+
+		/**
+		 * 
+		 * @return ID of the History request
+		 */
+		public Long getId() {
+			return id;
+		}
+
+		/**
+		 * 
+		 * @return summary of the request as JSON
+		 */
+		public String getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * One subscriber's filters and the events waiting for it.
+	 */
+	public class Subscription {
+
+		private final Long serviceId;
+		private final String requestorIP;
+		private final Integer status;
+		private final BlockingQueue<Event> events = new ArrayBlockingQueue<Event>(queueSize);
+		private volatile boolean dropped = false;
+
+		private Subscription(Long serviceId, String requestorIP, Integer status) {
+			this.serviceId = serviceId;
+			this.requestorIP = requestorIP;
+			this.status = status;
+		}
+
+		/**
+		 * 
+		 * @param timeout
+		 *            in ms
+		 * @return the next event, or null if none came within the timeout
+		 * @throws InterruptedException
+		 */
+		public Event poll(long timeout) throws InterruptedException {
+			return events.poll(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * 
+		 * @return true if the subscriber fell too far behind and gets no
+		 *         more events. Those already queued can still be read.
+		 */
+		public boolean isDropped() {
+			return dropped;
+		}
+
+		/**
+		 * Stops the events.
+		 */
+		public void close() {
+			subscriptions.remove(this);
+		}
+
+		private boolean accepts(FulfilledClientRequest request) {
+			return (serviceId == null || serviceId.equals(request.getServiceId()))
+					&& (requestorIP == null || requestorIP.equals(request.getRequestorIP()))
+					&& (status == null || status.equals(getStatus(request)));
+		}
+
+		private void drop() {
+			dropped = true;
+			subscriptions.remove(this);
+			logger.info("Dropped a History subscriber that fell " + queueSize + " events behind.");
+		}
+	}
+}
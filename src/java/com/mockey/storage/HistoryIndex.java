@@ -0,0 +1,342 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.HistoryQuery;
+
+/**
+ * Finds History requests by service, requestor IP and time without going
+ * through all of History.
+ * <p>
+ * For each service and each requestor IP, the index keeps the IDs of its
+ * requests in order. IDs are given out as requests are saved, so they also
+ * order requests by time, and a page of results is a walk down from a cursor
+ * ID. IDs of requests History has evicted or deleted since are skipped where
+ * they're met, and dropped once they fall off the end of History.
+ * <p>
+ * Filter tokens are matched against each request's search text, a compact
+ * copy of its searchable fields made once, rather than formatting every
+ * field again for every token.
+ * 
+ * @see FulfilledClientRequest#getSearchText()
+ */
+public class HistoryIndex {
+
+	private final HistoryStore historyStore;
+	private final Map<Long, Ids> idsByServiceId = new HashMap<Long, Ids>();
+	private final Map<String, Ids> idsByRequestorIP = new HashMap<String, Ids>();
+	// Lists of services and IPs without recent requests are dropped now and
+	// then, not on every add.
+	private int addsSinceSweep = 0;
+
+	/**
+	 * 
+	 * @param historyStore
+	 *            holds the indexed requests
+	 */
+	public HistoryIndex(HistoryStore historyStore) {
+		this.historyStore = historyStore;
+	}
+
+	/**
+	 * Indexes a request just saved to History. Adding a request again does
+	 * nothing.
+	 * 
+	 * @param request
+	 *            must have an ID
+	 */
+	public synchronized void add(FulfilledClientRequest request) {
+		if (request == null || request.getId() == null) {
+			return;
+		}
+		long firstId = historyStore.getFirstId();
+		add(idsByServiceId, request.getServiceId(), request.getId(), firstId);
+		add(idsByRequestorIP, request.getRequestorIP(), request.getId(), firstId);
+		if (++addsSinceSweep > idsByServiceId.size() + idsByRequestorIP.size()) {
+			sweep(idsByServiceId, firstId);
+			sweep(idsByRequestorIP, firstId);
+			addsSinceSweep = 0;
+		}
+	}
+
+	public synchronized void clear() {
+		idsByServiceId.clear();
+		idsByRequestorIP.clear();
+		addsSinceSweep = 0;
+	}
+
+	/**
+	 * 
+	 * @param query
+	 * @return matching requests still held, newest first
+	 */
+	public List<FulfilledClientRequest> find(HistoryQuery query) {
+		long firstId = historyStore.getFirstId();
+		long lastId = historyStore.getLastId();
+		if (query.getBeforeId() != null) {
+			lastId = Math.min(lastId, query.getBeforeId() - 1);
+		}
+		// Null if every ID from first to last is a candidate.
+		long[] candidates = null;
+		synchronized (this) {
+			Ids byService = null;
+			Ids byRequestorIP = null;
+			if (query.getServiceId() != null) {
+				byService = idsByServiceId.get(query.getServiceId());
+				if (byService == null) {
+					return Collections.emptyList();
+				}
+			}
+			if (query.getRequestorIP() != null) {
+				byRequestorIP = idsByRequestorIP.get(query.getRequestorIP());
+				if (byRequestorIP == null) {
+					return Collections.emptyList();
+				}
+			}
+			Ids ids = byService;
+			if (ids == null || (byRequestorIP != null && byRequestorIP.size() < ids.size())) {
+				ids = byRequestorIP;
+			}
+			if (ids != null) {
+				ids.prune(firstId);
+				candidates = ids.range(firstId, lastId);
+			}
+		}
+
+		// Matching reads the requests, so it's done outside of the lock.
+		List<String> included = new ArrayList<String>();
+		List<String> excluded = new ArrayList<String>();
+		for (String token : query.getTokens()) {
+			if (token.startsWith("!")) {
+				excluded.add(FulfilledClientRequest.toSearchText(token.substring(1)));
+			} else {
+				included.add(FulfilledClientRequest.toSearchText(token));
+			}
+		}
+		List<FulfilledClientRequest> found = new ArrayList<FulfilledClientRequest>();
+		int next = (candidates != null) ? candidates.length - 1 : -1;
+		long id = lastId;
+		while (found.size() < query.getMaxResults()) {
+			if (candidates != null) {
+				if (next < 0) {
+					break;
+				}
+				id = candidates[next--];
+			} else if (id < firstId) {
+				break;
+			}
+			FulfilledClientRequest request = historyStore.get(id--);
+			if (request == null || !isEqual(query.getServiceId(), request.getServiceId())
+					|| !isEqual(query.getRequestorIP(), request.getRequestorIP())) {
+				continue;
+			}
+			if (query.getSince() != null && request.getTime().before(query.getSince())) {
+				break;
+			}
+			if (matches(request, included, excluded)) {
+				found.add(request);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 
+	 * @param serviceId
+	 *            only IPs that made requests to this service, or null for
+	 *            any
+	 * @return IPs of requests still held, in the order they first appear
+	 */
+	public List<String> getRequestorIPs(Long serviceId) {
+		long firstId = historyStore.getFirstId();
+		if (serviceId != null) {
+			long[] ids;
+			synchronized (this) {
+				Ids byService = idsByServiceId.get(serviceId);
+				if (byService == null) {
+					return new ArrayList<String>();
+				}
+				byService.prune(firstId);
+				ids = byService.range(firstId, Long.MAX_VALUE);
+			}
+			Set<String> requestorIPs = new LinkedHashSet<String>();
+			for (long id : ids) {
+				FulfilledClientRequest request = historyStore.get(id);
+				if (request != null && serviceId.equals(request.getServiceId())) {
+					requestorIPs.add(request.getRequestorIP());
+				}
+			}
+			return new ArrayList<String>(requestorIPs);
+		}
+
+		final Map<String, Long> firstIds = new HashMap<String, Long>();
+		synchronized (this) {
+			sweep(idsByRequestorIP, firstId);
+			for (Map.Entry<String, Ids> entry : idsByRequestorIP.entrySet()) {
+				Ids ids = entry.getValue();
+				for (int i = ids.start; i < ids.end; i++) {
+					FulfilledClientRequest request = historyStore.get(ids.values[i]);
+					if (request != null && entry.getKey().equals(request.getRequestorIP())) {
+						firstIds.put(entry.getKey(), ids.values[i]);
+						break;
+					}
+				}
+			}
+		}
+		List<String> requestorIPs = new ArrayList<String>(firstIds.keySet());
+		Collections.sort(requestorIPs, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return firstIds.get(a).compareTo(firstIds.get(b));
+			}
+		});
+		return requestorIPs;
+	}
+
+	private static <K> void add(Map<K, Ids> map, K key, long id, long firstId) {
+		if (key == null) {
+			return;
+		}
+		Ids ids = map.get(key);
+		if (ids == null) {
+			ids = new Ids();
+			map.put(key, ids);
+		}
+		ids.prune(firstId);
+		ids.add(id);
+	}
+
+	private static <K> void sweep(Map<K, Ids> map, long firstId) {
+		for (Iterator<Ids> iter = map.values().iterator(); iter.hasNext();) {
+			Ids ids = iter.next();
+			ids.prune(firstId);
+			if (ids.size() == 0) {
+				iter.remove();
+			}
+		}
+	}
+
+	private static boolean isEqual(Object wanted, Object value) {
+		return wanted == null || wanted.equals(value);
+	}
+
+	private static boolean matches(FulfilledClientRequest request, Collection<String> included,
+			Collection<String> excluded) {
+		if (included.isEmpty() && excluded.isEmpty()) {
+			return true;
+		}
+		String text = request.getSearchText();
+		for (String token : included) {
+			if (text.indexOf(token) == -1) {
+				return false;
+			}
+		}
+		for (String token : excluded) {
+			if (text.indexOf(token) > -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Request IDs in ascending order. Old IDs are dropped from the front.
+	 */
+	private static class Ids {
+		private long[] values = new long[4];
+		private int start = 0;
+		private int end = 0;
+
+		int size() {
+			return end - start;
+		}
+
+		void add(long id) {
+			int index = end;
+			if (end > start && values[end - 1] >= id) {
+				// Saved concurrently with a request with a higher ID.
+				index = Arrays.binarySearch(values, start, end, id);
+				if (index >= 0) {
+					return;
+				}
+				index = -index - 1;
+			}
+			if (end == values.length) {
+				if (start > values.length / 2) {
+					System.arraycopy(values, start, values, 0, end - start);
+				} else {
+					values = Arrays.copyOf(values, values.length * 2);
+					System.arraycopy(values, start, values, 0, end - start);
+				}
+				index -= start;
+				end -= start;
+				start = 0;
+			}
+			System.arraycopy(values, index, values, index + 1, end - index);
+			values[index] = id;
+			end++;
+		}
+
+		void prune(long firstId) {
+			while (start < end && values[start] < firstId) {
+				start++;
+			}
+			if (start == end) {
+				start = 0;
+				end = 0;
+			}
+		}
+
+		/**
+		 * @return the IDs from <code>from</code> to <code>to</code>, both
+		 *         included
+		 */
+		long[] range(long from, long to) {
+			if (from > to) {
+				return new long[0];
+			}
+			int first = Arrays.binarySearch(values, start, end, from);
+			int last = Arrays.binarySearch(values, start, end, to);
+			first = (first < 0) ? -first - 1 : first;
+			last = (last < 0) ? -last - 1 : last + 1;
+			return Arrays.copyOfRange(values, first, Math.max(first, last));
+		}
+	}
+}
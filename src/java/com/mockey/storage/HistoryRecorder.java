@@ -0,0 +1,274 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.mockey.model.FulfilledClientRequest;
+
+/**
+ * Records fulfilled requests to History from a background thread, so request
+ * threads only pay for putting a record on a bounded queue. The writer thread
+ * takes records off the queue in batches and saves them to the store.
+ * <p>
+ * The queue is bounded both by the number of records and by their total
+ * estimated size, so a burst of large requests can't fill the heap before the
+ * writer catches up. A single record larger than the byte limit is still
+ * queued when nothing else is waiting. When the queue is full, records are
+ * dropped and counted (the default), or the request thread waits for room.
+ * Settings are read from system properties:
+ * <ul>
+ * <li><code>mockey.history.queueSize</code> - records waiting to be written,
+ * default 10000</li>
+ * <li><code>mockey.history.queueBytes</code> - estimated bytes of records
+ * waiting to be written, default 32 MB</li>
+ * <li><code>mockey.history.overflow</code> - <code>drop</code> or
+ * <code>block</code>, default <code>drop</code></li>
+ * </ul>
+ * 
+ * @see FulfilledClientRequest#getEstimatedSize()
+ */
+public class HistoryRecorder {
+
+	public static final String PROPERTY_QUEUE_SIZE = "mockey.history.queueSize";
+	public static final String PROPERTY_QUEUE_BYTES = "mockey.history.queueBytes";
+	public static final String PROPERTY_OVERFLOW = "mockey.history.overflow";
+	public static final String OVERFLOW_DROP = "drop";
+	public static final String OVERFLOW_BLOCK = "block";
+
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+	private static final long DEFAULT_QUEUE_BYTES = 32L * 1024 * 1024;
+	private static final int BATCH_SIZE = 256;
+
+	private static Logger logger = Logger.getLogger(HistoryRecorder.class);
+	private static HistoryRecorder instance = null;
+
+	private final IMockeyStorage store;
+	private final BlockingQueue<Queued> queue;
+	private final long maxQueuedBytes;
+	private final boolean blockWhenFull;
+	private final AtomicLong queuedBytes = new AtomicLong(0);
+	// Request threads waiting for queued bytes to be written wait on this.
+	private final Object bytesWritten = new Object();
+	private final AtomicLong dropped = new AtomicLong(0);
+	private final AtomicLong recorded = new AtomicLong(0);
+	private final Thread writer;
+
+	/**
+	 * 
+	 * @return the recorder writing to <code>StorageRegistry.MockeyStorage</code>
+	 */
+	public static synchronized HistoryRecorder getInstance() {
+		if (instance == null) {
+			instance = new HistoryRecorder(StorageRegistry.MockeyStorage, getQueueSize(), getQueueBytes(),
+					!OVERFLOW_DROP.equalsIgnoreCase(System.getProperty(PROPERTY_OVERFLOW, OVERFLOW_DROP).trim()));
+		}
+		return instance;
+	}
+
+	HistoryRecorder(IMockeyStorage store, int queueSize, long maxQueuedBytes, boolean blockWhenFull) {
+		this.store = store;
+		this.queue = new ArrayBlockingQueue<Queued>(queueSize);
+		this.maxQueuedBytes = maxQueuedBytes;
+		this.blockWhenFull = blockWhenFull;
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				writeRecords();
+			}
+		}, "mockey-history-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queues the request to be saved to History.
+	 * 
+	 * @param request
+	 * @return false if the queue was full and the request was dropped
+	 */
+	public boolean record(FulfilledClientRequest request) {
+		Queued queued = new Queued(request, request.getEstimatedSize());
+		if (blockWhenFull) {
+			boolean reserved = false;
+			try {
+				reserveOrWait(queued.size);
+				reserved = true;
+				queue.put(queued);
+				return true;
+			} catch (InterruptedException e) {
+				if (reserved) {
+					release(queued.size);
+				}
+				Thread.currentThread().interrupt();
+			}
+		} else if (tryReserve(queued.size)) {
+			if (queue.offer(queued)) {
+				return true;
+			}
+			release(queued.size);
+		}
+		if (dropped.incrementAndGet() % 1000 == 1) {
+			logger.warn("History queue is full; " + dropped.get() + " request(s) dropped from History so far.");
+		}
+		return false;
+	}
+
+	private boolean tryReserve(long size) {
+		while (true) {
+			long current = queuedBytes.get();
+			if (current > 0 && current + size > maxQueuedBytes) {
+				return false;
+			}
+			if (queuedBytes.compareAndSet(current, current + size)) {
+				return true;
+			}
+		}
+	}
+
+	private void reserveOrWait(long size) throws InterruptedException {
+		synchronized (bytesWritten) {
+			while (!tryReserve(size)) {
+				bytesWritten.wait();
+			}
+		}
+	}
+
+	private void release(long size) {
+		queuedBytes.addAndGet(-size);
+		if (blockWhenFull) {
+			synchronized (bytesWritten) {
+				bytesWritten.notifyAll();
+			}
+		}
+	}
+
+	private void writeRecords() {
+		List<Queued> batch = new ArrayList<Queued>(BATCH_SIZE);
+		while (true) {
+			try {
+				batch.add(queue.take());
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (Queued queued : batch) {
+					store.saveOrUpdateFulfilledClientRequest(queued.request);
+				}
+				recorded.addAndGet(batch.size());
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				logger.error("Unable to save request(s) to History", e);
+			} finally {
+				long batchBytes = 0;
+				for (Queued queued : batch) {
+					batchBytes += queued.size;
+				}
+				if (batchBytes > 0) {
+					release(batchBytes);
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return number of requests dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of requests saved to History
+	 */
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	/**
+	 * @return number of requests waiting to be saved
+	 */
+	public int getQueuedCount() {
+		return queue.size();
+	}
+
+	/**
+	 * @return estimated bytes of the requests waiting to be saved
+	 */
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	public String getOverflowPolicy() {
+		return blockWhenFull ? OVERFLOW_BLOCK : OVERFLOW_DROP;
+	}
+
+	private static int getQueueSize() {
+		try {
+			String value = System.getProperty(PROPERTY_QUEUE_SIZE);
+			if (value != null) {
+				return Math.max(1, Integer.parseInt(value.trim()));
+			}
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for system property " + PROPERTY_QUEUE_SIZE + ". Using default "
+					+ DEFAULT_QUEUE_SIZE);
+		}
+		return DEFAULT_QUEUE_SIZE;
+	}
+
+	private static long getQueueBytes() {
+		try {
+			String value = System.getProperty(PROPERTY_QUEUE_BYTES);
+			if (value != null) {
+				return Math.max(1, Long.parseLong(value.trim()));
+			}
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for system property " + PROPERTY_QUEUE_BYTES + ". Using default "
+					+ DEFAULT_QUEUE_BYTES);
+		}
+		return DEFAULT_QUEUE_BYTES;
+	}
+
+	/**
+	 * A request with the size it was queued with, so writing it releases
+	 * exactly what was reserved.
+	 */
+	private static class Queued {
+		private final FulfilledClientRequest request;
+		private final long size;
+
+		Queued(FulfilledClientRequest request, long size) {
+			this.request = request;
+			this.size = size;
+		}
+	}
+}
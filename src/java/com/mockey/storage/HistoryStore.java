@@ -0,0 +1,297 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import com.mockey.model.FulfilledClientRequest;
+
+/**
+ * Holds the most recent fulfilled requests in a preallocated ring buffer.
+ * <p>
+ * Each saved request gets the next id from a counter and goes into the slot
+ * for that id, overwriting (evicting) whatever was there. Appends don't take
+ * a lock, and eviction is O(1). Besides the number of entries, the total
+ * estimated size of the entries is kept under a byte budget by evicting the
+ * oldest entries first.
+ * <p>
+ * Limits are read from system properties, also settable from the Mockey
+ * command line:
+ * <ul>
+ * <li><code>mockey.history.capacity</code> - maximum number of entries,
+ * default 25</li>
+ * <li><code>mockey.history.byteBudget</code> - maximum estimated bytes held,
+ * default 64 MB</li>
+ * </ul>
+ * 
+ * @see FulfilledClientRequest#getEstimatedSize()
+ */
+public class HistoryStore {
+
+	public static final String PROPERTY_CAPACITY = "mockey.history.capacity";
+	public static final String PROPERTY_BYTE_BUDGET = "mockey.history.byteBudget";
+	public static final int DEFAULT_CAPACITY = 25;
+	public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+
+	private static Logger logger = Logger.getLogger(HistoryStore.class);
+
+	private final int capacity;
+	private final long byteBudget;
+	private final AtomicReferenceArray<Entry> slots;
+	// Id of the most recently saved request.
+	private final AtomicLong lastId = new AtomicLong(0);
+	// Id of the oldest request that may still be held. Entries older than
+	// this have been evicted for the byte budget.
+	private final AtomicLong oldestId = new AtomicLong(1);
+	private final AtomicLong totalBytes = new AtomicLong(0);
+
+	/**
+	 * Creates a store with limits from system properties.
+	 */
+	public HistoryStore() {
+		this(getIntProperty(PROPERTY_CAPACITY, DEFAULT_CAPACITY), getLongProperty(PROPERTY_BYTE_BUDGET,
+				DEFAULT_BYTE_BUDGET));
+	}
+
+	/**
+	 * 
+	 * @param capacity
+	 *            maximum number of requests held
+	 * @param byteBudget
+	 *            maximum total estimated size of the requests held. The most
+	 *            recent request is always kept, even if it alone is larger.
+	 */
+	public HistoryStore(int capacity, long byteBudget) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("History capacity must be at least 1 but was " + capacity);
+		}
+		this.capacity = capacity;
+		this.byteBudget = byteBudget;
+		this.slots = new AtomicReferenceArray<Entry>(capacity);
+	}
+
+	/**
+	 * Saves the request, assigning it the next id, and evicts the oldest
+	 * requests as needed to stay within the limits. Saving a request that is
+	 * already held does nothing.
+	 * 
+	 * @param request
+	 * @return the request, with its id set
+	 */
+	public FulfilledClientRequest save(FulfilledClientRequest request) {
+		if (request.getId() != null && get(request.getId()) == request) {
+			// Already held and updated in place, e.g. a comment was added.
+			return request;
+		}
+		long id = lastId.incrementAndGet();
+		request.setId(id);
+		Entry entry = new Entry(id, request, request.getEstimatedSize());
+		totalBytes.addAndGet(entry.size);
+
+		int slot = slotFor(id);
+		// The slot keeps the newest entry. Whatever comes out of it is held
+		// here until it is either put back (a writer that lapped us got there
+		// first) or evicted, so its bytes are subtracted exactly once.
+		Entry held = slots.getAndSet(slot, entry);
+		while (held != null) {
+			Entry current = slots.get(slot);
+			if (current != null && current.id >= held.id) {
+				totalBytes.addAndGet(-held.size);
+				break;
+			}
+			if (slots.compareAndSet(slot, current, held)) {
+				held = current;
+			}
+		}
+		evictOverBudget(id);
+		return request;
+	}
+
+	private void evictOverBudget(long newestId) {
+		while (totalBytes.get() > byteBudget) {
+			long oldest = oldestId.get();
+			if (oldest >= newestId) {
+				return;
+			}
+			if (oldestId.compareAndSet(oldest, oldest + 1)) {
+				remove(oldest);
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the request with this id, or null if it has been evicted or
+	 *         removed
+	 */
+	public FulfilledClientRequest get(Long id) {
+		if (id == null || id < 1) {
+			return null;
+		}
+		Entry entry = slots.get(slotFor(id));
+		return (entry != null && entry.id == id) ? entry.request : null;
+	}
+
+	/**
+	 * @param id
+	 * @return the removed request, or null if there was none with this id
+	 */
+	public FulfilledClientRequest remove(Long id) {
+		if (id == null || id < 1) {
+			return null;
+		}
+		int slot = slotFor(id);
+		Entry entry = slots.get(slot);
+		if (entry != null && entry.id == id && slots.compareAndSet(slot, entry, null)) {
+			totalBytes.addAndGet(-entry.size);
+			return entry.request;
+		}
+		return null;
+	}
+
+	/**
+	 * @return a snapshot of the held requests, oldest first
+	 */
+	public List<FulfilledClientRequest> getOrderedList() {
+		long last = getLastId();
+		long first = getFirstId(last);
+		List<FulfilledClientRequest> list = new ArrayList<FulfilledClientRequest>((int) (last - first + 1));
+		for (long id = first; id <= last; id++) {
+			FulfilledClientRequest request = get(id);
+			if (request != null) {
+				list.add(request);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * @return id of the most recently saved request, 0 if none was saved
+	 */
+	public long getLastId() {
+		return lastId.get();
+	}
+
+	/**
+	 * Requests with smaller ids have been evicted. Ids are given out in the
+	 * order requests are saved, so they also order History by time.
+	 * 
+	 * @return id of the oldest request that may still be held
+	 */
+	public long getFirstId() {
+		return getFirstId(lastId.get());
+	}
+
+	private long getFirstId(long last) {
+		return Math.max(Math.max(1, oldestId.get()), last - capacity + 1);
+	}
+
+	/**
+	 * @return number of requests currently held
+	 */
+	public int size() {
+		long last = getLastId();
+		int size = 0;
+		for (long id = getFirstId(last); id <= last; id++) {
+			Entry entry = slots.get(slotFor(id));
+			if (entry != null && entry.id == id) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Removes all requests. Ids keep counting up, so a request saved later
+	 * never reuses an earlier id.
+	 */
+	public void clear() {
+		for (int i = 0; i < capacity; i++) {
+			Entry entry = slots.getAndSet(i, null);
+			if (entry != null) {
+				totalBytes.addAndGet(-entry.size);
+			}
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * @return total estimated size of the requests held
+	 */
+	public long getTotalBytes() {
+		return totalBytes.get();
+	}
+
+	private int slotFor(long id) {
+		return (int) ((id - 1) % capacity);
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		return (int) getLongProperty(key, defaultValue);
+	}
+
+	private static long getLongProperty(String key, long defaultValue) {
+		try {
+			String value = System.getProperty(key);
+			if (value != null) {
+				return Long.parseLong(value.trim());
+			}
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for system property " + key + ". Using default " + defaultValue);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * A request with the id and size it was saved with, so eviction subtracts
+	 * exactly what was added.
+	 */
+	private static class Entry {
+		private final long id;
+		private final FulfilledClientRequest request;
+		private final long size;
+
+		Entry(long id, FulfilledClientRequest request, long size) {
+			this.id = id;
+			this.request = request;
+			this.size = size;
+		}
+	}
+}
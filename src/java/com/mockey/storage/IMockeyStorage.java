@@ -28,10 +28,13 @@
 package com.mockey.storage;
 
 import java.util.Collection;
+import java.util.List;
 
 import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.HistoryQuery;
 import com.mockey.model.ProxyServerModel;
 import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
 import com.mockey.model.Service;
 import com.mockey.model.ServicePlan;
 import com.mockey.model.ServiceRef;
@@ -51,6 +54,11 @@ public interface IMockeyStorage {
 	
 	public void deleteEverything();
 
+	/**
+	 * Writes configuration changes that are waiting to be persisted.
+	 */
+	public void flush();
+
 	public Collection<TwistInfo> getTwistInfoList();
 
 	public TwistInfo getTwistInfoById(Long id);
@@ -73,6 +81,34 @@ public interface IMockeyStorage {
 
 	public void deleteService(Service service);
 
+	/**
+	 * Refreshes the URL routing of a stored service after its mock URL or
+	 * real URLs changed.
+	 * 
+	 * @param service
+	 * @see #getServiceByUrl(String)
+	 */
+	public void updateServiceUrlIndex(Service service);
+
+	/**
+	 * Refreshes the search index entries of a stored service after its
+	 * scenarios changed.
+	 * 
+	 * @param service
+	 * @see #search(String, int)
+	 */
+	public void updateSearchIndex(Service service);
+
+	/**
+	 * 
+	 * @param query
+	 *            words, <code>prefix*</code> words and "quoted phrases"
+	 * @param maxResults
+	 * @return matching services, scenarios and History requests, best first
+	 * @see SearchIndex
+	 */
+	public List<SearchResult> search(String query, int maxResults);
+
 	public ServiceRef saveOrUpdateServiceRef(ServiceRef serviceRef);
 
 	public Collection<ServiceRef> getServiceRefs();
@@ -91,6 +127,14 @@ public interface IMockeyStorage {
 
 	public Long getUniversalTwistInfoId();
 
+	/**
+	 * 
+	 * @return the twist with the universal twist ID, or null if none is set
+	 *         or stored. Kept up to date as twists are saved and deleted, so
+	 *         it's cheap to call per request.
+	 */
+	public TwistInfo getUniversalTwistInfo();
+
 	public void setUniversalTwistInfoId(Long twistInfoId);
 
 	public void setUniversalErrorServiceId(Long serviceId);
@@ -121,6 +165,14 @@ public interface IMockeyStorage {
 
 	public Collection<FulfilledClientRequest> getFulfilledClientRequest(Collection<String> filterArguments);
 
+	/**
+	 * 
+	 * @param query
+	 *            which requests, and how many
+	 * @return matching History requests, newest first
+	 */
+	public List<FulfilledClientRequest> getFulfilledClientRequests(HistoryQuery query);
+
 	public void saveOrUpdateFulfilledClientRequest(FulfilledClientRequest requestResponseX);
 
 	public void deleteFulfilledClientRequests();
@@ -30,24 +30,27 @@ package com.mockey.storage;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.http.Header;
 import org.apache.log4j.Logger;
 
 import com.mockey.PersistableItemStore;
 import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.HistoryQuery;
 import com.mockey.model.PersistableItem;
 import com.mockey.model.ProxyServerModel;
 import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
 import com.mockey.model.Service;
 import com.mockey.model.ServicePlan;
 import com.mockey.model.ServiceRef;
 import com.mockey.model.TwistInfo;
 import com.mockey.model.Url;
-import com.mockey.storage.xml.MockeyXmlFactory;
 import com.mockey.storage.xml.MockeyXmlFileManager;
+import com.mockey.storage.xml.MockeyXmlFileWriter;
 
 /**
  * In memory implementation to the storage of mock services and scenarios.
@@ -56,25 +59,63 @@ import com.mockey.storage.xml.MockeyXmlFileManager;
  */
 public class InMemoryMockeyStorage implements IMockeyStorage {
 
-	private PersistableItemStore<FulfilledClientRequest> historyStore = new PersistableItemStore<FulfilledClientRequest>();
+	private HistoryStore historyStore = new HistoryStore();
 	private PersistableItemStore<Service> mockServiceStore = new PersistableItemStore<Service>();
 	private PersistableItemStore<ServiceRef> serviceRefStore = new PersistableItemStore<ServiceRef>();
 	private PersistableItemStore<ServicePlan> servicePlanStore = new PersistableItemStore<ServicePlan>();
 
 	private PersistableItemStore<TwistInfo> twistInfoStore = new PersistableItemStore<TwistInfo>();
+	private HistoryIndex historyIndex = new HistoryIndex(historyStore);
+	// The URL and search indexes are built the first time they're used. The
+	// XML parser creates a store for every file it reads, only to copy the
+	// services out of it, and those stores are never searched or routed
+	// through; building the indexes up front would index every service twice.
+	private LazyIndex<ServiceUrlIndex> serviceUrlIndex = new LazyIndex<ServiceUrlIndex>() {
+		ServiceUrlIndex build() {
+			ServiceUrlIndex index = new ServiceUrlIndex();
+			for (Service service : getServices()) {
+				index.put(service);
+			}
+			return index;
+		}
+	};
+	private LazyIndex<SearchIndex> searchIndex = new LazyIndex<SearchIndex>() {
+		SearchIndex build() {
+			SearchIndex index = new SearchIndex(historyStore);
+			for (Service service : getServices()) {
+				index.put(service);
+			}
+			for (FulfilledClientRequest request : historyStore.getOrderedList()) {
+				index.put(request);
+			}
+			return index;
+		}
+	};
+	private MockeyXmlFileWriter fileWriter = new MockeyXmlFileWriter(this, MockeyXmlFileManager.MOCK_SERVICE_DEFINITION);
+
+	/**
+	 * If set to true, a request URL without an exact service match is routed
+	 * to the service with the longest matching path prefix, instead of
+	 * creating a new service.
+	 */
+	public static final String PROPERTY_PREFIX_MATCH = "mockey.routing.prefixMatch";
 
 	private static Logger logger = Logger.getLogger(InMemoryMockeyStorage.class);
 	private ProxyServerModel proxyInfoBean = new ProxyServerModel();
 
 	private Long univeralTwistInfoId = null;
+	private volatile TwistInfo universalTwistInfo = null;
 	private Long univeralErrorServiceId = null;
 	private Long univeralErrorScenarioId = null;
 	private static InMemoryMockeyStorage store = new InMemoryMockeyStorage();
 	// Yes, by default, we need this as TRUE.
 	private Boolean transientState = new Boolean(true);
 
-    // Concurrent calls to different servlets cause bugs. Therefore we will synchronize them.
-    private static Object lockObject = new Object();
+    // Concurrent calls to different servlets cause bugs. Configuration changes
+    // (e.g. applying a service plan) take the write lock so that request
+    // threads, holding the read lock, never see a half-applied change. Many
+    // request threads may hold the read lock at the same time.
+    private static ReentrantReadWriteLock configurationLock = new ReentrantReadWriteLock();
 
 	/**
 	 * 
@@ -84,8 +125,23 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 		return store;
 	}
 
-    public static Object getLockObject() {
-        return lockObject;
+    /**
+     * Shared by request threads while they look up a service and select a
+     * scenario. Must NOT be held while proxying or waiting out hang time.
+     * 
+     * @return read lock for the service configuration
+     */
+    public static Lock getReadLock() {
+        return configurationLock.readLock();
+    }
+
+    /**
+     * Exclusive lock for changes to the service configuration.
+     * 
+     * @return write lock for the service configuration
+     */
+    public static Lock getWriteLock() {
+        return configurationLock.writeLock();
     }
 	
 	/**
@@ -98,7 +154,7 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 		}
 		
 		if(!transientState){
-			this.writeMemoryToFile();
+			fileWriter.markAllChanged();
 		}
 		
 	}
@@ -124,9 +180,6 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	 * </pre>
 	 */
 	public InMemoryMockeyStorage() {
-		this.historyStore.setMaxSize(new Integer(25)); // Careful, more than ~45
-		// and AJAX /JavaScript
-		// gets funky.
 	}
 
 	public Service getServiceById(Long id) {
@@ -145,38 +198,41 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	}
 
 	public Service getServiceByUrl(String url) {
+		Service service = findServiceByUrl(url);
+		if (service == null) {
+			service = createServiceForUrl(url);
+		}
+		return service;
+	}
 
-		try {
-			for (Service service : getServices()) {
-				// 1. Check for matching name.
-
-				Url serviceMockUrl = new Url(service.getUrl());
-				// logger.debug("Comparing: " + url.trim()+
-				// " == "+serviceMockUrl.getFullUrl().trim() );
-				if (url.trim().equalsIgnoreCase(serviceMockUrl.getFullUrl().trim())) {
-
-					return service;
-				}
-				// 2. If no Mock url match, then check real URLs.
-				Iterator<Url> altUrlIter = service.getRealServiceUrls().iterator();
-				while (altUrlIter.hasNext()) {
-					Url altUrl = altUrlIter.next();
-					// logger.debug("Comparing: " + url.trim()+
-					// " == "+serviceMockUrl.getFullUrl().trim() );
-
-					if (url.trim().equalsIgnoreCase(altUrl.getFullUrl().trim())) {
-						return service;
-					}
-				}
+	/**
+	 * 
+	 * @param url
+	 * @return service with a matching mock or real URL, otherwise null.
+	 */
+	private Service findServiceByUrl(String url) {
+		ServiceUrlIndex index = serviceUrlIndex.get();
+		Long serviceId = index.getExactMatch(url);
+		if (serviceId == null && Boolean.getBoolean(PROPERTY_PREFIX_MATCH)) {
+			serviceId = index.getLongestPrefixMatch(url);
+		}
+		return (serviceId != null) ? getServiceById(serviceId) : null;
+	}
 
-			}
-		} catch (Exception e) {
-			logger.error("Unable to retrieve service w/ url pattern: " + url, e);
+	/**
+	 * Request threads only hold the read lock, so two of them may miss on the
+	 * same unknown URL at the same time. Creation is serialized and re-checked
+	 * to avoid creating duplicate services.
+	 */
+	private synchronized Service createServiceForUrl(String url) {
+		Service service = findServiceByUrl(url);
+		if (service != null) {
+			return service;
 		}
 
 		logger.debug("Didn't find service with Service path: " + url + ".  Creating a new one.");
 
-		Service service = new Service();
+		service = new Service();
 
 		Url newUrl = null;
 
@@ -195,8 +251,16 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 
 	public Service saveOrUpdateService(Service mockServiceBean) {
 		PersistableItem item = mockServiceStore.save(mockServiceBean);
+		ServiceUrlIndex urlIndex = serviceUrlIndex.getIfBuilt();
+		if (urlIndex != null) {
+			urlIndex.put(mockServiceBean);
+		}
+		SearchIndex textIndex = searchIndex.getIfBuilt();
+		if (textIndex != null) {
+			textIndex.put(mockServiceBean);
+		}
 		if (mockServiceBean != null && !mockServiceBean.getTransientState()) {
-			this.writeMemoryToFile();
+			this.writeServiceToFile(mockServiceBean);
 		}
 		return (Service) item;
 	}
@@ -204,12 +268,42 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	public void deleteService(Service mockServiceBean) {
 		if (mockServiceBean != null) {
 			mockServiceStore.remove(mockServiceBean.getId());
+			ServiceUrlIndex urlIndex = serviceUrlIndex.getIfBuilt();
+			if (urlIndex != null) {
+				urlIndex.remove(mockServiceBean.getId());
+			}
+			SearchIndex textIndex = searchIndex.getIfBuilt();
+			if (textIndex != null) {
+				textIndex.remove(mockServiceBean.getId());
+			}
 			if (mockServiceBean != null && !mockServiceBean.getTransientState()) {
 				this.writeMemoryToFile();
 			}
 		}
 	}
 
+	public void updateServiceUrlIndex(Service service) {
+		// Only index the instance this store holds, not a copy with the same
+		// ID (e.g. a service being uploaded).
+		ServiceUrlIndex index = serviceUrlIndex.getIfBuilt();
+		if (index != null && service != null && service.getId() != null
+				&& mockServiceStore.get(service.getId()) == service) {
+			index.put(service);
+		}
+	}
+
+	public void updateSearchIndex(Service service) {
+		SearchIndex index = searchIndex.getIfBuilt();
+		if (index != null && service != null && service.getId() != null
+				&& mockServiceStore.get(service.getId()) == service) {
+			index.put(service);
+		}
+	}
+
+	public List<SearchResult> search(String query, int maxResults) {
+		return searchIndex.get().search(query, maxResults);
+	}
+
 	public List<Long> getServiceIds() {
 		List<Long> ids = new ArrayList<Long>();
 		for (Service service : this.getServices()) {
@@ -239,14 +333,22 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 
 	public void saveOrUpdateFulfilledClientRequest(FulfilledClientRequest request) {
 		logger.debug("saving a request.");
+		// Requests already held are only being updated, e.g. tagged.
+		boolean isNew = request.getId() == null || historyStore.get(request.getId()) != request;
 		historyStore.save(request);
+		historyIndex.add(request);
+		SearchIndex textIndex = searchIndex.getIfBuilt();
+		if (textIndex != null) {
+			textIndex.put(request);
+		}
+		if (isNew) {
+			HistoryFeed.getInstance().publish(request);
+		}
 	}
 
 	public void deleteFulfilledClientRequestsForService(Long serviceId) {
-		for (FulfilledClientRequest req : historyStore.getOrderedList()) {
-			if (req.getServiceId().equals(serviceId)) {
-				this.historyStore.remove(req.getId());
-			}
+		for (FulfilledClientRequest req : getFulfilledClientRequestsForService(serviceId)) {
+			this.historyStore.remove(req.getId());
 		}
 	}
 
@@ -314,39 +416,33 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	}
 
 	public void deleteEverything() {
-		historyStore = new PersistableItemStore<FulfilledClientRequest>();
+		historyStore.clear();
+		historyIndex.clear();
 		mockServiceStore = new PersistableItemStore<Service>();
+		ServiceUrlIndex urlIndex = serviceUrlIndex.getIfBuilt();
+		if (urlIndex != null) {
+			urlIndex.clear();
+		}
+		SearchIndex textIndex = searchIndex.getIfBuilt();
+		if (textIndex != null) {
+			textIndex.clear();
+		}
 		servicePlanStore = new PersistableItemStore<ServicePlan>();
 		twistInfoStore = new PersistableItemStore<TwistInfo>();
+		this.universalTwistInfo = null;
 		this.univeralErrorServiceId = null;
 		this.univeralErrorScenarioId = null;
-		this.writeMemoryToFile();
+		if (!transientState) {
+			fileWriter.markAllChanged();
+		}
 	}
 
 	public List<String> uniqueClientIPs() {
-		List<String> uniqueIPs = new ArrayList<String>();
-		for (FulfilledClientRequest tx : this.historyStore.getOrderedList()) {
-			String tmpIP = tx.getRequestorIP();
-			if (!uniqueIPs.contains(tmpIP)) {
-				uniqueIPs.add(tmpIP);
-			}
-		}
-		return uniqueIPs;
+		return historyIndex.getRequestorIPs(null);
 	}
 
 	public List<String> uniqueClientIPsForService(Long serviceId) {
-
-		logger.debug("getting IPs for serviceId: " + serviceId + ". there are a total of " + this.historyStore.size()
-				+ " requests currently stored.");
-
-		List<String> uniqueIPs = new ArrayList<String>();
-		for (FulfilledClientRequest tx : this.historyStore.getOrderedList()) {
-			String ip = tx.getRequestorIP();
-			if (!uniqueIPs.contains(ip) && tx.getServiceId().equals(serviceId)) {
-				uniqueIPs.add(ip);
-			}
-		}
-		return uniqueIPs;
+		return historyIndex.getRequestorIPs(serviceId);
 	}
 
 	public FulfilledClientRequest getFulfilledClientRequestsById(Long fulfilledClientRequestId) {
@@ -356,57 +452,43 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	}
 
 	public List<FulfilledClientRequest> getFulfilledClientRequestsForService(Long serviceId) {
-		logger.debug("getting requests for serviceId: " + serviceId + ". there are a total of "
-				+ this.historyStore.size() + " requests currently stored.");
-		List<FulfilledClientRequest> rv = new ArrayList<FulfilledClientRequest>();
-		for (FulfilledClientRequest req : this.historyStore.getOrderedList()) {
-			if (req.getServiceId().equals(serviceId)) {
-				rv.add(req);
-			}
-		}
-		return rv;
+		HistoryQuery query = new HistoryQuery();
+		query.setServiceId(serviceId);
+		return oldestFirst(historyIndex.find(query));
 	}
 
 	public List<FulfilledClientRequest> getFulfilledClientRequestsFromIP(String ip) {
-		List<FulfilledClientRequest> rv = new ArrayList<FulfilledClientRequest>();
-		for (FulfilledClientRequest req : this.historyStore.getOrderedList()) {
-			if (req.getRequestorIP().equals(ip)) {
-				rv.add(req);
-			}
-		}
-		return rv;
+		HistoryQuery query = new HistoryQuery();
+		query.setRequestorIP(ip);
+		return oldestFirst(historyIndex.find(query));
 	}
 
 	public List<FulfilledClientRequest> getFulfilledClientRequestsFromIPForService(String ip, Long serviceId) {
-		List<FulfilledClientRequest> rv = new ArrayList<FulfilledClientRequest>();
-		for (FulfilledClientRequest req : this.historyStore.getOrderedList()) {
-			if (req.getServiceId().equals(serviceId) && req.getRequestorIP().equals(ip)) {
-				rv.add(req);
-			}
-		}
-		return rv;
+		HistoryQuery query = new HistoryQuery();
+		query.setServiceId(serviceId);
+		query.setRequestorIP(ip);
+		return oldestFirst(historyIndex.find(query));
 	}
 
 	public void deleteFulfilledClientRequests() {
-		historyStore = new PersistableItemStore<FulfilledClientRequest>();
+		historyStore.clear();
+		historyIndex.clear();
+		SearchIndex textIndex = searchIndex.getIfBuilt();
+		if (textIndex != null) {
+			textIndex.removeHistory();
+		}
 
 	}
 
 	public void deleteFulfilledClientRequestsFromIPForService(String ip, Long serviceId) {
-		for (FulfilledClientRequest req : historyStore.getOrderedList()) {
-			if (req.getServiceId().equals(serviceId) && req.getRequestorIP().equals(ip)) {
-				this.historyStore.remove(req.getId());
-			}
+		for (FulfilledClientRequest req : getFulfilledClientRequestsFromIPForService(ip, serviceId)) {
+			this.historyStore.remove(req.getId());
 		}
 
 	}
 
 	public void deleteFulfilledClientRequestById(Long fulfilledRequestID) {
-		for (FulfilledClientRequest req : historyStore.getOrderedList()) {
-			if (req.getId().equals(fulfilledRequestID)) {
-				this.historyStore.remove(req.getId());
-			}
-		}
+		this.historyStore.remove(fulfilledRequestID);
 
 	}
 
@@ -415,113 +497,44 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	 * NOT.
 	 */
 	public Collection<FulfilledClientRequest> getFulfilledClientRequest(Collection<String> filterArguments) {
+		HistoryQuery query = new HistoryQuery();
+		query.setTokens(filterArguments);
+		return oldestFirst(historyIndex.find(query));
+	}
 
-		Collection<FulfilledClientRequest> rv = new ArrayList<FulfilledClientRequest>();
-		if (filterArguments.size() == 0) {
-			rv = this.getFulfilledClientRequests();
-		} else {
-
-			for (FulfilledClientRequest req : this.historyStore.getOrderedList()) {
-				boolean allFilterTokensPresentInReq = true;
-				for (String filterArg : filterArguments) {
-					boolean notValue = filterArg.startsWith("!");
-
-					boolean tokenFound = hasToken(req, filterArg);
-					if (notValue && tokenFound) {
-						allFilterTokensPresentInReq = false;
-						break;
-					} else if (!tokenFound && !notValue) {
-						allFilterTokensPresentInReq = false;
-						break;
-					} else if (!tokenFound && notValue) {
-						allFilterTokensPresentInReq = true;
-					}
-
-				}
-				if (allFilterTokensPresentInReq) {
-					rv.add(req);
-				}
+	public List<FulfilledClientRequest> getFulfilledClientRequests(HistoryQuery query) {
+		return historyIndex.find(query);
+	}
 
-			}
-		}
-		return rv;
+	private static List<FulfilledClientRequest> oldestFirst(List<FulfilledClientRequest> newestFirst) {
+		Collections.reverse(newestFirst);
+		return newestFirst;
 	}
 
 	/**
-	 * Filters list with AND not OR. If string starts with "!", we consider it
-	 * NOT.
+	 * Every time something gets saved, we write to file. Writes happen in the
+	 * background, once saves have settled, and only rewrite what changed.
 	 */
-	private boolean hasToken(FulfilledClientRequest req, String filterArg) {
-
-		boolean notValue = filterArg.startsWith("!");
-		if (notValue) {
-			try {
-				// get the value
-				filterArg = filterArg.substring(1);
-			} catch (Exception e) {
-				// do nothing. exception may occur
-				// with out of index
-			}
-		}
-		boolean tokenFound = false;
-		if (req.getServiceId().toString().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getClientRequestBody().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getClientRequestHeaders().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getClientRequestParameters().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getRequestorIP().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getRawRequest().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getResponseMessage().getBody().indexOf(filterArg) > -1) {
-			tokenFound = true;
+	private void writeMemoryToFile() {
 
-		} else if (req.getResponseMessage().getHeaderInfo().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else if (req.getServiceName().indexOf(filterArg) > -1) {
-			tokenFound = true;
-
-		} else {
-			Header[] headers = req.getResponseMessage().getHeaders();
-			if (headers != null) {
-				for (Header header : headers) {
-					if (header.getName().indexOf(filterArg) > -1) {
-						tokenFound = true;
-						break;
-					} else if (header.getValue().indexOf(filterArg) > -1) {
-						tokenFound = true;
-						break;
-
-					}
-				}
-			}
+		if (!transientState) {
+			fileWriter.markChanged();
 		}
-		return tokenFound;
 
 	}
 
-	/**
-	 * Every time something gets saved, we write to memory.
-	 */
-	private synchronized void writeMemoryToFile() {
+	private void writeServiceToFile(Service service) {
 
 		if (!transientState) {
-			MockeyXmlFactory g = new MockeyXmlFactory();
-			g.writeStoreToXML(store, MockeyXmlFileManager.MOCK_SERVICE_DEFINITION);
+			fileWriter.markServiceChanged(service.getId());
 		}
 
 	}
 
+	public void flush() {
+		fileWriter.flush();
+	}
+
 	public Collection<TwistInfo> getTwistInfoList() {
 		return this.twistInfoStore.getOrderedList();
 	}
@@ -542,14 +555,21 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 	}
 
 	public TwistInfo saveOrUpdateTwistInfo(TwistInfo twistInfo) {
-		PersistableItem item = twistInfoStore.save(twistInfo);
+		twistInfo.compile();
+		TwistInfo item = (TwistInfo) twistInfoStore.save(twistInfo);
+		if (item.getId().equals(this.univeralTwistInfoId)) {
+			this.universalTwistInfo = item;
+		}
 		this.writeMemoryToFile();
-		return (TwistInfo) item;
+		return item;
 	}
 
 	public void deleteTwistInfo(TwistInfo twistInfo) {
 		if (twistInfo != null) {
 			this.twistInfoStore.remove(twistInfo.getId());
+			if (twistInfo.getId() != null && twistInfo.getId().equals(this.univeralTwistInfoId)) {
+				this.universalTwistInfo = null;
+			}
 			this.writeMemoryToFile();
 		}
 	}
@@ -560,9 +580,16 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 
 	public void setUniversalTwistInfoId(Long twistInfoId) {
 		this.univeralTwistInfoId = twistInfoId;
+		// Null until saved if the twist isn't stored yet, e.g. while reading
+		// a definitions file.
+		this.universalTwistInfo = (twistInfoId != null) ? this.twistInfoStore.get(twistInfoId) : null;
 		this.writeMemoryToFile();
 	}
 
+	public TwistInfo getUniversalTwistInfo() {
+		return this.universalTwistInfo;
+	}
+
 	public Long getUniversalErrorScenarioId() {
 
 		return this.univeralErrorScenarioId;
@@ -590,4 +617,46 @@ public class InMemoryMockeyStorage implements IMockeyStorage {
 		return this.transientState;
 	}
 
+	/**
+	 * An index built from the store's contents when first asked for. Until
+	 * then, changes to the store don't need to be applied to it.
+	 * <p>
+	 * A change is made to the store before <code>getIfBuilt</code> is checked,
+	 * and the index is built and published while holding this object's lock.
+	 * So a change either happens before the build, which then sees it, or
+	 * finds the index built and applies it there.
+	 */
+	private abstract static class LazyIndex<T> {
+		private volatile T index = null;
+
+		abstract T build();
+
+		T get() {
+			T built = index;
+			if (built == null) {
+				synchronized (this) {
+					if (index == null) {
+						index = build();
+					}
+					built = index;
+				}
+			}
+			return built;
+		}
+
+		/**
+		 * 
+		 * @return the index, waiting for a build in progress, or null if it
+		 *         hasn't been built
+		 */
+		T getIfBuilt() {
+			T built = index;
+			if (built == null) {
+				synchronized (this) {
+					built = index;
+				}
+			}
+			return built;
+		}
+	}
 }
@@ -0,0 +1,834 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.ResponseFromService;
+import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+
+/**
+ * Full-text index over service names and URLs, scenario names, match
+ * arguments and responses, and the requests in History. Terms are runs of
+ * letters and digits, lower cased.
+ * 
+ * Queries are words, all of which must match. A word ending in
+ * <code>*</code> matches terms starting with it. A quoted phrase, or a word
+ * with punctuation in it such as <code>example.com/api</code>, must appear as
+ * typed (case ignored). Results are ranked by how often, and in which fields,
+ * the words appear; names weigh more than URLs, URLs more than bodies.
+ * 
+ * Updates are incremental: saving a service only re-reads the scenarios
+ * whose text changed. Searches share a read lock; updates are serialized.
+ */
+public class SearchIndex {
+
+	public static final String TYPE_SERVICE = "service";
+	public static final String TYPE_SCENARIO = "scenario";
+	public static final String TYPE_HISTORY = "history";
+
+	/** Longer terms are cut to this length, in the index and in queries. */
+	static final int MAX_TERM_LENGTH = 32;
+	private static final int MAX_PREFIX_TERMS = 1000;
+	private static final int MAX_NEW_TERMS = 65536;
+	private static final int SNIPPET_BEFORE = 40;
+	private static final int SNIPPET_LENGTH = 150;
+	private static final float NAME_BOOST = 4;
+	private static final float URL_BOOST = 2;
+	private static final float BODY_BOOST = 1;
+	private static final float[] SCENARIO_BOOSTS = { NAME_BOOST, URL_BOOST, BODY_BOOST };
+	private static final float[] HISTORY_BOOSTS = { NAME_BOOST, URL_BOOST, BODY_BOOST, BODY_BOOST };
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Postings> terms = new HashMap<String, Postings>();
+	// Terms in order, for prefix searches. A large sorted tree is slow to
+	// add to, so new terms wait in a small one and are merged into the
+	// array in batches. The array may still hold removed terms.
+	private String[] sortedTerms = new String[0];
+	private final TreeSet<String> newTerms = new TreeSet<String>();
+	private final Map<Integer, Document> documents = new HashMap<Integer, Document>();
+	private final Map<String, Document> documentsByKey = new ConcurrentHashMap<String, Document>();
+	private final Map<Long, Set<String>> scenarioKeysByServiceId = new HashMap<Long, Set<String>>();
+	// History documents, oldest first.
+	private final ArrayDeque<HistoryDocument> historyDocuments = new ArrayDeque<HistoryDocument>();
+	private final HistoryStore historyStore;
+	private int nextDocumentId = 1;
+
+	/**
+	 * 
+	 * @param historyStore
+	 *            where indexed History requests are held. Requests it no
+	 *            longer holds are dropped from the index.
+	 */
+	public SearchIndex(HistoryStore historyStore) {
+		this.historyStore = historyStore;
+	}
+
+	/**
+	 * Adds or updates the service and its scenarios. Scenarios deleted from
+	 * the service are removed.
+	 * 
+	 * @param service
+	 *            must have an ID
+	 */
+	public void put(Service service) {
+		if (service == null || service.getId() == null) {
+			return;
+		}
+		Long serviceId = service.getId();
+		// Tokenize outside of the lock; only changed scenarios.
+		List<Document> added = new ArrayList<Document>();
+		added.add(new ServiceDocument(service));
+		Set<String> scenarioKeys = new HashSet<String>();
+		for (Scenario scenario : service.getScenarios()) {
+			ScenarioDocument document = new ScenarioDocument(serviceId, scenario);
+			scenarioKeys.add(document.key);
+			Document indexed = documentsByKey.get(document.key);
+			if (!(indexed instanceof ScenarioDocument) || !((ScenarioDocument) indexed).hasSameText(document)) {
+				added.add(document);
+			}
+		}
+		for (Document document : added) {
+			document.tokenize();
+		}
+
+		lock.writeLock().lock();
+		try {
+			Set<String> previous = scenarioKeysByServiceId.put(serviceId, scenarioKeys);
+			if (previous != null) {
+				for (String key : previous) {
+					if (!scenarioKeys.contains(key)) {
+						removeDocument(key);
+					}
+				}
+			}
+			for (Document document : added) {
+				removeDocument(document.key);
+				addDocument(document);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the service with this ID and its scenarios.
+	 * 
+	 * @param serviceId
+	 */
+	public void remove(Long serviceId) {
+		lock.writeLock().lock();
+		try {
+			removeDocument(ServiceDocument.key(serviceId));
+			Set<String> scenarioKeys = scenarioKeysByServiceId.remove(serviceId);
+			if (scenarioKeys != null) {
+				for (String key : scenarioKeys) {
+					removeDocument(key);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds a request just saved to History, and drops the requests History
+	 * has evicted since.
+	 * 
+	 * @param request
+	 *            must have an ID
+	 */
+	public void put(FulfilledClientRequest request) {
+		if (request == null || request.getId() == null) {
+			return;
+		}
+		HistoryDocument document = new HistoryDocument(request);
+		Document indexed = documentsByKey.get(document.key);
+		if (indexed != null && ((HistoryDocument) indexed).request == request) {
+			// Updated in place, e.g. tagged; nothing searchable changed.
+			return;
+		}
+		document.tokenize();
+		lock.writeLock().lock();
+		try {
+			removeDocument(document.key);
+			addDocument(document);
+			historyDocuments.addLast(document);
+			while (!historyDocuments.isEmpty()) {
+				HistoryDocument oldest = historyDocuments.peekFirst();
+				if (documentsByKey.get(oldest.key) == oldest && oldest.isCurrent()) {
+					break;
+				}
+				historyDocuments.removeFirst();
+				if (documentsByKey.get(oldest.key) == oldest) {
+					removeDocument(oldest.key);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes every History request, e.g. after History is cleared.
+	 */
+	public void removeHistory() {
+		lock.writeLock().lock();
+		try {
+			for (HistoryDocument document : historyDocuments) {
+				if (documentsByKey.get(document.key) == document) {
+					removeDocument(document.key);
+				}
+			}
+			historyDocuments.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			terms.clear();
+			sortedTerms = new String[0];
+			newTerms.clear();
+			documents.clear();
+			documentsByKey.clear();
+			scenarioKeysByServiceId.clear();
+			historyDocuments.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of services, scenarios and History requests indexed
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 
+	 * @param query
+	 *            see the class description
+	 * @param maxResults
+	 * @return the best matches first, at most <code>maxResults</code>
+	 */
+	public List<SearchResult> search(String query, int maxResults) {
+		List<Clause> clauses = parse(query);
+		if (clauses.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Hit> hits = new ArrayList<Hit>();
+		lock.readLock().lock();
+		try {
+			int[] candidates = null;
+			float[] scores = null;
+			int count = 0;
+			for (Clause clause : clauses) {
+				for (int t = 0; t < clause.tokens.length; t++) {
+					Postings postings = (t == clause.tokens.length - 1 && clause.prefix) ? prefixPostings(clause.tokens[t])
+							: terms.get(clause.tokens[t]);
+					if (postings == null || postings.size == 0) {
+						return Collections.emptyList();
+					}
+					float idf = (float) Math.log(1 + (double) documents.size() / postings.size);
+					if (candidates == null) {
+						candidates = Arrays.copyOf(postings.documentIds, postings.size);
+						scores = new float[postings.size];
+						count = postings.size;
+						for (int i = 0; i < count; i++) {
+							scores[i] = idf * (float) Math.sqrt(postings.weights[i]);
+						}
+					} else {
+						int kept = 0;
+						for (int i = 0; i < count; i++) {
+							int index = Arrays.binarySearch(postings.documentIds, 0, postings.size, candidates[i]);
+							if (index >= 0) {
+								candidates[kept] = candidates[i];
+								scores[kept++] = scores[i] + idf * (float) Math.sqrt(postings.weights[index]);
+							}
+						}
+						count = kept;
+					}
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				hits.add(new Hit(documents.get(candidates[i]), scores[i]));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		// Checking phrases reads the documents' text, so it's done outside
+		// of the lock, on as few documents as the terms allow.
+		Collections.sort(hits, new Comparator<Hit>() {
+			public int compare(Hit a, Hit b) {
+				int byScore = Float.compare(b.score, a.score);
+				return (byScore != 0) ? byScore : a.document.id - b.document.id;
+			}
+		});
+		List<SearchResult> results = new ArrayList<SearchResult>();
+		for (Hit hit : hits) {
+			if (results.size() >= maxResults) {
+				break;
+			}
+			if (!hit.document.isCurrent()) {
+				continue;
+			}
+			String[] fields = hit.document.getFields();
+			boolean matches = true;
+			for (Clause clause : clauses) {
+				if (clause.verify && find(fields, clause.text) == null) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches) {
+				results.add(hit.document.toSearchResult(snippet(fields, clauses.get(0).text)));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Splits a query into words and quoted phrases.
+	 */
+	static List<Clause> parse(String query) {
+		List<Clause> clauses = new ArrayList<Clause>();
+		if (query == null) {
+			return clauses;
+		}
+		int i = 0;
+		int length = query.length();
+		while (i < length) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			int end;
+			String text;
+			if (c == '"') {
+				end = query.indexOf('"', i + 1);
+				if (end == -1) {
+					end = length;
+				}
+				text = query.substring(i + 1, end);
+				end++;
+			} else {
+				end = i;
+				while (end < length && !Character.isWhitespace(query.charAt(end))) {
+					end++;
+				}
+				text = query.substring(i, end);
+			}
+			i = end;
+			Clause clause = new Clause(text);
+			if (clause.tokens.length > 0) {
+				clauses.add(clause);
+			}
+		}
+		return clauses;
+	}
+
+	/**
+	 * Adds the weighted terms of the text to <code>weights</code>.
+	 */
+	static void tokenize(String text, float boost, Map<String, float[]> weights) {
+		if (text == null) {
+			return;
+		}
+		char[] term = new char[MAX_TERM_LENGTH];
+		int termLength = 0;
+		int length = text.length();
+		for (int i = 0; i <= length; i++) {
+			char c = (i < length) ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				if (termLength < MAX_TERM_LENGTH) {
+					term[termLength++] = Character.toLowerCase(c);
+				}
+			} else if (termLength > 0) {
+				String key = new String(term, 0, termLength);
+				float[] weight = weights.get(key);
+				if (weight == null) {
+					weights.put(key, new float[] { boost });
+				} else {
+					weight[0] += boost;
+				}
+				termLength = 0;
+			}
+		}
+	}
+
+	private Postings prefixPostings(String prefix) {
+		List<Postings> matching = new ArrayList<Postings>();
+		int start = Arrays.binarySearch(sortedTerms, prefix);
+		for (int i = (start < 0) ? -start - 1 : start; i < sortedTerms.length && sortedTerms[i].startsWith(prefix)
+				&& matching.size() < MAX_PREFIX_TERMS; i++) {
+			Postings postings = terms.get(sortedTerms[i]);
+			if (postings != null) {
+				matching.add(postings);
+			}
+		}
+		for (String term : newTerms.subSet(prefix, prefix + Character.MAX_VALUE)) {
+			if (matching.size() >= MAX_PREFIX_TERMS) {
+				break;
+			}
+			Postings postings = terms.get(term);
+			// A term removed and added again is in both.
+			if (!matching.contains(postings)) {
+				matching.add(postings);
+			}
+		}
+		if (matching.size() <= 1) {
+			return matching.isEmpty() ? null : matching.get(0);
+		}
+		// Document ID in the high bits, weight in the low: sorting orders by
+		// document and the same documents can be summed.
+		int total = 0;
+		for (Postings postings : matching) {
+			total += postings.size;
+		}
+		long[] entries = new long[total];
+		int n = 0;
+		for (Postings postings : matching) {
+			for (int i = 0; i < postings.size; i++) {
+				entries[n++] = ((long) postings.documentIds[i] << 32)
+						| (Float.floatToIntBits(postings.weights[i]) & 0xffffffffL);
+			}
+		}
+		Arrays.sort(entries);
+		Postings union = new Postings(prefix);
+		for (int i = 0; i < total;) {
+			int documentId = (int) (entries[i] >>> 32);
+			float weight = 0;
+			for (; i < total && (int) (entries[i] >>> 32) == documentId; i++) {
+				weight += Float.intBitsToFloat((int) entries[i]);
+			}
+			union.add(documentId, weight);
+		}
+		return union;
+	}
+
+	private void mergeNewTerms() {
+		String[] merged = new String[sortedTerms.length + newTerms.size()];
+		int n = 0;
+		int i = 0;
+		for (String term : newTerms) {
+			for (; i < sortedTerms.length && sortedTerms[i].compareTo(term) <= 0; i++) {
+				if (terms.containsKey(sortedTerms[i]) && !sortedTerms[i].equals(term)) {
+					merged[n++] = sortedTerms[i];
+				}
+			}
+			if (terms.containsKey(term)) {
+				merged[n++] = term;
+			}
+		}
+		for (; i < sortedTerms.length; i++) {
+			if (terms.containsKey(sortedTerms[i])) {
+				merged[n++] = sortedTerms[i];
+			}
+		}
+		sortedTerms = Arrays.copyOf(merged, n);
+		newTerms.clear();
+	}
+
+	private void addDocument(Document document) {
+		document.id = nextDocumentId++;
+		documents.put(document.id, document);
+		documentsByKey.put(document.key, document);
+		for (int i = 0; i < document.terms.length; i++) {
+			Postings postings = terms.get(document.terms[i]);
+			if (postings == null) {
+				postings = new Postings(document.terms[i]);
+				terms.put(postings.term, postings);
+				newTerms.add(postings.term);
+				if (newTerms.size() >= MAX_NEW_TERMS) {
+					mergeNewTerms();
+				}
+			} else {
+				// Share the dictionary's copy of the term.
+				document.terms[i] = postings.term;
+			}
+			postings.add(document.id, document.weights[i]);
+		}
+		// Only needed while indexing.
+		document.weights = null;
+	}
+
+	private void removeDocument(String key) {
+		Document document = documentsByKey.remove(key);
+		if (document == null) {
+			return;
+		}
+		documents.remove(document.id);
+		for (String term : document.terms) {
+			Postings postings = terms.get(term);
+			if (postings != null && postings.remove(document.id) && postings.size == 0) {
+				terms.remove(term);
+				newTerms.remove(term);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return the field and offset of the first case-insensitive occurrence
+	 *         of the text, or null
+	 */
+	private static int[] find(String[] fields, String text) {
+		for (int f = 0; f < fields.length; f++) {
+			int index = indexOfIgnoreCase(fields[f], text);
+			if (index > -1) {
+				return new int[] { f, index };
+			}
+		}
+		return null;
+	}
+
+	private static String snippet(String[] fields, String text) {
+		int[] found = find(fields, text);
+		if (found == null) {
+			// e.g. a prefix or a word cut to MAX_TERM_LENGTH
+			for (String field : fields) {
+				if (field != null && field.length() > 0) {
+					return field.substring(0, Math.min(field.length(), SNIPPET_LENGTH));
+				}
+			}
+			return "";
+		}
+		String field = fields[found[0]];
+		int start = Math.max(0, found[1] - SNIPPET_BEFORE);
+		return field.substring(start, Math.min(field.length(), start + SNIPPET_LENGTH));
+	}
+
+	static int indexOfIgnoreCase(String text, String lowerCaseNeedle) {
+		if (text == null) {
+			return -1;
+		}
+		int length = lowerCaseNeedle.length();
+		if (length == 0) {
+			return 0;
+		}
+		char first = lowerCaseNeedle.charAt(0);
+		char firstUpper = Character.toUpperCase(first);
+		int last = text.length() - length;
+		for (int i = 0; i <= last; i++) {
+			char c = text.charAt(i);
+			if ((c == first || c == firstUpper || (c >= 128 && Character.toLowerCase(c) == first))
+					&& text.regionMatches(true, i, lowerCaseNeedle, 0, length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A word, prefix or phrase of a query.
+	 */
+	static class Clause {
+
+		final String text;
+		final String[] tokens;
+		final boolean prefix;
+		// True if matching the terms isn't enough and the text itself must
+		// be found, e.g. for a phrase.
+		final boolean verify;
+
+		Clause(String typed) {
+			boolean prefix = typed.endsWith("*");
+			if (prefix) {
+				typed = typed.substring(0, typed.length() - 1);
+			}
+			// Lower cased a character at a time, as the index is.
+			char[] text = typed.trim().toCharArray();
+			List<String> tokens = new ArrayList<String>();
+			int start = -1;
+			for (int i = 0; i <= text.length; i++) {
+				boolean letterOrDigit = i < text.length && Character.isLetterOrDigit(text[i]);
+				if (letterOrDigit) {
+					text[i] = Character.toLowerCase(text[i]);
+					if (start == -1) {
+						start = i;
+					}
+				} else if (start != -1) {
+					tokens.add(new String(text, start, Math.min(i - start, MAX_TERM_LENGTH)));
+					start = -1;
+				} else if (i < text.length) {
+					text[i] = Character.toLowerCase(text[i]);
+				}
+			}
+			this.text = new String(text);
+			this.tokens = tokens.toArray(new String[tokens.size()]);
+			// Only the last word can be a prefix, e.g. "example.co*".
+			this.prefix = prefix && text.length > 0 && Character.isLetterOrDigit(text[text.length - 1]);
+			this.verify = this.tokens.length > 1 || (this.tokens.length == 1 && !this.tokens[0].equals(this.text));
+		}
+	}
+
+	/**
+	 * IDs of the documents with a term, in ascending order, and the term's
+	 * weight in each.
+	 */
+	private static class Postings {
+
+		final String term;
+		// Most terms, e.g. IDs, are in one document only.
+		int[] documentIds = new int[1];
+		float[] weights = new float[1];
+		int size;
+
+		Postings(String term) {
+			this.term = term;
+		}
+
+		/**
+		 * @param documentId
+		 *            greater than any already added
+		 */
+		void add(int documentId, float weight) {
+			if (size == documentIds.length) {
+				documentIds = Arrays.copyOf(documentIds, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			documentIds[size] = documentId;
+			weights[size++] = weight;
+		}
+
+		boolean remove(int documentId) {
+			int index = Arrays.binarySearch(documentIds, 0, size, documentId);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(documentIds, index + 1, documentIds, index, size - index - 1);
+			System.arraycopy(weights, index + 1, weights, index, size - index - 1);
+			size--;
+			return true;
+		}
+	}
+
+	private static class Hit {
+
+		final Document document;
+		final float score;
+
+		Hit(Document document, float score) {
+			this.document = document;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Something that can be found: its searchable text, and how to show it.
+	 */
+	private abstract static class Document {
+
+		final String key;
+		int id;
+		String[] terms;
+		float[] weights;
+
+		Document(String key) {
+			this.key = key;
+		}
+
+		void tokenize() {
+			Map<String, float[]> termWeights = new HashMap<String, float[]>();
+			String[] fields = getFields();
+			float[] boosts = getBoosts();
+			for (int i = 0; i < fields.length; i++) {
+				SearchIndex.tokenize(fields[i], boosts[i], termWeights);
+			}
+			this.terms = new String[termWeights.size()];
+			this.weights = new float[termWeights.size()];
+			int i = 0;
+			for (Map.Entry<String, float[]> entry : termWeights.entrySet()) {
+				terms[i] = entry.getKey();
+				weights[i++] = entry.getValue()[0];
+			}
+		}
+
+		abstract String[] getFields();
+
+		abstract float[] getBoosts();
+
+		abstract SearchResult toSearchResult(String snippet);
+
+		boolean isCurrent() {
+			return true;
+		}
+	}
+
+	private static class ServiceDocument extends Document {
+
+		private final Long serviceId;
+		private final String[] fields;
+		private final float[] boosts;
+
+		ServiceDocument(Service service) {
+			super(key(service.getId()));
+			this.serviceId = service.getId();
+			List<Url> realUrls = service.getRealServiceUrls();
+			int realUrlCount = (realUrls != null) ? realUrls.size() : 0;
+			this.fields = new String[2 + realUrlCount];
+			this.boosts = new float[fields.length];
+			fields[0] = service.getServiceName();
+			boosts[0] = NAME_BOOST;
+			fields[1] = service.getUrl();
+			boosts[1] = URL_BOOST;
+			for (int i = 0; i < realUrlCount; i++) {
+				fields[2 + i] = realUrls.get(i).getFullUrl();
+				boosts[2 + i] = URL_BOOST;
+			}
+		}
+
+		static String key(Long serviceId) {
+			return TYPE_SERVICE + ":" + serviceId;
+		}
+
+		String[] getFields() {
+			return fields;
+		}
+
+		float[] getBoosts() {
+			return boosts;
+		}
+
+		SearchResult toSearchResult(String snippet) {
+			SearchResult result = new SearchResult();
+			result.setType(TYPE_SERVICE);
+			result.setServiceId("" + serviceId);
+			result.setContent(snippet);
+			return result;
+		}
+	}
+
+	private static class ScenarioDocument extends Document {
+
+		private final Long serviceId;
+		private final Long scenarioId;
+		// Kept as read, so a changed scenario is noticed by reference.
+		private final String scenarioName;
+		private final String matchStringArg;
+		private final String responseMessage;
+
+		ScenarioDocument(Long serviceId, Scenario scenario) {
+			super(TYPE_SCENARIO + ":" + serviceId + ":" + scenario.getId());
+			this.serviceId = serviceId;
+			this.scenarioId = scenario.getId();
+			this.scenarioName = scenario.getScenarioName();
+			this.matchStringArg = scenario.getMatchStringArg();
+			this.responseMessage = scenario.getResponseMessage();
+		}
+
+		boolean hasSameText(ScenarioDocument other) {
+			return scenarioName == other.scenarioName && matchStringArg == other.matchStringArg
+					&& responseMessage == other.responseMessage;
+		}
+
+		String[] getFields() {
+			return new String[] { scenarioName, matchStringArg, responseMessage };
+		}
+
+		float[] getBoosts() {
+			return SCENARIO_BOOSTS;
+		}
+
+		SearchResult toSearchResult(String snippet) {
+			SearchResult result = new SearchResult();
+			result.setType(TYPE_SCENARIO);
+			result.setServiceId("" + serviceId);
+			result.setScenarioId("" + scenarioId);
+			result.setScenarioName(scenarioName);
+			result.setContent(snippet);
+			return result;
+		}
+	}
+
+	private class HistoryDocument extends Document {
+
+		private final FulfilledClientRequest request;
+
+		HistoryDocument(FulfilledClientRequest request) {
+			super(TYPE_HISTORY + ":" + request.getId());
+			this.request = request;
+		}
+
+		/**
+		 * History compacts what it holds, so the text is read when needed
+		 * rather than kept here.
+		 */
+		String[] getFields() {
+			ResponseFromService response = request.getResponseMessage();
+			return new String[] { request.getServiceName(), request.getRawRequest(), request.getClientRequestBody(),
+					(response != null) ? response.getBody() : null };
+		}
+
+		float[] getBoosts() {
+			return HISTORY_BOOSTS;
+		}
+
+		boolean isCurrent() {
+			return historyStore == null || historyStore.get(request.getId()) == request;
+		}
+
+		SearchResult toSearchResult(String snippet) {
+			SearchResult result = new SearchResult();
+			result.setType(TYPE_HISTORY);
+			result.setServiceId("" + request.getServiceId());
+			result.setFulfilledRequestId("" + request.getId());
+			result.setContent(snippet);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+
+/**
+ * Routing table from URL to <code>Service</code> ID. Keys are the normalized
+ * (trimmed, lower case) full URLs of a service's mock URL and real URLs.
+ * 
+ * Exact matches are a single hash lookup. A trie over scheme/host/port and
+ * path segments answers longest path-prefix matches. When several services
+ * share a URL, the service with the smallest ID wins, which is the same
+ * service a scan of the ordered service list would find first.
+ * 
+ * Lookups never block. Updates are serialized.
+ */
+public class ServiceUrlIndex {
+
+	private final Map<String, ConcurrentSkipListSet<Long>> exactMatches = new ConcurrentHashMap<String, ConcurrentSkipListSet<Long>>();
+	private final Map<Long, Set<String>> keysByServiceId = new ConcurrentHashMap<Long, Set<String>>();
+	private final TrieNode root = new TrieNode();
+
+	/**
+	 * Adds or replaces all URL keys of the service.
+	 * 
+	 * @param service
+	 *            must have an ID
+	 */
+	public synchronized void put(Service service) {
+		if (service == null || service.getId() == null) {
+			return;
+		}
+		remove(service.getId());
+		Set<String> keys = new HashSet<String>();
+		if (service.getUrl() != null) {
+			keys.add(normalize(new Url(service.getUrl()).getFullUrl()));
+		}
+		if (service.getRealServiceUrls() != null) {
+			for (Url realUrl : service.getRealServiceUrls()) {
+				keys.add(normalize(realUrl.getFullUrl()));
+			}
+		}
+		for (String key : keys) {
+			ConcurrentSkipListSet<Long> ids = exactMatches.get(key);
+			if (ids == null) {
+				ids = new ConcurrentSkipListSet<Long>();
+				exactMatches.put(key, ids);
+			}
+			ids.add(service.getId());
+			getTrieNode(key, true).serviceIds.add(service.getId());
+		}
+		keysByServiceId.put(service.getId(), keys);
+	}
+
+	/**
+	 * Removes all URL keys of the service with this ID.
+	 * 
+	 * @param serviceId
+	 */
+	public synchronized void remove(Long serviceId) {
+		if (serviceId == null) {
+			return;
+		}
+		Set<String> keys = keysByServiceId.remove(serviceId);
+		if (keys != null) {
+			for (String key : keys) {
+				ConcurrentSkipListSet<Long> ids = exactMatches.get(key);
+				if (ids != null) {
+					ids.remove(serviceId);
+					if (ids.isEmpty()) {
+						exactMatches.remove(key);
+					}
+				}
+				removeFromTrie(key, serviceId);
+			}
+		}
+	}
+
+	/**
+	 * Removes the ID from the key's node, then unlinks the nodes on its path
+	 * left with no IDs and no children, so services coming and going (e.g.
+	 * ones created for unknown URLs) don't grow the trie without bound.
+	 */
+	private void removeFromTrie(String key, Long serviceId) {
+		List<String> segments = split(key);
+		List<TrieNode> path = new ArrayList<TrieNode>(segments.size() + 1);
+		TrieNode node = root;
+		path.add(node);
+		for (String segment : segments) {
+			node = node.children.get(segment);
+			if (node == null) {
+				return;
+			}
+			path.add(node);
+		}
+		node.serviceIds.remove(serviceId);
+		for (int i = path.size() - 1; i > 0; i--) {
+			TrieNode child = path.get(i);
+			if (!child.serviceIds.isEmpty() || !child.children.isEmpty()) {
+				break;
+			}
+			path.get(i - 1).children.remove(segments.get(i - 1));
+		}
+	}
+
+	public synchronized void clear() {
+		exactMatches.clear();
+		keysByServiceId.clear();
+		root.children.clear();
+		root.serviceIds.clear();
+	}
+
+	/**
+	 * 
+	 * @param url
+	 * @return ID of the service with a mock or real URL equal to the argument
+	 *         (case ignored), or null.
+	 */
+	public Long getExactMatch(String url) {
+		if (url == null) {
+			return null;
+		}
+		ConcurrentSkipListSet<Long> ids = exactMatches.get(normalize(url));
+		return firstOrNull(ids);
+	}
+
+	/**
+	 * 
+	 * @param url
+	 * @return ID of the service with the longest mock or real URL which is a
+	 *         path-prefix of the argument, e.g. <code>http://host/users</code>
+	 *         for <code>http://host/users/123</code>, or null.
+	 */
+	public Long getLongestPrefixMatch(String url) {
+		if (url == null) {
+			return null;
+		}
+		Long match = null;
+		TrieNode node = root;
+		for (String segment : split(normalize(url))) {
+			node = node.children.get(segment);
+			if (node == null) {
+				break;
+			}
+			Long id = firstOrNull(node.serviceIds);
+			if (id != null) {
+				match = id;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * 
+	 * @return number of nodes in the prefix trie, including the root
+	 */
+	synchronized int getTrieNodeCount() {
+		int count = 0;
+		List<TrieNode> pending = new ArrayList<TrieNode>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			TrieNode node = pending.remove(pending.size() - 1);
+			count++;
+			pending.addAll(node.children.values());
+		}
+		return count;
+	}
+
+	private TrieNode getTrieNode(String key, boolean create) {
+		TrieNode node = root;
+		for (String segment : split(key)) {
+			TrieNode child = node.children.get(segment);
+			if (child == null) {
+				if (!create) {
+					return null;
+				}
+				child = new TrieNode();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	private static Long firstOrNull(ConcurrentSkipListSet<Long> ids) {
+		if (ids != null) {
+			try {
+				return ids.first();
+			} catch (NoSuchElementException e) {
+				// Removed concurrently.
+			}
+		}
+		return null;
+	}
+
+	private static String normalize(String url) {
+		return url.trim().toLowerCase();
+	}
+
+	/**
+	 * Splits "scheme://host:port/a/b" into "scheme://host:port", "a", "b".
+	 */
+	private static List<String> split(String url) {
+		List<String> segments = new ArrayList<String>();
+		int start = url.indexOf("://");
+		start = (start > -1) ? url.indexOf('/', start + 3) : url.indexOf('/');
+		if (start < 0) {
+			segments.add(url);
+			return segments;
+		}
+		segments.add(url.substring(0, start));
+		int end;
+		while (start < url.length()) {
+			end = url.indexOf('/', start + 1);
+			if (end < 0) {
+				end = url.length();
+			}
+			if (end > start + 1) {
+				segments.add(url.substring(start + 1, end));
+			}
+			start = end;
+		}
+		return segments;
+	}
+
+	private static class TrieNode {
+		private final Map<String, TrieNode> children = new ConcurrentHashMap<String, TrieNode>();
+		private final ConcurrentSkipListSet<Long> serviceIds = new ConcurrentSkipListSet<Long>();
+	}
+}
@@ -32,9 +32,11 @@ import java.util.Collection;
 import java.util.List;
 
 import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.HistoryQuery;
 import com.mockey.model.PlanItem;
 import com.mockey.model.ProxyServerModel;
 import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
 import com.mockey.model.Service;
 import com.mockey.model.ServicePlan;
 import com.mockey.model.ServiceRef;
@@ -46,6 +48,17 @@ public class TestMockeyServiceStore implements IMockeyStorage {
 
 	}
 
+	public void updateSearchIndex(Service service) {
+	}
+
+	public List<SearchResult> search(String query, int maxResults) {
+		return null;
+	}
+
+	public void updateServiceUrlIndex(Service service) {
+
+	}
+
 	public void deleteFulfilledClientRequestsFromIP(Long scenarioId) {
 
 	}
@@ -196,6 +209,10 @@ public class TestMockeyServiceStore implements IMockeyStorage {
 
 	}
 
+	public void flush() {
+
+	}
+
 	public List<String> uniqueClientIPs() {
 
 		return null;
@@ -243,6 +260,11 @@ public class TestMockeyServiceStore implements IMockeyStorage {
 		return null;
 	}
 
+	public List<FulfilledClientRequest> getFulfilledClientRequests(HistoryQuery query) {
+
+		return null;
+	}
+
 	public List<Long> getServiceIds() {
 
 		return null;
@@ -287,6 +309,11 @@ public class TestMockeyServiceStore implements IMockeyStorage {
 
 	}
 
+	public TwistInfo getUniversalTwistInfo() {
+
+		return null;
+	}
+
 	public Long getUniversalErrorScenarioId() {
 
 		return null;
@@ -27,21 +27,19 @@
  */
 package com.mockey.storage.xml;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
-
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.io.Writer;
+import java.nio.channels.Channels;
 
 import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
 
 import com.mockey.model.Service;
 import com.mockey.storage.IMockeyStorage;
@@ -50,65 +48,192 @@ public class MockeyXmlFactory {
 
 	private static Logger logger = Logger.getLogger(MockeyXmlFactory.class);
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	/**
-	 * Convert document to string. Helper method.
+	 * Convert store to string. Helper method; prefer
+	 * <code>writeStore</code> for large stores.
 	 * 
-	 * @param document
-	 *            the document object.
+	 * @param store
+	 * @param nonReferenceFullDocument
+	 *            if true, includes all service definitions
 	 * @return String.
 	 * @throws java.io.IOException
 	 *             when unable to write the xml
-	 * @throws javax.xml.transform.TransformerException
-	 *             when unable to transform the document
 	 */
-	public String getStoreAsString(IMockeyStorage store, boolean nonReferenceFullDocument) throws IOException,
-			TransformerException {
-		MockeyXmlFileConfigurationGenerator xmlGeneratorSupport = new MockeyXmlFileConfigurationGenerator();
-		Document document = xmlGeneratorSupport.getStoreAsDocument(store, nonReferenceFullDocument);
-		return getDocumentAsString(document);
+	public String getStoreAsString(IMockeyStorage store, boolean nonReferenceFullDocument) throws IOException {
+		StringWriter out = new StringWriter();
+		new MockeyXmlFileConfigurationGenerator().writeStore(store, nonReferenceFullDocument, out);
+		return out.toString();
 	}
 
-	private String getDocumentAsString(Document document) throws IOException, TransformerException {
-		Transformer transformer = TransformerFactory.newInstance().newTransformer();
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-		transformer.setOutputProperty(OutputKeys.ENCODING, HTTP.UTF_8);
-		StreamResult result = new StreamResult(new StringWriter());
-		DOMSource source = new DOMSource(document);
-		transformer.transform(source, result);
-		return result.getWriter().toString();
+	/**
+	 * Writes the store as UTF-8 XML to the stream, one element at a time.
+	 * 
+	 * @param store
+	 * @param nonReferenceFullDocument
+	 *            if true, includes all service definitions
+	 * @param out
+	 *            left open
+	 * @throws IOException
+	 */
+	public void writeStore(IMockeyStorage store, boolean nonReferenceFullDocument, OutputStream out)
+			throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, HTTP.UTF_8), BUFFER_SIZE);
+		new MockeyXmlFileConfigurationGenerator().writeStore(store, nonReferenceFullDocument, writer);
+		writer.flush();
 	}
 
 	public void writeStoreToXML(IMockeyStorage sourceStore, String destinationFileName) {
 
 		try {
 			// WRITE STORE META FIRST
-			File f = new File(destinationFileName);
-			FileOutputStream fop = new FileOutputStream(f);
-
-			String fileOutput = getStoreAsString(sourceStore, false);
-			byte[] fileOutputAsBytes = fileOutput.getBytes(HTTP.UTF_8);
-			fop.write(fileOutputAsBytes);
-			fop.flush();
-			fop.close();
+			writeStoreMetaToXML(sourceStore, destinationFileName);
 
 			// WRITE EACH SERVICE
 			for (Service service : sourceStore.getServices()) {
-				File serviceFile = new File(MockeyXmlFileManager.getServiceFileNameOutputString(service));
-				FileOutputStream serviceFOP = new FileOutputStream(serviceFile);
-				MockeyXmlFileConfigurationGenerator xmlGeneratorSupport = new MockeyXmlFileConfigurationGenerator();
-				Document serviceDoc = xmlGeneratorSupport.getServiceAsDocument(service);
-				String serviceOutput = this.getDocumentAsString(serviceDoc);
-
-				byte[] serviceOutputAsBytes = serviceOutput.getBytes(HTTP.UTF_8);
-				serviceFOP.write(serviceOutputAsBytes);
-				serviceFOP.flush();
-				serviceFOP.close();
-				logger.debug("Written to: " + serviceFile.getAbsolutePath());
+				writeServiceToXML(service);
 			}
 			
 		} catch (Exception e) {
 			logger.debug("Unable to write file", e);
 		}
 	}
+
+	/**
+	 * Writes the store settings and references to the service files, but not
+	 * the services themselves.
+	 * 
+	 * @param sourceStore
+	 * @param destinationFileName
+	 * @throws IOException
+	 */
+	public void writeStoreMetaToXML(IMockeyStorage sourceStore, String destinationFileName) throws IOException {
+		stageStoreMeta(sourceStore, destinationFileName).commit();
+	}
+
+	/**
+	 * Writes one service to its own file in the definition depot.
+	 * 
+	 * @param service
+	 * @throws IOException
+	 */
+	public void writeServiceToXML(Service service) throws IOException {
+		StagedFile staged = stageService(service);
+		staged.commit();
+		logger.debug("Written to: " + staged.getDestination().getAbsolutePath());
+	}
+
+	/**
+	 * Writes the store settings and references to the service files to a
+	 * temporary file, to be committed over the destination later.
+	 * 
+	 * @param sourceStore
+	 * @param destinationFileName
+	 * @return the staged file
+	 * @throws IOException
+	 */
+	StagedFile stageStoreMeta(final IMockeyStorage sourceStore, String destinationFileName) throws IOException {
+		return stage(new File(destinationFileName), new Content() {
+			public void writeTo(Writer out) throws IOException {
+				new MockeyXmlFileConfigurationGenerator().writeStore(sourceStore, false, out);
+			}
+		});
+	}
+
+	/**
+	 * Writes one service to a temporary file, to be committed over its file in
+	 * the definition depot later.
+	 * 
+	 * @param service
+	 * @return the staged file
+	 * @throws IOException
+	 */
+	StagedFile stageService(final Service service) throws IOException {
+		return stage(new File(MockeyXmlFileManager.getServiceFileNameOutputString(service)), new Content() {
+			public void writeTo(Writer out) throws IOException {
+				new MockeyXmlFileConfigurationGenerator().writeService(service, out);
+			}
+		});
+	}
+
+	private interface Content {
+		void writeTo(Writer out) throws IOException;
+	}
+
+	/**
+	 * Streams the content to a temporary file next to the destination. The
+	 * file isn't synced yet; that is left to <code>commit</code>.
+	 */
+	private StagedFile stage(File destination, Content content) throws IOException {
+		File directory = destination.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(destination.getName() + ".", ".tmp", directory);
+		boolean written = false;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(out.getChannel()),
+						HTTP.UTF_8), BUFFER_SIZE);
+				content.writeTo(writer);
+				writer.flush();
+			} finally {
+				out.close();
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				temp.delete();
+			}
+		}
+		return new StagedFile(destination, temp);
+	}
+
+	/**
+	 * A file written to a temporary file next to its destination. Committing
+	 * syncs it to disk and renames it over the destination, so a crash
+	 * mid-write never leaves a half written file.
+	 */
+	static class StagedFile {
+		private final File destination;
+		private final File temp;
+
+		StagedFile(File destination, File temp) {
+			this.destination = destination;
+			this.temp = temp;
+		}
+
+		void commit() throws IOException {
+			boolean committed = false;
+			try {
+				RandomAccessFile file = new RandomAccessFile(temp, "rw");
+				try {
+					file.getChannel().force(true);
+				} finally {
+					file.close();
+				}
+				if (!temp.renameTo(destination)) {
+					// Some platforms (Windows) won't rename over an existing file.
+					if (!destination.delete() || !temp.renameTo(destination)) {
+						throw new IOException("Unable to rename " + temp + " to " + destination);
+					}
+				}
+				committed = true;
+			} finally {
+				if (!committed) {
+					temp.delete();
+				}
+			}
+		}
+
+		/**
+		 * Deletes the temporary file, leaving the destination as it was.
+		 */
+		void discard() {
+			temp.delete();
+		}
+
+		File getDestination() {
+			return destination;
+		}
+	}
 }
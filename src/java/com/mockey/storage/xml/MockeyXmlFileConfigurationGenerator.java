@@ -27,14 +27,8 @@
  */
 package com.mockey.storage.xml;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.apache.log4j.Logger;
-import org.w3c.dom.CDATASection;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.io.IOException;
+import java.io.Writer;
 
 import com.mockey.model.PlanItem;
 import com.mockey.model.ProxyServerModel;
@@ -47,205 +41,172 @@ import com.mockey.storage.IMockeyStorage;
 import com.mockey.ui.PatternPair;
 
 /**
- * Builds DOM representing Mockey Service configurations.
+ * Writes Mockey Service configurations as XML straight to a
+ * <code>Writer</code>, one element at a time.
  * 
  * @author chad.lafontaine
  * 
  */
-public class MockeyXmlFileConfigurationGenerator extends XmlGeneratorSupport {
-	/** Basic logger */
-	private static Logger logger = Logger.getLogger(MockeyXmlFileConfigurationGenerator.class);
-
-	private Document getDocument() {
-
-		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			factory.setNamespaceAware(true);
-			DocumentBuilder docBuilder = factory.newDocumentBuilder();
-			Document document = docBuilder.newDocument();
-
-			return document;
-		} catch (ParserConfigurationException pce) {
-			logger.error("Unable to parse the store", pce);
-			return null;
-		}
-
-	}
-
-	public Document getServiceAsDocument(Service mockServiceBean) {
-		Document document = getDocument();
-		Element rootElement = document.createElement("mockservice");
-
-		this.setAttribute(rootElement, "xml:lang", "en-US");
-		this.setAttribute(rootElement, "version", "1.0");
-		Element serviceElement = this.getServiceAsElement(document, mockServiceBean);
-		rootElement.appendChild(serviceElement);
-		document.appendChild(rootElement);
-		return document;
-	}
-
+public class MockeyXmlFileConfigurationGenerator {
 	/**
+	 * Writes a definition file holding one service.
 	 * 
-	 * @param document
 	 * @param mockServiceBean
-	 * @return
+	 * @param out
+	 * @throws IOException
 	 */
-	private Element getServiceAsElement(Document document, Service mockServiceBean) {
+	public void writeService(Service mockServiceBean, Writer out) throws IOException {
+		XmlStreamWriter writer = new XmlStreamWriter(out);
+		writer.startDocument();
+		writer.startElement("mockservice");
+		writer.attribute("xml:lang", "en-US");
+		writer.attribute("version", "1.0");
+		this.writeServiceElement(writer, mockServiceBean);
+		writer.endElement();
+		writer.endDocument();
+	}
+
+	private void writeServiceElement(XmlStreamWriter writer, Service mockServiceBean) throws IOException {
 
-		Element serviceElement = document.createElement("service");
+		writer.startElement("service");
 
 		if (mockServiceBean != null) {
-			// logger.debug("building XML representation for MockServiceBean:\n"
-			// + mockServiceBean.toString());
-			// *************************************
-			// We do NOT want to write out ID.
-			// If we did, then someone uploading this xml definition may
-			// overwrite services
-			// defined with the same ID.
-			// serviceElement.setAttribute("id", mockServiceBean.getId());
-			// *************************************
-			serviceElement.setAttribute("name", mockServiceBean.getServiceName());
-			serviceElement.setAttribute("description", getSafeForXmlOutputString(mockServiceBean.getDescription()));
-			serviceElement.setAttribute("hang_time", getSafeForXmlOutputString("" + mockServiceBean.getHangTime()));
-			serviceElement.setAttribute("url", getSafeForXmlOutputString("" + mockServiceBean.getUrl()));
-			serviceElement.setAttribute("http_content_type", getSafeForXmlOutputString(""
-					+ mockServiceBean.getHttpContentType()));
-			serviceElement.setAttribute("default_scenario_id", getSafeForXmlOutputString(""
+			// We do NOT want to write out ID. See getServiceAsElement.
+			writer.attribute("name", mockServiceBean.getServiceName());
+			writer.attribute("description", getSafeForXmlOutputString(mockServiceBean.getDescription()));
+			writer.attribute("hang_time", getSafeForXmlOutputString("" + mockServiceBean.getHangTime()));
+			if (mockServiceBean.getHangTimeDistribution() != null) {
+				writer.attribute("hang_time_distribution", getSafeForXmlOutputString(mockServiceBean
+						.getHangTimeDistribution()));
+			}
+			writer.attribute("url", getSafeForXmlOutputString("" + mockServiceBean.getUrl()));
+			writer.attribute("http_content_type", getSafeForXmlOutputString("" + mockServiceBean.getHttpContentType()));
+			writer.attribute("default_scenario_id", getSafeForXmlOutputString(""
 					+ (mockServiceBean.getDefaultScenarioId())));
-			serviceElement.setAttribute("service_response_type", getSafeForXmlOutputString(""
+			writer.attribute("service_response_type", getSafeForXmlOutputString(""
 					+ mockServiceBean.getServiceResponseType()));
-			serviceElement.setAttribute("default_real_url_index", getSafeForXmlOutputString(""
+			writer.attribute("default_real_url_index", getSafeForXmlOutputString(""
 					+ mockServiceBean.getDefaultRealUrlIndex()));
 
 			// New real service URLs
 			for (Url realUrl : mockServiceBean.getRealServiceUrls()) {
-				Element urlElement = document.createElement("real_url");
-				urlElement.setAttribute("url", getSafeForXmlOutputString(realUrl.getFullUrl()));
-				// urlElement.appendChild(cdataResponseElement);
-				serviceElement.appendChild(urlElement);
+				writer.startElement("real_url");
+				writer.attribute("url", getSafeForXmlOutputString(realUrl.getFullUrl()));
+				writer.endElement();
 			}
 
 			// Scenarios
 			for (Scenario scenario : mockServiceBean.getScenarios()) {
-				// logger.debug("building XML representation for MockServiceScenarioBean:\n"
-				// + scenario.toString());
-				Element scenarioElement = document.createElement("scenario");
-				scenarioElement.setAttribute("id", scenario.getId().toString());
-				scenarioElement.setAttribute("name", getSafeForXmlOutputString(scenario.getScenarioName()));
-
-				Element scenarioMatchStringElement = document.createElement("scenario_match");
-				CDATASection cdataMatchElement = document.createCDATASection(getSafeForXmlOutputString(scenario
-						.getMatchStringArg()));
-				scenarioMatchStringElement.appendChild(cdataMatchElement);
-				scenarioElement.appendChild(scenarioMatchStringElement);
+				writer.startElement("scenario");
+				writer.attribute("id", scenario.getId().toString());
+				writer.attribute("name", getSafeForXmlOutputString(scenario.getScenarioName()));
+
+				writer.startElement("scenario_match");
+				writer.cdata(getSafeForXmlOutputString(scenario.getMatchStringArg()));
+				writer.endElement();
+
+				if (scenario.hasMatchPredicates()) {
+					writer.startElement("scenario_predicates");
+					writer.cdata(scenario.getMatchPredicates());
+					writer.endElement();
+				}
 
-				Element scenarioResponseElement = document.createElement("scenario_response");
-				CDATASection cdataResponseElement = document.createCDATASection(getSafeForXmlOutputString(scenario
-						.getResponseMessage()));
-				scenarioResponseElement.appendChild(cdataResponseElement);
-				scenarioElement.appendChild(scenarioResponseElement);
-				serviceElement.appendChild(scenarioElement);
+				writer.startElement("scenario_response");
+				writer.cdata(getSafeForXmlOutputString(scenario.getResponseMessage()));
+				writer.endElement();
+				writer.endElement();
 			}
 		}
 
-		return serviceElement;
-
+		writer.endElement();
 	}
 
 	/**
+	 * Writes the store settings, followed by either all service definitions or
+	 * references to their files.
 	 * 
-	 * @param document
-	 *            - Handle to create XML artifacts
 	 * @param store
 	 *            - state of all service definitions
-	 * @param fullDefinition
-	 *            - if true, builds full definition of the DOM, with no Service
-	 *            references, but includes all service definitions
-	 * @return
+	 * @param nonRefFullDefinition
+	 *            - if true, writes all service definitions instead of
+	 *            references to their files
+	 * @param out
+	 * @throws IOException
 	 */
-	public Document getStoreAsDocument(IMockeyStorage store, boolean nonRefFullDefinition) {
+	public void writeStore(IMockeyStorage store, boolean nonRefFullDefinition, Writer out) throws IOException {
 
-		Document document = this.getDocument();
-		Element rootElement = document.createElement("mockservice");
+		XmlStreamWriter writer = new XmlStreamWriter(out);
+		writer.startDocument();
+		writer.startElement("mockservice");
 		Scenario mssb = store.getUniversalErrorScenario();
-		this.setAttribute(rootElement, "xml:lang", "en-US");
-		this.setAttribute(rootElement, "version", "1.0");
+		writer.attribute("xml:lang", "en-US");
+		writer.attribute("version", "1.0");
 		// Universal Service settings
 		if (mssb != null) {
-			this.setAttribute(rootElement, "universal_error_service_id", "" + mssb.getServiceId());
-			this.setAttribute(rootElement, "universal_error_scenario_id", "" + mssb.getId());
+			writer.attribute("universal_error_service_id", "" + mssb.getServiceId());
+			writer.attribute("universal_error_scenario_id", "" + mssb.getId());
 		}
-		this.setAttribute(rootElement, "universal_twist_info_id", "" + store.getUniversalTwistInfoId());
+		writer.attribute("universal_twist_info_id", "" + store.getUniversalTwistInfoId());
 
 		// Proxy settings
 		ProxyServerModel psm = store.getProxy();
 		if (psm != null) {
-			Element proxyElement = document.createElement("proxy_settings");
-			proxyElement.setAttribute("proxy_url", psm.getProxyUrl());
-			proxyElement.setAttribute("proxy_enabled", "" + psm.isProxyEnabled());
-			rootElement.appendChild(proxyElement);
+			writer.startElement("proxy_settings");
+			writer.attribute("proxy_url", psm.getProxyUrl());
+			writer.attribute("proxy_enabled", "" + psm.isProxyEnabled());
+			writer.endElement();
 		}
 
 		// SERVICE LIST
-		//logger.debug("Building non-reference, full definition? " + nonRefFullDefinition);
-		if (nonRefFullDefinition) {
-			// Includes ALL service definitions in the DOM
-			for (Service mockServiceBean : store.getServices()) {
-
-				Element serviceElement = this.getServiceAsElement(document, mockServiceBean);
-				rootElement.appendChild(serviceElement);
-			}
-		} else {
-			// Includes reference pointers to service definitions in the DOM
-			for (Service mockServiceBean : store.getServices()) {
-
-				Element serviceElement = document.createElement("serviceref");
-				serviceElement.setAttribute("file", MockeyXmlFileManager.getServiceFileNameOutputString(mockServiceBean));
-
-				rootElement.appendChild(serviceElement);
+		for (Service mockServiceBean : store.getServices()) {
+			if (nonRefFullDefinition) {
+				this.writeServiceElement(writer, mockServiceBean);
+			} else {
+				writer.startElement("serviceref");
+				writer.attribute("file", MockeyXmlFileManager.getServiceFileNameOutputString(mockServiceBean));
+				writer.endElement();
 			}
 		}
 
 		// SERVICE PLAN LIST
 		if (store.getServicePlans() != null) {
 			for (ServicePlan servicePlan : store.getServicePlans()) {
-				Element servicePlanElement = document.createElement("service_plan");
-				servicePlanElement.setAttribute("name", servicePlan.getName());
-				servicePlanElement.setAttribute("description", servicePlan.getDescription());
-				servicePlanElement.setAttribute("id", "" + servicePlan.getId());
+				writer.startElement("service_plan");
+				writer.attribute("name", servicePlan.getName());
+				writer.attribute("description", servicePlan.getDescription());
+				writer.attribute("id", "" + servicePlan.getId());
 				for (PlanItem pi : servicePlan.getPlanItemList()) {
-					Element planItemElement = document.createElement("plan_item");
-					planItemElement.setAttribute("hang_time", "" + pi.getHangTime());
-					planItemElement.setAttribute("service_id", "" + pi.getServiceId());
-					planItemElement.setAttribute("scenario_id", "" + pi.getScenarioId());
-					planItemElement.setAttribute("service_response_type", "" + pi.getServiceResponseType());
-
-					servicePlanElement.appendChild(planItemElement);
+					writer.startElement("plan_item");
+					writer.attribute("hang_time", "" + pi.getHangTime());
+					if (pi.getHangTimeDistribution() != null) {
+						writer.attribute("hang_time_distribution", pi.getHangTimeDistribution());
+					}
+					writer.attribute("service_id", "" + pi.getServiceId());
+					writer.attribute("scenario_id", "" + pi.getScenarioId());
+					writer.attribute("service_response_type", "" + pi.getServiceResponseType());
+					writer.endElement();
 				}
-
-				rootElement.appendChild(servicePlanElement);
-
+				writer.endElement();
 			}
 		}
 
 		// TWIST CONFIGURATION
 		if (store.getTwistInfoList() != null) {
 			for (TwistInfo twistInfo : store.getTwistInfoList()) {
-				Element twistConfigElement = document.createElement("twist_config");
-				twistConfigElement.setAttribute("name", twistInfo.getName());
-				twistConfigElement.setAttribute("id", "" + twistInfo.getId());
+				writer.startElement("twist_config");
+				writer.attribute("name", twistInfo.getName());
+				writer.attribute("id", "" + twistInfo.getId());
 				for (PatternPair patternPair : twistInfo.getPatternPairList()) {
-					Element patternPairElement = document.createElement("twist_pattern");
-					patternPairElement.setAttribute("origination", "" + patternPair.getOrigination());
-					patternPairElement.setAttribute("destination", "" + patternPair.getDestination());
-					twistConfigElement.appendChild(patternPairElement);
+					writer.startElement("twist_pattern");
+					writer.attribute("origination", "" + patternPair.getOrigination());
+					writer.attribute("destination", "" + patternPair.getDestination());
+					writer.endElement();
 				}
-				rootElement.appendChild(twistConfigElement);
+				writer.endElement();
 			}
-
 		}
-		document.appendChild(rootElement);
-		return document;
+		writer.endElement();
+		writer.endDocument();
 	}
 
 	private String getSafeForXmlOutputString(String arg) {
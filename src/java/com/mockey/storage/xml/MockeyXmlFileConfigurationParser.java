@@ -66,11 +66,23 @@ public class MockeyXmlFileConfigurationParser {
 	private final static String ROOT_TWIST_CONFIG_ITEM = ROOT_TWIST_CONFIG + "/twist_pattern";
 
 	private final static String SCENARIO_MATCH = ROOT_SERVICE_SCENARIO + "/scenario_match";
+	private final static String SCENARIO_PREDICATES = ROOT_SERVICE_SCENARIO + "/scenario_predicates";
 	private final static String SCENARIO_REQUEST = ROOT_SERVICE_SCENARIO + "/scenario_request";
 	private final static String SCENARIO_RESPONSE = ROOT_SERVICE_SCENARIO + "/scenario_response";
-	private static Digester fullSetDigester = null;
-	static {
-		MockeyXmlFileConfigurationParser.fullSetDigester = new Digester();
+
+	/**
+	 * Digester is not thread safe, so each thread gets its own, reused from
+	 * one parse to the next. Creating one per parse would look up and create a
+	 * new SAX parser every time, which costs more than parsing a small file.
+	 */
+	private static final ThreadLocal<Digester> digesters = new ThreadLocal<Digester>() {
+		protected Digester initialValue() {
+			return createDigester();
+		}
+	};
+
+	private static Digester createDigester() {
+		Digester fullSetDigester = new Digester();
 
 		fullSetDigester.setValidating(false);
 		fullSetDigester.addObjectCreate(ROOT, InMemoryMockeyStorage.class);
@@ -97,6 +109,7 @@ public class MockeyXmlFileConfigurationParser {
 		fullSetDigester.addSetProperties(ROOT_SERVICE, "description", "description");
 		fullSetDigester.addSetProperties(ROOT_SERVICE, "http_content_type", "httpContentType");
 		fullSetDigester.addSetProperties(ROOT_SERVICE, "hang_time", "hangTime");
+		fullSetDigester.addSetProperties(ROOT_SERVICE, "hang_time_distribution", "hangTimeDistribution");
 		fullSetDigester.addSetProperties(ROOT_SERVICE, "url", "url");
 
 		fullSetDigester.addSetProperties(ROOT_SERVICE, "proxyurl", "realServiceUrlByString");
@@ -113,6 +126,7 @@ public class MockeyXmlFileConfigurationParser {
 		fullSetDigester.addSetProperties(ROOT_SERVICE_SCENARIO, "id", "id");
 		fullSetDigester.addSetProperties(ROOT_SERVICE_SCENARIO, "name", "scenarioName");
 		fullSetDigester.addBeanPropertySetter(SCENARIO_MATCH, "matchStringArg");
+		fullSetDigester.addBeanPropertySetter(SCENARIO_PREDICATES, "matchPredicates");
 		fullSetDigester.addBeanPropertySetter(SCENARIO_REQUEST, "requestMessage");
 		fullSetDigester.addBeanPropertySetter(SCENARIO_RESPONSE, "responseMessage");
 		fullSetDigester.addSetNext(ROOT_SERVICE_SCENARIO, "saveOrUpdateScenario");
@@ -125,6 +139,7 @@ public class MockeyXmlFileConfigurationParser {
 		fullSetDigester.addSetNext(ROOT_PLAN, "saveOrUpdateServicePlan");
 		fullSetDigester.addObjectCreate(ROOT_PLAN_ITEM, PlanItem.class);
 		fullSetDigester.addSetProperties(ROOT_PLAN_ITEM, "hang_time", "hangTime");
+		fullSetDigester.addSetProperties(ROOT_PLAN_ITEM, "hang_time_distribution", "hangTimeDistribution");
 		fullSetDigester.addSetProperties(ROOT_PLAN_ITEM, "service_id", "serviceId");
 		fullSetDigester.addSetProperties(ROOT_PLAN_ITEM, "scenario_id", "scenarioId");
 		fullSetDigester.addSetProperties(ROOT_PLAN_ITEM, "service_response_type", "serviceResponseType");
@@ -139,6 +154,7 @@ public class MockeyXmlFileConfigurationParser {
 		fullSetDigester.addSetProperties(ROOT_TWIST_CONFIG_ITEM, "origination", "origination");
 		fullSetDigester.addSetProperties(ROOT_TWIST_CONFIG_ITEM, "destination", "destination");
 		fullSetDigester.addSetNext(ROOT_TWIST_CONFIG_ITEM, "addPatternPair");
+		return fullSetDigester;
 	}
 
 	/**
@@ -156,7 +172,7 @@ public class MockeyXmlFileConfigurationParser {
 
 		// For initialization (by default), the store is in transient mode, which is important to prevent
 		// file writing. Too much, too slow. Yuck. 
-		IMockeyStorage c = (IMockeyStorage) MockeyXmlFileConfigurationParser.fullSetDigester.parse(inputSource);
+		IMockeyStorage c = (IMockeyStorage) parse(inputSource);
 		return c;
 	}
 
@@ -172,11 +188,25 @@ public class MockeyXmlFileConfigurationParser {
 	public Collection<Service> getMockService(InputSource inputSource) throws org.xml.sax.SAXParseException,
 			java.io.IOException, org.xml.sax.SAXException {
 
-		InMemoryMockeyStorage c = (InMemoryMockeyStorage) MockeyXmlFileConfigurationParser.fullSetDigester
-				.parse(inputSource);
+		InMemoryMockeyStorage c = (InMemoryMockeyStorage) parse(inputSource);
 		Collection<Service> list = c.getServices();
 		return list;
 
 	}
 
-}
\ No newline at end of file
+	private static Object parse(InputSource inputSource) throws org.xml.sax.SAXException, java.io.IOException {
+		Digester digester = digesters.get();
+		boolean parsed = false;
+		try {
+			Object result = digester.parse(inputSource);
+			parsed = true;
+			return result;
+		} finally {
+			if (!parsed) {
+				// Don't reuse a digester left holding a half-built store.
+				digesters.remove();
+			}
+		}
+	}
+
+}
@@ -27,7 +27,11 @@
  */
 package com.mockey.storage.xml;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Collection;
 
@@ -75,6 +79,64 @@ public class MockeyXmlFileConfigurationReader {
 
 	}
 	
+	/**
+	 * Parses the definition straight from the stream. The encoding is taken
+	 * from the XML declaration, UTF-8 by default.
+	 * 
+	 * @param mockServicesDefinition
+	 *            left open
+	 * @return
+	 */
+	public IMockeyStorage readDefinition(InputStream mockServicesDefinition) throws org.xml.sax.SAXParseException,
+			java.io.IOException, org.xml.sax.SAXException {
+
+		MockeyXmlFileConfigurationParser msp = new MockeyXmlFileConfigurationParser();
+
+		return msp.getMockeyStore(new InputSource(mockServicesDefinition));
+
+	}
+
+	/**
+	 * 
+	 * @param mockServicesDefinition
+	 *            file to parse, read through a buffer, never held in memory
+	 *            as a whole
+	 * @return
+	 */
+	public IMockeyStorage readDefinition(File mockServicesDefinition) throws org.xml.sax.SAXParseException,
+			java.io.IOException, org.xml.sax.SAXException {
+
+		InputStream in = openFile(mockServicesDefinition);
+		try {
+			return readDefinition(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 
+	 * @param mockServiceDefinition
+	 *            file to parse, read through a buffer, never held in memory
+	 *            as a whole
+	 * @return
+	 */
+	public Collection<Service> readServiceDefinition(File mockServiceDefinition) throws org.xml.sax.SAXParseException,
+			java.io.IOException, org.xml.sax.SAXException {
+
+		InputStream in = openFile(mockServiceDefinition);
+		try {
+			MockeyXmlFileConfigurationParser msp = new MockeyXmlFileConfigurationParser();
+			return msp.getMockService(new InputSource(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static InputStream openFile(File file) throws java.io.IOException {
+		return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+	}
+
 	private static String getStorageAsString(IMockeyStorage storage) {
         StringBuffer sb = new StringBuffer();
         //sb.append(storage.toString());
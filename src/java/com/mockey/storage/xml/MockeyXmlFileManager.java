@@ -27,30 +27,32 @@
  */
 package com.mockey.storage.xml;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-import com.mockey.model.Scenario;
 import com.mockey.model.Service;
 import com.mockey.model.ServicePlan;
 import com.mockey.model.ServiceRef;
 import com.mockey.model.TwistInfo;
-import com.mockey.model.Url;
 import com.mockey.storage.IMockeyStorage;
+import com.mockey.storage.InMemoryMockeyStorage;
 import com.mockey.storage.StorageRegistry;
 import com.mockey.ui.ServiceMergeResults;
 
@@ -68,6 +70,12 @@ public class MockeyXmlFileManager {
 	private static Logger logger = Logger.getLogger(MockeyXmlFileManager.class);
 	private static final String FILESEPERATOR = System.getProperty("file.separator");
 
+	/**
+	 * Number of service definition files parsed at the same time. Defaults to
+	 * the number of processors.
+	 */
+	public static final String PROPERTY_LOAD_THREADS = "mockey.load.threads";
+
 	/**
 	 * Basic constructor. Will create a folder on the file system to store XML
 	 * definitions.
@@ -83,29 +91,6 @@ public class MockeyXmlFileManager {
 		}
 	}
 
-	/**
-	 * 
-	 * @param file
-	 *            - xml configuration file for Mockey
-	 * @throws IOException
-	 * @throws SAXException
-	 * @throws SAXParseException
-	 */
-	private String getFileContentAsString(File file) throws IOException, SAXParseException, SAXException {
-
-		FileInputStream fstream = new FileInputStream(file);
-		BufferedReader br = new BufferedReader(new InputStreamReader(fstream, Charset.forName(HTTP.UTF_8)));
-		StringBuffer inputString = new StringBuffer();
-		// Read File Line By Line
-		String strLine = null;
-		while ((strLine = br.readLine()) != null) {
-			// Print the content on the console
-			inputString.append(new String(strLine.getBytes(HTTP.UTF_8)));
-		}
-		return inputString.toString();
-
-	}
-
 	/**
 	 * Loads from default file definition file.
 	 * 
@@ -115,17 +100,40 @@ public class MockeyXmlFileManager {
 	 * @throws IOException
 	 */
 	public ServiceMergeResults loadConfiguration() throws SAXParseException, IOException {
-		File n = new File(MOCK_SERVICE_DEFINITION);
 		logger.debug("Loading configuration from " + MOCK_SERVICE_DEFINITION);
+		return loadConfiguration(new File(MOCK_SERVICE_DEFINITION));
+	}
 
+	/**
+	 * Loads from a definition file, parsed as it's read.
+	 * 
+	 * @param file
+	 * @return results (conflicts and additions).
+	 * @throws SAXParseException
+	 * @throws IOException
+	 */
+	public ServiceMergeResults loadConfiguration(File file) throws SAXParseException, IOException {
 		try {
-			return loadConfigurationWithXmlDef(getFileContentAsString(n));
+			return loadConfiguration(new MockeyXmlFileConfigurationReader().readDefinition(file));
 		} catch (SAXException e) {
-			logger.error("Ouch, unable to parse" + n.getAbsolutePath(), e);
+			logger.error("Ouch, unable to parse" + file.getAbsolutePath(), e);
 		}
 		return new ServiceMergeResults();
 	}
 
+	/**
+	 * 
+	 * @param in
+	 *            definition, parsed as it's read
+	 * @return results (conflicts and additions).
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws SAXParseException
+	 */
+	public ServiceMergeResults loadConfiguration(InputStream in) throws IOException, SAXParseException, SAXException {
+		return loadConfiguration(new MockeyXmlFileConfigurationReader().readDefinition(in));
+	}
+
 	/**
 	 * 
 	 * @param data
@@ -136,26 +144,30 @@ public class MockeyXmlFileManager {
 	 */
 	public ServiceMergeResults loadConfigurationWithXmlDef(String strXMLDefintion) throws IOException,
 			SAXParseException, SAXException {
+		return loadConfiguration(new MockeyXmlFileConfigurationReader().readDefinition(strXMLDefintion));
+	}
+
+	/**
+	 * Merges parsed definitions into the store, loading any service
+	 * references they contain.
+	 * 
+	 * @param mockServiceStoreTemporary
+	 *            definitions read with <code>MockeyXmlFileConfigurationReader</code>
+	 * @return results (conflicts and additions).
+	 * @throws IOException
+	 */
+	public ServiceMergeResults loadConfiguration(IMockeyStorage mockServiceStoreTemporary) throws IOException {
 		ServiceMergeResults mergeResults = new ServiceMergeResults();
 
 		// ***** REMEMBER *****
-		// Every time a saveOrUpdateXXXX is made, the entire STORE is written to
-		// the file system.
-		// If the STORE has many definitions, then each SAVE will loop over
-		// every file and write.
-		// 
-		// NOT GOOD FOR PERFORMANCE
-		// 
-		// Solution: put the store in a temporary transient state, then revert
-		// to original
-		// READ ONLY MODE setting
-		//
+		// Every time a saveOrUpdateXXXX is made, the store is marked to be
+		// written to the file system. Put the store in a temporary transient
+		// state while loading, then revert to original READ ONLY MODE
+		// setting, which writes everything once.
 		// *********************
 		Boolean originalTransientState = store.getReadOnlyMode();
 		store.setReadOnlyMode(true);
 
-		MockeyXmlFileConfigurationReader msfr = new MockeyXmlFileConfigurationReader();
-		IMockeyStorage mockServiceStoreTemporary = msfr.readDefinition(strXMLDefintion);
 		// PROXY SETTINGs
 		store.setProxy(mockServiceStoreTemporary.getProxy());
 
@@ -173,28 +185,18 @@ public class MockeyXmlFileManager {
 		}
 
 		// Service References
-		List<Service> serviceListFromRefs = new ArrayList<Service>();
-		for (ServiceRef serviceRef : mockServiceStoreTemporary.getServiceRefs()) {
-			try {
-				String mockServiceDefinition = getFileContentAsString(new File(serviceRef.getFileName()));
-
-				Collection<Service> tmpList = msfr.readServiceDefinition(mockServiceDefinition);
-				for (Service tmpService : tmpList) {
-					serviceListFromRefs.add(tmpService);
-				}
-			} catch (SAXParseException spe) {
-				logger.error("Unable to parse file of name " + serviceRef.getFileName(), spe);
-				mergeResults.addConflictMsg("File not parseable: " + serviceRef.getFileName());
-
-			} catch (FileNotFoundException fnf) {
-				logger.error("File not found: " + serviceRef.getFileName());
-				mergeResults.addConflictMsg("File not found: " + serviceRef.getFileName());
-			}
-
-		}
-		addServicesToStore(mergeResults, serviceListFromRefs);
+		List<Service> serviceListFromRefs = readServiceRefs(mockServiceStoreTemporary.getServiceRefs(), mergeResults);
 		// Service
-		mergeResults = addServicesToStore(mergeResults, mockServiceStoreTemporary.getServices());
+		Lock lock = InMemoryMockeyStorage.getWriteLock();
+		lock.lock();
+		try {
+			ServiceMergePlan plan = new ServiceMergePlan(store.getServices());
+			plan.addServices(serviceListFromRefs, mergeResults);
+			plan.addServices(mockServiceStoreTemporary.getServices(), mergeResults);
+			plan.apply(store);
+		} finally {
+			lock.unlock();
+		}
 
 		for (ServicePlan servicePlan : mockServiceStoreTemporary.getServicePlans()) {
 			store.saveOrUpdateServicePlan(servicePlan);
@@ -216,52 +218,82 @@ public class MockeyXmlFileManager {
 		return mergeResults;
 	}
 
-	private ServiceMergeResults addServicesToStore(ServiceMergeResults mergeResults, Collection<Service> serviceList) {
-		// When loading a definition file, by default, we should
-		// compare the uploaded Service list mock URL to what's currently
-		// in memory.
-		//
-		// 1) MATCHING MOCK URL
-		// If there is an existing/matching mockURL, then this isn't
-		// a new service and we DON'T want to overwrite. But, we
-		// want new Scenarios if they exist. A new scenario is based
-		// on
-		//
-		// 2) NO MATCHING MOCK URL
-		// If there is no matching service URL, then create a new
-		// service and associated scenarios.
-		for (Service uploadedServiceBean : serviceList) {
-			Collection<Service> serviceBeansInMemory = store.getServices();
-			Iterator<Service> iter3 = serviceBeansInMemory.iterator();
-			boolean existingServiceWithMatchingMockUrl = false;
-			Service inMemoryServiceBean = null;
-			while (iter3.hasNext()) {
-				inMemoryServiceBean = (Service) iter3.next();
-				Url firstMatchingUrl = inMemoryServiceBean.getFirstMatchingRealServiceUrl(uploadedServiceBean);
-				if (firstMatchingUrl != null) {
-					existingServiceWithMatchingMockUrl = true;
-					mergeResults.addConflictMsg("Service '" + uploadedServiceBean.getServiceName()
-							+ "' not created; will try to merge into existing service labeled '"
-							+ inMemoryServiceBean.getServiceName() + "' ");
-					break;
+	/**
+	 * Parses the referenced service files on a bounded pool. Services are
+	 * returned in reference order, so merging them is the same from one load
+	 * to the next.
+	 */
+	private List<Service> readServiceRefs(Collection<ServiceRef> serviceRefs, ServiceMergeResults mergeResults)
+			throws IOException {
+		List<Service> serviceListFromRefs = new ArrayList<Service>();
+		if (serviceRefs == null || serviceRefs.isEmpty()) {
+			return serviceListFromRefs;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(getLoadThreads(), serviceRefs.size()),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "mockey-definition-loader");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			List<Future<Collection<Service>>> parsed = new ArrayList<Future<Collection<Service>>>();
+			for (final ServiceRef serviceRef : serviceRefs) {
+				parsed.add(pool.submit(new Callable<Collection<Service>>() {
+					public Collection<Service> call() throws Exception {
+						return new MockeyXmlFileConfigurationReader().readServiceDefinition(new File(serviceRef
+								.getFileName()));
+					}
+				}));
+			}
+			Iterator<ServiceRef> refs = serviceRefs.iterator();
+			for (Future<Collection<Service>> result : parsed) {
+				ServiceRef serviceRef = refs.next();
+				try {
+					serviceListFromRefs.addAll(result.get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof SAXParseException) {
+						logger.error("Unable to parse file of name " + serviceRef.getFileName(), cause);
+						mergeResults.addConflictMsg("File not parseable: " + serviceRef.getFileName());
+					} else if (cause instanceof FileNotFoundException) {
+						logger.error("File not found: " + serviceRef.getFileName());
+						mergeResults.addConflictMsg("File not found: " + serviceRef.getFileName());
+					} else if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else {
+						logger.error("Unable to read file of name " + serviceRef.getFileName(), cause);
+						mergeResults.addConflictMsg("File not parseable: " + serviceRef.getFileName());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while loading " + serviceRef.getFileName());
 				}
 			}
-			if (!existingServiceWithMatchingMockUrl) {
-				// We null it, to not stomp on any services
-				uploadedServiceBean.setId(null);
-				store.saveOrUpdateService(uploadedServiceBean);
-				mergeResults.addAdditionMsg("Service '" + uploadedServiceBean.getServiceName() + "' created. ");
+		} finally {
+			pool.shutdownNow();
+		}
+		return serviceListFromRefs;
+	}
 
-			} else {
-				// Just merge scenarios per matching services
-				mergeResults = mergeServices(uploadedServiceBean, inMemoryServiceBean, mergeResults);
+	private static int getLoadThreads() {
+		try {
+			String value = System.getProperty(PROPERTY_LOAD_THREADS);
+			if (value != null) {
+				return Math.max(1, Integer.parseInt(value.trim()));
 			}
-
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for system property " + PROPERTY_LOAD_THREADS + ". Using default.");
 		}
-		return mergeResults;
+		return Runtime.getRuntime().availableProcessors();
 	}
 
 	/**
+	 * Adds the uploaded service's scenarios and real URLs that the in-memory
+	 * service doesn't have yet.
 	 * 
 	 * @param uploadedServiceBean
 	 * @param inMemoryServiceBean
@@ -276,49 +308,17 @@ public class MockeyXmlFileManager {
 		store.setReadOnlyMode(true);
 		
 		if (uploadedServiceBean != null && inMemoryServiceBean != null) {
-			// Merge Scenarios
 			if (readResults == null) {
 				readResults = new ServiceMergeResults();
 			}
-			Iterator<Scenario> uIter = uploadedServiceBean.getScenarios().iterator();
-			Iterator<Scenario> mIter = inMemoryServiceBean.getScenarios().iterator();
-			while (uIter.hasNext()) {
-				Scenario uploadedScenario = (Scenario) uIter.next();
-				boolean existingScenario = false;
-				Scenario mBean = null;
-				while (mIter.hasNext()) {
-					mBean = (Scenario) mIter.next();
-					if (mBean.equals(uploadedScenario)) {
-						existingScenario = true;
-						break;
-					}
-				}
-				if (!existingScenario) {
-					uploadedScenario.setServiceId(inMemoryServiceBean.getId());
-					inMemoryServiceBean.saveOrUpdateScenario(uploadedScenario);
-					store.saveOrUpdateService(inMemoryServiceBean);
-					readResults.addAdditionMsg("Scenario '" + uploadedScenario.getScenarioName()
-							+ "' added to service '" + inMemoryServiceBean.getServiceName() + "' ");
-				} else {
-					readResults
-							.addConflictMsg("Scenario '" + mBean.getScenarioName()
-									+ "' not added, already defined in service '"
-									+ inMemoryServiceBean.getServiceName() + "' ");
-				}
-
-			}
-			// Merge URLs
+			Lock lock = InMemoryMockeyStorage.getWriteLock();
+			lock.lock();
 			try {
-				for (Url url : uploadedServiceBean.getRealServiceUrls()) {
-					if (inMemoryServiceBean.hasRealServiceUrl(url)) {
-						readResults.addConflictMsg("Real url already defined: " + url.getFullUrl());
-					} else {
-						readResults.addAdditionMsg("Added real URL: " + url.getFullUrl());
-						inMemoryServiceBean.saveOrUpdateRealServiceUrl(url);
-					}
-				}
-			} catch (Exception e) {
-
+				ServiceMergePlan plan = new ServiceMergePlan(store.getServices());
+				plan.mergeService(uploadedServiceBean, inMemoryServiceBean, readResults);
+				plan.apply(store);
+			} finally {
+				lock.unlock();
 			}
 		}
 		
@@ -0,0 +1,264 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.log4j.Logger;
+
+import com.mockey.model.Service;
+import com.mockey.storage.IMockeyStorage;
+import com.mockey.storage.InMemoryMockeyStorage;
+
+/**
+ * Writes configuration changes to the file system in the background. Changes
+ * are marked as they happen and written together once no new change has been
+ * marked for a short while, so a burst of saves (e.g. applying a plan or
+ * uploading a definition file) costs one write, not one per save. Only the
+ * definition files of services that changed are rewritten.
+ * <p>
+ * Settings are read from system properties:
+ * <ul>
+ * <li><code>mockey.persist.delay</code> - milliseconds to wait for more
+ * changes before writing, default 500</li>
+ * </ul>
+ */
+public class MockeyXmlFileWriter {
+
+	public static final String PROPERTY_DELAY = "mockey.persist.delay";
+
+	private static final long DEFAULT_DELAY = 500;
+	// Under a steady stream of changes, write at least this many delays apart.
+	private static final int MAX_DELAYS = 10;
+
+	private static Logger logger = Logger.getLogger(MockeyXmlFileWriter.class);
+
+	private final IMockeyStorage store;
+	private final String destinationFileName;
+	private final long delay;
+	private final AtomicLong writeCount = new AtomicLong(0);
+	private final Object writeLock = new Object();
+
+	// Guarded by this
+	private Set<Long> dirtyServiceIds = new HashSet<Long>();
+	private boolean metaDirty = false;
+	private boolean allDirty = false;
+	private boolean scheduled = false;
+	private long firstChange = 0;
+	private long lastChange = 0;
+	private ScheduledExecutorService executor = null;
+
+	/**
+	 * 
+	 * @param store
+	 *            store to write
+	 * @param destinationFileName
+	 *            file for the store settings and service references
+	 */
+	public MockeyXmlFileWriter(IMockeyStorage store, String destinationFileName) {
+		this(store, destinationFileName, getDelay());
+	}
+
+	MockeyXmlFileWriter(IMockeyStorage store, String destinationFileName, long delay) {
+		this.store = store;
+		this.destinationFileName = destinationFileName;
+		this.delay = delay;
+	}
+
+	/**
+	 * Store settings changed, e.g. proxy, plans, twist info or a service was
+	 * added or removed.
+	 */
+	public synchronized void markChanged() {
+		metaDirty = true;
+		schedule();
+	}
+
+	/**
+	 * A service definition changed.
+	 * 
+	 * @param serviceId
+	 */
+	public synchronized void markServiceChanged(Long serviceId) {
+		metaDirty = true;
+		if (serviceId != null) {
+			dirtyServiceIds.add(serviceId);
+		}
+		schedule();
+	}
+
+	/**
+	 * Everything needs to be written, e.g. after leaving read only mode.
+	 */
+	public synchronized void markAllChanged() {
+		metaDirty = true;
+		allDirty = true;
+		schedule();
+	}
+
+	/**
+	 * Writes pending changes now. Called on shutdown so nothing marked is lost.
+	 */
+	public void flush() {
+		Set<Long> serviceIds;
+		boolean writeMeta;
+		boolean writeAll;
+		synchronized (this) {
+			if (!metaDirty && !allDirty && dirtyServiceIds.isEmpty()) {
+				return;
+			}
+			serviceIds = dirtyServiceIds;
+			writeMeta = metaDirty;
+			writeAll = allDirty;
+			dirtyServiceIds = new HashSet<Long>();
+			metaDirty = false;
+			allDirty = false;
+		}
+		write(writeMeta, writeAll, serviceIds);
+	}
+
+	/**
+	 * 
+	 * @return number of times changes were written to file
+	 */
+	public long getWriteCount() {
+		return writeCount.get();
+	}
+
+	// Writers take turns so an older snapshot never replaces a newer one. The
+	// configuration is locked while it is streamed to temporary files; the
+	// slow part, syncing them to disk, happens after the lock is released so
+	// request threads aren't kept waiting behind it.
+	private void write(boolean writeMeta, boolean writeAll, Set<Long> serviceIds) {
+		synchronized (writeLock) {
+			MockeyXmlFactory factory = new MockeyXmlFactory();
+			List<MockeyXmlFactory.StagedFile> staged = new ArrayList<MockeyXmlFactory.StagedFile>();
+			Lock lock = InMemoryMockeyStorage.getReadLock();
+			lock.lock();
+			try {
+				if (writeMeta) {
+					staged.add(factory.stageStoreMeta(store, destinationFileName));
+				}
+				for (Service service : store.getServices()) {
+					if (!service.getTransientState() && (writeAll || serviceIds.contains(service.getId()))) {
+						staged.add(factory.stageService(service));
+					}
+				}
+			} catch (Exception e) {
+				logger.error("Unable to write configuration to " + destinationFileName, e);
+				discard(staged, 0);
+				return;
+			} finally {
+				lock.unlock();
+			}
+			for (int i = 0; i < staged.size(); i++) {
+				try {
+					staged.get(i).commit();
+				} catch (Exception e) {
+					logger.error("Unable to write " + staged.get(i).getDestination(), e);
+					discard(staged, i + 1);
+					return;
+				}
+			}
+			writeCount.incrementAndGet();
+		}
+	}
+
+	private static void discard(List<MockeyXmlFactory.StagedFile> staged, int from) {
+		for (int i = from; i < staged.size(); i++) {
+			staged.get(i).discard();
+		}
+	}
+
+	private void schedule() {
+		lastChange = System.currentTimeMillis();
+		if (scheduled) {
+			return;
+		}
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "mockey-store-writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					flush();
+				}
+			}, "mockey-store-writer-shutdown"));
+		}
+		scheduled = true;
+		firstChange = lastChange;
+		executor.schedule(new Runnable() {
+			public void run() {
+				flushWhenQuiet();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void flushWhenQuiet() {
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			long quietFor = now - lastChange;
+			if (quietFor < delay && now - firstChange < MAX_DELAYS * delay) {
+				// More changes came in; wait until they settle.
+				executor.schedule(new Runnable() {
+					public void run() {
+						flushWhenQuiet();
+					}
+				}, delay - quietFor, TimeUnit.MILLISECONDS);
+				return;
+			}
+			scheduled = false;
+		}
+		flush();
+	}
+
+	private static long getDelay() {
+		try {
+			String value = System.getProperty(PROPERTY_DELAY);
+			if (value != null) {
+				return Math.max(0, Long.parseLong(value.trim()));
+			}
+		} catch (NumberFormatException e) {
+			logger.error("Invalid value for system property " + PROPERTY_DELAY + ". Using default " + DEFAULT_DELAY);
+		}
+		return DEFAULT_DELAY;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+import com.mockey.storage.IMockeyStorage;
+import com.mockey.ui.ServiceMergeResults;
+
+/**
+ * Works out how services merge into the store without changing anything, then
+ * applies the result in one step.
+ * <p>
+ * Services are indexed by real URL and scenarios by name and response, so
+ * planning is one pass over the uploaded services instead of a scan of the
+ * store for each one. The outcome is the same as merging one service at a
+ * time: an uploaded service merges into the first service, in store order,
+ * that shares a real URL with it, which may be a service added earlier in the
+ * same upload. Scenarios and real URLs are compared ignoring case.
+ */
+class ServiceMergePlan {
+
+	// Every service the plan knows about, in store order, then new services
+	// in upload order.
+	private final Map<Service, Integer> positions = new IdentityHashMap<Service, Integer>();
+	private final Map<String, Service> servicesByUrl = new HashMap<String, Service>();
+	private final Map<Service, Target> targets = new IdentityHashMap<Service, Target>();
+	private final List<Target> changedTargets = new ArrayList<Target>();
+	private final List<Service> newServices = new ArrayList<Service>();
+	private final Set<Service> newServiceSet = Collections.newSetFromMap(new IdentityHashMap<Service, Boolean>());
+
+	/**
+	 * 
+	 * @param existingServices
+	 *            services in the store, in store order
+	 */
+	ServiceMergePlan(Collection<Service> existingServices) {
+		for (Service service : existingServices) {
+			index(service);
+		}
+	}
+
+	/**
+	 * Plans to add each service, or to merge it into an existing service that
+	 * shares a real URL.
+	 * 
+	 * @param uploadedServices
+	 * @param mergeResults
+	 *            additions and conflicts are added to this
+	 */
+	void addServices(Collection<Service> uploadedServices, ServiceMergeResults mergeResults) {
+		for (Service uploadedServiceBean : uploadedServices) {
+			Service inMemoryServiceBean = null;
+			for (Url url : uploadedServiceBean.getRealServiceUrls()) {
+				Service candidate = servicesByUrl.get(fold(url.getFullUrl()));
+				if (candidate != null && (inMemoryServiceBean == null || isBefore(candidate, inMemoryServiceBean))) {
+					inMemoryServiceBean = candidate;
+				}
+			}
+			if (inMemoryServiceBean == null) {
+				newServices.add(uploadedServiceBean);
+				newServiceSet.add(uploadedServiceBean);
+				index(uploadedServiceBean);
+				mergeResults.addAdditionMsg("Service '" + uploadedServiceBean.getServiceName() + "' created. ");
+			} else {
+				mergeResults.addConflictMsg("Service '" + uploadedServiceBean.getServiceName()
+						+ "' not created; will try to merge into existing service labeled '"
+						+ inMemoryServiceBean.getServiceName() + "' ");
+				mergeService(uploadedServiceBean, inMemoryServiceBean, mergeResults);
+			}
+		}
+	}
+
+	/**
+	 * Plans to add the uploaded service's scenarios and real URLs that the
+	 * other service doesn't have yet.
+	 * 
+	 * @param uploadedServiceBean
+	 * @param inMemoryServiceBean
+	 * @param mergeResults
+	 *            additions and conflicts are added to this
+	 */
+	void mergeService(Service uploadedServiceBean, Service inMemoryServiceBean, ServiceMergeResults mergeResults) {
+		Target target = getTarget(inMemoryServiceBean);
+		for (Scenario uploadedScenario : uploadedServiceBean.getScenarios()) {
+			Scenario existingScenario = target.getScenario(uploadedScenario);
+			if (existingScenario == null) {
+				target.addScenario(uploadedScenario);
+				mergeResults.addAdditionMsg("Scenario '" + uploadedScenario.getScenarioName()
+						+ "' added to service '" + inMemoryServiceBean.getServiceName() + "' ");
+			} else {
+				mergeResults.addConflictMsg("Scenario '" + existingScenario.getScenarioName()
+						+ "' not added, already defined in service '" + inMemoryServiceBean.getServiceName() + "' ");
+			}
+		}
+		for (Url url : uploadedServiceBean.getRealServiceUrls()) {
+			if (target.hasUrl(url)) {
+				mergeResults.addConflictMsg("Real url already defined: " + url.getFullUrl());
+			} else {
+				mergeResults.addAdditionMsg("Added real URL: " + url.getFullUrl());
+				target.addUrl(url);
+				indexUrl(url, inMemoryServiceBean);
+			}
+		}
+	}
+
+	/**
+	 * Applies the plan. Each changed service is saved once. Plan and apply
+	 * while holding the configuration write lock, so the store can't change
+	 * in between and requests see it either before or after the merge.
+	 * 
+	 * @param store
+	 */
+	void apply(IMockeyStorage store) {
+		for (Target target : changedTargets) {
+			target.apply();
+		}
+		for (Service service : newServices) {
+			// We null it, to not stomp on any services
+			service.setId(null);
+			store.saveOrUpdateService(service);
+		}
+		for (Target target : changedTargets) {
+			if (!newServiceSet.contains(target.service)) {
+				store.saveOrUpdateService(target.service);
+			}
+		}
+	}
+
+	private Target getTarget(Service service) {
+		Target target = targets.get(service);
+		if (target == null) {
+			target = new Target(service);
+			targets.put(service, target);
+			changedTargets.add(target);
+		}
+		return target;
+	}
+
+	private void index(Service service) {
+		positions.put(service, Integer.valueOf(positions.size()));
+		for (Url url : service.getRealServiceUrls()) {
+			indexUrl(url, service);
+		}
+	}
+
+	private void indexUrl(Url url, Service service) {
+		if (!positions.containsKey(service)) {
+			// Only services in the store or in this upload are merged into.
+			return;
+		}
+		String key = fold(url.getFullUrl());
+		Service indexed = servicesByUrl.get(key);
+		if (indexed == null || isBefore(service, indexed)) {
+			servicesByUrl.put(key, service);
+		}
+	}
+
+	private boolean isBefore(Service service, Service otherService) {
+		return positions.get(service).intValue() < positions.get(otherService).intValue();
+	}
+
+	/**
+	 * Two strings fold to the same value exactly when
+	 * <code>equalsIgnoreCase</code> says they are equal.
+	 */
+	static String fold(String value) {
+		char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = fold(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Content hash of a scenario, ignoring case, computed without copying the
+	 * response.
+	 */
+	static int hash(Scenario scenario) {
+		int hash = 0;
+		String name = scenario.getScenarioName();
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + fold(name.charAt(i));
+		}
+		String response = scenario.getResponseMessage();
+		for (int i = 0; i < response.length(); i++) {
+			hash = 31 * hash + fold(response.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * Scenarios without a name or response never equal another scenario; see
+	 * <code>Scenario.equals(Scenario)</code>.
+	 */
+	private static boolean isComparable(Scenario scenario) {
+		return scenario.getScenarioName() != null && scenario.getResponseMessage() != null;
+	}
+
+	/**
+	 * A service being merged into, with what it will have once the plan is
+	 * applied.
+	 */
+	private static class Target {
+		private final Service service;
+		private final Map<Integer, List<Scenario>> scenariosByHash = new HashMap<Integer, List<Scenario>>();
+		private final Set<String> urls = new HashSet<String>();
+		private final List<Scenario> newScenarios = new ArrayList<Scenario>();
+		private final List<Url> newUrls = new ArrayList<Url>();
+
+		Target(Service service) {
+			this.service = service;
+			for (Scenario scenario : service.getScenarios()) {
+				indexScenario(scenario);
+			}
+			for (Url url : service.getRealServiceUrls()) {
+				urls.add(fold(url.getFullUrl()));
+			}
+		}
+
+		Scenario getScenario(Scenario scenario) {
+			if (!isComparable(scenario)) {
+				return null;
+			}
+			List<Scenario> candidates = scenariosByHash.get(Integer.valueOf(hash(scenario)));
+			if (candidates != null) {
+				for (Scenario candidate : candidates) {
+					if (candidate.equals(scenario)) {
+						return candidate;
+					}
+				}
+			}
+			return null;
+		}
+
+		void addScenario(Scenario scenario) {
+			newScenarios.add(scenario);
+			indexScenario(scenario);
+		}
+
+		boolean hasUrl(Url url) {
+			return urls.contains(fold(url.getFullUrl()));
+		}
+
+		void addUrl(Url url) {
+			newUrls.add(url);
+			urls.add(fold(url.getFullUrl()));
+		}
+
+		void apply() {
+			for (Scenario scenario : newScenarios) {
+				// A new ID, so an uploaded scenario never replaces an existing
+				// one that happens to have the same ID.
+				scenario.setId(null);
+				service.saveOrUpdateScenario(scenario);
+			}
+			for (Url url : newUrls) {
+				service.saveOrUpdateRealServiceUrl(url);
+			}
+		}
+
+		private void indexScenario(Scenario scenario) {
+			if (isComparable(scenario)) {
+				Integer hash = Integer.valueOf(hash(scenario));
+				List<Scenario> scenarios = scenariosByHash.get(hash);
+				if (scenarios == null) {
+					scenarios = new ArrayList<Scenario>(1);
+					scenariosByHash.put(hash, scenarios);
+				}
+				scenarios.add(scenario);
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes XML elements straight to a <code>Writer</code>, one at a time, with
+ * no document held in memory. Output matches what the JDK's DOM serializer
+ * writes with indenting turned on: attributes in name order, child elements
+ * indented four spaces, empty elements closed as <code>&lt;name/&gt;</code>,
+ * and CDATA split around <code>]]&gt;</code> and characters not allowed in
+ * XML.
+ */
+class XmlStreamWriter {
+
+	private static final String INDENT = "    ";
+
+	private final Writer out;
+	private final List<String> openElements = new ArrayList<String>();
+	// Start tag waiting for its attributes to be set
+	private String pendingElement = null;
+	private Map<String, String> pendingAttributes = new TreeMap<String, String>();
+	private boolean hasChildElements = false;
+
+	XmlStreamWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void startDocument() throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+	}
+
+	public void startElement(String name) throws IOException {
+		writePendingStartTag();
+		out.write('\n');
+		writeIndent(openElements.size());
+		pendingElement = name;
+		hasChildElements = false;
+		openElements.add(name);
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @param value
+	 *            null is written as an empty value
+	 */
+	public void attribute(String name, String value) {
+		pendingAttributes.put(name, value != null ? value : "");
+	}
+
+	/**
+	 * Writes the text as CDATA. Nothing is written for empty text.
+	 * 
+	 * @param text
+	 * @throws IOException
+	 */
+	public void cdata(String text) throws IOException {
+		if (text == null || text.length() == 0) {
+			return;
+		}
+		writePendingStartTag();
+		boolean inCdata = false;
+		int length = text.length();
+		// Characters are written in runs, not one at a time.
+		int runStart = 0;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			boolean invalid = c < 0x20 && c != '\t' && c != '\n' && c != '\r';
+			boolean split = c == ']' && text.startsWith("]]>", i);
+			if (!invalid && !split) {
+				continue;
+			}
+			if (i > runStart) {
+				if (!inCdata) {
+					out.write("<![CDATA[");
+					inCdata = true;
+				}
+				out.write(text, runStart, i - runStart);
+			}
+			if (invalid) {
+				if (inCdata) {
+					out.write("]]>");
+					inCdata = false;
+				}
+				writeCharacterReference(c);
+				runStart = i + 1;
+			} else {
+				if (!inCdata) {
+					out.write("<![CDATA[");
+					inCdata = true;
+				}
+				out.write("]]]]><![CDATA[>");
+				i += 2;
+				runStart = i + 1;
+			}
+		}
+		if (length > runStart) {
+			if (!inCdata) {
+				out.write("<![CDATA[");
+				inCdata = true;
+			}
+			out.write(text, runStart, length - runStart);
+		}
+		if (inCdata) {
+			out.write("]]>");
+		}
+	}
+
+	public void endElement() throws IOException {
+		String name = openElements.remove(openElements.size() - 1);
+		if (pendingElement != null) {
+			writeStartTag("/>");
+		} else {
+			if (hasChildElements) {
+				out.write('\n');
+				writeIndent(openElements.size());
+			}
+			out.write("</");
+			out.write(name);
+			out.write('>');
+		}
+		// The parent has at least this one child element.
+		hasChildElements = true;
+	}
+
+	public void endDocument() throws IOException {
+		out.write('\n');
+		out.flush();
+	}
+
+	private void writePendingStartTag() throws IOException {
+		if (pendingElement != null) {
+			writeStartTag(">");
+		}
+	}
+
+	private void writeStartTag(String close) throws IOException {
+		out.write('<');
+		out.write(pendingElement);
+		for (Map.Entry<String, String> attribute : pendingAttributes.entrySet()) {
+			out.write(' ');
+			out.write(attribute.getKey());
+			out.write("=\"");
+			writeAttributeValue(attribute.getValue());
+			out.write('"');
+		}
+		out.write(close);
+		pendingElement = null;
+		pendingAttributes.clear();
+	}
+
+	private void writeAttributeValue(String value) throws IOException {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				out.write("&amp;");
+				break;
+			case '<':
+				out.write("&lt;");
+				break;
+			case '>':
+				out.write("&gt;");
+				break;
+			case '"':
+				out.write("&quot;");
+				break;
+			default:
+				if (c < 0x20) {
+					writeCharacterReference(c);
+				} else if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(value.charAt(i + 1))) {
+					writeCharacterReference(Character.toCodePoint(c, value.charAt(++i)));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+	}
+
+	private void writeCharacterReference(int codePoint) throws IOException {
+		out.write("&#");
+		out.write(Integer.toString(codePoint));
+		out.write(';');
+	}
+
+	private void writeIndent(int depth) throws IOException {
+		for (int i = 0; i < depth; i++) {
+			out.write(INDENT);
+		}
+	}
+}
@@ -82,8 +82,7 @@ public class ConfigurationInfoAJAXServlet extends HttpServlet {
 			JSONObject messageObject = new JSONObject();
 			messageObject.put("proxy_enabled", Boolean.toString(proxyInfo.isProxyEnabled()));
 			messageObject.put("transient_state", store.getReadOnlyMode());
-			Long twistInfoId = store.getUniversalTwistInfoId();
-			TwistInfo twistInfo = store.getTwistInfoById(twistInfoId);
+			TwistInfo twistInfo = store.getUniversalTwistInfo();
 			if (twistInfo != null) {
 				messageObject.put("twist_enabled", true);
 				messageObject.put("twist-id", twistInfo.getId());
@@ -28,13 +28,11 @@
 package com.mockey.ui;
 
 import java.io.IOException;
-import java.io.PrintStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.transform.TransformerException;
 
 import com.mockey.storage.IMockeyStorage;
 import com.mockey.storage.StorageRegistry;
@@ -56,18 +54,10 @@ public class ExportConfigurationServlet extends HttpServlet {
 
 		MockeyXmlFactory g = new MockeyXmlFactory();
 
-        String fileOutput;
-        try {
-            fileOutput = g.getStoreAsString(store, true);
-        } catch (TransformerException e) {
-            throw new ServletException(e);
-        }
-
+        // Written as it's generated; large definition sets are never held
+        // in memory as a whole.
         resp.setContentType("application/json");
         resp.setHeader("Content-disposition", "attachment; filename=mockservice.xml");
-        resp.setContentLength(fileOutput.getBytes().length);
-
-        PrintStream out = new PrintStream(resp.getOutputStream());
-        out.println(fileOutput);
+        g.writeStore(store, true, resp.getOutputStream());
     }
 }
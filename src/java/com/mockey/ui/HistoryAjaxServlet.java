@@ -29,6 +29,8 @@ package com.mockey.ui;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Date;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -36,16 +38,20 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.HistoryFilter;
+import com.mockey.model.HistoryQuery;
 import com.mockey.storage.IMockeyStorage;
 import com.mockey.storage.StorageRegistry;
 
 /**
  * Returns JSON of the fulfilled request, designed to be consumed by an
- * AJAX call.
+ * AJAX call. Without a <code>conversationRecordId</code>, returns a page of
+ * History instead.
  * 
  */
 public class HistoryAjaxServlet extends HttpServlet {
@@ -53,12 +59,18 @@ public class HistoryAjaxServlet extends HttpServlet {
 	private static final long serialVersionUID = 4178219038104708097L;
 	private static IMockeyStorage store = StorageRegistry.MockeyStorage;
 	private static Logger logger = Logger.getLogger(HistoryAjaxServlet.class);
+	private static final int DEFAULT_PAGE_SIZE = 50;
+	private static final int MAX_PAGE_SIZE = 1000;
 
     /**
      * 
      */
     public void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
+        if (req.getParameter("conversationRecordId") == null) {
+            listRequests(req, resp);
+            return;
+        }
         Long fulfilledRequestId = null;
         JSONObject jsonObject = new JSONObject();
         try {
@@ -79,6 +91,11 @@ public class HistoryAjaxServlet extends HttpServlet {
             jsonObject.put("responseStatus", ""+fCRequest.getResponseMessage().getStatusLine());
             jsonObject.put("responseHeader", ""+fCRequest.getResponseMessage().getHeaderInfo());
             jsonObject.put("responseBody", ""+fCRequest.getResponseMessage().getBody());
+            if (fCRequest.getResponseMessage().getBodyLength() >= 0) {
+                jsonObject.put("responseBodyLength", fCRequest.getResponseMessage().getBodyLength());
+                jsonObject.put("responseBodyDigest", ""+fCRequest.getResponseMessage().getBodyDigest());
+                jsonObject.put("responseBodyTruncated", fCRequest.getResponseMessage().isBodyTruncated());
+            }
 
 
         } catch (Exception e) {
@@ -97,4 +114,66 @@ public class HistoryAjaxServlet extends HttpServlet {
         out.println(jsonObject.toString());
     }
 
+    /**
+     * Returns a page of History as JSON, newest first. Optional parameters:
+     * <code>serviceId</code>, <code>ip</code>, <code>token</code> (repeatable,
+     * as on the History page), <code>since</code> (milliseconds since the
+     * epoch), <code>before</code> (the <code>nextBefore</code> of the
+     * previous page) and <code>limit</code>.
+     */
+    private void listRequests(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        JSONObject jsonObject = new JSONObject();
+        try {
+            HistoryQuery query = new HistoryQuery();
+            query.setServiceId(getLongParameter(req, "serviceId"));
+            query.setRequestorIP(req.getParameter("ip"));
+            HistoryFilter filter = new HistoryFilter();
+            filter.addTokens(req.getParameterValues("token"));
+            query.setTokens(filter.getTokens());
+            query.setBeforeId(getLongParameter(req, "before"));
+            Long since = getLongParameter(req, "since");
+            if (since != null) {
+                query.setSince(new Date(since));
+            }
+            Long limit = getLongParameter(req, "limit");
+            int pageSize = (int) Math.max(1, Math.min(MAX_PAGE_SIZE, (limit != null) ? limit : DEFAULT_PAGE_SIZE));
+            query.setMaxResults(pageSize + 1);
+
+            List<FulfilledClientRequest> fulfilledRequests = store.getFulfilledClientRequests(query);
+            JSONArray requests = new JSONArray();
+            for (int i = 0; i < fulfilledRequests.size() && i < pageSize; i++) {
+                FulfilledClientRequest fCRequest = fulfilledRequests.get(i);
+                JSONObject request = new JSONObject();
+                request.put("conversationRecordId", "" + fCRequest.getId());
+                request.put("serviceId", "" + fCRequest.getServiceId());
+                request.put("serviceName", fCRequest.getServiceName());
+                request.put("serviceResponseType", fCRequest.getServiceResponseType());
+                request.put("requestorIP", fCRequest.getRequestorIP());
+                request.put("time", fCRequest.getTime().getTime());
+                request.put("requestUrl", "" + fCRequest.getRawRequest());
+                request.put("tagged", fCRequest.getComment() != null);
+                requests.put(request);
+            }
+            jsonObject.put("requests", requests);
+            if (fulfilledRequests.size() > pageSize) {
+                jsonObject.put("nextBefore", "" + fulfilledRequests.get(pageSize - 1).getId());
+            }
+        } catch (Exception e) {
+            try {
+                jsonObject.put("error", "Sorry, history is not available: " + e.getMessage());
+            } catch (JSONException e1) {
+                logger.error("Unable to create JSON", e1);
+            }
+        }
+
+        resp.setContentType("application/json");
+        PrintStream out = new PrintStream(resp.getOutputStream());
+        out.println(jsonObject.toString());
+    }
+
+    private static Long getLongParameter(HttpServletRequest req, String name) {
+        String value = req.getParameter(name);
+        return (value != null && value.trim().length() > 0) ? Long.valueOf(value.trim()) : null;
+    }
+
 }
@@ -28,7 +28,7 @@
 package com.mockey.ui;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.List;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -40,14 +40,16 @@ import org.apache.log4j.Logger;
 
 import com.mockey.model.FulfilledClientRequest;
 import com.mockey.model.HistoryFilter;
+import com.mockey.model.HistoryQuery;
 import com.mockey.model.Url;
 import com.mockey.storage.IMockeyStorage;
 import com.mockey.storage.StorageRegistry;
 
 /**
  * <code>HistoryServlet</code> produces a list of fulfilled requests and
- * responses (history). Moreover, this servlet accepts String tokens to filter
- * the end list.
+ * responses (history), newest first, a page at a time. Moreover, this servlet
+ * accepts String tokens to filter the end list. The <code>before</code>
+ * parameter pages back to requests older than the one with that ID.
  * 
  * 
  * @author Chad Lafontaine (chad.lafontaine)
@@ -57,6 +59,7 @@ public class HistoryServlet extends HttpServlet {
     private static final long serialVersionUID = -2255013290808524662L;
     private static final Logger logger = Logger.getLogger(HistoryServlet.class);
     private static final String HISTORY_FILTER = "historyFilter";
+    private static final int PAGE_SIZE = 50;
 
     private static IMockeyStorage store = StorageRegistry.MockeyStorage;
 
@@ -115,10 +118,30 @@ public class HistoryServlet extends HttpServlet {
 
             historyFilter.addTokens(filterTokens);
         }
-        Collection<FulfilledClientRequest> fulfilledRequests = store.getFulfilledClientRequest(historyFilter.getTokens());
+        HistoryQuery query = new HistoryQuery();
+        query.setTokens(historyFilter.getTokens());
+        query.setBeforeId(getLongParameter(req, "before"));
+        // One more than a page, to tell whether there are older requests.
+        query.setMaxResults(PAGE_SIZE + 1);
+        List<FulfilledClientRequest> fulfilledRequests = store.getFulfilledClientRequests(query);
+        if (fulfilledRequests.size() > PAGE_SIZE) {
+            fulfilledRequests = fulfilledRequests.subList(0, PAGE_SIZE);
+            req.setAttribute("olderBeforeId", fulfilledRequests.get(PAGE_SIZE - 1).getId());
+        }
         req.setAttribute("requests", fulfilledRequests);
+        req.setAttribute("isNewestPage", query.getBeforeId() == null);
         req.getSession().setAttribute(HISTORY_FILTER, historyFilter);
         RequestDispatcher dispatch = req.getRequestDispatcher("/history.jsp");
         dispatch.forward(req, resp);
     }
+
+    private static Long getLongParameter(HttpServletRequest req, String name) {
+        String value = req.getParameter(name);
+        try {
+            return (value != null && value.trim().length() > 0) ? Long.valueOf(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring invalid " + name + " parameter: " + value);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.ui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import com.mockey.storage.HistoryFeed;
+
+/**
+ * Streams requests to the browser as they're saved to History, as
+ * Server-Sent Events. Each event's data is a compact JSON summary of the
+ * request; its ID is the request's ID. Optional parameters
+ * <code>serviceId</code>, <code>ip</code> and <code>status</code> narrow
+ * the stream down.
+ * <p>
+ * A subscriber that falls too far behind is sent a <code>dropped</code>
+ * event and the stream ends. Each open stream holds a server thread, so
+ * the number of subscribers is capped.
+ * 
+ * @see HistoryFeed
+ */
+public class HistoryStreamServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -3409283311250918843L;
+	private static Logger logger = Logger.getLogger(HistoryStreamServlet.class);
+	// Comments sent when there's no traffic keep proxies from timing out the
+	// stream, and tell us when the browser has gone.
+	private static final long KEEP_ALIVE_INTERVAL = 15000;
+	private static final int RECONNECT_DELAY = 3000;
+
+	public void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		HistoryFeed.Subscription subscription;
+		try {
+			subscription = HistoryFeed.getInstance().subscribe(getLongParameter(req, "serviceId"),
+					getStringParameter(req, "ip"), getIntegerParameter(req, "status"));
+		} catch (NumberFormatException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid serviceId or status: " + e.getMessage());
+			return;
+		}
+		if (subscription == null) {
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many History subscribers");
+			return;
+		}
+
+		resp.setContentType("text/event-stream;charset=UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		OutputStream out = resp.getOutputStream();
+		try {
+			write(out, "retry: " + RECONNECT_DELAY + "\n\n");
+			while (true) {
+				HistoryFeed.Event event = subscription.poll(subscription.isDropped() ? 0 : KEEP_ALIVE_INTERVAL);
+				if (event != null) {
+					write(out, "id: " + event.getId() + "\ndata: " + event.getData() + "\n\n");
+				} else if (subscription.isDropped()) {
+					write(out, "event: dropped\ndata: {}\n\n");
+					return;
+				} else {
+					write(out, ": keep-alive\n\n");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.debug("History subscriber went away: " + e.getMessage());
+		} finally {
+			subscription.close();
+		}
+	}
+
+	private static void write(OutputStream out, String text) throws IOException {
+		out.write(text.getBytes("UTF-8"));
+		out.flush();
+	}
+
+	private static String getStringParameter(HttpServletRequest req, String name) {
+		String value = req.getParameter(name);
+		return (value != null && value.trim().length() > 0) ? value.trim() : null;
+	}
+
+	private static Long getLongParameter(HttpServletRequest req, String name) {
+		String value = getStringParameter(req, name);
+		return (value != null) ? Long.valueOf(value) : null;
+	}
+
+	private static Integer getIntegerParameter(HttpServletRequest req, String name) {
+		String value = getStringParameter(req, name);
+		return (value != null) ? Integer.valueOf(value) : null;
+	}
+}
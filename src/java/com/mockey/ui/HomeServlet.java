@@ -27,13 +27,9 @@
  */
 package com.mockey.ui;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -41,7 +37,6 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.http.protocol.HTTP;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -56,6 +51,7 @@ import com.mockey.storage.IApiStorage;
 import com.mockey.storage.IApiStorageInMemory;
 import com.mockey.storage.IMockeyStorage;
 import com.mockey.storage.StorageRegistry;
+import com.mockey.storage.xml.MockeyXmlFileConfigurationReader;
 import com.mockey.storage.xml.MockeyXmlFileManager;
 
 public class HomeServlet extends HttpServlet {
@@ -200,22 +196,13 @@ public class HomeServlet extends HttpServlet {
 			try {
 				File f = new File(fileName);
 				if (f.exists()) {
-					// Slurp it up and initialize definitions.
-					FileInputStream fstream = new FileInputStream(f);
-					BufferedReader br = new BufferedReader(new InputStreamReader(fstream, Charset.forName(HTTP.UTF_8)));
-					StringBuffer inputString = new StringBuffer();
-					// Read File Line By Line
-					String strLine = null;
 					// READ FIRST
-					while ((strLine = br.readLine()) != null) {
-						// Print the content on the console
-						inputString.append(new String(strLine.getBytes(HTTP.UTF_8)));
-					}
+					IMockeyStorage definitions = new MockeyXmlFileConfigurationReader().readDefinition(f);
 					// DELETE SECOND
 					store.deleteEverything();
 					MockeyXmlFileManager reader = new MockeyXmlFileManager();
 
-					reader.loadConfigurationWithXmlDef(inputString.toString());
+					reader.loadConfiguration(definitions);
 					logger.info("Loaded definitions from " + fileName);
 					jsonResultObject.put(SUCCESS, "Loaded definitions from " + fileName);
 					jsonResultObject.put(API_CONFIGURATION_PARAMETER_FILE, fileName);
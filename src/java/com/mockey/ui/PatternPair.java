@@ -1,5 +1,7 @@
 package com.mockey.ui;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * 
  * @author chadlafontaine
@@ -9,6 +11,8 @@ public class PatternPair {
 
 	private String origination;
 	private String destination;
+	private final AtomicLong hits = new AtomicLong();
+
 	public PatternPair(){}
 	public PatternPair(String origination, String destination) {
 		this.origination = origination;
@@ -31,4 +35,16 @@ public class PatternPair {
 		this.destination = destination;
 	}
 
+	/**
+	 * 
+	 * @return number of requests this pair has twisted since it was created
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	public void recordHit() {
+		hits.incrementAndGet();
+	}
+
 }
@@ -121,6 +121,9 @@ public class ScenarioServlet extends HttpServlet {
 		if (req.getParameter("matchStringArg") != null) {
 			scenario.setMatchStringArg(req.getParameter("matchStringArg"));
 		}
+		if (req.getParameter("matchPredicates") != null) {
+			scenario.setMatchPredicates(req.getParameter("matchPredicates"));
+		}
 
 		// VALIDATION
 		Map<String, String> errorMap = ScenarioValidator.validate(scenario);
@@ -71,6 +71,7 @@ public class ScenarioViewAjaxServlet extends HttpServlet {
 			jsonObject.put("scenarioId", "" + scenario.getId());
 			jsonObject.put("name", scenario.getScenarioName());
 			jsonObject.put("match", scenario.getMatchStringArg());
+			jsonObject.put("predicates", (scenario.getMatchPredicates() != null) ? scenario.getMatchPredicates() : "");
 			jsonObject.put("response", scenario.getResponseMessage());
 
 			// Error handling flags
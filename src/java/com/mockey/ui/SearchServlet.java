@@ -37,15 +37,14 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.mockey.model.Scenario;
 import com.mockey.model.SearchResult;
-import com.mockey.model.Service;
-import com.mockey.model.Url;
 import com.mockey.storage.IMockeyStorage;
 import com.mockey.storage.StorageRegistry;
 
 /**
  * For searching anything in Mockey definitions, configurations, and results.
+ * Searches the store's full-text index; see <code>SearchIndex</code> for the
+ * query syntax.
  * 
  * @author chadlafontaine
  * 
@@ -56,6 +55,7 @@ public class SearchServlet extends HttpServlet {
 	 * 
 	 */
 	private static final long serialVersionUID = -4357189038127507482L;
+	private static final int MAX_RESULTS = 100;
 
 	private IMockeyStorage store = StorageRegistry.MockeyStorage;
 
@@ -78,37 +78,7 @@ public class SearchServlet extends HttpServlet {
 
 		if (term != null && term.trim().length() > 0) {
 			term = term.trim();
-			for (Service service : store.getServices()) {
-
-				SearchResult sr = buildSearchResult(term, service.getServiceName());
-				if (sr != null) {
-					sr.setType("service");
-					sr.setServiceId("" + service.getId());
-					searchResultList.add(sr);
-
-				}
-
-				for (Url url : service.getRealServiceUrls()) {
-					SearchResult subresult = buildSearchResult(term, url.toString());
-					if (subresult != null) {
-						subresult.setType("service");
-						subresult.setServiceId("" + service.getId());
-						searchResultList.add(subresult);
-					}
-				}
-
-				for (Scenario scenario : service.getScenarios()) {
-					SearchResult subresult = buildSearchResult(term, scenario.getResponseMessage());
-					if (subresult != null) {
-						subresult.setType("scenario");
-						subresult.setServiceId("" + service.getId());
-						subresult.setScenarioId("" + scenario.getId());
-						subresult.setScenarioName(scenario.getScenarioName());
-						searchResultList.add(subresult);
-					}
-				}
-
-			}
+			searchResultList = store.search(term, MAX_RESULTS);
 		}
 
 		req.setAttribute("results", searchResultList);
@@ -118,26 +88,4 @@ public class SearchServlet extends HttpServlet {
 
 	}
 
-	private SearchResult buildSearchResult(String term, String content) {
-
-		SearchResult result = null;
-		if (term != null && content != null) {
-			int index = content.toLowerCase().indexOf(term.toLowerCase());
-			if (index > -1) {
-				result = new SearchResult();
-
-				String teaserContent = content.substring(index);
-
-				if (teaserContent.length() > 150) {
-					teaserContent.substring(0, 148);
-
-				}
-				result.setContent(teaserContent);
-
-			}
-
-		}
-		return result;
-	}
-
 }
@@ -40,6 +40,7 @@ public interface ServiceConfigurationAPI {
 	public static final String API_SERVICE_RESPONSE_TYPE_VALUE_STATIC = "static";
 	public static final String API_SERVICE_RESPONSE_TYPE_VALUE_DYNAMIC = "dynamic";
 	public static final String API_SERVICE_HANGTIME = "hangTime";
+	public static final String API_SERVICE_HANGTIME_DISTRIBUTION = "hangTimeDistribution";
 	public static final String API_SERVICE_CONTENT_TYPE = "httpContentType";
 	
 
@@ -115,6 +115,15 @@ public class ServiceConfigurationServlet extends HttpServlet {
 			reqHangtime.setExample("500");
 			apiDocRequest.addAttribute(reqHangtime);
 
+			ApiDocAttribute reqHangtimeDistribution = new ApiDocAttribute();
+			reqHangtimeDistribution.setFieldName(ServiceConfigurationAPI.API_SERVICE_HANGTIME_DISTRIBUTION);
+			reqHangtimeDistribution.addFieldValues(new ApiDocFieldValue("[string]",
+					"Optional hang time distribution in milliseconds, used instead of the fixed hang time. "
+							+ "One of 'uniform:min-max', 'normal:mean,stddev' or "
+							+ "'percentile:50=100,90=400,99=2000'. Empty reverts to the fixed hang time."));
+			reqHangtimeDistribution.setExample("uniform:200-800");
+			apiDocRequest.addAttribute(reqHangtimeDistribution);
+
 			ApiDocAttribute transientSet = new ApiDocAttribute();
 			transientSet.setFieldName(ServiceConfigurationAPI.API_TRANSIENT_STATE);
 			transientSet
@@ -197,10 +206,12 @@ public class ServiceConfigurationServlet extends HttpServlet {
 
 	@Override
 	public void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        synchronized (InMemoryMockeyStorage.getLockObject()) {
+        InMemoryMockeyStorage.getWriteLock().lock();
+        try {
             String serviceId = req.getParameter(ServiceConfigurationAPI.API_SERVICE_ID);
             String serviceName = req.getParameter(ServiceConfigurationAPI.API_SERVICE_NAME);
             String hangTime = req.getParameter(ServiceConfigurationAPI.API_SERVICE_HANGTIME);
+            String hangTimeDistribution = req.getParameter(ServiceConfigurationAPI.API_SERVICE_HANGTIME_DISTRIBUTION);
             String scenarioId = req.getParameter(ServiceConfigurationAPI.API_SERVICE_SCENARIO_ID);
             String scenarioName = req.getParameter(ServiceConfigurationAPI.API_SERVICE_SCENARIO_NAME);
             String httpContentType = req.getParameter(ServiceConfigurationAPI.API_SERVICE_CONTENT_TYPE);
@@ -242,6 +253,14 @@ public class ServiceConfigurationServlet extends HttpServlet {
                 log.debug("Updating service without a 'hang time' value");
             }
 
+            try {
+                if (hangTimeDistribution != null) {
+                    service.setHangTimeDistribution(hangTimeDistribution);
+                }
+            } catch (IllegalArgumentException e) {
+                log.debug("Updating service without a valid 'hang time distribution' value", e);
+            }
+
             try {
                 if (transientState != null) {
                     service.setTransientState((new Boolean(transientState)));
@@ -288,6 +307,8 @@ public class ServiceConfigurationServlet extends HttpServlet {
                     jsonResultObject.put(ServiceConfigurationAPI.API_SERVICE_RESPONSE_TYPE, service
                             .getServiceResponseTypeAsString());
                     jsonResultObject.put(ServiceConfigurationAPI.API_SERVICE_HANGTIME, service.getHangTime());
+                    jsonResultObject.put(ServiceConfigurationAPI.API_SERVICE_HANGTIME_DISTRIBUTION, service
+                            .getHangTimeDistribution());
                     jsonResultObject.put(ServiceConfigurationAPI.API_SERVICE_CONTENT_TYPE, service.getHttpContentType());
                     jsonResponseObject.put("result", jsonResultObject);
                 } else {
@@ -296,6 +317,8 @@ public class ServiceConfigurationServlet extends HttpServlet {
                     outputInfo.append(ServiceConfigurationAPI.API_SERVICE_ID + ":" + serviceId + " ");
                     outputInfo.append(ServiceConfigurationAPI.API_SERVICE_NAME + ":" + serviceName + " ");
                     outputInfo.append(ServiceConfigurationAPI.API_SERVICE_HANGTIME + ":" + hangTime + " ");
+                    outputInfo.append(ServiceConfigurationAPI.API_SERVICE_HANGTIME_DISTRIBUTION + ":"
+                            + hangTimeDistribution + " ");
                     outputInfo.append(ServiceConfigurationAPI.API_SERVICE_SCENARIO_ID + ":" + scenarioId + " ");
                     outputInfo.append(ServiceConfigurationAPI.API_SERVICE_SCENARIO_NAME + ":" + scenarioName + " ");
                     outputInfo.append(ServiceConfigurationAPI.API_SERVICE_CONTENT_TYPE + ":" + httpContentType + " ");
@@ -321,6 +344,8 @@ public class ServiceConfigurationServlet extends HttpServlet {
             }
             out.flush();
             out.close();
+        } finally {
+            InMemoryMockeyStorage.getWriteLock().unlock();
         }
 	}
 
@@ -204,7 +204,8 @@ public class ServicePlanSetupServlet extends HttpServlet implements ServicePlanC
 	 */
     @Override
 	public void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        synchronized (InMemoryMockeyStorage.getLockObject()) {
+        InMemoryMockeyStorage.getWriteLock().lock();
+        try {
             try {
                 // API BUSINESS LOGIC
                 // log.debug("Service Plan setup/delete");
@@ -348,6 +349,8 @@ public class ServicePlanSetupServlet extends HttpServlet implements ServicePlanC
             } catch (JSONException jsonException) {
                 throw new ServletException(jsonException);
             }
+        } finally {
+            InMemoryMockeyStorage.getWriteLock().unlock();
         }
 	}
 
@@ -357,6 +360,7 @@ public class ServicePlanSetupServlet extends HttpServlet implements ServicePlanC
 
 			PlanItem planItem = new PlanItem();
 			planItem.setHangTime(service.getHangTime());
+			planItem.setHangTimeDistribution(service.getHangTimeDistribution());
 			planItem.setServiceId(service.getId());
 			planItem.setScenarioId(service.getDefaultScenarioId());
 			planItem.setServiceResponseType(service.getServiceResponseType());
@@ -377,6 +381,7 @@ public class ServicePlanSetupServlet extends HttpServlet implements ServicePlanC
 
 			if (service != null) {
 				service.setHangTime(planItem.getHangTime());
+				service.setHangTimeDistribution(planItem.getHangTimeDistribution());
 				service.setDefaultScenarioId(planItem.getScenarioId());
 				service.setServiceResponseType(planItem.getServiceResponseType());
 				store.saveOrUpdateService(service);
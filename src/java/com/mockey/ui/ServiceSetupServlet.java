@@ -217,6 +217,16 @@ public class ServiceSetupServlet extends HttpServlet {
 			// DO NOTHING
 		}
 
+		// UPDATE HANGTIME DISTRIBUTION - optional
+		String hangTimeDistributionError = null;
+		if (req.getParameter("hangTimeDistribution") != null) {
+			try {
+				service.setHangTimeDistribution(req.getParameter("hangTimeDistribution"));
+			} catch (IllegalArgumentException e) {
+				hangTimeDistributionError = e.getMessage();
+			}
+		}
+
 		// NAME - optional
 		if (req.getParameter("serviceName") != null) {
 		   service.setServiceName(req.getParameter("serviceName"));
@@ -239,6 +249,9 @@ public class ServiceSetupServlet extends HttpServlet {
 		}
 
 		Map<String, String> errorMap = ServiceValidator.validate(service);
+		if (hangTimeDistributionError != null) {
+			errorMap.put("hangTimeDistribution", hangTimeDistributionError);
+		}
 
 		if ((errorMap != null) && (errorMap.size() == 0)) {
 			// no errors, so create service.
@@ -34,6 +34,7 @@ import java.io.IOException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 
+import com.mockey.storage.StorageRegistry;
 import com.mockey.storage.xml.MockeyXmlFileManager;
 
 public class StartUpServlet extends HttpServlet {
@@ -97,4 +98,12 @@ public class StartUpServlet extends HttpServlet {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Writes configuration changes still waiting to be persisted.
+	 */
+	public void destroy() {
+		StorageRegistry.MockeyStorage.flush();
+		super.destroy();
+	}
 }
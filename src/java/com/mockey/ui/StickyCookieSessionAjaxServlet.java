@@ -35,15 +35,27 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.cookie.Cookie;
 import org.apache.log4j.Logger;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.mockey.ClientExecuteProxy;
+import com.mockey.CookieJarRegistry;
 
 /**
- * Returns a JSON to validate that sticky cookie session has been reset/flushed.
+ * Manages the sticky cookie sessions kept for proxied requests, one per
+ * client. Parameters:
  * 
+ * <pre>
+ * action=list                  the clients and their cookies
+ * action=reset&amp;client=X      flushes the session of client X
+ * action=reset, or no action   flushes every client's session
+ * </pre>
+ * 
+ * Returns JSON to validate that the session(s) have been reset/flushed.
+ * 
+ * @see CookieJarRegistry
  */
 public class StickyCookieSessionAjaxServlet extends HttpServlet {
 
@@ -59,12 +71,36 @@ public class StickyCookieSessionAjaxServlet extends HttpServlet {
     public void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
         JSONObject jsonObject = new JSONObject();
+        CookieJarRegistry registry = CookieJarRegistry.getInstance();
         try {
-        	ClientExecuteProxy.resetStickySession();
-            
-            jsonObject.put("reset",true);
-           
-
+            String action = req.getParameter("action");
+            String client = req.getParameter("client");
+            if ("list".equalsIgnoreCase(action)) {
+                JSONArray jars = new JSONArray();
+                for (CookieJarRegistry.CookieJar jar : registry.getCookieJars()) {
+                    JSONObject jarObject = new JSONObject();
+                    jarObject.put("client", jar.getClientKey());
+                    jarObject.put("last_used", jar.getLastUsed());
+                    JSONArray cookies = new JSONArray();
+                    for (Cookie cookie : jar.getCookies()) {
+                        JSONObject cookieObject = new JSONObject();
+                        cookieObject.put("name", cookie.getName());
+                        cookieObject.put("value", cookie.getValue());
+                        cookieObject.put("domain", cookie.getDomain());
+                        cookieObject.put("path", cookie.getPath());
+                        cookies.put(cookieObject);
+                    }
+                    jarObject.put("cookies", cookies);
+                    jars.put(jarObject);
+                }
+                jsonObject.put("cookie_jars", jars);
+            } else if (client != null) {
+                jsonObject.put("reset", registry.reset(client));
+                jsonObject.put("client", client);
+            } else {
+                registry.resetAll();
+                jsonObject.put("reset", true);
+            }
 
         } catch (Exception e) {
         	 try {
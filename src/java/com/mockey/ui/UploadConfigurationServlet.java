@@ -28,6 +28,7 @@
 package com.mockey.ui;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
 import java.util.List;
 
@@ -100,9 +101,15 @@ public class UploadConfigurationServlet extends HttpServlet {
 
                 if (!item.isFormField()) {
 
-                    byte[] data = item.get();
                     MockeyXmlFileManager configurationReader = new MockeyXmlFileManager();
-                    ServiceMergeResults results = configurationReader.loadConfigurationWithXmlDef(new String(data));
+                    InputStream data = item.getInputStream();
+                    ServiceMergeResults results;
+                    try {
+                        // The parser reads the encoding from the XML declaration.
+                        results = configurationReader.loadConfiguration(data);
+                    } finally {
+                        data.close();
+                    }
 
                     Util.saveSuccessMessage("Service definitions uploaded.", req);
                     req.setAttribute("conflicts", results.getConflictMsgs());
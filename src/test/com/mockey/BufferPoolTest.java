@@ -0,0 +1,67 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class BufferPoolTest {
+
+	@Test
+	public void reusesReleasedBuffersBySize() {
+		BufferPool pool = new BufferPool(1024 * 1024);
+		byte[] small = pool.acquire(100);
+		Assert.assertEquals(small.length, BufferPool.MIN_SIZE);
+		byte[] medium = pool.acquire(BufferPool.MIN_SIZE + 1);
+		Assert.assertEquals(medium.length, 2 * BufferPool.MIN_SIZE);
+
+		pool.release(small);
+		pool.release(medium);
+		Assert.assertEquals(pool.getFreeBytes(), 3L * BufferPool.MIN_SIZE);
+		Assert.assertSame(pool.acquire(2 * BufferPool.MIN_SIZE), medium);
+		Assert.assertSame(pool.acquire(1), small);
+		Assert.assertEquals(pool.getFreeBytes(), 0L);
+	}
+
+	@Test
+	public void keepsNoMoreThanItsCap() {
+		BufferPool pool = new BufferPool(BufferPool.MIN_SIZE);
+		pool.release(pool.acquire(1));
+		pool.release(pool.acquire(1));
+		Assert.assertEquals(pool.getFreeBytes(), (long) BufferPool.MIN_SIZE);
+
+		// Oversized and odd-sized arrays aren't pooled.
+		byte[] huge = pool.acquire(BufferPool.MAX_SIZE + 1);
+		Assert.assertEquals(huge.length, BufferPool.MAX_SIZE + 1);
+		pool.release(huge);
+		pool.release(new byte[BufferPool.MIN_SIZE + 3]);
+		pool.release(null);
+		Assert.assertEquals(pool.getFreeBytes(), (long) BufferPool.MIN_SIZE);
+	}
+}
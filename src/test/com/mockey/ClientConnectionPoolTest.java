@@ -0,0 +1,88 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.ProxyServerModel;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+@Test
+public class ClientConnectionPoolTest {
+
+	@Test
+	public void changingProxySettingsLetsLeasedConnectionsFinish() throws Exception {
+		HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+		upstream.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = "upstream".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+				exchange.close();
+			}
+		});
+		upstream.start();
+		ProxyServerModel direct = new ProxyServerModel();
+		try {
+			ClientConnectionPool pool = ClientConnectionPool.getInstance(direct);
+			// Unchanged settings, or the same settings in another instance,
+			// keep the pool.
+			Assert.assertSame(ClientConnectionPool.getInstance(direct), pool);
+			Assert.assertSame(ClientConnectionPool.getInstance(new ProxyServerModel()), pool);
+
+			HttpResponse response = pool.getHttpClient(false).execute(
+					new HttpGet("http://127.0.0.1:" + upstream.getAddress().getPort() + "/"));
+			Assert.assertEquals(pool.getLeased(), 1);
+
+			// An admin saves new proxy settings while the response is read.
+			direct.setProxyUrl("http://127.0.0.1:1");
+			direct.setProxyEnabled(true);
+			ClientConnectionPool rebuilt = ClientConnectionPool.getInstance(direct);
+			Assert.assertNotSame(rebuilt, pool);
+			Assert.assertTrue(pool.isRetired());
+			Assert.assertFalse(rebuilt.isRetired());
+
+			Assert.assertEquals(EntityUtils.toString(response.getEntity()), "upstream");
+			Assert.assertEquals(pool.getLeased(), 0);
+		} finally {
+			// Leave a direct pool for the other tests.
+			direct.setProxyEnabled(false);
+			ClientConnectionPool.getInstance(direct);
+			upstream.stop(0);
+		}
+	}
+}
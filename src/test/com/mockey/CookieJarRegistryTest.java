@@ -0,0 +1,167 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.http.client.CookieStore;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.RequestFromClient;
+
+@Test
+public class CookieJarRegistryTest {
+
+	@Test
+	public void clientsHaveSeparateJars() {
+		CookieJarRegistry registry = new CookieJarRegistry(null, 10, 60000);
+		CookieStore first = registry.getCookieStore(request("10.0.0.1", null, "first"));
+		CookieStore second = registry.getCookieStore(request("10.0.0.2", null, "second"));
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(first.getCookies().get(0).getValue(), "first");
+		Assert.assertEquals(second.getCookies().get(0).getValue(), "second");
+
+		// Later requests keep the jar, and its cookies.
+		Assert.assertSame(registry.getCookieStore(request("10.0.0.1", null, "other")), first);
+		Assert.assertEquals(first.getCookies().get(0).getValue(), "first");
+
+		Assert.assertEquals(registry.getCookieJars().size(), 2);
+		Assert.assertEquals(registry.getCookieJars().get(0).getClientKey(), "10.0.0.1");
+		Assert.assertTrue(registry.reset("10.0.0.1"));
+		Assert.assertFalse(registry.reset("10.0.0.1"));
+		Assert.assertNotSame(registry.getCookieStore(request("10.0.0.1", null, "other")), first);
+
+		registry.resetAll();
+		Assert.assertTrue(registry.getCookieJars().isEmpty());
+	}
+
+	@Test
+	public void clientHeaderNamesTheClient() {
+		CookieJarRegistry registry = new CookieJarRegistry("X-Test-Agent", 10, 60000);
+		CookieStore agentA = registry.getCookieStore(request("10.0.0.1", "a", "first"));
+		Assert.assertNotSame(registry.getCookieStore(request("10.0.0.1", "b", "first")), agentA);
+		Assert.assertSame(registry.getCookieStore(request("10.0.0.2", "a", "first")), agentA);
+		Assert.assertEquals(registry.getClientKey(request("10.0.0.3", null, "first")), "10.0.0.3");
+	}
+
+	@Test
+	public void jarsAreBoundedBySizeAndAge() throws Exception {
+		CookieJarRegistry registry = new CookieJarRegistry(null, 2, 60000);
+		registry.getCookieStore(request("10.0.0.1", null, "x"));
+		Thread.sleep(2);
+		registry.getCookieStore(request("10.0.0.2", null, "x"));
+		Thread.sleep(2);
+		registry.getCookieStore(request("10.0.0.3", null, "x"));
+		Assert.assertEquals(registry.getCookieJars().size(), 2);
+		Assert.assertEquals(registry.getCookieJars().get(0).getClientKey(), "10.0.0.2");
+
+		registry = new CookieJarRegistry(null, 10, 20);
+		CookieStore expiring = registry.getCookieStore(request("10.0.0.1", null, "x"));
+		Thread.sleep(50);
+		Assert.assertTrue(registry.getCookieJars().isEmpty());
+		Assert.assertNotSame(registry.getCookieStore(request("10.0.0.1", null, "x")), expiring);
+	}
+
+	@Test
+	public void concurrentRequestsShareOneRegisteredJar() throws Exception {
+		final CookieJarRegistry registry = new CookieJarRegistry(null, 10, 60000);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<CookieStore>> results = new ArrayList<Future<CookieStore>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(pool.submit(new Callable<CookieStore>() {
+					public CookieStore call() throws Exception {
+						start.await();
+						return registry.getCookieStore(request("10.0.0.1", null, "x"));
+					}
+				}));
+			}
+			start.countDown();
+			CookieStore registered = registry.getCookieStore(request("10.0.0.1", null, "x"));
+			for (Future<CookieStore> result : results) {
+				Assert.assertSame(result.get(), registered);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static RequestFromClient request(final String ip, final String agent, final String session) {
+		final ServletInputStream emptyBody = new ServletInputStream() {
+			public int read() throws IOException {
+				return -1;
+			}
+		};
+		HttpServletRequest raw = (HttpServletRequest) Proxy.newProxyInstance(CookieJarRegistryTest.class
+				.getClassLoader(), new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				String name = m.getName();
+				if ("getMethod".equals(name)) {
+					return "GET";
+				} else if ("getRemoteAddr".equals(name)) {
+					return ip;
+				} else if ("getServerName".equals(name)) {
+					return "localhost";
+				} else if ("getContextPath".equals(name)) {
+					return "";
+				} else if ("getInputStream".equals(name)) {
+					return emptyBody;
+				} else if ("getHeaderNames".equals(name)) {
+					return Collections.enumeration((agent != null) ? Collections.singletonList("X-Test-Agent")
+							: Collections.<String> emptyList());
+				} else if ("getHeaders".equals(name)) {
+					return Collections.enumeration(Collections.singletonList(agent));
+				} else if ("getParameterMap".equals(name)) {
+					return new HashMap<String, String[]>();
+				} else if ("getCookies".equals(name)) {
+					return new Cookie[] { new Cookie("session", session) };
+				}
+				return null;
+			}
+		});
+		return new RequestFromClient(raw);
+	}
+}
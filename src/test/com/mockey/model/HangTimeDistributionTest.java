@@ -0,0 +1,97 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class HangTimeDistributionTest {
+
+	@Test
+	public void emptyDefinitionMeansFixedHangTime() {
+		Assert.assertNull(HangTimeDistribution.parse(null));
+		Assert.assertNull(HangTimeDistribution.parse("  "));
+
+		Service service = new Service();
+		service.setHangTime(250);
+		service.setHangTimeDistribution("");
+		Assert.assertEquals(service.nextHangTime(), 250);
+		Assert.assertNull(service.getHangTimeDistribution());
+	}
+
+	@Test
+	public void samplesStayWithinUniformRange() {
+		HangTimeDistribution distribution = HangTimeDistribution.parse("uniform:200-800");
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			int value = distribution.nextHangTime(random);
+			Assert.assertTrue(value >= 200 && value <= 800, "Out of range: " + value);
+		}
+	}
+
+	@Test
+	public void normalSamplesAreNeverNegative() {
+		HangTimeDistribution distribution = HangTimeDistribution.parse("normal:10,100");
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertTrue(distribution.nextHangTime(random) >= 0);
+		}
+	}
+
+	@Test
+	public void percentilesInterpolateBetweenPoints() {
+		HangTimeDistribution distribution = HangTimeDistribution.parse("percentile:99=2000,50=100,90=400");
+		Random random = new Random(42);
+		int atOrBelowMedian = 0;
+		for (int i = 0; i < 10000; i++) {
+			int value = distribution.nextHangTime(random);
+			Assert.assertTrue(value >= 100 && value <= 2000, "Out of range: " + value);
+			if (value <= 100) {
+				atOrBelowMedian++;
+			}
+		}
+		Assert.assertTrue(atOrBelowMedian > 4500 && atOrBelowMedian < 5500, "Median off: " + atOrBelowMedian);
+	}
+
+	@Test
+	public void rejectsMalformedDefinitions() {
+		String[] bad = { "abc", "-5", "uniform:800-200", "uniform:200", "normal:500", "percentile:50=300,90=100",
+				"percentile:150=1", "exponential:5" };
+		for (String definition : bad) {
+			try {
+				HangTimeDistribution.parse(definition);
+				Assert.fail("Expected '" + definition + "' to be rejected");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.util.EntityUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class RequestFromClientTest {
+
+	@Test
+	public void bodyIsKeptAsReceived() throws Exception {
+		Assert.assertEquals(request("a\r\nb").getBodyInfo(), "a\r\nb");
+		Assert.assertEquals(request("").getBodyInfo(), "");
+		Assert.assertTrue(request("  x ").hasPostBody());
+		Assert.assertFalse(request(" \r\n\t").hasPostBody());
+
+		// Bigger than the first pooled buffer.
+		char[] big = new char[100000];
+		Arrays.fill(big, 'x');
+		Assert.assertEquals(request(new String(big)).getBodyInfo(), new String(big));
+	}
+
+	@Test
+	public void binaryBodyIsProxiedUnchanged() throws Exception {
+		byte[] gzip = { 0x1f, (byte) 0x8b, 0x08, 0x00, (byte) 0xff, (byte) 0xfe, '\r', '\n', 0x00 };
+		RequestFromClient request = request("POST", gzip, "application/octet-stream");
+		Assert.assertEquals(request.getBodyBytes(), gzip);
+
+		HttpEntityEnclosingRequest upstream = (HttpEntityEnclosingRequest) request.postToRealServer(new Url(
+				"http://example.com/x"));
+		Assert.assertEquals(EntityUtils.toByteArray(upstream.getEntity()), gzip);
+	}
+
+	@Test
+	public void bodyIsDecodedWithItsCharset() throws Exception {
+		String text = "caf\u00e9";
+		Assert.assertEquals(request("POST", text.getBytes("ISO-8859-1"), "text/plain; charset=\"ISO-8859-1\"")
+				.getBodyInfo(), text);
+		Assert.assertEquals(request("POST", text.getBytes("UTF-8"), "text/plain;charset=UTF-8;format=flowed")
+				.getBodyInfo(), text);
+		// Unknown charsets fall back to the platform's.
+		Assert.assertEquals(request("POST", "abc".getBytes("UTF-8"), "text/plain; charset=no-such-charset")
+				.getBodyInfo(), "abc");
+	}
+
+	@Test
+	public void headersSkipIgnoredAndCachingOnes() throws Exception {
+		RequestFromClient request = request("");
+		Assert.assertEquals(request.getHeaderValues("accept"), Arrays.asList("text/html", "application/json"));
+		Assert.assertEquals(request.getHeaderValues("If-Modified-Since"), Collections
+				.singletonList("Fri, 13 May 2006 23:54:18 GMT"));
+		Assert.assertNull(request.getHeaderValues("If-None-Match"));
+		Assert.assertNull(request.getHeaderValues("Host"));
+		Assert.assertTrue(request.getHeaderInfo().startsWith("Accept\n    text/html\n    application/json\n"));
+
+		HttpRequest upstream = request.postToRealServer(new Url("http://example.com/x"));
+		Assert.assertEquals(upstream.getHeaders("Accept").length, 2);
+		Assert.assertEquals(upstream.getHeaders("Host").length, 0);
+	}
+
+	@Test
+	public void cookiesAreConvertedWhenAskedFor() throws Exception {
+		RequestFromClient request = request("");
+		List<org.apache.http.cookie.Cookie> cookies = request.getHttpClientCookies();
+		Assert.assertEquals(cookies.size(), 1);
+		Assert.assertEquals(cookies.get(0).getName(), "session");
+		Assert.assertEquals(cookies.get(0).getDomain(), "localhost");
+		Assert.assertNotNull(cookies.get(0).getExpiryDate());
+		Assert.assertSame(request.getHttpClientCookies(), cookies);
+	}
+
+	private static RequestFromClient request(String body) throws IOException {
+		return request("GET", body.getBytes("UTF-8"), null);
+	}
+
+	private static RequestFromClient request(final String method, final byte[] bytes, String contentType)
+			throws IOException {
+		final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+		headers.put("Accept", Arrays.asList("text/html", "application/json"));
+		if (contentType != null) {
+			headers.put("Content-Type", Collections.singletonList(contentType));
+		}
+		headers.put("Host", Collections.singletonList("localhost"));
+		headers.put("If-None-Match", Collections.singletonList("\"abc\""));
+		headers.put("If-Modified-Since", Collections.singletonList("Sat, 1 Jan 2011 00:00:00 GMT"));
+		HttpServletRequest raw = (HttpServletRequest) Proxy.newProxyInstance(RequestFromClientTest.class
+				.getClassLoader(), new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				String name = m.getName();
+				if ("getMethod".equals(name)) {
+					return method;
+				} else if ("getServerName".equals(name)) {
+					return "localhost";
+				} else if ("getContextPath".equals(name)) {
+					return "";
+				} else if ("getInputStream".equals(name)) {
+					final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+					return new ServletInputStream() {
+						public int read() throws IOException {
+							return in.read();
+						}
+
+						public int read(byte[] b, int off, int len) {
+							return in.read(b, off, len);
+						}
+					};
+				} else if ("getHeaderNames".equals(name)) {
+					return Collections.enumeration(headers.keySet());
+				} else if ("getHeaders".equals(name)) {
+					return Collections.enumeration(headers.get(args[0]));
+				} else if ("getParameterMap".equals(name)) {
+					return Collections.emptyMap();
+				} else if ("getCookies".equals(name)) {
+					Cookie cookie = new Cookie("session", "abc");
+					cookie.setMaxAge(60);
+					return new Cookie[] { cookie };
+				}
+				return null;
+			}
+		});
+		return new RequestFromClient(raw);
+	}
+}
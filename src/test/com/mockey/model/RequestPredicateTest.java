@@ -0,0 +1,203 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class RequestPredicateTest {
+
+	private static final String JSON_BODY = "{\"order\": {\"id\": 42, \"items\": [{\"sku\": \"ABC-1\"}, {\"sku\": \"XYZ-9\"}]}}";
+	private static final String SOAP_BODY = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+			+ "<soap:Body><m:GetQuote xmlns:m=\"urn:quotes\"><symbol>IBM</symbol></m:GetQuote></soap:Body>"
+			+ "</soap:Envelope>";
+
+	@Test
+	public void matchesRequestLineParametersHeadersAndCookies() {
+		RequestMatchContext context = new RequestMatchContext(request("POST", "/service/http://example.com/orders/42",
+				JSON_BODY));
+
+		assertMatches(context, "method: post", true);
+		assertMatches(context, "method: GET", false);
+		assertMatches(context, "path: /orders/{id}", true);
+		assertMatches(context, "path: /orders/*/", true);
+		assertMatches(context, "path: /orders", false);
+		assertMatches(context, "query: type=book", true);
+		assertMatches(context, "query: type=b*k", true);
+		assertMatches(context, "query: type=cd", false);
+		assertMatches(context, "query: missing", false);
+		assertMatches(context, "header: content-type=application/json*", true);
+		assertMatches(context, "header: Content-Type=text/xml", false);
+		assertMatches(context, "header: X-Missing", false);
+		assertMatches(context, "cookie: session", true);
+		assertMatches(context, "cookie: session=abc", true);
+		assertMatches(context, "cookie: session=xyz", false);
+	}
+
+	@Test
+	public void matchesJsonPaths() {
+		RequestMatchContext context = new RequestMatchContext(request("POST", "/", JSON_BODY));
+
+		assertMatches(context, "json: $.order.id=42", true);
+		assertMatches(context, "json: $.order.id=43", false);
+		assertMatches(context, "json: $['order'].items[1].sku=XYZ-9", true);
+		assertMatches(context, "json: $.order.items[*].sku=ABC*", true);
+		assertMatches(context, "json: $.order.items[2]", false);
+		assertMatches(context, "json: $.*.id", true);
+		assertMatches(context, "xpath: //symbol", false);
+		Assert.assertSame(context.getJson(), context.getJson());
+	}
+
+	@Test
+	public void matchesXPathOnSoapBodies() {
+		RequestMatchContext context = new RequestMatchContext(request("POST", "/", SOAP_BODY));
+
+		assertMatches(context, "xpath: //symbol = 'IBM'", true);
+		assertMatches(context, "xpath: //*[local-name()='GetQuote']/symbol = 'MSFT'", false);
+		assertMatches(context, "xpath: //*[local-name()='GetQuote']/symbol = 'IBM'", true);
+		assertMatches(context, "json: $.symbol", false);
+	}
+
+	@Test
+	public void ordersPredicatesCheapestFirst() {
+		List<RequestPredicate> predicates = RequestPredicate.parseAll("xpath: //a\n# comment\n\njson: $.a\r\n"
+				+ "header: Accept\ncookie: c\nquery: q\npath: /a\nmethod: GET");
+		List<String> types = new ArrayList<String>();
+		for (RequestPredicate predicate : predicates) {
+			types.add(predicate.toString().substring(0, predicate.toString().indexOf(':')));
+		}
+		Assert.assertEquals(types.toString(), "[path, method, query, header, cookie, json, xpath]");
+		Assert.assertFalse(predicates.get(4).needsBody());
+		Assert.assertTrue(predicates.get(5).needsBody());
+	}
+
+	@Test
+	public void rejectsMalformedPredicates() {
+		String[] bad = { "method", "method:", "body: x", "json: order.id", "json: $.a[x]", "json: $..a",
+				"xpath: //[" };
+		for (String definition : bad) {
+			try {
+				RequestPredicate.parse(definition);
+				Assert.fail("Expected failure for: " + definition);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void dynamicScenariosCombinePredicatesAndMatchArguments() {
+		Service service = new Service();
+		Scenario byJson = scenario("a json", null, "json: $.order.id=42");
+		Scenario byText = scenario("b text", "ABC-1", "method: POST");
+		Scenario byGet = scenario("c get", "ABC-1", "method: GET");
+		Scenario invalid = scenario("0 invalid", null, "bogus: predicate");
+		service.saveOrUpdateScenario(byJson);
+		service.saveOrUpdateScenario(byText);
+		service.saveOrUpdateScenario(byGet);
+		service.saveOrUpdateScenario(invalid);
+
+		Assert.assertSame(service.getScenarioMatcher().find(request("POST", "/", JSON_BODY)), byJson);
+		Assert.assertSame(service.getScenarioMatcher().find(request("POST", "/", JSON_BODY.replace("42", "7"))),
+				byText);
+		Assert.assertSame(service.getScenarioMatcher().find(request("GET", "/", JSON_BODY.replace("42", "7"))),
+				byGet);
+		Assert.assertNull(service.getScenarioMatcher().find(request("PUT", "/", JSON_BODY.replace("42", "7"))));
+
+		byJson.setMatchPredicates("json: $.order.id=7");
+		Assert.assertSame(service.getScenarioMatcher().find(request("GET", "/", JSON_BODY.replace("42", "7"))),
+				byJson);
+	}
+
+	private static void assertMatches(RequestMatchContext context, String definition, boolean expected) {
+		Assert.assertEquals(RequestPredicate.parse(definition).matches(context), expected, definition);
+	}
+
+	private static Scenario scenario(String name, String match, String predicates) {
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName(name);
+		scenario.setMatchStringArg(match);
+		scenario.setMatchPredicates(predicates);
+		return scenario;
+	}
+
+	private static RequestFromClient request(final String method, String uri, final String body) {
+		final Map<String, String[]> parameters = new HashMap<String, String[]>();
+		parameters.put("type", new String[] { "book" });
+		final Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Content-Type", "application/json; charset=UTF-8");
+		HttpServletRequest raw = (HttpServletRequest) Proxy.newProxyInstance(RequestPredicateTest.class
+				.getClassLoader(), new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				String name = m.getName();
+				if ("getMethod".equals(name)) {
+					return method;
+				} else if ("getServerName".equals(name)) {
+					return "localhost";
+				} else if ("getContextPath".equals(name)) {
+					return "";
+				} else if ("getInputStream".equals(name)) {
+					final ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes("UTF-8"));
+					return new ServletInputStream() {
+						public int read() throws IOException {
+							return in.read();
+						}
+					};
+				} else if ("getHeaderNames".equals(name)) {
+					return Collections.enumeration(headers.keySet());
+				} else if ("getHeaders".equals(name)) {
+					return Collections.enumeration(Collections.singletonList(headers.get(args[0])));
+				} else if ("getParameterMap".equals(name)) {
+					return parameters;
+				} else if ("getCookies".equals(name)) {
+					return new Cookie[] { new Cookie("session", "abc") };
+				}
+				return null;
+			}
+		});
+		RequestFromClient request = new RequestFromClient(raw);
+		request.setRequestUrl(new Url(uri));
+		return request;
+	}
+}
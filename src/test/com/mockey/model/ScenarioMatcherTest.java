@@ -0,0 +1,121 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class ScenarioMatcherTest {
+
+	@Test
+	public void firstScenarioInOrderWins() {
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		scenarios.add(scenario("a", "  "));
+		scenarios.add(scenario("b", "world"));
+		scenarios.add(scenario("c", "hello"));
+		scenarios.add(scenario("d", null));
+		ScenarioMatcher matcher = new ScenarioMatcher(0, scenarios);
+
+		Assert.assertSame(matcher.findInText("hello world"), scenarios.get(1));
+		Assert.assertSame(matcher.findInText("say hello"), scenarios.get(2));
+		Assert.assertNull(matcher.findInText("nothing here  "));
+		// Segments are scanned as one text.
+		Assert.assertSame(matcher.findInText("wor", null, "ld"), scenarios.get(1));
+	}
+
+	@Test
+	public void dynamicServiceMatchesAlphabetically() {
+		Service service = new Service();
+		Scenario zebra = service.saveOrUpdateScenario(scenario("Zebra", "id=1"));
+		Scenario apple = service.saveOrUpdateScenario(scenario("apple", "1"));
+		Assert.assertSame(service.getScenarioMatcher().findInText("id=1"), apple);
+
+		ScenarioMatcher matcher = service.getScenarioMatcher();
+		Assert.assertSame(service.getScenarioMatcher(), matcher);
+		apple.setMatchStringArg("2");
+		Assert.assertSame(service.getScenarioMatcher().findInText("id=1"), zebra);
+		service.deleteScenario(zebra.getId());
+		Assert.assertNull(service.getScenarioMatcher().findInText("id=1"));
+	}
+
+	@Test
+	public void matchesLikeIndexOf() {
+		Random random = new Random(42);
+		// Small alphabet, for overlapping match strings.
+		assertMatchesLikeIndexOf(random, 50, 1, 6, "abc\u00e9");
+		// Large automaton, beyond the dense transition table.
+		assertMatchesLikeIndexOf(random, 300, 60, 120, "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789\u4e2d\u6587");
+	}
+
+	private static void assertMatchesLikeIndexOf(Random random, int count, int minLength, int maxLength,
+			String alphabet) {
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		for (int i = 0; i < count; i++) {
+			scenarios.add(scenario("s" + i, randomText(random, alphabet, minLength
+					+ random.nextInt(maxLength - minLength + 1))));
+		}
+		ScenarioMatcher matcher = new ScenarioMatcher(0, scenarios);
+		for (int i = 0; i < 200; i++) {
+			String text = randomText(random, alphabet + "xyz ", random.nextInt(200));
+			if (random.nextBoolean()) {
+				String match = scenarios.get(random.nextInt(count)).getMatchStringArg();
+				int at = random.nextInt(text.length() + 1);
+				text = text.substring(0, at) + match + text.substring(at);
+			}
+			Scenario expected = null;
+			for (Scenario scenario : scenarios) {
+				if (scenario.hasMatchArgument() && text.indexOf(scenario.getMatchStringArg()) > -1) {
+					expected = scenario;
+					break;
+				}
+			}
+			int split = random.nextInt(text.length() + 1);
+			Assert.assertSame(matcher.findInText(text.substring(0, split), text.substring(split)), expected, text);
+		}
+	}
+
+	private static String randomText(Random random, String alphabet, int length) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return text.toString();
+	}
+
+	private static Scenario scenario(String name, String match) {
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName(name);
+		scenario.setMatchStringArg(match);
+		return scenario;
+	}
+}
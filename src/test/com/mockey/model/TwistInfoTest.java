@@ -0,0 +1,105 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.storage.InMemoryMockeyStorage;
+import com.mockey.ui.PatternPair;
+
+@Test
+public class TwistInfoTest {
+
+	@Test
+	public void dotsInOriginationAreLiteral() {
+		TwistInfo twistInfo = new TwistInfo();
+		twistInfo.addPatternPair(new PatternPair("uat.google.com", "qa.google.com"));
+		Assert.assertEquals(twistInfo.getTwistedValue("http://uat.google.com/x"), "http://qa.google.com/x");
+		Assert.assertNull(twistInfo.getTwistedValue("http://uatXgoogle.com/x"));
+		Assert.assertNull(twistInfo.getTwistedValue("http://prod.google.com/x"));
+		Assert.assertNull(twistInfo.getTwistedValue((String) null));
+	}
+
+	@Test
+	public void firstMatchingPairWinsEvenWithAHostMatch() {
+		TwistInfo twistInfo = new TwistInfo();
+		PatternPair path = new PatternPair("/catalog", "/catalog-v2");
+		PatternPair host = new PatternPair("uat.example.com", "qa.example.com");
+		PatternPair port = new PatternPair("dev.example.com:8080", "qa.example.com");
+		twistInfo.addPatternPair(new PatternPair("", "ignored"));
+		twistInfo.addPatternPair(path);
+		twistInfo.addPatternPair(host);
+		twistInfo.addPatternPair(port);
+
+		Assert.assertEquals(twistInfo.getTwistedValue(new Url("http://uat.example.com/catalog/list")),
+				"http://uat.example.com/catalog-v2/list");
+		Assert.assertEquals(twistInfo.getTwistedValue(new Url("http://uat.example.com/cart")),
+				"http://qa.example.com/cart");
+		Assert.assertEquals(twistInfo.getTwistedValue(new Url("http://dev.example.com:8080/cart")),
+				"http://qa.example.com/cart");
+		Assert.assertNull(twistInfo.getTwistedValue(new Url("http://prod.example.com/cart")));
+
+		Assert.assertEquals(path.getHits(), 1);
+		Assert.assertEquals(host.getHits(), 1);
+		Assert.assertEquals(port.getHits(), 1);
+	}
+
+	@Test
+	public void regularExpressionOriginationsArePatterns() {
+		TwistInfo twistInfo = new TwistInfo();
+		twistInfo.addPatternPair(new PatternPair("uat[0-9]\\.(\\w+)\\.com", "qa.$1.com"));
+		twistInfo.addPatternPair(new PatternPair("price$", "cost$2"));
+		Assert.assertEquals(twistInfo.getTwistedValue(new Url("http://uat3.shop.com/a")), "http://qa.shop.com/a");
+		// The destination has a group the pattern doesn't, so it's literal.
+		Assert.assertEquals(twistInfo.getTwistedValue("http://x.com/price"), "http://x.com/cost$2");
+		// Not a valid pattern, so matched literally.
+		twistInfo.addPatternPair(new PatternPair("a(b", "c"));
+		Assert.assertEquals(twistInfo.getTwistedValue("http://a(b.com"), "http://c.com");
+	}
+
+	@Test
+	public void storeKeepsTheUniversalTwistCurrent() {
+		InMemoryMockeyStorage store = new InMemoryMockeyStorage();
+		TwistInfo twistInfo = new TwistInfo();
+		twistInfo.addPatternPair(new PatternPair("uat.example.com", "qa.example.com"));
+		twistInfo = store.saveOrUpdateTwistInfo(twistInfo);
+		Assert.assertNull(store.getUniversalTwistInfo());
+
+		store.setUniversalTwistInfoId(twistInfo.getId());
+		Assert.assertSame(store.getUniversalTwistInfo(), twistInfo);
+
+		TwistInfo replacement = new TwistInfo();
+		replacement.setId(twistInfo.getId());
+		replacement = store.saveOrUpdateTwistInfo(replacement);
+		Assert.assertSame(store.getUniversalTwistInfo(), replacement);
+
+		store.deleteTwistInfo(replacement);
+		Assert.assertNull(store.getUniversalTwistInfo());
+	}
+}
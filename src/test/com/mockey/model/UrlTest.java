@@ -0,0 +1,200 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.model;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class UrlTest {
+
+	private static final String[] PREFIXES = { "", "/service/", "/Mockey/service/", "garbage", "xx/service/",
+			"/service//service/", " ", "ab" };
+	private static final String[] SCHEMES = { "", "http://", "https://", "HTTP://", "HtTpS://", "ftp://", "http:/",
+			"https:", "http//", "httpx://", "\u017fhttp://", "hTTP", "http://http://" };
+	private static final String[] HOSTS = { "", "example.com", "WWW.Example.COM", "localhost:8080", "host:443",
+			"host:80", "host:", ":8080", "a:b:c", "host:+81", "host:-1", "host:0081", "host:99999999999",
+			"host:2147483647", "host:\u0663\u0663", "127.0.0.1:9", " host ", "I" };
+	private static final String[] PATHS = { "", "/", "/a/b?x=1&y=2", "/service/http://inner.com/x", "/trailing  ",
+			"/a\nb", "/ ", "/http", "//double", "/\u00e9t\u00e9", "?q=1", "#frag", "/a:b", "/\r\n", "/\u0085",
+			"/\u2028" };
+
+	@Test
+	public void parsesParts() {
+		Url url = new Url("/service/https://WWW.Example.com:8443/a/b?x=1 ");
+		Assert.assertEquals(url.getScheme(), "https");
+		Assert.assertEquals(url.getHost(), "www.example.com");
+		Assert.assertEquals(url.getPort(), 8443);
+		Assert.assertEquals(url.getPath(), "/a/b?x=1");
+		Assert.assertEquals(url.getFullUrl(), "https://www.example.com:8443/a/b?x=1");
+
+		url = new Url("example.com");
+		Assert.assertEquals(url.getScheme(), "http");
+		Assert.assertEquals(url.getPort(), 80);
+		Assert.assertEquals(url.getPath(), "/");
+		Assert.assertEquals(url.getFullUrl(), "http://example.com");
+	}
+
+	@Test
+	public void equalUrlsHaveEqualFullUrls() {
+		Url a = new Url("HTTP://Example.com:80/x");
+		Url b = new Url("http://example.com/x");
+		Assert.assertEquals(a, b);
+		Assert.assertEquals(a.hashCode(), b.hashCode());
+		Assert.assertFalse(a.equals(new Url("http://example.com/X")));
+		Assert.assertEquals(new Url(), new Url());
+	}
+
+	@Test
+	public void matchesPreviousParserOnCombinations() {
+		for (String prefix : PREFIXES) {
+			for (String scheme : SCHEMES) {
+				for (String host : HOSTS) {
+					for (String path : PATHS) {
+						assertSameAsLegacy(prefix + scheme + host + path);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matchesPreviousParserOnRandomStrings() {
+		Random random = new Random(18);
+		String alphabet = "hHtTpPsS:/:/ .ae0189+-?\n\r\u00e9I";
+		char[] chars = new char[40];
+		for (int i = 0; i < 200000; i++) {
+			int length = random.nextInt(chars.length);
+			for (int j = 0; j < length; j++) {
+				chars[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+			}
+			String text = new String(chars, 0, length);
+			// Bias towards the interesting prefixes.
+			switch (random.nextInt(4)) {
+			case 0:
+				text = "http://" + text;
+				break;
+			case 1:
+				text = "/service/" + text;
+				break;
+			default:
+			}
+			assertSameAsLegacy(text);
+		}
+	}
+
+	private static void assertSameAsLegacy(String text) {
+		LegacyUrl expected = new LegacyUrl(text);
+		Url actual = new Url(text);
+		String message = "For '" + text + "'";
+		Assert.assertEquals(actual.getScheme(), expected.scheme, message);
+		Assert.assertEquals(actual.getHost(), expected.host, message);
+		Assert.assertEquals(actual.getPort(), expected.port, message);
+		Assert.assertEquals(actual.getPath(), expected.getPath(), message);
+		Assert.assertEquals(actual.getFullUrl(), expected.getFullUrl(), message);
+		Assert.assertEquals(actual.isDefaultPort(), expected.isDefaultPort(), message);
+	}
+
+	/**
+	 * The regular expression and substring based parser <code>Url</code> used
+	 * before, kept to check the new one against.
+	 */
+	private static class LegacyUrl {
+		private String scheme;
+		private int port = 80;
+		private String host;
+		private String path;
+
+		private LegacyUrl(String url) {
+			int beginIndex = url.indexOf(Url.MOCK_SERVICE_PATH);
+			if (beginIndex > -1) {
+				url = url.substring(Url.MOCK_SERVICE_PATH.length());
+			}
+			int indexStartOfHttp = url.indexOf("http");
+			if (indexStartOfHttp > -1) {
+				url = url.substring(indexStartOfHttp);
+			}
+			if (url.matches("(?i)^https?://.*")) {
+				this.scheme = url.substring(0, url.indexOf(":"));
+				url = url.substring(url.indexOf("://") + 3, url.length());
+			} else {
+				this.scheme = "http";
+			}
+			String hostAndPort;
+			if (url.indexOf("/") > 0) {
+				hostAndPort = url.substring(0, url.indexOf("/"));
+			} else {
+				hostAndPort = url;
+			}
+			if (hostAndPort.indexOf(":") > 0) {
+				this.host = hostAndPort.substring(0, hostAndPort.indexOf(":"));
+				String portArg = hostAndPort.substring(hostAndPort.indexOf(":") + 1, hostAndPort.length());
+				try {
+					this.port = Integer.valueOf(portArg);
+				} catch (Exception e) {
+					this.port = this.scheme.equalsIgnoreCase("https") ? 443 : 80;
+				}
+			} else {
+				this.host = hostAndPort;
+				this.port = this.scheme.equalsIgnoreCase("https") ? 443 : 80;
+			}
+			if (url.indexOf("/") > 0) {
+				this.path = url.substring(url.indexOf("/"), url.length());
+			} else {
+				this.path = "";
+			}
+			this.path = this.path.trim();
+			this.scheme = this.scheme.toLowerCase();
+			this.host = this.host.toLowerCase();
+		}
+
+		private String getPath() {
+			return path.length() > 0 ? path : "/";
+		}
+
+		private boolean isDefaultPort() {
+			return ("https".equals(scheme) && 443 == port) || ("http".equals(scheme) && 80 == port);
+		}
+
+		private String getFullUrl() {
+			StringBuilder builder = new StringBuilder();
+			if (scheme != null && host != null && host.trim().length() > 0) {
+				builder.append(scheme).append("://").append(host);
+				if (!isDefaultPort()) {
+					builder.append(":").append(port);
+				}
+			}
+			if (path != null) {
+				builder.append(path);
+			}
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of Mockey, a tool for testing application
+ * interactions over HTTP, with a focus on testing web services,
+ * specifically web applications that consume XML, JSON, and HTML.
+ *
+ * Copyright (C) 2009-2010  Authors:
+ *
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com)
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.mockey.ClientConnectionPool;
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+import com.mockey.storage.IMockeyStorage;
+import com.mockey.storage.StorageRegistry;
+
+/**
+ * Load test for <code>ResponseServlet</code>: concurrent requests to a static
+ * scenario with hang time should wait in parallel, not one after the other.
+ */
+@Test
+public class ResponseServletConcurrencyTest {
+
+	private static final int CONCURRENT_REQUESTS = 10;
+	private static final int HANG_TIME = 1000;
+	private static final String MOCK_URL = "http://localhost/concurrency/static";
+	private static final String PROXY_MOCK_URL = "http://localhost/concurrency/proxy";
+
+	@Test
+	public void servesConcurrentStaticRequestsInParallel() throws Exception {
+		IMockeyStorage store = StorageRegistry.MockeyStorage;
+		Service service = new Service();
+		service.setServiceName("Concurrency test");
+		service.setUrl(MOCK_URL);
+		service.setTransientState(true);
+		service.setHangTime(HANG_TIME);
+		service = store.saveOrUpdateService(service);
+
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName("static");
+		scenario.setResponseMessage("{\"hello\":\"world\"}");
+		scenario = service.saveOrUpdateScenario(scenario);
+		service.setDefaultScenarioId(scenario.getId());
+		service.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_STATIC_SCENARIO);
+
+		try {
+			final ResponseServlet servlet = new ResponseServlet();
+			ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT_REQUESTS);
+			List<Future<String>> results = new ArrayList<Future<String>>();
+
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+				results.add(pool.submit(new Callable<String>() {
+					public String call() throws Exception {
+						ByteArrayOutputStream body = new ByteArrayOutputStream();
+						servlet.service(stubRequest("/service/" + MOCK_URL), stubResponse(body));
+						return body.toString("UTF-8");
+					}
+				}));
+			}
+			for (Future<String> result : results) {
+				Assert.assertEquals(result.get(), "{\"hello\":\"world\"}");
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			pool.shutdown();
+
+			// Serialized, this would take CONCURRENT_REQUESTS * HANG_TIME.
+			Assert.assertTrue(elapsed < 3 * HANG_TIME, "Expected " + CONCURRENT_REQUESTS
+					+ " concurrent requests to finish in about " + HANG_TIME + "ms but took " + elapsed + "ms");
+		} finally {
+			store.deleteService(service);
+		}
+	}
+
+	@Test
+	public void proxiedRequestsHoldNoConnectionDuringHangTime() throws Exception {
+		final AtomicInteger upstreamRequests = new AtomicInteger();
+		HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+		upstream.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				upstreamRequests.incrementAndGet();
+				byte[] body = "proxied".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+				exchange.close();
+			}
+		});
+		ExecutorService upstreamThreads = Executors.newFixedThreadPool(8);
+		upstream.setExecutor(upstreamThreads);
+		upstream.start();
+
+		IMockeyStorage store = StorageRegistry.MockeyStorage;
+		Service service = new Service();
+		service.setServiceName("Proxy hang time test");
+		service.setUrl(PROXY_MOCK_URL);
+		service.saveOrUpdateRealServiceUrl(new Url("http://127.0.0.1:" + upstream.getAddress().getPort() + "/real"));
+		service.setTransientState(true);
+		service.setHangTime(HANG_TIME);
+		service.setServiceResponseType(Service.SERVICE_RESPONSE_TYPE_PROXY);
+		service = store.saveOrUpdateService(service);
+
+		ExecutorService pool = null;
+		try {
+			final ResponseServlet servlet = new ResponseServlet();
+			Callable<String> call = new Callable<String>() {
+				public String call() throws Exception {
+					ByteArrayOutputStream body = new ByteArrayOutputStream();
+					servlet.service(stubRequest("/service/" + PROXY_MOCK_URL), stubResponse(body));
+					return body.toString("UTF-8");
+				}
+			};
+			// Creates the connection pool.
+			Assert.assertEquals(call.call(), "proxied");
+			int clients = ClientConnectionPool.getCurrentInstance().getMaxPerRoute() + 10;
+
+			pool = Executors.newFixedThreadPool(clients);
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < clients; i++) {
+				results.add(pool.submit(call));
+			}
+			Thread.sleep(HANG_TIME / 2);
+			// Everyone is waiting out the hang time; nobody has gone upstream.
+			Assert.assertEquals(ClientConnectionPool.getCurrentInstance().getLeased(), 0);
+			Assert.assertEquals(upstreamRequests.get(), 1);
+			for (Future<String> result : results) {
+				Assert.assertEquals(result.get(), "proxied");
+			}
+			Assert.assertEquals(upstreamRequests.get(), clients + 1);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			store.deleteService(service);
+			upstream.stop(0);
+			upstreamThreads.shutdownNow();
+		}
+	}
+
+	private static HttpServletRequest stubRequest(final String uri) {
+		final ServletInputStream emptyBody = new ServletInputStream() {
+			public int read() throws IOException {
+				return -1;
+			}
+		};
+		return (HttpServletRequest) Proxy.newProxyInstance(ResponseServletConcurrencyTest.class.getClassLoader(),
+				new Class[] { HttpServletRequest.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getRequestURI".equals(name)) {
+							return uri;
+						} else if ("getContextPath".equals(name)) {
+							return "";
+						} else if ("getMethod".equals(name)) {
+							return "GET";
+						} else if ("getRemoteAddr".equals(name)) {
+							return "127.0.0.1";
+						} else if ("getServerName".equals(name)) {
+							return "localhost";
+						} else if ("getInputStream".equals(name)) {
+							return emptyBody;
+						} else if ("getHeaderNames".equals(name) || "getHeaders".equals(name)) {
+							return Collections.enumeration(Collections.emptyList());
+						} else if ("getParameterMap".equals(name)) {
+							return new HashMap<String, String[]>();
+						}
+						return null;
+					}
+				});
+	}
+
+	private static HttpServletResponse stubResponse(final ByteArrayOutputStream body) {
+		final ServletOutputStream out = new ServletOutputStream() {
+			public void write(int b) throws IOException {
+				body.write(b);
+			}
+		};
+		return (HttpServletResponse) Proxy.newProxyInstance(ResponseServletConcurrencyTest.class.getClassLoader(),
+				new Class[] { HttpServletResponse.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ("getOutputStream".equals(method.getName())) {
+							return out;
+						} else if (method.getReturnType() == Boolean.TYPE) {
+							return Boolean.FALSE;
+						}
+						return null;
+					}
+				});
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicStatusLine;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.ResponseFromService;
+
+@Test
+public class HistoryFeedTest {
+
+	@Test
+	public void sendsSubscribersTheRequestsTheyWant() throws Exception {
+		HistoryFeed feed = new HistoryFeed(10, 10);
+		HistoryFeed.Subscription all = feed.subscribe(null, null, null);
+		HistoryFeed.Subscription notFound = feed.subscribe(null, null, 404);
+		HistoryFeed.Subscription fromService = feed.subscribe(2L, "10.0.0.2", null);
+
+		feed.publish(request(1L, 1L, "10.0.0.1", 200));
+		feed.publish(request(2L, 2L, "10.0.0.2", 404));
+		feed.publish(request(3L, 2L, "10.0.0.1", 200));
+
+		Assert.assertEquals(all.poll(0).getId(), Long.valueOf(1));
+		Assert.assertEquals(all.poll(0).getId(), Long.valueOf(2));
+		Assert.assertEquals(all.poll(0).getId(), Long.valueOf(3));
+		Assert.assertNull(all.poll(0));
+
+		HistoryFeed.Event event = notFound.poll(0);
+		Assert.assertEquals(event.getId(), Long.valueOf(2));
+		JSONObject data = new JSONObject(event.getData());
+		Assert.assertEquals(data.getInt("status"), 404);
+		Assert.assertEquals(data.getString("requestorIP"), "10.0.0.2");
+		Assert.assertNull(notFound.poll(0));
+
+		Assert.assertEquals(fromService.poll(0).getId(), Long.valueOf(2));
+		Assert.assertNull(fromService.poll(0));
+	}
+
+	@Test
+	public void dropsSubscribersThatFallBehind() throws Exception {
+		HistoryFeed feed = new HistoryFeed(2, 10);
+		HistoryFeed.Subscription slow = feed.subscribe(null, null, null);
+		HistoryFeed.Subscription fast = feed.subscribe(null, null, null);
+		for (long id = 1; id <= 5; id++) {
+			feed.publish(request(id, 1L, "10.0.0.1", 200));
+			fast.poll(0);
+		}
+		Assert.assertTrue(slow.isDropped());
+		Assert.assertFalse(fast.isDropped());
+		Assert.assertEquals(feed.getSubscriberCount(), 1);
+		// What was queued before it was dropped can still be read.
+		Assert.assertEquals(slow.poll(0).getId(), Long.valueOf(1));
+		Assert.assertEquals(slow.poll(0).getId(), Long.valueOf(2));
+		Assert.assertNull(slow.poll(0));
+	}
+
+	@Test
+	public void limitsSubscribers() {
+		HistoryFeed feed = new HistoryFeed(10, 2);
+		HistoryFeed.Subscription first = feed.subscribe(null, null, null);
+		Assert.assertNotNull(feed.subscribe(null, null, null));
+		Assert.assertNull(feed.subscribe(null, null, null));
+		first.close();
+		Assert.assertNotNull(feed.subscribe(null, null, null));
+	}
+
+	private static FulfilledClientRequest request(Long id, Long serviceId, String ip, int status) {
+		FulfilledClientRequest request = new FulfilledClientRequest();
+		request.setId(id);
+		request.setServiceId(serviceId);
+		request.setRequestorIP(ip);
+		ResponseFromService response = new ResponseFromService();
+		response.setStatusLine(new BasicStatusLine(HttpVersion.HTTP_1_1, status, null));
+		request.setResponseMessage(response);
+		return request;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.HistoryQuery;
+
+@Test
+public class HistoryIndexTest {
+
+	@Test
+	public void pagesThroughServiceAndIP() {
+		HistoryStore store = new HistoryStore(100, Long.MAX_VALUE);
+		HistoryIndex index = new HistoryIndex(store);
+		for (int i = 0; i < 30; i++) {
+			save(store, index, request((long) (i % 3), "10.0.0." + (i % 2), "body" + i));
+		}
+
+		HistoryQuery query = new HistoryQuery();
+		query.setServiceId(1L);
+		query.setMaxResults(4);
+		// Service 1 got requests 2, 5, 8, ... 29.
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(29L, 26L, 23L, 20L));
+		query.setBeforeId(20L);
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(17L, 14L, 11L, 8L));
+
+		query.setBeforeId(null);
+		query.setRequestorIP("10.0.0.0");
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(29L, 23L, 17L, 11L));
+
+		Assert.assertEquals(index.getRequestorIPs(null), Arrays.asList("10.0.0.0", "10.0.0.1"));
+		Assert.assertEquals(index.getRequestorIPs(1L), Arrays.asList("10.0.0.1", "10.0.0.0"));
+		Assert.assertTrue(index.getRequestorIPs(7L).isEmpty());
+	}
+
+	@Test
+	public void filtersOnTokens() {
+		HistoryStore store = new HistoryStore(100, Long.MAX_VALUE);
+		HistoryIndex index = new HistoryIndex(store);
+		save(store, index, request(1L, "10.0.0.1", "{\"city\": \"Boston\"}"));
+		save(store, index, request(1L, "10.0.0.1", "{\"city\": \"Z\u00fcrich\"}"));
+		save(store, index, request(2L, "10.0.0.2", "{\"city\": \"Boston\", \"state\": \"MA\"}"));
+
+		HistoryQuery query = new HistoryQuery();
+		query.setTokens(Arrays.asList("Boston"));
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(3L, 1L));
+		query.setTokens(Arrays.asList("Boston", "!MA"));
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(1L));
+		query.setTokens(Arrays.asList("Z\u00fcrich"));
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(2L));
+		// Case matters, as it always has for History filters.
+		query.setTokens(Arrays.asList("boston"));
+		Assert.assertTrue(index.find(query).isEmpty());
+		// A token doesn't match across two fields.
+		query.setTokens(Arrays.asList("}10.0.0"));
+		Assert.assertTrue(index.find(query).isEmpty());
+	}
+
+	@Test
+	public void skipsEvictedAndDeletedRequests() {
+		HistoryStore store = new HistoryStore(5, Long.MAX_VALUE);
+		HistoryIndex index = new HistoryIndex(store);
+		for (int i = 0; i < 8; i++) {
+			save(store, index, request(1L, (i < 4) ? "10.0.0.1" : "10.0.0.2", "body" + i));
+		}
+		store.remove(7L);
+		// Saving a request already held changes nothing.
+		index.add(store.get(6L));
+
+		HistoryQuery query = new HistoryQuery();
+		query.setServiceId(1L);
+		Assert.assertEquals(ids(index.find(query)), Arrays.asList(8L, 6L, 5L, 4L));
+		Assert.assertEquals(index.getRequestorIPs(null), Arrays.asList("10.0.0.1", "10.0.0.2"));
+		store.remove(4L);
+		Assert.assertEquals(index.getRequestorIPs(null), Arrays.asList("10.0.0.2"));
+
+		store.clear();
+		index.clear();
+		Assert.assertTrue(index.find(query).isEmpty());
+	}
+
+	@Test
+	public void keepsIdsInOrderWhenAddedOutOfOrder() {
+		HistoryStore store = new HistoryStore(100, Long.MAX_VALUE);
+		HistoryIndex index = new HistoryIndex(store);
+		List<FulfilledClientRequest> saved = new ArrayList<FulfilledClientRequest>();
+		for (int i = 0; i < 20; i++) {
+			saved.add(store.save(request(1L, "10.0.0.1", "body" + i)));
+		}
+		// As if saved concurrently: indexed in a different order than saved.
+		for (int i = saved.size() - 1; i >= 0; i -= 2) {
+			index.add(saved.get(i));
+		}
+		for (int i = 0; i < saved.size(); i += 2) {
+			index.add(saved.get(i));
+		}
+		HistoryQuery query = new HistoryQuery();
+		query.setServiceId(1L);
+		List<Long> ids = ids(index.find(query));
+		Assert.assertEquals(ids.size(), 20);
+		for (int i = 0; i < ids.size(); i++) {
+			Assert.assertEquals(ids.get(i), Long.valueOf(20 - i));
+		}
+	}
+
+	private static void save(HistoryStore store, HistoryIndex index, FulfilledClientRequest request) {
+		index.add(store.save(request));
+	}
+
+	private static List<Long> ids(List<FulfilledClientRequest> requests) {
+		List<Long> ids = new ArrayList<Long>();
+		for (FulfilledClientRequest request : requests) {
+			ids.add(request.getId());
+		}
+		return ids;
+	}
+
+	private static FulfilledClientRequest request(Long serviceId, String ip, String body) {
+		FulfilledClientRequest request = new FulfilledClientRequest();
+		request.setServiceId(serviceId);
+		request.setRequestorIP(ip);
+		request.setClientRequestBody(body);
+		return request;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.FulfilledClientRequest;
+
+@Test
+public class HistoryRecorderTest {
+
+	@Test
+	public void dropsAndCountsWhenQueueIsFull() throws Exception {
+		final CountDownLatch writerBusy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<FulfilledClientRequest> saved = new CopyOnWriteArrayList<FulfilledClientRequest>();
+		HistoryRecorder recorder = new HistoryRecorder(new TestMockeyServiceStore() {
+			public void saveOrUpdateFulfilledClientRequest(FulfilledClientRequest request) {
+				writerBusy.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				saved.add(request);
+			}
+		}, 2, Long.MAX_VALUE, false);
+
+		// The first record occupies the writer, the next two fill the queue.
+		Assert.assertTrue(recorder.record(new FulfilledClientRequest()));
+		Assert.assertTrue(writerBusy.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(recorder.record(new FulfilledClientRequest()));
+		Assert.assertTrue(recorder.record(new FulfilledClientRequest()));
+		Assert.assertFalse(recorder.record(new FulfilledClientRequest()));
+		Assert.assertEquals(recorder.getDroppedCount(), 1);
+
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (saved.size() < 3 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(saved.size(), 3);
+		Assert.assertEquals(recorder.getDroppedCount(), 1);
+	}
+
+	@Test
+	public void dropsWhenQueuedBytesAreOverTheLimit() throws Exception {
+		final CountDownLatch writerBusy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<FulfilledClientRequest> saved = new CopyOnWriteArrayList<FulfilledClientRequest>();
+		long size = largeRequest().getEstimatedSize();
+		HistoryRecorder recorder = new HistoryRecorder(new TestMockeyServiceStore() {
+			public void saveOrUpdateFulfilledClientRequest(FulfilledClientRequest request) {
+				writerBusy.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				saved.add(request);
+			}
+		}, 100, 2 * size, false);
+
+		// Room for plenty of records, but only two requests' worth of bytes.
+		Assert.assertTrue(recorder.record(largeRequest()));
+		Assert.assertTrue(writerBusy.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(recorder.record(largeRequest()));
+		Assert.assertFalse(recorder.record(largeRequest()));
+		Assert.assertEquals(recorder.getDroppedCount(), 1);
+		Assert.assertEquals(recorder.getQueuedBytes(), 2 * size);
+
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((saved.size() < 2 || recorder.getQueuedBytes() > 0) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(saved.size(), 2);
+		Assert.assertEquals(recorder.getQueuedBytes(), 0);
+		Assert.assertTrue(recorder.record(largeRequest()));
+	}
+
+	@Test
+	public void blocksUntilQueuedBytesAreWritten() throws Exception {
+		final CountDownLatch writerBusy = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<FulfilledClientRequest> saved = new CopyOnWriteArrayList<FulfilledClientRequest>();
+		final HistoryRecorder recorder = new HistoryRecorder(new TestMockeyServiceStore() {
+			public void saveOrUpdateFulfilledClientRequest(FulfilledClientRequest request) {
+				writerBusy.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				saved.add(request);
+			}
+		}, 100, largeRequest().getEstimatedSize(), true);
+
+		Assert.assertTrue(recorder.record(largeRequest()));
+		Assert.assertTrue(writerBusy.await(5, TimeUnit.SECONDS));
+		final CountDownLatch recorded = new CountDownLatch(1);
+		new Thread(new Runnable() {
+			public void run() {
+				recorder.record(largeRequest());
+				recorded.countDown();
+			}
+		}).start();
+		Assert.assertFalse(recorded.await(200, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		Assert.assertTrue(recorded.await(5, TimeUnit.SECONDS));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (saved.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(saved.size(), 2);
+		Assert.assertEquals(recorder.getDroppedCount(), 0);
+	}
+
+	private static FulfilledClientRequest largeRequest() {
+		FulfilledClientRequest request = new FulfilledClientRequest();
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 1024; i++) {
+			body.append("0123456789");
+		}
+		request.setClientRequestBody(body.toString());
+		return request;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.FulfilledClientRequest;
+
+@Test
+public class HistoryStoreTest {
+
+	@Test
+	public void evictsOldestWhenFull() {
+		HistoryStore store = new HistoryStore(3, Long.MAX_VALUE);
+		for (int i = 0; i < 5; i++) {
+			store.save(request("body" + i));
+		}
+		List<FulfilledClientRequest> held = store.getOrderedList();
+		Assert.assertEquals(held.size(), 3);
+		Assert.assertEquals(held.get(0).getClientRequestBody(), "body2");
+		Assert.assertEquals(held.get(2).getClientRequestBody(), "body4");
+		Assert.assertNull(store.get(2L));
+		Assert.assertEquals(store.get(5L).getClientRequestBody(), "body4");
+	}
+
+	@Test
+	public void staysWithinByteBudget() {
+		FulfilledClientRequest sample = request("x");
+		long budget = 3 * sample.getEstimatedSize();
+		HistoryStore store = new HistoryStore(100, budget);
+		for (int i = 0; i < 10; i++) {
+			store.save(request("x"));
+		}
+		Assert.assertEquals(store.size(), 3);
+		Assert.assertTrue(store.getTotalBytes() <= budget);
+
+		// The newest request is kept even if it alone is over budget.
+		store.save(request(new String(new char[(int) budget])));
+		Assert.assertEquals(store.size(), 1);
+		Assert.assertEquals(store.getOrderedList().get(0).getId(), Long.valueOf(11));
+	}
+
+	@Test
+	public void removeAndClearReleaseBytes() {
+		HistoryStore store = new HistoryStore(10, Long.MAX_VALUE);
+		FulfilledClientRequest first = store.save(request("a"));
+		store.save(request("b"));
+		Assert.assertSame(store.remove(first.getId()), first);
+		Assert.assertEquals(store.size(), 1);
+		store.clear();
+		Assert.assertEquals(store.size(), 0);
+		Assert.assertEquals(store.getTotalBytes(), 0);
+		Assert.assertEquals(store.save(request("c")).getId(), Long.valueOf(3));
+	}
+
+	@Test
+	public void concurrentAppendsGetUniqueIds() throws Exception {
+		final HistoryStore store = new HistoryStore(1000, Long.MAX_VALUE);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+		for (int t = 0; t < 8; t++) {
+			results.add(pool.submit(new Callable<List<Long>>() {
+				public List<Long> call() {
+					List<Long> ids = new ArrayList<Long>();
+					for (int i = 0; i < 1000; i++) {
+						ids.add(store.save(request("r")).getId());
+					}
+					return ids;
+				}
+			}));
+		}
+		Set<Long> ids = new HashSet<Long>();
+		for (Future<List<Long>> result : results) {
+			ids.addAll(result.get());
+		}
+		pool.shutdown();
+		Assert.assertEquals(ids.size(), 8000);
+		Assert.assertEquals(store.size(), 1000);
+		Assert.assertEquals(store.getTotalBytes(), 1000 * request("r").getEstimatedSize());
+	}
+
+	@Test
+	public void bytesStayExactWhenWritersLapEachOther() throws Exception {
+		// With two slots and eight writers, writers overtake each other all
+		// the time.
+		final HistoryStore store = new HistoryStore(2, Long.MAX_VALUE);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int t = 0; t < 8; t++) {
+			results.add(pool.submit(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 20000; i++) {
+						store.save(request("r"));
+					}
+				}
+			}));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		pool.shutdown();
+		Assert.assertEquals(store.size(), 2);
+		Assert.assertNotNull(store.get(store.getLastId()));
+		Assert.assertEquals(store.getTotalBytes(), 2 * request("r").getEstimatedSize());
+	}
+
+	private static FulfilledClientRequest request(String body) {
+		FulfilledClientRequest request = new FulfilledClientRequest();
+		request.setClientRequestBody(body);
+		return request;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
+import com.mockey.model.Service;
+
+@Test
+public class InMemoryMockeyStorageTest {
+
+	@Test
+	public void indexesAreBuiltFromWhatWasSavedBefore() {
+		InMemoryMockeyStorage store = new InMemoryMockeyStorage();
+		Service weather = store.saveOrUpdateService(service("Weather", "http://example.com/weather", "sunny"));
+		FulfilledClientRequest request = new FulfilledClientRequest();
+		request.setServiceId(weather.getId());
+		request.setServiceName("Weather");
+		request.setClientRequestBody("drizzle");
+		store.saveOrUpdateFulfilledClientRequest(request);
+
+		// Nothing was looked up yet; the first lookups see everything saved.
+		Assert.assertSame(store.getServiceByUrl("http://example.com/weather"), weather);
+		Assert.assertEquals(types(store.search("sunny", 10)), "scenario");
+		Assert.assertEquals(types(store.search("drizzle", 10)), "history");
+
+		// Later changes are applied to the built indexes.
+		Service news = store.saveOrUpdateService(service("News", "http://example.com/news", "headline"));
+		Assert.assertSame(store.getServiceByUrl("http://example.com/news"), news);
+		Assert.assertEquals(types(store.search("headline", 10)), "scenario");
+		store.deleteService(news);
+		Assert.assertEquals(types(store.search("headline", 10)), "");
+	}
+
+	private static Service service(String name, String url, String response) {
+		Service service = new Service();
+		service.setServiceName(name);
+		service.setUrl(url);
+		service.setTransientState(true);
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName("Scenario");
+		scenario.setResponseMessage(response);
+		service.saveOrUpdateScenario(scenario);
+		return service;
+	}
+
+	private static String types(List<SearchResult> results) {
+		StringBuilder types = new StringBuilder();
+		for (SearchResult result : results) {
+			types.append(types.length() > 0 ? "," : "").append(result.getType());
+		}
+		return types.toString();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.FulfilledClientRequest;
+import com.mockey.model.ResponseFromService;
+import com.mockey.model.Scenario;
+import com.mockey.model.SearchResult;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+
+@Test
+public class SearchIndexTest {
+
+	@Test
+	public void findsWordsPrefixesAndPhrases() {
+		SearchIndex index = new SearchIndex(null);
+		Service weather = service(1L, "Weather forecast", "http://api.example.com/weather/v2");
+		scenario(weather, 10L, "Sunny day", "{\"forecast\": \"Sunny and warm\", \"city\": \"Boston\"}");
+		scenario(weather, 11L, "Rain", "{\"outlook\": \"Rain, later sunny\"}");
+		index.put(weather);
+		index.put(service(2L, "Catalog", "http://shop.example.com/catalog"));
+
+		// Every word must match.
+		assertKeys(index.search("sunny boston", 10), "scenario:10");
+		// A name outranks a body.
+		assertKeys(index.search("SUNNY", 10), "scenario:10", "scenario:11");
+		assertKeys(index.search("forec*", 10), "service:1", "scenario:10");
+		assertKeys(index.search("\"later sunny\"", 10), "scenario:11");
+		assertKeys(index.search("\"sunny later\"", 10));
+		assertKeys(index.search("example.com/catalog", 10), "service:2");
+		assertKeys(index.search("example.com/cat*", 10), "service:2");
+		assertKeys(index.search("boston nowhere", 10));
+		assertKeys(index.search("  \"\" *", 10));
+
+		List<SearchResult> results = index.search("boston", 10);
+		Assert.assertEquals(results.get(0).getScenarioName(), "Sunny day");
+		Assert.assertTrue(results.get(0).getContent().contains("Boston"));
+	}
+
+	@Test
+	public void followsChangesToServicesAndScenarios() {
+		SearchIndex index = new SearchIndex(null);
+		Service service = service(1L, "Accounts", "http://api.example.com/accounts");
+		Scenario scenario = scenario(service, 10L, "Overdrawn", "{\"balance\": -20}");
+		scenario(service, 11L, "Frozen", "{\"status\": \"frozen\"}");
+		index.put(service);
+		Assert.assertEquals(index.size(), 3);
+
+		scenario.setResponseMessage("{\"balance\": 1000000}");
+		service.saveOrUpdateScenario(scenario);
+		service.deleteScenario(11L);
+		service.setServiceName("Savings");
+		index.put(service);
+		assertKeys(index.search("20", 10));
+		assertKeys(index.search("1000000", 10), "scenario:10");
+		assertKeys(index.search("frozen", 10));
+		assertKeys(index.search("accounts", 10), "service:1");
+		assertKeys(index.search("savings", 10), "service:1");
+		Assert.assertEquals(index.size(), 2);
+
+		index.remove(1L);
+		Assert.assertEquals(index.size(), 0);
+		assertKeys(index.search("savings", 10));
+	}
+
+	@Test
+	public void dropsRequestsHistoryNoLongerHolds() {
+		HistoryStore history = new HistoryStore(2, Long.MAX_VALUE);
+		SearchIndex index = new SearchIndex(history);
+		for (int i = 1; i <= 3; i++) {
+			FulfilledClientRequest request = new FulfilledClientRequest();
+			request.setServiceName("Orders");
+			request.setRawRequest("http://api.example.com/orders/" + i);
+			ResponseFromService response = new ResponseFromService();
+			response.setBody("{\"order\": \"number" + i + "\"}");
+			request.setResponseMessage(response);
+			history.save(request);
+			index.put(request);
+		}
+		assertKeys(index.search("number1", 10));
+		assertKeys(index.search("number3", 10), "history:3");
+		Assert.assertEquals(index.search("orders", 10).size(), 2);
+		Assert.assertEquals(index.size(), 2);
+
+		history.remove(2L);
+		Assert.assertEquals(index.search("orders", 10).size(), 1);
+		index.removeHistory();
+		Assert.assertEquals(index.size(), 0);
+	}
+
+	private static void assertKeys(List<SearchResult> results, String... keys) {
+		Assert.assertEquals(results.size(), keys.length, "Results: " + results.size());
+		for (int i = 0; i < keys.length; i++) {
+			SearchResult result = results.get(i);
+			String key = result.getType() + ":"
+					+ (result.getFulfilledRequestId() != null ? result.getFulfilledRequestId() : result
+							.getScenarioId() != null ? result.getScenarioId() : result.getServiceId());
+			Assert.assertEquals(key, keys[i]);
+		}
+	}
+
+	private static Service service(Long id, String name, String url) {
+		Service service = new Service();
+		service.setId(id);
+		service.setServiceName(name);
+		service.setUrl(url);
+		service.saveOrUpdateRealServiceUrl(new Url(url + "/real"));
+		return service;
+	}
+
+	private static Scenario scenario(Service service, Long id, String name, String response) {
+		Scenario scenario = new Scenario();
+		scenario.setId(id);
+		scenario.setScenarioName(name);
+		scenario.setResponseMessage(response);
+		return service.saveOrUpdateScenario(scenario);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+
+@Test
+public class ServiceUrlIndexTest {
+
+	private Service service(long id, String mockUrl, String... realUrls) {
+		Service service = new Service();
+		service.setUrl(mockUrl);
+		for (String realUrl : realUrls) {
+			service.saveOrUpdateRealServiceUrl(new Url(realUrl));
+		}
+		service.setId(id);
+		return service;
+	}
+
+	@Test
+	public void findsServiceByMockOrRealUrlIgnoringCase() {
+		ServiceUrlIndex index = new ServiceUrlIndex();
+		index.put(service(1L, "http://mock.example.com/a", "http://real.example.com/b"));
+
+		Assert.assertEquals(index.getExactMatch("HTTP://Mock.Example.com/a "), Long.valueOf(1L));
+		Assert.assertEquals(index.getExactMatch("http://real.example.com/b"), Long.valueOf(1L));
+		Assert.assertNull(index.getExactMatch("http://real.example.com/b/c"));
+	}
+
+	@Test
+	public void prefersSmallestServiceIdWhenUrlsCollide() {
+		ServiceUrlIndex index = new ServiceUrlIndex();
+		index.put(service(7L, "http://example.com/dup"));
+		index.put(service(3L, "http://other.com", "http://example.com/dup"));
+
+		Assert.assertEquals(index.getExactMatch("http://example.com/dup"), Long.valueOf(3L));
+		index.remove(3L);
+		Assert.assertEquals(index.getExactMatch("http://example.com/dup"), Long.valueOf(7L));
+	}
+
+	@Test
+	public void replacesKeysWhenServiceIsReindexed() {
+		ServiceUrlIndex index = new ServiceUrlIndex();
+		Service service = service(1L, "http://example.com/old");
+		index.put(service);
+		service.setUrl("http://example.com/new");
+		index.put(service);
+
+		Assert.assertNull(index.getExactMatch("http://example.com/old"));
+		Assert.assertEquals(index.getExactMatch("http://example.com/new"), Long.valueOf(1L));
+	}
+
+	@Test
+	public void findsLongestPathPrefix() {
+		ServiceUrlIndex index = new ServiceUrlIndex();
+		index.put(service(1L, "http://example.com/users"));
+		index.put(service(2L, "http://example.com/users/admin"));
+
+		Assert.assertEquals(index.getLongestPrefixMatch("http://example.com/users/123"), Long.valueOf(1L));
+		Assert.assertEquals(index.getLongestPrefixMatch("http://example.com/users/admin/9"), Long.valueOf(2L));
+		Assert.assertNull(index.getLongestPrefixMatch("http://example.com/usersX"));
+		Assert.assertNull(index.getLongestPrefixMatch("http://example.org/users/1"));
+	}
+
+	@Test
+	public void prunesTrieNodesLeftEmptyByRemove() {
+		ServiceUrlIndex index = new ServiceUrlIndex();
+		index.put(service(1L, "http://example.com/users"));
+		int nodes = index.getTrieNodeCount();
+		for (long id = 2; id < 1000; id++) {
+			index.put(service(id, "http://example.com/users/" + id + "/orders", "http://other" + id + ".com/a/b"));
+			index.remove(id);
+		}
+		Assert.assertEquals(index.getTrieNodeCount(), nodes);
+		Assert.assertEquals(index.getLongestPrefixMatch("http://example.com/users/2/orders"), Long.valueOf(1L));
+
+		index.remove(1L);
+		Assert.assertEquals(index.getTrieNodeCount(), 1);
+		Assert.assertNull(index.getLongestPrefixMatch("http://example.com/users"));
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+import com.mockey.model.PlanItem;
+import com.mockey.model.ProxyServerModel;
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+import com.mockey.model.ServicePlan;
+import com.mockey.model.ServiceRef;
+import com.mockey.model.TwistInfo;
+import com.mockey.model.Url;
+import com.mockey.storage.IMockeyStorage;
+import com.mockey.storage.InMemoryMockeyStorage;
+import com.mockey.ui.PatternPair;
+
+@Test
+public class MockeyXmlFileConfigurationGeneratorTest {
+
+	@Test
+	public void streamedStoreReadsBack() throws Exception {
+		IMockeyStorage store = createStore();
+		IMockeyStorage read = new MockeyXmlFileConfigurationParser().getMockeyStore(new InputSource(new StringReader(
+				stream(store, true))));
+
+		Assert.assertEquals(read.getServices().size(), store.getServices().size());
+		for (Service expected : store.getServices()) {
+			assertReadBack(read.getServiceByName(expected.getServiceName()), expected);
+		}
+		Assert.assertEquals(read.getProxy().getProxyUrl(), store.getProxy().getProxyUrl());
+		Assert.assertEquals(read.getProxy().isProxyEnabled(), store.getProxy().isProxyEnabled());
+
+		Assert.assertEquals(read.getServicePlans().size(), 1);
+		ServicePlan plan = store.getServicePlans().iterator().next();
+		ServicePlan readPlan = read.getServicePlans().iterator().next();
+		Assert.assertEquals(readPlan.getName(), plan.getName());
+		Assert.assertEquals(readPlan.getDescription(), plan.getDescription());
+		Assert.assertEquals(readPlan.getPlanItemList().size(), 1);
+		PlanItem planItem = plan.getPlanItemList().iterator().next();
+		PlanItem readPlanItem = readPlan.getPlanItemList().iterator().next();
+		Assert.assertEquals(readPlanItem.getServiceId(), planItem.getServiceId());
+		Assert.assertEquals(readPlanItem.getHangTime(), planItem.getHangTime());
+
+		TwistInfo twist = store.getTwistInfoList().iterator().next();
+		TwistInfo readTwist = read.getTwistInfoList().iterator().next();
+		Assert.assertEquals(readTwist.getName(), twist.getName());
+		Assert.assertEquals(readTwist.getPatternPairList().size(), 2);
+		for (int i = 0; i < 2; i++) {
+			Assert.assertEquals(readTwist.getPatternPairList().get(i).getOrigination(), twist.getPatternPairList()
+					.get(i).getOrigination());
+			Assert.assertEquals(readTwist.getPatternPairList().get(i).getDestination(), twist.getPatternPairList()
+					.get(i).getDestination());
+		}
+	}
+
+	@Test
+	public void streamedReferencesReadBack() throws Exception {
+		IMockeyStorage store = createStore();
+		IMockeyStorage read = new MockeyXmlFileConfigurationParser().getMockeyStore(new InputSource(new StringReader(
+				stream(store, false))));
+
+		Assert.assertTrue(read.getServices().isEmpty());
+		List<String> expected = new ArrayList<String>();
+		for (Service service : store.getServices()) {
+			expected.add(MockeyXmlFileManager.getServiceFileNameOutputString(service));
+		}
+		List<String> actual = new ArrayList<String>();
+		for (ServiceRef serviceRef : read.getServiceRefs()) {
+			actual.add(serviceRef.getFileName());
+		}
+		Assert.assertEquals(actual, expected);
+	}
+
+	@Test
+	public void streamedServiceReadsBack() throws Exception {
+		MockeyXmlFileConfigurationGenerator generator = new MockeyXmlFileConfigurationGenerator();
+		for (Service service : createStore().getServices()) {
+			StringWriter out = new StringWriter();
+			generator.writeService(service, out);
+			Collection<Service> read = new MockeyXmlFileConfigurationParser().getMockService(new InputSource(
+					new StringReader(out.toString())));
+			Assert.assertEquals(read.size(), 1);
+			assertReadBack(read.iterator().next(), service);
+		}
+	}
+
+	@Test
+	public void streamedServiceMatchesKnownOutput() throws Exception {
+		Service service = new Service();
+		service.setServiceName("Weather");
+		service.setUrl("http://example.com/weather");
+		service.saveOrUpdateRealServiceUrl(new Url("http://real.example.com/weather"));
+		Scenario scenario = scenario("Sunny & warm", "city=sf", "<weather>a]]>b</weather>");
+		scenario.setId(1L);
+		service.saveOrUpdateScenario(scenario);
+
+		StringWriter out = new StringWriter();
+		new MockeyXmlFileConfigurationGenerator().writeService(service, out);
+		String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+				+ "<mockservice version=\"1.0\" xml:lang=\"en-US\">\n"
+				+ "    <service default_real_url_index=\"0\" default_scenario_id=\"null\" description=\"\" "
+				+ "hang_time=\"0\" http_content_type=\"text/html;charset=utf-8\" name=\"Weather\" service_response_type=\"0\" "
+				+ "url=\"http://example.com/weather\">\n"
+				+ "        <real_url url=\"http://real.example.com/weather\"/>\n"
+				+ "        <scenario id=\"1\" name=\"Sunny &amp; warm\">\n"
+				+ "            <scenario_match><![CDATA[city=sf]]></scenario_match>\n"
+				+ "            <scenario_response><![CDATA[<weather>a]]]]><![CDATA[>b</weather>]]></scenario_response>\n"
+				+ "        </scenario>\n"
+				+ "    </service>\n"
+				+ "</mockservice>\n";
+		Assert.assertEquals(out.toString().replace("\r\n", "\n"), expected);
+	}
+
+	private static void assertReadBack(Service actual, Service expected) {
+		Assert.assertNotNull(actual, expected.getServiceName());
+		Assert.assertEquals(actual.getServiceName(), expected.getServiceName());
+		Assert.assertEquals(emptyIfNull(actual.getDescription()), emptyIfNull(expected.getDescription()));
+		Assert.assertEquals(actual.getUrl(), expected.getUrl());
+		Assert.assertEquals(actual.getHangTime(), expected.getHangTime());
+		Assert.assertEquals(actual.getHangTimeDistribution(), expected.getHangTimeDistribution());
+		Assert.assertEquals(actual.getServiceResponseType(), expected.getServiceResponseType());
+		Assert.assertEquals(actual.getDefaultRealUrlIndex(), expected.getDefaultRealUrlIndex());
+		Assert.assertEquals(actual.getRealServiceUrls().size(), expected.getRealServiceUrls().size());
+		for (int i = 0; i < expected.getRealServiceUrls().size(); i++) {
+			Assert.assertEquals(actual.getRealServiceUrls().get(i).getFullUrl(), expected.getRealServiceUrls().get(i)
+					.getFullUrl());
+		}
+		Assert.assertEquals(actual.getScenarios().size(), expected.getScenarios().size());
+		for (Scenario scenario : expected.getScenarios()) {
+			Scenario readScenario = actual.getScenario(scenario.getId());
+			Assert.assertNotNull(readScenario, scenario.getScenarioName());
+			Assert.assertEquals(readScenario.getScenarioName(), scenario.getScenarioName());
+			// An empty element reads back as an empty string, not null.
+			Assert.assertEquals(emptyIfNull(readScenario.getMatchStringArg()), emptyIfNull(scenario
+					.getMatchStringArg()));
+			Assert.assertEquals(emptyIfNull(readScenario.getResponseMessage()), emptyIfNull(scenario
+					.getResponseMessage()));
+			Assert.assertEquals(readScenario.getMatchPredicates(), scenario.getMatchPredicates());
+		}
+	}
+
+	private static IMockeyStorage createStore() {
+		InMemoryMockeyStorage store = new InMemoryMockeyStorage();
+		ProxyServerModel proxy = new ProxyServerModel();
+		proxy.setProxyUrl("http://proxy.example.com:8080");
+		store.setProxy(proxy);
+
+		Service service = new Service();
+		service.setServiceName("Weather & \"news\" <feed>");
+		service.setDescription("First line\nsecond line\twith a tab");
+		service.setUrl("http://example.com/weather?city=sf&units=metric");
+		service.setHangTimeDistribution("uniform:100-200");
+		service.saveOrUpdateRealServiceUrl(new Url("http://real.example.com/weather"));
+		service.saveOrUpdateScenario(scenario("Sunny", "city=sf", "<weather>sunny & warm</weather>"));
+		service.saveOrUpdateScenario(scenario("Nested CDATA", "a]]>b", "<![CDATA[already]]>"));
+		service.saveOrUpdateScenario(scenario("Unicode", "\u00e9t\u00e9", "{\"text\":\"caf\u00e9 \u2603 \ud83d\ude00\"}"));
+		service.saveOrUpdateScenario(scenario("Empty", null, null));
+		Scenario withPredicates = scenario("Predicates", null, "{}");
+		withPredicates.setMatchPredicates("method: POST\njson: $.city=sf");
+		service.saveOrUpdateScenario(withPredicates);
+		service = store.saveOrUpdateService(service);
+
+		Service other = new Service();
+		other.setServiceName("Empty service");
+		other.setUrl("http://example.com/empty");
+		store.saveOrUpdateService(other);
+
+		ServicePlan plan = new ServicePlan();
+		plan.setName("Plan");
+		plan.setDescription("A plan");
+		PlanItem planItem = new PlanItem();
+		planItem.setServiceId(service.getId());
+		planItem.setHangTime(10);
+		plan.addPlanItem(planItem);
+		store.saveOrUpdateServicePlan(plan);
+
+		TwistInfo twist = new TwistInfo();
+		twist.setName("Twist");
+		twist.addPatternPair(new PatternPair("example.com", "localhost"));
+		twist.addPatternPair(new PatternPair("http://a", "http://b"));
+		store.saveOrUpdateTwistInfo(twist);
+		return store;
+	}
+
+	private static Scenario scenario(String name, String match, String response) {
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName(name);
+		scenario.setMatchStringArg(match);
+		scenario.setResponseMessage(response);
+		return scenario;
+	}
+
+	private static String emptyIfNull(String value) {
+		return value != null ? value : "";
+	}
+
+	private static String stream(IMockeyStorage store, boolean full) throws Exception {
+		StringWriter out = new StringWriter();
+		new MockeyXmlFileConfigurationGenerator().writeStore(store, full, out);
+		return out.toString();
+	}
+}
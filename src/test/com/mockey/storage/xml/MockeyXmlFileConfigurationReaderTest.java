@@ -0,0 +1,74 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+
+@Test
+public class MockeyXmlFileConfigurationReaderTest {
+
+	@Test
+	public void keepsLineBreaksInScenarioResponses() throws Exception {
+		String response = "{\n    \"weather\": \"sunny\",\r\n    \"city\": \"San Francisco\"\n}";
+		Service service = new Service();
+		service.setServiceName("Weather");
+		service.setUrl("http://example.com/weather");
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName("Sunny");
+		scenario.setResponseMessage(response);
+		service.saveOrUpdateScenario(scenario);
+
+		File file = File.createTempFile("mockey", ".xml");
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				new MockeyXmlFileConfigurationGenerator().writeService(service, out);
+			} finally {
+				out.close();
+			}
+
+			Collection<Service> read = new MockeyXmlFileConfigurationReader().readServiceDefinition(file);
+			Assert.assertEquals(read.size(), 1);
+			Scenario readScenario = read.iterator().next().getScenarios().iterator().next();
+			// The parser normalizes CRLF to LF, as for any XML.
+			Assert.assertEquals(readScenario.getResponseMessage(), response.replace("\r\n", "\n"));
+		} finally {
+			file.delete();
+		}
+	}
+}
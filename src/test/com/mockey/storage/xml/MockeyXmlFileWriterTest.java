@@ -0,0 +1,79 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.io.File;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.storage.TestMockeyServiceStore;
+
+@Test
+public class MockeyXmlFileWriterTest {
+
+	@Test
+	public void coalescesChangesIntoOneWrite() throws Exception {
+		File directory = createTempDirectory();
+		File definition = new File(directory, "mock_service_definitions.xml");
+		MockeyXmlFileWriter writer = new MockeyXmlFileWriter(new TestMockeyServiceStore(), definition.getPath(), 200);
+
+		for (int i = 0; i < 100; i++) {
+			writer.markChanged();
+		}
+		Assert.assertFalse(definition.exists());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (writer.getWriteCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(400);
+		Assert.assertEquals(writer.getWriteCount(), 1);
+		Assert.assertTrue(definition.length() > 0);
+		// Only the definition remains; the temporary file was renamed over it.
+		Assert.assertEquals(directory.list().length, 1);
+
+		// Nothing changed since, so nothing to write.
+		writer.flush();
+		Assert.assertEquals(writer.getWriteCount(), 1);
+
+		writer.markChanged();
+		writer.flush();
+		Assert.assertEquals(writer.getWriteCount(), 2);
+
+		definition.delete();
+		directory.delete();
+	}
+
+	private static File createTempDirectory() throws Exception {
+		File directory = File.createTempFile("mockey", "");
+		directory.delete();
+		directory.mkdir();
+		return directory;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Mockey, a tool for testing application 
+ * interactions over HTTP, with a focus on testing web services, 
+ * specifically web applications that consume XML, JSON, and HTML.
+ *  
+ * Copyright (C) 2009-2010  Authors:
+ * 
+ * chad.lafontaine (chad.lafontaine AT gmail DOT com)
+ * neil.cronin (neil AT rackle DOT com) 
+ * lorin.kobashigawa (lkb AT kgawa DOT com)
+ * rob.meyer (rob AT bigdis DOT com)
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.mockey.storage.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.mockey.model.Scenario;
+import com.mockey.model.Service;
+import com.mockey.model.Url;
+import com.mockey.storage.InMemoryMockeyStorage;
+import com.mockey.ui.ServiceMergeResults;
+
+@Test
+public class ServiceMergePlanTest {
+
+	@Test
+	public void mergesIntoServicesSharingARealUrl() {
+		InMemoryMockeyStorage store = new InMemoryMockeyStorage();
+		Service existing = service("Weather", "http://real.example.com/weather");
+		existing.saveOrUpdateScenario(scenario("Sunny", "sun"));
+		existing = store.saveOrUpdateService(existing);
+
+		List<Service> upload = new ArrayList<Service>();
+		Service sameUrl = service("Weather copy", "HTTP://REAL.EXAMPLE.COM/weather");
+		sameUrl.saveOrUpdateRealServiceUrl(new Url("http://backup.example.com/weather"));
+		sameUrl.saveOrUpdateScenario(scenario("SUNNY", "SUN"));
+		sameUrl.saveOrUpdateScenario(scenario("Rainy", "rain"));
+		upload.add(sameUrl);
+		Service news = service("News", "http://real.example.com/news");
+		upload.add(news);
+		// Shares a URL with a service added by this same upload.
+		Service moreNews = service("More news", "http://real.example.com/news");
+		moreNews.saveOrUpdateScenario(scenario("Headlines", "headlines"));
+		upload.add(moreNews);
+
+		ServiceMergeResults results = new ServiceMergeResults();
+		ServiceMergePlan plan = new ServiceMergePlan(store.getServices());
+		plan.addServices(upload, results);
+		Assert.assertEquals(store.getServices().size(), 1, "Planning must not change the store");
+		Assert.assertEquals(existing.getScenarios().size(), 1, "Planning must not change the store");
+		plan.apply(store);
+
+		Assert.assertEquals(store.getServices().size(), 2);
+		Assert.assertEquals(existing.getScenarios().size(), 2);
+		Assert.assertNotNull(existing.getScenario(Long.valueOf(1)), "Existing scenario replaced");
+		Assert.assertEquals(existing.getScenario(Long.valueOf(1)).getScenarioName(), "Sunny");
+		Assert.assertEquals(existing.getRealServiceUrls().size(), 2);
+		Assert.assertEquals(store.getServiceByName("News").getScenarios().size(), 1);
+		Assert.assertNull(store.getServiceByName("More news"));
+
+		Assert.assertEquals(results.getAdditionMessages().toString(), "[Scenario 'Rainy' added to service 'Weather' , "
+				+ "Added real URL: http://backup.example.com/weather, Service 'News' created. , "
+				+ "Scenario 'Headlines' added to service 'News' ]");
+		Assert.assertEquals(results.getConflictMsgs().toString(), "[Service 'Weather copy' not created; will try to "
+				+ "merge into existing service labeled 'Weather' , Scenario 'Sunny' not added, already defined in "
+				+ "service 'Weather' , Real url already defined: http://real.example.com/weather, Service 'More news' "
+				+ "not created; will try to merge into existing service labeled 'News' , Real url already defined: "
+				+ "http://real.example.com/news]");
+	}
+
+	private static Service service(String name, String realUrl) {
+		Service service = new Service();
+		service.setServiceName(name);
+		service.saveOrUpdateRealServiceUrl(new Url(realUrl));
+		return service;
+	}
+
+	private static Scenario scenario(String name, String response) {
+		Scenario scenario = new Scenario();
+		scenario.setScenarioName(name);
+		scenario.setResponseMessage(response);
+		return scenario;
+	}
+}
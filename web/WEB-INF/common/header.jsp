@@ -182,7 +182,7 @@ $(document).ready(function() {
     $('#search_me').each( function() {
         $(this).click( function() {
             var term = $('#search_term').val();
-            document.location="<c:url value="/search?term=" />" + term;
+            document.location="<c:url value="/search?term=" />" + encodeURIComponent(term);
           }); 
        
      });
@@ -190,7 +190,7 @@ $(document).ready(function() {
      $('#search_term').keypress(function(e) {
         if(e.which == 13) {
             var term = $('#search_term').val();
-            document.location="<c:url value="/search?term=" />" + term;
+            document.location="<c:url value="/search?term=" />" + encodeURIComponent(term);
         }
     });
      
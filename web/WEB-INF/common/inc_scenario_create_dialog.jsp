@@ -12,10 +12,11 @@ $(document).ready( function() {
     });
     var name = $("#scenario_name"),
         match = $("#scenario_match"),
+        predicates = $("#scenario_predicates"),
         responsemsg = $("#scenario_response"),
         universal_error_scenario = $('#universal_error_scenario'),
         error_scenario = $('#error_scenario'),
-        allFields = $([]).add(name).add(match).add(universal_error_scenario).add(error_scenario).add(responsemsg),
+        allFields = $([]).add(name).add(match).add(predicates).add(universal_error_scenario).add(error_scenario).add(responsemsg),
         tips = $(".validateTips");  
     
     function updateTips(t) {
@@ -58,6 +59,7 @@ $(document).ready( function() {
             $('#service-name-for-scenario').text(serviceName);
             $('#scenario_name').val('');
             $('#scenario_match').val('');
+            $('#scenario_predicates').val('');
             $('#scenario_response').val(''); 
             $('#universal_error_scenario').attr('checked', false);
             $('#error_scenario').attr('checked', false);
@@ -69,7 +71,7 @@ $(document).ready( function() {
                            allFields.removeClass('ui-state-error');
                            bValid = bValid && checkLength(name,"scenario name",3,1000);
                            if (bValid) {
-                               $.post('<c:url value="/scenario"/>', { scenarioName: name.val(), serviceId: serviceId, matchStringArg: match.val(),
+                               $.post('<c:url value="/scenario"/>', { scenarioName: name.val(), serviceId: serviceId, matchStringArg: match.val(), matchPredicates: predicates.val(),
                                     responseMessage: responsemsg.val(), 
                                     universalErrorScenario: universal_error_scenario.is(':checked'), 
                                     errorScenario: error_scenario.is(':checked')  } ,function(data){
@@ -102,6 +104,7 @@ $(document).ready( function() {
                     $('#service-name-for-scenario').text(data.serviceName);
                     $('#scenario_name').val(data.name);
                     $('#scenario_match').val(data.match);
+                    $('#scenario_predicates').val(data.predicates);
                     $('#scenario_response').val(data.response); 
                     $('#error_scenario').attr('checked', data.scenarioErrorFlag);
                     $('#universal_error_scenario').attr('checked', data.universalScenarioErrorFlag);
@@ -113,7 +116,7 @@ $(document).ready( function() {
                                allFields.removeClass('ui-state-error');
                                bValid = bValid && checkLength(name,"scenario name",3,1000);
                                if (bValid) {
-                                   $.post('<c:url value="/scenario"/>', { scenarioName: name.val(), serviceId: serviceId, scenarioId: scenarioId, matchStringArg: match.val(),
+                                   $.post('<c:url value="/scenario"/>', { scenarioName: name.val(), serviceId: serviceId, scenarioId: scenarioId, matchStringArg: match.val(), matchPredicates: predicates.val(),
                                         responseMessage: responsemsg.val(), universalErrorScenario: universal_error_scenario.is(':checked'), 
                                         errorScenario: error_scenario.is(':checked')  } ,function(data){
                                                console.log(data);
@@ -153,6 +156,8 @@ $(document).ready( function() {
               $('#service-name-for-scenario').text(serviceName);
               $('#scenario_name').val('Give this a name');
               $('#scenario_match').val('');
+              $('#scenario_predicates').val('');
+            $('#scenario_predicates').val('');
               $('#scenario_response').val(data.responseBody); 
             }
         });
@@ -166,7 +171,7 @@ $(document).ready( function() {
                        allFields.removeClass('ui-state-error');
                        bValid = bValid && checkLength(name,"scenario name",3,1000);
                        if (bValid) {
-                           $.post('<c:url value="/scenario"/>', { scenarioName: name.val(), serviceId: serviceId, matchStringArg: match.val(),
+                           $.post('<c:url value="/scenario"/>', { scenarioName: name.val(), serviceId: serviceId, matchStringArg: match.val(), matchPredicates: predicates.val(),
                                 responseMessage: responsemsg.val(), universalErrorScenario: universal_error_scenario.val(), 
                                     errorScenario: error_scenario.val()  } ,function(data){
                                     
@@ -196,6 +201,8 @@ $(document).ready( function() {
         <input type="text" name="scenario_name" id="scenario_name" class="text ui-widget-content ui-corner-all" />
         <label for="scenario_match">Match argument</label>
         <input type="text" name="scenario_match" id="scenario_match" class="text ui-widget-content ui-corner-all" />
+        <label for="scenario_predicates">Match predicates (one per line, see <a style="color:blue;" href="<c:url value="/help#scenario"/>">help</a>)</label>
+        <textarea name="scenario_predicates" id="scenario_predicates" class="text ui-widget-content ui-corner-all resizable" rows="3"></textarea>
         <div class="tinyfieldset childform" style="margin-bottom: 1em;">
                 <input type="checkbox" name="universal_error_scenario" id="universal_error_scenario" value="true">Universal Error Response</input>
                 <br />
@@ -99,6 +99,23 @@
 		  scenario's response message will be returned. If no scenario is found with a matching argument, a plain text error message will display.
 		  You only need to define a match argument per service scenario for dynamic scenarios.
 	    </p>
+	    <p>
+	    A dynamic scenario can also declare <b>match predicates</b>, one per line, all of which must hold for the scenario to match.
+	    A scenario with predicates doesn't need a match argument.
+	    </p>
+	    <pre>
+method: POST                         HTTP method
+path: /orders/{id}/items             request path; {name} or * stands for one segment
+query: type=book                     request parameter
+header: Content-Type=application/json*
+cookie: session                      cookie is present
+json: $.order.items[0].sku=ABC-1     value in a JSON request body
+xpath: //symbol = 'IBM'              XPath on an XML or SOAP request body
+	    </pre>
+	    <p>
+	    Leave out <i>=value</i> to only check that a parameter, header, cookie or JSON value is present. Values may use <i>*</i> as a wildcard.
+	    XPath ignores namespaces; use <i>local-name()</i> for prefixed SOAP elements, e.g. <i>//*[local-name()='symbol'] = 'IBM'</i>.
+	    </p>
 	    <p><img src="<c:url value="/images/dynamic_response.png" />" /></p>
     </div>
     <div class="help_section">
@@ -142,7 +159,12 @@
 	            <div class="code">http://127.0.0.1:8080/service/http://<b>qa1</b>.mystartup.com/catalog/list</div>
 	            ..and then proxy that request. 
 	            </p>
-	            
+	            <p>
+	            Patterns are matched literally, so the dots above only match dots, and the first one found in the
+	            URL wins. A pattern with other regular expression characters, e.g. <b>uat[0-9]\.(.*)</b>, is
+	            matched as a regular expression and its replacement may use groups, e.g. <b>qa1.$1</b>. The
+	            Twisting page shows how many requests each pattern has twisted.
+	            </p>
 	        </div>
 	    </p>
 	</div>
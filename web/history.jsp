@@ -135,6 +135,43 @@ $(document).ready(function() {
 	});
 
    
+    var liveHistory = null;
+    var stopLiveHistory = function(message) {
+        liveHistory.close();
+        liveHistory = null;
+        $('#live-history').text('Watch live');
+        if (message) {
+            $('#live-history-list').prepend($('<li/>').text(message));
+        }
+    };
+    $('#live-history').click( function() {
+        if (liveHistory) {
+            stopLiveHistory();
+            return false;
+        }
+        if (!window.EventSource) {
+            alert('Your browser does not support live streams.');
+            return false;
+        }
+        $('#live-history-panel').show();
+        liveHistory = new EventSource('<c:url value="/history/stream"/>');
+        liveHistory.onmessage = function(e) {
+            var request = $.parseJSON(e.data);
+            var link = $('<a/>').attr('href', '<c:url value="/inspect"/>?content_type=text/plain&fulfilledRequestId=' + request.conversationRecordId)
+                .text(request.requestUrl);
+            $('#live-history-list').prepend($('<li/>')
+                .text(new Date(request.time).toLocaleTimeString() + ' ' + request.requestorIP + ' '
+                    + (request.status ? request.status + ' ' : '') + request.serviceName + ' ')
+                .append(link));
+            $('#live-history-list li:gt(99)').remove();
+        };
+        liveHistory.addEventListener('dropped', function() {
+            stopLiveHistory('Stopped: this page fell too far behind. Watch live again to catch up.');
+        }, false);
+        $(this).text('Stop watching');
+        return false;
+    });
+
     $("#dialog-clear-history-confirm").dialog({
         resizable: false,
         height:120,
@@ -183,8 +220,12 @@ $(document).ready(function() {
     <c:if test="${!empty historyFilter.tokens}">  
        <a class="spread" href="<c:url value="/history?action=remove_all_tokens"/>">Clear Filters</a>
     </c:if>
+    <a id="live-history" class="spread" href="#" title="Show requests as Mockey serves them">Watch live</a>
     </p>
     </form>
+    <div id="live-history-panel" class="hint_message" style="display:none;">
+    <ul id="live-history-list" class="tiny"></ul>
+    </div>
     <c:if test="${!empty historyFilter.tokens}">    
     <p class="tiny">You are filtering your history on:<span style="float:right;"><strong>Hint:</strong> Try filtering with <i>bang + term</i>, example: <span class="code_text"><b>!term</b></span></span></p>
     <div class="hint_message">
@@ -282,6 +323,17 @@ $(document).ready(function() {
                    </div>                   
                 </div>
             </c:forEach>
+            <p>
+            <c:if test="${!isNewestPage}">
+              <a href="<c:url value="/history"/>">Newest requests</a>
+            </c:if>
+            <c:if test="${!empty olderBeforeId}">
+              <c:url value="/history" var="olderRequestsUrl">
+                 <c:param name="before" value="${olderBeforeId}" />
+              </c:url>
+              <a class="spread" href="<c:out value="${olderRequestsUrl}"/>">Older requests</a>
+            </c:if>
+            </p>
         </c:when>
         <c:otherwise>
             <p class="info_message">No history here. It's because no one talks to Mockey or someone just cleared the history. Mockey is feeling unwanted.</p>
@@ -9,6 +9,7 @@
 <div id="main">
     <%@ include file="/WEB-INF/common/message.jsp"%>     
     <p><h1>Search Results</h1></p> 
+    <p class="tiny">Every word must match. Use <b>word*</b> to match the start of a word and <b>"quotes"</b> for a phrase.</p>
     
         <c:choose>
         <c:when test="${not empty results}"> 
@@ -30,6 +31,14 @@
                    (<b>Scenario</b>: ${resultItem.scenarioName})
                    <a href="${serviceUrl}">[link]</a>
               </c:if>
+              <c:if test="${resultItem.type eq 'history'}">
+                   <c:url value="/inspect" var="inspectUrl">
+                    <c:param name="fulfilledRequestId" value="${resultItem.fulfilledRequestId}" />
+                    <c:param name="content_type" value="text/plain" />
+                   </c:url>
+                   (<b>History</b>)
+                   <a href="${inspectUrl}">[response]</a>
+              </c:if>
        		  
        		   </li>
        		</c:forEach>
@@ -43,11 +43,12 @@
 			        realUrl = $("#service_real_url"),
 			        serviceName = $("#service_name"),
 			        hangtime = $("#hang_time"),
+			        hangtimeDistribution = $("#hang_time_distribution"),
 			        serviceContentType = $("#service_http_content_type");
 			 
 			   $.post('<c:url value="/setup"/>', { serviceName: serviceName.val(), serviceId: serviceId.val(),
 				   'realServiceUrl[]':  realServiceUrlValues, url: url.val(), httpContentType: serviceContentType.val(),
-				   hangTime: hangtime.val() } ,function(data){
+				   hangTime: hangtime.val(), hangTimeDistribution: hangtimeDistribution.val() } ,function(data){
 					   
 					   if (data.result.redirect){
 						   window.location.replace(data.result.redirect);
@@ -69,6 +70,10 @@
 							message = message + '<div>' + data.result.serviceUrlMsg+'</div>' 
 							                  + '<div style="color:red;" >' + data.result.serviceUrl + '</div>';
 						}
+						if(data.result.hangTimeDistribution){
+							$("#hang_time_distribution").addClass('ui-state-error');
+							message = message + '<div>' + data.result.hangTimeDistribution +'</div>';
+						}
 						
 						
 						
@@ -145,6 +150,9 @@
                 <label for="service_url">Hang time: </label>
                 <input type="text" id="hang_time" class="text ui-corner-all ui-widget-content" style="width:100px;" name="hangtime" maxlength="20" size="30px" value="<c:out value="${mockservice.hangTime}"/>" />
                 <div class="tinyfieldset">The delay time in milliseconds.</div>
+                <label for="hang_time_distribution">Hang time distribution (optional): </label>
+                <input type="text" id="hang_time_distribution" class="text ui-corner-all ui-widget-content" style="width:250px;" name="hangtimeDistribution" maxlength="200" size="30px" value="<c:out value="${mockservice.hangTimeDistribution}"/>" />
+                <div class="tinyfieldset">Varies the delay per request instead of the fixed hang time, e.g. <i>uniform:200-800</i>, <i>normal:500,100</i> or <i>percentile:50=100,90=400,99=2000</i>.</div>
                 <label>HTTP header definition:</label>
 	            <select id="service_http_content_type" name="httpContentType">
 	                        <option value="" <c:if test="${mockservice.httpContentType eq ''}">selected="selected"</c:if>>[select]</option>
@@ -200,10 +200,10 @@ $(document).ready( function() {
                      <a id="toggle-twist-off_${twistInfo.id}_false" class="toggletwist toggle-twist-off <c:if test="${twistInfoIdEnabled eq twistInfo.id}">response_not</c:if> <c:if test="${twistInfoIdEnabled ne twistInfo.id}">response_set</c:if>" style="text-decoration:none; margin-left:2px;margin-right:2px;" href="#"> Off </a>
                  </p>
                  <table class="api">
-                   <tr><th>Find this pattern...</th><th>Replace with this...</th></tr>
+                   <tr><th>Find this pattern...</th><th>Replace with this...</th><th>Hits</th></tr>
 	                 <c:forEach var="patternPair" items="${twistInfo.patternPairList}" >  
 	                   <tr>
-	                     <td>${patternPair.origination } </td><td> ${patternPair.destination } </td>
+	                     <td>${patternPair.origination } </td><td> ${patternPair.destination } </td><td>${patternPair.hits}</td>
 	                   </tr> 
 	                 </c:forEach>
                   </table>